@@ -25,9 +25,13 @@ import com.google.devtools.build.lib.worker.WorkerProtocol.WorkResponse;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintStream;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * The JavaBuilder main called by bazel.
@@ -36,6 +40,12 @@ public abstract class BazelJavaBuilder {
 
   private static final String CMDNAME = "BazelJavaBuilder";
 
+  /** How many multiplexed requests may finish between two garbage collections. */
+  private static final int MULTIPLEXED_REQUESTS_PER_GC = 10;
+
+  private static final AtomicInteger multiplexedRequestsInFlight = new AtomicInteger();
+  private static final AtomicInteger multiplexedRequestsSinceGc = new AtomicInteger();
+
   /**
    * The main method of the BazelJavaBuilder.
    */
@@ -44,13 +54,14 @@ public abstract class BazelJavaBuilder {
       System.exit(runPersistentWorker());
     } else {
       // This is a single invocation of JavaBuilder that exits after it processed the request.
-      System.exit(processRequest(Arrays.asList(args)));
+      System.exit(processRequest(Arrays.asList(args), System.err));
     }
   }
 
   private static int runPersistentWorker() {
     PrintStream originalStdOut = System.out;
     PrintStream originalStdErr = System.err;
+    ExecutorService multiplexedRequests = null;
 
     while (true) {
       try {
@@ -60,6 +71,18 @@ public abstract class BazelJavaBuilder {
           break;
         }
 
+        if (request.getRequestId() != 0) {
+          if (multiplexedRequests == null) {
+            // Requests are processed concurrently from now on, so stdout is reserved for the
+            // responses; anything else printed to it goes to stderr instead.
+            System.setOut(originalStdErr);
+            multiplexedRequests = Executors.newCachedThreadPool();
+          }
+          multiplexedRequestsInFlight.incrementAndGet();
+          multiplexedRequests.execute(new MultiplexedRequest(request, originalStdOut));
+          continue;
+        }
+
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         PrintStream ps = new PrintStream(baos, true);
         // Make sure that we exit nonzero in case an exception occurs during processRequest.
@@ -69,7 +92,7 @@ public abstract class BazelJavaBuilder {
         System.setOut(ps);
         System.setErr(ps);
         try {
-          exitCode = processRequest(request.getArgumentsList());
+          exitCode = processRequest(request.getArgumentsList(), System.err);
         } finally {
           System.setOut(originalStdOut);
           System.setErr(originalStdErr);
@@ -87,26 +110,85 @@ public abstract class BazelJavaBuilder {
       } finally {
         // JavaBuilder doesn't close certain file handles. We have to migrate to using the real
         // Jsr199 API instead of just calling the Main method of Javac in order to fix this, for
-        // now let's just invoke GC.
-        System.gc();
+        // now let's just invoke GC. Multiplexed requests do so when they finish.
+        if (multiplexedRequests == null) {
+          System.gc();
+        }
       }
     }
 
     return 0;
   }
 
-  private static int processRequest(List<String> args) {
+  /**
+   * Processes a request that was sent along with others, and writes the response, tagged with the
+   * request id, as soon as it is done.
+   */
+  private static final class MultiplexedRequest implements Runnable {
+    private final WorkRequest request;
+    private final OutputStream responses;
+
+    MultiplexedRequest(WorkRequest request, OutputStream responses) {
+      this.request = request;
+      this.responses = responses;
+    }
+
+    @Override
+    public void run() {
+      ByteArrayOutputStream baos = new ByteArrayOutputStream();
+      PrintStream ps = new PrintStream(baos, true);
+      int exitCode = 1;
+      try {
+        exitCode = processRequest(request.getArgumentsList(), ps);
+      } catch (RuntimeException e) {
+        // Blaze waits for a response to every request, so this must not kill the thread silently.
+        e.printStackTrace(ps);
+      }
+
+      WorkResponse response = WorkResponse.newBuilder()
+          .setOutput(baos.toString())
+          .setExitCode(exitCode)
+          .setRequestId(request.getRequestId())
+          .build();
+      try {
+        synchronized (responses) {
+          response.writeDelimitedTo(responses);
+          responses.flush();
+        }
+      } catch (IOException e) {
+        // Blaze is gone.
+        e.printStackTrace();
+        System.exit(1);
+      }
+      maybeCollectGarbage();
+    }
+  }
+
+  /**
+   * Invokes GC, for the same reason as after a request that is not multiplexed, when no other
+   * multiplexed request is running, or else after every {@link #MULTIPLEXED_REQUESTS_PER_GC}
+   * requests, so that a worker that is never idle still closes the file handles.
+   */
+  private static void maybeCollectGarbage() {
+    boolean idle = multiplexedRequestsInFlight.decrementAndGet() == 0;
+    if (idle || multiplexedRequestsSinceGc.incrementAndGet() >= MULTIPLEXED_REQUESTS_PER_GC) {
+      multiplexedRequestsSinceGc.set(0);
+      System.gc();
+    }
+  }
+
+  private static int processRequest(List<String> args, PrintStream err) {
     try {
       JavaLibraryBuildRequest build = parse(args);
       AbstractJavaBuilder builder = build.getDependencyModule().reduceClasspath()
           ? new ReducedClasspathJavaLibraryBuilder()
           : new SimpleJavaLibraryBuilder();
-      builder.run(build, System.err);
+      builder.run(build, err);
     } catch (InvalidCommandLineException e) {
-      System.err.println(CMDNAME + " threw exception: " + e.getMessage());
+      err.println(CMDNAME + " threw exception: " + e.getMessage());
       return 1;
     } catch (IOException e) {
-      e.printStackTrace();
+      e.printStackTrace(err);
       return 1;
     }
     return 0;
@@ -52,6 +52,9 @@ BlazeStartupOptions::BlazeStartupOptions(const BlazeStartupOptions &rhs)
       skyframe(rhs.skyframe),
       blaze_cpu(rhs.blaze_cpu),
       watchfs(rhs.watchfs),
+      compact_skyframe_graph(rhs.compact_skyframe_graph),
+      fork_join_skyframe_evaluator(rhs.fork_join_skyframe_evaluator),
+      digest_function(rhs.digest_function),
       allow_configurable_attributes(rhs.allow_configurable_attributes),
       option_sources(rhs.option_sources),
       webstatus_port(rhs.webstatus_port),
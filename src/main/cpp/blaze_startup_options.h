@@ -153,6 +153,16 @@ class BlazeStartupOptions {
   // If true, Blaze will listen to OS-level file change notifications.
   bool watchfs;
 
+  // If true, the server stores the edges of the Skyframe graph as int ids.
+  bool compact_skyframe_graph;
+
+  // If true, the server evaluates Skyframe nodes in a work-stealing pool.
+  bool fork_join_skyframe_evaluator;
+
+  // The hash function the server digests files with, or empty for its
+  // default.
+  string digest_function;
+
   // Temporary experimental flag that permits configurable attribute syntax
   // in BUILD files. This will be removed when configurable attributes is
   // a more stable feature.
@@ -50,6 +50,9 @@ void BlazeStartupOptions::Init() {
   max_idle_secs = testing ? 5 : (3 * 3600);
   webstatus_port = 0;
   watchfs = false;
+  compact_skyframe_graph = false;
+  fork_join_skyframe_evaluator = false;
+  digest_function = "";
 }
 
 string BlazeStartupOptions::GetHostJavabase() {
@@ -80,6 +83,9 @@ void BlazeStartupOptions::Copy(
   lhs->blaze_cpu = rhs.blaze_cpu;
   lhs->webstatus_port = rhs.webstatus_port;
   lhs->watchfs = rhs.watchfs;
+  lhs->compact_skyframe_graph = rhs.compact_skyframe_graph;
+  lhs->fork_join_skyframe_evaluator = rhs.fork_join_skyframe_evaluator;
+  lhs->digest_function = rhs.digest_function;
   lhs->allow_configurable_attributes = rhs.allow_configurable_attributes;
   lhs->fatal_event_bus_exceptions = rhs.fatal_event_bus_exceptions;
   lhs->option_sources = rhs.option_sources;
@@ -206,6 +212,17 @@ blaze_exit_code::ExitCode BlazeStartupOptions::ProcessArg(
   } else if (GetNullaryOption(arg, "--watchfs")) {
     watchfs = true;
     option_sources["watchfs"] = rcfile;
+  } else if (GetNullaryOption(arg, "--experimental_compact_skyframe_graph")) {
+    compact_skyframe_graph = true;
+    option_sources["experimental_compact_skyframe_graph"] = rcfile;
+  } else if (GetNullaryOption(arg,
+                              "--experimental_fork_join_skyframe_evaluator")) {
+    fork_join_skyframe_evaluator = true;
+    option_sources["experimental_fork_join_skyframe_evaluator"] = rcfile;
+  } else if ((value = GetUnaryOption(
+      arg, next_arg, "--digest_function")) != NULL) {
+    digest_function = value;
+    option_sources["digest_function"] = rcfile;
   } else if ((value = GetUnaryOption(
       arg, next_arg, "--use_webstatusserver")) != NULL) {
     if (!blaze_util::safe_strto32(value, &webstatus_port) ||
@@ -22,6 +22,8 @@ import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
+import com.google.common.hash.Funnel;
+import com.google.common.hash.PrimitiveSink;
 import com.google.devtools.build.lib.actions.Action.MiddlemanType;
 import com.google.devtools.build.lib.concurrent.ThreadSafety.Immutable;
 import com.google.devtools.build.lib.syntax.Label;
@@ -89,6 +91,18 @@ public class Artifact implements FileType.HasFilename, ActionInput {
     }
   };
 
+  /**
+   * Writes the length and characters of the exec path of an artifact, for fingerprinting nested
+   * sets of artifacts.
+   */
+  public static final Funnel<Artifact> EXEC_PATH_FUNNEL = new Funnel<Artifact>() {
+    @Override
+    public void funnel(Artifact from, PrimitiveSink into) {
+      String execPath = from.getExecPathString();
+      into.putInt(execPath.length()).putUnencodedChars(execPath);
+    }
+  };
+
   /** An object that can expand middleman artifacts. */
   public interface MiddlemanExpander {
 
@@ -0,0 +1,123 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.actions;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Splitter;
+import com.google.common.io.Files;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadCompatible;
+import com.google.devtools.build.lib.util.ProcMeminfoParser;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+
+/**
+ * Samples how much of the local host's CPU and memory is actually in use, as opposed to how much
+ * the running actions were estimated to use. Used by the adaptive mode of the
+ * {@link ResourceManager}.
+ */
+@ThreadCompatible
+public class LocalHostLoad {
+  private static final Splitter NEWLINE_SPLITTER = Splitter.on('\n').omitEmptyStrings();
+  private static final Splitter FIELD_SPLITTER = Splitter.on(' ').omitEmptyStrings();
+
+  private final String statFile;
+  private final String meminfoFile;
+
+  // CPU time counters of the previous sample, in clock ticks summed over all cores.
+  private long lastIdleTicks = -1;
+  private long lastTotalTicks = -1;
+
+  public LocalHostLoad() {
+    this("/proc/stat", ProcMeminfoParser.FILE);
+  }
+
+  @VisibleForTesting
+  LocalHostLoad(String statFile, String meminfoFile) {
+    this.statFile = statFile;
+    this.meminfoFile = meminfoFile;
+  }
+
+  /**
+   * Returns how many CPU cores were idle on average since the previous call. The first call
+   * measures the time since the host was booted.
+   */
+  public double getIdleCpus() throws IOException {
+    String content = Files.toString(new File(statFile), Charset.defaultCharset());
+    long[] ticks = parseCpuTicks(content);
+    long idle = ticks[0];
+    long total = ticks[1];
+    int cpus = (int) ticks[2];
+    long idleDelta = idle - Math.max(lastIdleTicks, 0);
+    long totalDelta = total - Math.max(lastTotalTicks, 0);
+    lastIdleTicks = idle;
+    lastTotalTicks = total;
+    if (totalDelta <= 0) {
+      // The counters did not advance; report the host as busy rather than guess.
+      return 0;
+    }
+    return cpus * (double) idleDelta / totalDelta;
+  }
+
+  /**
+   * Returns how much memory new processes could allocate without making the host swap, in MB.
+   */
+  public double getAvailableMemoryMb() throws IOException {
+    return ProcMeminfoParser.kbToMb(new ProcMeminfoParser(meminfoFile).getAvailableKb());
+  }
+
+  /**
+   * Returns the idle ticks, the total ticks, and the number of cores, parsed from the content of
+   * /proc/stat. Time waiting for I/O counts as idle, since another process could use the core.
+   */
+  @VisibleForTesting
+  static long[] parseCpuTicks(String statContent) throws IOException {
+    long idle = -1;
+    long total = 0;
+    int cpus = 0;
+    for (String line : NEWLINE_SPLITTER.split(statContent)) {
+      if (line.startsWith("cpu ")) {
+        Iterator<String> fields = FIELD_SPLITTER.split(line).iterator();
+        fields.next();
+        // user nice system idle iowait irq softirq steal [guest guest_nice]; guest time is
+        // already included in user time.
+        for (int i = 0; i < 8 && fields.hasNext(); i++) {
+          long value = parseTicks(fields.next());
+          total += value;
+          if (i == 3) {
+            idle = value;
+          } else if (i == 4) {
+            idle += value;
+          }
+        }
+      } else if (line.startsWith("cpu")) {
+        cpus++;
+      }
+    }
+    if (idle < 0 || cpus == 0) {
+      throw new IOException("Can't locate cpu times in /proc/stat");
+    }
+    return new long[] {idle, total, cpus};
+  }
+
+  private static long parseTicks(String field) throws IOException {
+    try {
+      return Long.parseLong(field);
+    } catch (NumberFormatException e) {
+      throw new IOException("Malformed cpu time in /proc/stat: " + field);
+    }
+  }
+}
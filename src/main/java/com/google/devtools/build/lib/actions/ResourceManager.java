@@ -16,16 +16,25 @@ package com.google.devtools.build.lib.actions;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
 import com.google.common.eventbus.EventBus;
 import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
 import com.google.devtools.build.lib.profiler.Profiler;
 import com.google.devtools.build.lib.profiler.ProfilerTask;
-import com.google.devtools.build.lib.util.Pair;
+import com.google.devtools.build.lib.util.BlazeClock;
 
+import java.io.IOException;
+import java.util.HashMap;
 import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
 
 /**
  * Used to keep track of resources consumed by the Blaze action execution threads and throttle them
@@ -54,10 +63,23 @@ import java.util.concurrent.CountDownLatch;
  * guarantees that at least one thread will always be able to acquire any amount of requested
  * resources (even if it is greater than amount of available resources). Therefore, assuming that
  * threads correctly release acquired resources, Blaze will never be fully blocked.
+ *
+ * <p>Blocked threads are granted resources in the order of the priority they asked for, and in
+ * the order they asked within a priority. A request that does not fit does not hold back the
+ * requests behind it.
+ *
+ * <p>In the adaptive mode, the resource manager also samples how much CPU and memory the local
+ * host actually has left every {@link #SAMPLE_INTERVAL_MILLIS}, and does not hand out more than
+ * that, so that other processes on the host and actions that use more than estimated are taken
+ * into account. It also replaces the memory estimate of each action with the peak memory that
+ * recent spawns of the same mnemonic were observed to use, as reported to
+ * {@link #recordPeakMemory}.
  */
 @ThreadSafe
 public class ResourceManager {
 
+  private static final Logger LOG = Logger.getLogger(ResourceManager.class.getName());
+
   private EventBus eventBus;
 
   private final ThreadLocal<Boolean> threadLocked = new ThreadLocal<Boolean>() {
@@ -92,9 +114,60 @@ public class ResourceManager {
   private static final double MIN_NECESSARY_RAM_RATIO = 1.0;
   private static final double MIN_NECESSARY_IO_RATIO = 1.0;
 
-  // List of blocked threads. Associated CountDownLatch object will always
-  // be initialized to 1 during creation in the acquire() method.
-  private final List<Pair<ResourceSet, CountDownLatch>> requestList;
+  // How often the load of the local host is sampled in the adaptive mode. Blocked threads also
+  // poll at this interval, since the load can fall without any resources being released.
+  private static final long SAMPLE_INTERVAL_MILLIS = 500;
+
+  // Learned memory estimates are padded by this factor, since a later spawn of the same mnemonic
+  // may well use more than the earlier ones.
+  private static final double LEARNED_MEMORY_HEADROOM = 1.25;
+
+  // Each new observation replaces the learned peak memory of a mnemonic if it is larger than the
+  // old peak decayed by this factor, so that estimates recover from one-off outliers.
+  private static final double LEARNED_MEMORY_DECAY = 0.9;
+
+  /** A request for resources, which may have to wait in the queue. */
+  private static final class ResourceRequest implements Comparable<ResourceRequest> {
+    final ActionMetadata owner;
+    final ResourceSet resources;
+    final boolean learned;
+    final int priority;
+    final long sequenceNumber;
+    final CountDownLatch latch = new CountDownLatch(1);
+
+    // Set under the resource manager's lock.
+    boolean waited;
+    // Describes the state of the resource manager when the request was granted, if profiling.
+    @Nullable String admission;
+
+    ResourceRequest(ActionMetadata owner, ResourceSet resources, boolean learned, int priority,
+        long sequenceNumber) {
+      this.owner = owner;
+      this.resources = resources;
+      this.learned = learned;
+      this.priority = priority;
+      this.sequenceNumber = sequenceNumber;
+    }
+
+    /** Whether the request needs neither CPU nor memory. */
+    boolean isLight() {
+      return resources.getCpuUsage() == 0 && resources.getMemoryMb() == 0;
+    }
+
+    @Override
+    public int compareTo(ResourceRequest other) {
+      if (priority != other.priority) {
+        return priority > other.priority ? -1 : 1;
+      }
+      return Long.compare(sequenceNumber, other.sequenceNumber);
+    }
+  }
+
+  // Blocked threads, highest priority first.
+  private final TreeSet<ResourceRequest> requestQueue;
+  private long requestCount;
+  // The number of blocked requests that are isLight().
+  private int lightRequestCount;
 
   // The total amount of resources on the local host. Must be set by
   // an explicit call to setAvailableResources(), often using
@@ -123,8 +196,27 @@ public class ResourceManager {
   public static final int DEFAULT_RAM_UTILIZATION_PERCENTAGE = 67;
   private int ramUtilizationPercentage = DEFAULT_RAM_UTILIZATION_PERCENTAGE;
 
+  // Samples the load of the local host. Null unless in the adaptive mode.
+  @Nullable private volatile LocalHostLoad hostLoad;
+  private volatile boolean hasLoadSample;
+  private volatile long lastSampleNanos;
+  // Set while a thread samples the load, so that the others don't sample it too.
+  private final AtomicBoolean sampling = new AtomicBoolean();
+
+  // The CPU and RAM capacity measured by the last sample: what was used by acquired resources
+  // plus what was idle at the time.
+  private double sampledCpuCapacity;
+  private double sampledRamCapacity;
+
+  // The learned peak memory of each mnemonic, in MB.
+  private final Map<String, Double> learnedMemoryMb = new HashMap<>();
+
+  // The resources actually acquired by owners whose memory estimate was replaced by a learned
+  // one, so that they are released instead of the original estimate.
+  private final Map<ActionMetadata, ResourceSet> learnedResources = Maps.newIdentityHashMap();
+
   private ResourceManager() {
-    requestList = new LinkedList<>();
+    requestQueue = new TreeSet<>();
   }
 
   @VisibleForTesting public static ResourceManager instanceForTestingOnly() {
@@ -141,11 +233,13 @@ public class ResourceManager {
     usedRam = 0;
     usedIo = 0;
     usedLocalTestCount = 0;
-    for (Pair<ResourceSet, CountDownLatch> request : requestList) {
+    for (ResourceRequest request : requestQueue) {
       // CountDownLatch can be set only to 0 or 1.
-      request.second.countDown();
+      request.latch.countDown();
     }
-    requestList.clear();
+    requestQueue.clear();
+    lightRequestCount = 0;
+    learnedResources.clear();
   }
 
   /**
@@ -171,20 +265,63 @@ public class ResourceManager {
     ramUtilizationPercentage = percentage;
   }
 
+  /**
+   * Switches the adaptive mode on or off. The learned memory estimates are kept either way.
+   */
+  public void setAdaptive(boolean adaptive) {
+    if (adaptive != (hostLoad != null)) {
+      setLocalHostLoad(adaptive ? new LocalHostLoad() : null);
+    }
+  }
+
+  @VisibleForTesting
+  synchronized void setLocalHostLoad(@Nullable LocalHostLoad hostLoad) {
+    this.hostLoad = hostLoad;
+    hasLoadSample = false;
+    processWaitingThreads();
+  }
+
+  /** Whether spawns should report their peak memory to {@link #recordPeakMemory}. */
+  public boolean learnsPeakMemory() {
+    return hostLoad != null;
+  }
+
+  /**
+   * Records that a spawn of an action with the given mnemonic used up to {@code memoryMb} of
+   * memory, for the memory estimates of later actions with the same mnemonic.
+   */
+  public synchronized void recordPeakMemory(String mnemonic, double memoryMb) {
+    Double previous = learnedMemoryMb.get(mnemonic);
+    learnedMemoryMb.put(mnemonic,
+        previous == null ? memoryMb : Math.max(memoryMb, previous * LEARNED_MEMORY_DECAY));
+  }
+
   /**
    * Acquires requested resource set. Will block if resource is not available.
    * NB! This method must be thread-safe!
    */
   public void acquireResources(ActionMetadata owner, ResourceSet resources)
       throws InterruptedException {
+    acquireResources(owner, resources, 0);
+  }
+
+  /**
+   * Acquires requested resource set. Will block if resource is not available, until the
+   * resources are available and no blocked thread with a higher priority, or that asked earlier
+   * with the same priority, can use them.
+   * NB! This method must be thread-safe!
+   */
+  public void acquireResources(ActionMetadata owner, ResourceSet resources, int priority)
+      throws InterruptedException {
     Preconditions.checkNotNull(resources);
     long startTime = Profiler.nanoTimeMaybe();
-    CountDownLatch latch = null;
+    ResourceRequest request = null;
     try {
       waiting(owner);
-      latch = acquire(resources);
-      if (latch != null) {
-        latch.await();
+      maybeSampleLoad();
+      request = acquire(owner, resources, priority);
+      if (request.waited) {
+        await(request);
       }
     } finally {
       threadLocked.set(resources.getCpuUsage() != 0 || resources.getMemoryMb() != 0
@@ -192,9 +329,21 @@ public class ResourceManager {
       acquired(owner);
 
       // Profile acquisition only if it waited for resource to become available.
-      if (latch != null) {
+      if (request != null && request.waited) {
         Profiler.instance().logSimpleTask(startTime, ProfilerTask.ACTION_LOCK, owner);
       }
+      logAdmission(request);
+    }
+  }
+
+  private void await(ResourceRequest request) throws InterruptedException {
+    if (hostLoad == null) {
+      request.latch.await();
+      return;
+    }
+    while (!request.latch.await(SAMPLE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS)) {
+      maybeSampleLoad();
+      processWaitingThreads();
     }
   }
 
@@ -203,21 +352,21 @@ public class ResourceManager {
    * @return true iff the given resources were locked (all or nothing).
    */
   public boolean tryAcquire(ActionMetadata owner, ResourceSet resources) {
-    boolean acquired = false;
+    ResourceRequest request;
+    maybeSampleLoad();
     synchronized (this) {
-      if (areResourcesAvailable(resources)) {
-        incrementResources(resources);
-        acquired = true;
+      request = newRequest(owner, resources, 0);
+      if (!areResourcesAvailable(request.resources)) {
+        return false;
       }
+      grant(request);
     }
 
-    if (acquired) {
-      threadLocked.set(resources.getCpuUsage() != 0 || resources.getMemoryMb() != 0
-          || resources.getIoUsage() != 0 || resources.getLocalTestCount() != 0);
-      acquired(owner);
-    }
-
-    return acquired;
+    threadLocked.set(resources.getCpuUsage() != 0 || resources.getMemoryMb() != 0
+        || resources.getIoUsage() != 0 || resources.getLocalTestCount() != 0);
+    acquired(owner);
+    logAdmission(request);
+    return true;
   }
 
   private void incrementResources(ResourceSet resources) {
@@ -232,7 +381,7 @@ public class ResourceManager {
    */
   public synchronized boolean inUse() {
     return usedCpu != 0.0 || usedRam != 0.0 || usedIo != 0.0 || usedLocalTestCount != 0
-        || !requestList.isEmpty();
+        || !requestQueue.isEmpty();
   }
 
 
@@ -276,7 +425,8 @@ public class ResourceManager {
     boolean isConflict = false;
     long startTime = Profiler.nanoTimeMaybe();
     try {
-      isConflict = release(resources);
+      maybeSampleLoad();
+      isConflict = release(owner, resources);
     } finally {
       threadLocked.set(false);
 
@@ -287,18 +437,63 @@ public class ResourceManager {
     }
   }
 
-  private synchronized CountDownLatch acquire(ResourceSet resources) {
-    if (areResourcesAvailable(resources)) {
-      incrementResources(resources);
-      return null;
+  private synchronized ResourceRequest acquire(ActionMetadata owner, ResourceSet resources,
+      int priority) {
+    ResourceRequest request = newRequest(owner, resources, priority);
+    if (areResourcesAvailable(request.resources)) {
+      grant(request);
+    } else {
+      request.waited = true;
+      requestQueue.add(request);
+      if (request.isLight()) {
+        lightRequestCount++;
+      }
+    }
+    return request;
+  }
+
+  /** Creates a request, with the learned memory estimate of the owner in the adaptive mode. */
+  private ResourceRequest newRequest(ActionMetadata owner, ResourceSet resources, int priority) {
+    Double learned = hostLoad != null && owner != null && resources.getMemoryMb() != 0
+        ? learnedMemoryMb.get(owner.getMnemonic())
+        : null;
+    if (learned != null) {
+      resources = ResourceSet.create(learned * LEARNED_MEMORY_HEADROOM, resources.getCpuUsage(),
+          resources.getIoUsage(), resources.getLocalTestCount());
+    }
+    return new ResourceRequest(owner, resources, learned != null, priority, requestCount++);
+  }
+
+  private void grant(ResourceRequest request) {
+    incrementResources(request.resources);
+    if (request.learned) {
+      learnedResources.put(request.owner, request.resources);
+    }
+    if (Profiler.instance().isActive()) {
+      request.admission = describeAdmission(request);
+    }
+    request.latch.countDown();
+  }
+
+  private String describeAdmission(ResourceRequest request) {
+    ResourceSet resources = request.resources;
+    return String.format("%s: %.2f CPU, %.0f MB%s (%.2f of %.2f CPU, %.0f of %.0f MB in use)",
+        request.owner == null ? "unknown" : request.owner.getMnemonic(),
+        resources.getCpuUsage(), resources.getMemoryMb(), request.learned ? " learned" : "",
+        usedCpu, getCpuBudget(), usedRam, getRamBudget());
+  }
+
+  private static void logAdmission(@Nullable ResourceRequest request) {
+    if (request != null && request.admission != null) {
+      Profiler.instance().logEvent(ProfilerTask.ACTION_ADMISSION, request.admission);
     }
-    Pair<ResourceSet, CountDownLatch> request =
-      new Pair<>(resources, new CountDownLatch(1));
-    requestList.add(request);
-    return request.second;
   }
 
-  private synchronized boolean release(ResourceSet resources) {
+  private synchronized boolean release(ActionMetadata owner, ResourceSet resources) {
+    ResourceSet learned = learnedResources.remove(owner);
+    if (learned != null) {
+      resources = learned;
+    }
     usedCpu -= resources.getCpuUsage();
     usedRam -= resources.getMemoryMb();
     usedIo -= resources.getIoUsage();
@@ -316,25 +511,87 @@ public class ResourceManager {
     if (usedIo < epsilon) {
       usedIo = 0;
     }
-    if (!requestList.isEmpty()) {
+    if (!requestQueue.isEmpty()) {
       processWaitingThreads();
       return true;
     }
     return false;
   }
 
+  /**
+   * Samples the load of the local host in the adaptive mode, unless the last sample is recent.
+   * Must not be called with the lock held: reading the load takes a few file reads, during which
+   * other threads may acquire and release resources.
+   */
+  private void maybeSampleLoad() {
+    LocalHostLoad load = hostLoad;
+    if (load == null) {
+      return;
+    }
+    long now = BlazeClock.nanoTime();
+    if (hasLoadSample
+        && now - lastSampleNanos < TimeUnit.MILLISECONDS.toNanos(SAMPLE_INTERVAL_MILLIS)) {
+      return;
+    }
+    if (!sampling.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      double idleCpus;
+      double availableMemoryMb;
+      try {
+        idleCpus = load.getIdleCpus();
+        availableMemoryMb = load.getAvailableMemoryMb();
+      } catch (IOException e) {
+        LOG.log(Level.WARNING, "Failed to sample the load of the local host", e);
+        idleCpus = Double.POSITIVE_INFINITY;
+        availableMemoryMb = Double.POSITIVE_INFINITY;
+      }
+      synchronized (this) {
+        if (hostLoad == load) {
+          sampledCpuCapacity = usedCpu + idleCpus;
+          sampledRamCapacity = usedRam + availableMemoryMb;
+          hasLoadSample = true;
+          lastSampleNanos = now;
+        }
+      }
+    } finally {
+      sampling.set(false);
+    }
+  }
+
+  private double getCpuBudget() {
+    double budget = availableResources.getCpuUsage();
+    return hostLoad != null && hasLoadSample ? Math.min(budget, sampledCpuCapacity) : budget;
+  }
+
+  private double getRamBudget() {
+    double budget = availableResources.getMemoryMb();
+    return hostLoad != null && hasLoadSample ? Math.min(budget, sampledRamCapacity) : budget;
+  }
+
 
   /**
    * Tries to unblock one or more waiting threads if there are sufficient resources available.
    */
   private synchronized void processWaitingThreads() {
-    Iterator<Pair<ResourceSet, CountDownLatch>> iterator = requestList.iterator();
+    if (availableResources == null) {
+      return;
+    }
+    Iterator<ResourceRequest> iterator = requestQueue.iterator();
     while (iterator.hasNext()) {
-      Pair<ResourceSet, CountDownLatch> request = iterator.next();
-      if (areResourcesAvailable(request.first)) {
-        incrementResources(request.first);
-        request.second.countDown();
+      // Once CPU and RAM are used up, only requests for neither can be granted.
+      if (lightRequestCount == 0 && usedCpu > 0 && usedCpu >= getCpuBudget()
+          && usedRam > 0 && usedRam >= getRamBudget()) {
+        break;
+      }
+      ResourceRequest request = iterator.next();
+      if (areResourcesAvailable(request.resources)) {
         iterator.remove();
+        if (request.isLight()) {
+          lightRequestCount--;
+        }
+        grant(request);
       }
     }
   }
@@ -357,8 +614,8 @@ public class ResourceManager {
     double io = resources.getIoUsage() * MIN_NECESSARY_IO_RATIO;
     int localTestCount = resources.getLocalTestCount();
 
-    double availableCpu = availableResources.getCpuUsage();
-    double availableRam = availableResources.getMemoryMb();
+    double availableCpu = getCpuBudget();
+    double availableRam = getRamBudget();
     double availableIo = availableResources.getIoUsage();
     int availableLocalTestCount = availableResources.getLocalTestCount();
 
@@ -380,7 +637,7 @@ public class ResourceManager {
 
   @VisibleForTesting
   synchronized int getWaitCount() {
-    return requestList.size();
+    return requestQueue.size();
   }
 
   @VisibleForTesting
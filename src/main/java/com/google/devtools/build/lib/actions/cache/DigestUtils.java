@@ -19,26 +19,60 @@ import com.google.devtools.build.lib.profiler.Profiler;
 import com.google.devtools.build.lib.profiler.ProfilerTask;
 import com.google.devtools.build.lib.util.BlazeClock;
 import com.google.devtools.build.lib.util.LoggingUtil;
+import com.google.devtools.build.lib.vfs.DigestHashFunction;
+import com.google.devtools.build.lib.vfs.FileStatus;
 import com.google.devtools.build.lib.vfs.Path;
 
 import java.io.IOException;
 import java.util.Objects;
+import java.util.concurrent.Semaphore;
 import java.util.logging.Level;
 
 import javax.annotation.Nullable;
 
 /**
- * Utility class for getting md5 digests of files.
+ * Utility class for getting digests of files, under the hash function selected for the server.
  */
 public class DigestUtils {
-  // Object to synchronize on when serializing large file reads.
-  private static final Object MD5_LOCK = new Object();
+  // Files larger than this are read under a permit of largeFileReads.
+  private static final long SMALL_FILE_SIZE = 4096;
+
+  private static final int DEFAULT_MAX_CONCURRENT_LARGE_FILE_READS = 4;
+
+  // Bounds the number of large files that are read at the same time.
+  private static int maxConcurrentLargeFileReads = DEFAULT_MAX_CONCURRENT_LARGE_FILE_READS;
+  private static volatile Semaphore largeFileReads =
+      new Semaphore(DEFAULT_MAX_CONCURRENT_LARGE_FILE_READS);
+
+  // Digests recorded by earlier servers, if enabled.
+  @Nullable private static volatile PersistentDigestCache persistentCache;
 
   /** Private constructor to prevent instantiation of utility class. */
   private DigestUtils() {}
 
   /**
-   * Returns true iff using MD5 digests is appropriate for an artifact.
+   * Sets how many files larger than 4K may be read at the same time to compute their digests.
+   * Solid state disks keep up with several readers, while a spinning disk is best read by a single
+   * one to avoid seeks. Reads that are in progress are not affected.
+   */
+  public static synchronized void setMaxConcurrentLargeFileReads(int maxReads) {
+    Preconditions.checkArgument(maxReads > 0, maxReads);
+    if (maxReads != maxConcurrentLargeFileReads) {
+      maxConcurrentLargeFileReads = maxReads;
+      largeFileReads = new Semaphore(maxReads);
+    }
+  }
+
+  /**
+   * Sets the cache that digests computed from file contents are looked up in and recorded into,
+   * or null to always read the contents.
+   */
+  public static void setPersistentDigestCache(@Nullable PersistentDigestCache cache) {
+    persistentCache = cache;
+  }
+
+  /**
+   * Returns true iff using file digests is appropriate for an artifact.
    *
    * @param isFile whether or not Artifact is a file versus a directory, isFile() on its stat.
    * @param size size of Artifact on filesystem in bytes, getSize() on its stat.
@@ -49,78 +83,98 @@ public class DigestUtils {
   }
 
   /**
-   * Obtain file's MD5 metadata using synchronized method, ensuring that system
-   * is not overloaded in case when multiple threads are requesting MD5
+   * Obtain file's digest after acquiring a permit to read a large file, ensuring that the system
+   * is not overloaded in case when multiple threads are requesting digest
    * calculations and underlying file system cannot provide it via extended
    * attribute.
    */
-  private static byte[] getDigestInExclusiveMode(Path path) throws IOException {
+  private static byte[] getDigestWithPermit(Path path) throws IOException {
     long startTime = BlazeClock.nanoTime();
-    synchronized (MD5_LOCK) {
+    Semaphore permits = largeFileReads;
+    permits.acquireUninterruptibly();
+    try {
       Profiler.instance().logSimpleTask(startTime, ProfilerTask.WAIT, path.getPathString());
       return getDigestInternal(path);
+    } finally {
+      permits.release();
     }
   }
 
   private static byte[] getDigestInternal(Path path) throws IOException {
     long startTime = BlazeClock.nanoTime();
-    byte[] md5bin = path.getMD5Digest();
+    byte[] digest = path.getDigest();
 
     long millis = (BlazeClock.nanoTime() - startTime) / 1000000;
     if (millis > 5000L) {
       System.err.println("Slow read: a " + path.getFileSize() + "-byte read from " + path
           + " took " +  millis + "ms.");
     }
-    return md5bin;
+    return digest;
   }
 
   private static boolean binaryDigestWellFormed(byte[] digest) {
     Preconditions.checkNotNull(digest);
-    return digest.length == 16;
+    return digest.length == DigestHashFunction.getDefault().getDigestLength();
   }
 
   /**
-   * Returns the the fast md5 digest of the file, or null if not available.
+   * Returns the the fast digest of the file, or null if not available under the hash function
+   * selected for the server.
    */
   @Nullable
   public static byte[] getFastDigest(Path path) throws IOException {
-    return path.getFastDigestFunctionType().equals("MD5") ? path.getFastDigest() : null;
+    return Objects.equals(path.getFastDigestFunctionType(),
+        DigestHashFunction.getDefault().getName()) ? path.getFastDigest() : null;
   }
 
   /**
-   * Get the md5 digest of {@code path}, using a constant-time xattr call if the filesystem supports
+   * Get the digest of {@code path}, using a constant-time xattr call if the filesystem supports
    * it, and calculating the digest manually otherwise.
    *
    * @param path Path of the file.
    * @param fileSize size of the file. Used to determine if digest calculation should be done
-   * serially or in parallel. Files larger than a certain threshold will be read serially, in order
-   * to avoid excessive disk seeks.
+   * serially or in parallel. Only a bounded number of files larger than a certain threshold are
+   * read at the same time, in order to avoid excessive disk seeks.
    */
   public static byte[] getDigestOrFail(Path path, long fileSize) throws IOException {
-    // TODO(bazel-team): the action cache currently only works with md5 digests but it ought to
-    // work with any opaque digest.
-    byte[] md5bin = null;
-    if (Objects.equals(path.getFastDigestFunctionType(), "MD5")) {
-      md5bin = getFastDigest(path);
-    }
-    if (md5bin != null && !binaryDigestWellFormed(md5bin)) {
-      // Fail-soft in cases where md5bin is non-null, but not a valid digest.
+    byte[] digest = getFastDigest(path);
+    if (digest != null && !binaryDigestWellFormed(digest)) {
+      // Fail-soft in cases where digest is non-null, but not a valid digest.
       String msg = String.format("Malformed digest '%s' for file %s",
-                                 BaseEncoding.base16().lowerCase().encode(md5bin),
+                                 BaseEncoding.base16().lowerCase().encode(digest),
                                  path);
       LoggingUtil.logToRemote(Level.SEVERE, msg, new IllegalStateException(msg));
-      md5bin = null;
+      digest = null;
+    }
+    if (digest != null) {
+      return digest;
     }
-    if (md5bin != null) {
-      return md5bin;
-    } else if (fileSize > 4096) {
+    PersistentDigestCache cache = persistentCache;
+    if (cache == null) {
+      return computeDigest(path, fileSize);
+    }
+    // The status must be taken before the contents are read, so that a change in between leaves
+    // an entry that no longer matches the file, and the time before the status, so that the
+    // cache can tell whether such a change could have kept the file's times.
+    long statTime = cache.currentTimeMillis();
+    FileStatus stat = path.stat();
+    digest = cache.get(path, stat);
+    if (digest == null) {
+      digest = computeDigest(path, fileSize);
+      cache.put(path, stat, statTime, digest);
+    }
+    return digest;
+  }
+
+  private static byte[] computeDigest(Path path, long fileSize) throws IOException {
+    if (fileSize > SMALL_FILE_SIZE) {
       // We'll have to read file content in order to calculate the digest. In that case
-      // it would be beneficial to serialize those calculations since there is a high
-      // probability that MD5 will be requested for multiple output files simultaneously.
+      // it would be beneficial to bound those calculations since there is a high
+      // probability that digests will be requested for multiple output files simultaneously.
       // Exception is made for small (<=4K) files since they will not likely to introduce
       // significant delays (at worst they will result in two extra disk seeks by
       // interrupting other reads).
-      return getDigestInExclusiveMode(path);
+      return getDigestWithPermit(path);
     } else {
       return getDigestInternal(path);
     }
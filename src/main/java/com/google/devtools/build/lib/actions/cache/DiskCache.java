@@ -0,0 +1,391 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.actions.cache;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Ordering;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.ByteStreams;
+import com.google.devtools.build.lib.actions.Action;
+import com.google.devtools.build.lib.actions.Artifact;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.util.Fingerprint;
+import com.google.devtools.build.lib.vfs.FileStatus;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.Symlinks;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+
+/**
+ * A content-addressable cache of action outputs in a local directory. Unlike the
+ * {@link ActionCache}, which only knows whether the outputs already in the output tree are up to
+ * date, this cache keeps the outputs themselves, so that they can be reused by another workspace,
+ * another output base, or a later build after a clean.
+ *
+ * <p>The directory holds two kinds of files: {@code cas/<digest>} is a file with that digest,
+ * and {@code ac/<key>} lists the exec path and digest of every output of an action whose inputs
+ * hash to {@code key}. Files are written under a temporary name and renamed into place, so that
+ * several servers may share the directory. Outputs are copied to and from the cache, never linked,
+ * so that the cache and the output trees cannot change each other's files, and the digest of every
+ * copy is checked.
+ *
+ * <p>The least recently used action entries are deleted by {@link #evict} once the cache grows
+ * beyond its size limit, together with the files that no remaining entry lists. The modification
+ * time of an entry, which belongs to the cache alone, records its last use.
+ */
+@ThreadSafe
+public final class DiskCache {
+  private static final Logger LOG = Logger.getLogger(DiskCache.class.getName());
+
+  private static final BaseEncoding HEX = BaseEncoding.base16().lowerCase();
+
+  /** Orders files for eviction, least recently used first. */
+  private static final Ordering<CacheFile> BY_LAST_USE = new Ordering<CacheFile>() {
+    @Override
+    public int compare(CacheFile left, CacheFile right) {
+      return Long.compare(left.lastUse, right.lastUse);
+    }
+  };
+
+  private final Path casDir;
+  private final Path acDir;
+  private final long maxSizeBytes;
+  private final String tmpSuffix = ".tmp-" + UUID.randomUUID() + "-";
+  private final AtomicLong tmpCounter = new AtomicLong();
+  private final AtomicInteger hits = new AtomicInteger();
+  private final AtomicInteger misses = new AtomicInteger();
+
+  public DiskCache(Path root, long maxSizeBytes) throws IOException {
+    Preconditions.checkArgument(maxSizeBytes > 0, maxSizeBytes);
+    this.casDir = root.getRelative("cas");
+    this.acDir = root.getRelative("ac");
+    this.maxSizeBytes = maxSizeBytes;
+    FileSystemUtils.createDirectoryAndParents(casDir);
+    FileSystemUtils.createDirectoryAndParents(acDir);
+  }
+
+  /**
+   * Returns the key under which the outputs of {@code action} are cached, or null if the action
+   * may not be cached. The key covers the action key, the exec path and digest of every input, and
+   * the exec paths of the outputs, so it must be computed only once all inputs are built.
+   *
+   * <p>Actions whose result does not only depend on their inputs are not cached, and neither are
+   * actions with an input known by timestamp only, such as a directory or a middleman.
+   */
+  @Nullable
+  public static String getKey(Action action, MetadataHandler metadataHandler) {
+    if (action.getActionType().isMiddleman() || action.isVolatile()
+        || action.executeUnconditionally() || !action.inputsKnown()
+        || action.getOutputs().isEmpty()) {
+      return null;
+    }
+    Fingerprint fp = new Fingerprint();
+    fp.addString(action.getKey());
+    for (Artifact input : Ordering.from(Artifact.EXEC_PATH_COMPARATOR)
+        .sortedCopy(action.getInputs())) {
+      Metadata metadata = metadataHandler.getMetadataMaybe(input);
+      if (metadata == null || metadata.digest == null) {
+        return null;
+      }
+      fp.addPath(input.getExecPath());
+      fp.addBytes(metadata.digest);
+    }
+    for (Artifact output : action.getOutputs()) {
+      fp.addPath(output.getExecPath());
+    }
+    return fp.hexDigestAndReset();
+  }
+
+  /**
+   * Recreates the outputs of the action with the given key from the cache. The outputs must not
+   * exist. Returns false, and counts a miss, if the cache does not hold all of them.
+   */
+  public boolean fetch(String key, Collection<Artifact> outputs) {
+    Path entry = acDir.getChild(key);
+    try {
+      Map<PathFragment, byte[]> digests = readEntry(entry);
+      if (digests == null || digests.size() != outputs.size()) {
+        misses.incrementAndGet();
+        return false;
+      }
+      List<Path> blobs = new ArrayList<>(outputs.size());
+      for (Artifact output : outputs) {
+        byte[] digest = digests.get(output.getExecPath());
+        Path blob = digest == null ? null : casDir.getChild(HEX.encode(digest));
+        if (blob == null || !blob.isFile(Symlinks.NOFOLLOW)) {
+          // The entry outlived one of its outputs.
+          entry.delete();
+          misses.incrementAndGet();
+          return false;
+        }
+        blobs.add(blob);
+      }
+      int i = 0;
+      for (Artifact output : outputs) {
+        Path blob = blobs.get(i++);
+        if (!copyAndCheck(blob, output.getPath(), digests.get(output.getExecPath()))) {
+          // The cached file is corrupt; drop it so that the next build stores it again.
+          LOG.warning("Dropping corrupt file " + blob + " from the disk cache");
+          blob.delete();
+          entry.delete();
+          deleteOutputs(outputs);
+          misses.incrementAndGet();
+          return false;
+        }
+      }
+      entry.setLastModifiedTime(-1L);
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Failed to fetch outputs from the disk cache", e);
+      deleteOutputs(outputs);
+      misses.incrementAndGet();
+      return false;
+    }
+    hits.incrementAndGet();
+    return true;
+  }
+
+  /**
+   * Adds the outputs of the action with the given key to the cache. Does nothing unless all of
+   * them are regular files, and their contents still have the digests that the action's metadata
+   * recorded.
+   */
+  public void store(String key, Collection<Artifact> outputs, MetadataHandler metadataHandler) {
+    try {
+      Map<PathFragment, byte[]> digests = new HashMap<>();
+      for (Artifact output : outputs) {
+        Path path = output.getPath();
+        if (!path.isFile(Symlinks.NOFOLLOW)) {
+          return;
+        }
+        Metadata metadata = metadataHandler.getMetadataMaybe(output);
+        digests.put(output.getExecPath(), metadata != null && metadata.digest != null
+            ? metadata.digest
+            : path.getDigest());
+      }
+      for (Artifact output : outputs) {
+        Path blob = casDir.getChild(HEX.encode(digests.get(output.getExecPath())));
+        if (!blob.exists(Symlinks.NOFOLLOW)) {
+          Path tmp = newTempPath(blob);
+          if (!copyAndCheck(output.getPath(), tmp, digests.get(output.getExecPath()))) {
+            // The output changed after the action ran.
+            LOG.warning("Not caching " + output.prettyPrint() + ", which has changed");
+            tmp.delete();
+            return;
+          }
+          tmp.renameTo(blob);
+        }
+      }
+      Path entry = acDir.getChild(key);
+      Path tmp = newTempPath(entry);
+      try (OutputStream out = tmp.getOutputStream()) {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(digests.size());
+        for (Map.Entry<PathFragment, byte[]> output : digests.entrySet()) {
+          data.writeUTF(output.getKey().getPathString());
+          data.writeInt(output.getValue().length);
+          data.write(output.getValue());
+        }
+        data.flush();
+      }
+      tmp.renameTo(entry);
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Failed to store outputs in the disk cache", e);
+    }
+  }
+
+  /** Returns the number of fetches that recreated all outputs of an action. */
+  public int getHits() {
+    return hits.get();
+  }
+
+  /** Returns the number of fetches that did not. */
+  public int getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * Deletes the least recently used action entries until the cache is no larger than its size
+   * limit. A file is deleted with the last entry that lists it; files that no entry lists, such as
+   * those of an interrupted store, are ordered by their own modification time. Returns the number
+   * of bytes freed.
+   */
+  public long evict() throws IOException {
+    // Stat every file once: the modification times may change while the files are sorted.
+    Map<String, CacheFile> blobs = new HashMap<>();
+    long size = 0;
+    for (Path path : casDir.getDirectoryEntries()) {
+      CacheFile blob = CacheFile.statOrNull(path);
+      if (blob != null) {
+        blobs.put(path.getBaseName(), blob);
+        size += blob.size;
+      }
+    }
+    List<CacheFile> files = new ArrayList<>();
+    for (Path path : acDir.getDirectoryEntries()) {
+      CacheFile entry = CacheFile.statOrNull(path);
+      if (entry == null) {
+        continue;
+      }
+      size += entry.size;
+      Map<PathFragment, byte[]> digests = readEntryOrNull(path);
+      if (digests != null) {
+        for (byte[] digest : digests.values()) {
+          CacheFile blob = blobs.get(HEX.encode(digest));
+          if (blob != null) {
+            blob.references++;
+            entry.blobs.add(blob);
+          }
+        }
+      }
+      files.add(entry);
+    }
+    for (CacheFile blob : blobs.values()) {
+      if (blob.references == 0) {
+        files.add(blob);
+      }
+    }
+
+    long freed = 0;
+    for (CacheFile file : BY_LAST_USE.sortedCopy(files)) {
+      if (size - freed <= maxSizeBytes) {
+        break;
+      }
+      freed += file.delete();
+      for (CacheFile blob : file.blobs) {
+        if (--blob.references == 0) {
+          freed += blob.delete();
+        }
+      }
+    }
+    return freed;
+  }
+
+  /** A file in the cache, as seen by one {@link #evict}. */
+  private static final class CacheFile {
+    final Path path;
+    final long size;
+    final long lastUse;
+    /** For an action entry, the files it lists. */
+    final List<CacheFile> blobs = new ArrayList<>();
+    /** For a file, the number of action entries that list it and are not yet deleted. */
+    int references;
+
+    private CacheFile(Path path, long size, long lastUse) {
+      this.path = path;
+      this.size = size;
+      this.lastUse = lastUse;
+    }
+
+    /** Returns the file at {@code path}, or null if it was deleted concurrently. */
+    @Nullable
+    static CacheFile statOrNull(Path path) {
+      FileStatus status = path.statNullable(Symlinks.NOFOLLOW);
+      if (status == null) {
+        return null;
+      }
+      try {
+        return new CacheFile(path, status.getSize(), status.getLastModifiedTime());
+      } catch (IOException e) {
+        return null;
+      }
+    }
+
+    /** Deletes the file and returns the number of bytes freed. */
+    long delete() {
+      try {
+        return path.delete() ? size : 0;
+      } catch (IOException e) {
+        LOG.log(Level.WARNING, "Failed to evict " + path + " from the disk cache", e);
+        return 0;
+      }
+    }
+  }
+
+  private Path newTempPath(Path path) {
+    return path.getParentDirectory().getChild(
+        path.getBaseName() + tmpSuffix + tmpCounter.incrementAndGet());
+  }
+
+  /** Returns the outputs listed in an action entry, or null if there is no such entry. */
+  @Nullable
+  private static Map<PathFragment, byte[]> readEntry(Path entry) throws IOException {
+    try (InputStream in = entry.getInputStream()) {
+      DataInputStream data = new DataInputStream(in);
+      int count = data.readInt();
+      Map<PathFragment, byte[]> digests = new HashMap<>();
+      for (int i = 0; i < count; i++) {
+        PathFragment execPath = new PathFragment(data.readUTF());
+        byte[] digest = new byte[data.readInt()];
+        data.readFully(digest);
+        digests.put(execPath, digest);
+      }
+      return digests;
+    } catch (FileNotFoundException e) {
+      return null;
+    }
+  }
+
+  /** Like {@link #readEntry}, but also returns null if the entry is unreadable. */
+  @Nullable
+  private static Map<PathFragment, byte[]> readEntryOrNull(Path entry) {
+    try {
+      return readEntry(entry);
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Copies the contents and executable bit of {@code from} to a new file {@code to}, and returns
+   * whether the copy has the given digest. The modification time is not copied: the files in the
+   * cache are the cache's own, and fetched outputs are new.
+   */
+  private static boolean copyAndCheck(Path from, Path to, byte[] digest) throws IOException {
+    try (InputStream in = from.getInputStream(); OutputStream out = to.getOutputStream()) {
+      ByteStreams.copy(in, out);
+    }
+    to.setExecutable(from.isExecutable());
+    return Arrays.equals(digest, to.getDigest());
+  }
+
+  private static void deleteOutputs(Collection<Artifact> outputs) {
+    for (Artifact output : outputs) {
+      try {
+        output.getPath().delete();
+      } catch (IOException e) {
+        // The action will be executed, which recreates its outputs anyway.
+      }
+    }
+  }
+}
@@ -0,0 +1,855 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.actions.cache;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hashing;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ConditionallyThreadSafe;
+import com.google.devtools.build.lib.util.VarInt;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.UnixGlob;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * An implementation of the ActionCache interface that keeps its data in an append-only log and a
+ * hash index, both memory-mapped. Opening the cache only maps the two files; entries are decoded
+ * from the log when they are looked up, so the cost of loading the cache does not grow with the
+ * number of actions in it.
+ *
+ * <p>The log consists of fixed-size segments that are mapped one at a time. Each record holds a
+ * type, a key, a value and a CRC32 checksum, and never crosses a segment boundary. Entries refer
+ * to the file paths they contain by the log offsets of string records, so each path is stored
+ * once. The index is an open addressing hash table whose slots hold a hash fragment and the log
+ * offset of the latest record for a key. If the index was not saved after the last change to the
+ * log, for example because the server crashed, it is rebuilt by scanning the log up to the first
+ * damaged record.
+ *
+ * <p>Replaced and removed entries stay in the log until {@link #compact} copies the live entries
+ * into a new log. This is meant to be done while the server is idle.
+ */
+@ConditionallyThreadSafe // condition: each instance must instantiated with
+                         // different cache root
+public class MappedActionCache implements ActionCache {
+  private static final Logger LOG = Logger.getLogger(MappedActionCache.class.getName());
+
+  private static final int VERSION = 11;
+
+  @VisibleForTesting
+  static final int DEFAULT_SEGMENT_SIZE = 16 << 20;
+
+  private static final int LOG_MAGIC = 0x42414c47;
+  private static final int INDEX_MAGIC = 0x42414958;
+
+  // Log header: magic, version, segment size, unused, length of the saved log.
+  private static final int LOG_SEGMENT_SIZE_OFFSET = 8;
+  private static final int LOG_LENGTH_OFFSET = 16;
+  private static final int LOG_HEADER_SIZE = 24;
+
+  // Index header: magic, version, clean flag, capacity, size, unused, length of the log the index
+  // describes, bytes of the log taken by replaced or removed entries.
+  private static final int INDEX_CLEAN_OFFSET = 8;
+  private static final int INDEX_CAPACITY_OFFSET = 12;
+  private static final int INDEX_SIZE_OFFSET = 16;
+  private static final int INDEX_LOG_LENGTH_OFFSET = 24;
+  private static final int INDEX_GARBAGE_OFFSET = 32;
+  private static final int INDEX_HEADER_SIZE = 40;
+  private static final int INITIAL_CAPACITY = 1024;
+
+  // Each index slot packs a 24 bit hash fragment above a 40 bit log offset. An empty slot is 0,
+  // which is never a valid offset as the log starts with its header.
+  private static final int OFFSET_BITS = 40;
+  private static final long OFFSET_MASK = (1L << OFFSET_BITS) - 1;
+
+  private static final byte STRING = 1;
+  private static final byte ENTRY = 2;
+  private static final byte REMOVED = 3;
+  private static final byte PADDING = 4;
+
+  // Type, key length and value length; followed by the key, the value and the checksum.
+  private static final int MAX_RECORD_OVERHEAD = 1 + 2 * VarInt.MAX_VARINT_SIZE + 4;
+
+  static final ActionCache.Entry CORRUPTED = new ActionCache.Entry(null);
+
+  /** A record of the log. The key and value are views of the mapped log. */
+  private static final class Record {
+    final byte type;
+    final ByteBuffer key;
+    final ByteBuffer value;
+    final int size;
+
+    Record(byte type, ByteBuffer key, ByteBuffer value, int size) {
+      this.type = type;
+      this.key = key;
+      this.value = value;
+      this.size = size;
+    }
+  }
+
+  private final Path cacheRoot;
+  private final Path logFile;
+  private final Path indexFile;
+  private final int defaultSegmentSize;
+
+  private int segmentSize;
+  private FileChannel logChannel;
+  // Replaced rather than modified when a segment is added, so that get() can decode entries
+  // without holding the lock.
+  private volatile MappedByteBuffer[] segments;
+  private long logLength;
+  private int firstUnsavedSegment;
+
+  private FileChannel indexChannel;
+  private MappedByteBuffer index;
+  private int capacity;
+  private int size;
+  private long garbageBytes;
+  private boolean indexClean;
+
+  public MappedActionCache(Path cacheRoot) throws IOException {
+    this(cacheRoot, DEFAULT_SEGMENT_SIZE);
+  }
+
+  @VisibleForTesting
+  MappedActionCache(Path cacheRoot, int segmentSize) throws IOException {
+    this(cacheRoot, logFile(cacheRoot), indexFile(cacheRoot), segmentSize);
+    deleteStaleFiles(cacheRoot);
+    try {
+      open();
+    } catch (IOException | BufferUnderflowException e) {
+      try {
+        close();
+      } catch (IOException closeException) {
+        // Report the original failure.
+      }
+      renameCorruptedFiles(cacheRoot);
+      throw new IOException("Failed to load action cache data", e);
+    }
+  }
+
+  private MappedActionCache(Path cacheRoot, Path logFile, Path indexFile, int segmentSize) {
+    Preconditions.checkArgument(segmentSize >= 4096, segmentSize);
+    this.cacheRoot = cacheRoot;
+    this.logFile = logFile;
+    this.indexFile = indexFile;
+    this.defaultSegmentSize = segmentSize;
+  }
+
+  /**
+   * Rename corrupted files so they could be analyzed later. This would also ensure
+   * that next initialization attempt will create empty cache.
+   */
+  private static void renameCorruptedFiles(Path cacheRoot) {
+    try {
+      for (Path path : UnixGlob.forPath(cacheRoot).addPattern("action_*_v" + VERSION + ".*")
+          .glob()) {
+        path.renameTo(path.getParentDirectory().getChild(path.getBaseName() + ".bad"));
+      }
+    } catch (IOException e) {
+      // do nothing
+    }
+  }
+
+  /**
+   * Deletes the files of other versions of this cache, and of the action cache and file name index
+   * that this cache replaced, which would otherwise stay in the output base forever.
+   */
+  private static void deleteStaleFiles(Path cacheRoot) {
+    String logName = logFile(cacheRoot).getBaseName();
+    String indexName = indexFile(cacheRoot).getBaseName();
+    try {
+      for (Path path : UnixGlob.forPath(cacheRoot)
+          .addPatterns("action_*_v*.blaze*", "filename_index_v*.*").glob()) {
+        String name = path.getBaseName();
+        if (!name.startsWith(logName) && !name.startsWith(indexName)) {
+          path.delete();
+        }
+      }
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Failed to delete stale action cache files", e);
+    }
+  }
+
+  public static Path logFile(Path cacheRoot) {
+    return cacheRoot.getChild("action_log_v" + VERSION + ".blaze");
+  }
+
+  public static Path indexFile(Path cacheRoot) {
+    return cacheRoot.getChild("action_index_v" + VERSION + ".blaze");
+  }
+
+  private static FileChannel openChannel(Path path) throws IOException {
+    return FileChannel.open(Paths.get(path.getPathString()), StandardOpenOption.CREATE,
+        StandardOpenOption.READ, StandardOpenOption.WRITE);
+  }
+
+  /**
+   * Maps the log and the index, rebuilding the index if it does not describe the log. Defers any
+   * interrupt until it is done, as an interrupt would close the files.
+   */
+  private void open() throws IOException {
+    boolean interrupted = Thread.interrupted();
+    try {
+      openLogAndIndex();
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private void openLogAndIndex() throws IOException {
+    logChannel = openChannel(logFile);
+    long fileSize = logChannel.size();
+    if (fileSize == 0) {
+      segmentSize = defaultSegmentSize;
+      segments = new MappedByteBuffer[0];
+      MappedByteBuffer header = mapSegment(0);
+      header.putInt(0, LOG_MAGIC);
+      header.putInt(4, VERSION);
+      header.putInt(LOG_SEGMENT_SIZE_OFFSET, segmentSize);
+      header.putLong(LOG_LENGTH_OFFSET, LOG_HEADER_SIZE);
+      logLength = LOG_HEADER_SIZE;
+    } else {
+      ByteBuffer header = ByteBuffer.allocate(LOG_HEADER_SIZE);
+      while (header.hasRemaining() && logChannel.read(header, header.position()) >= 0) {}
+      header.flip();
+      if (header.getInt(0) != LOG_MAGIC || header.getInt(4) != VERSION) {
+        throw new IOException("Unexpected action log header");
+      }
+      segmentSize = header.getInt(LOG_SEGMENT_SIZE_OFFSET);
+      if (segmentSize < LOG_HEADER_SIZE || fileSize % segmentSize != 0) {
+        throw new IOException("Unexpected action log size " + fileSize);
+      }
+      segments = new MappedByteBuffer[0];
+      for (int i = 0; i < fileSize / segmentSize; i++) {
+        mapSegment(i);
+      }
+      logLength = header.getLong(LOG_LENGTH_OFFSET);
+    }
+    firstUnsavedSegment = segments.length;
+
+    indexChannel = openChannel(indexFile);
+    if (!loadIndex()) {
+      if (logLength > LOG_HEADER_SIZE) {
+        LOG.info("Rebuilding action cache index from " + logFile);
+      }
+      indexChannel.close();
+      indexChannel = null;
+      indexFile.delete();
+      indexChannel = openChannel(indexFile);
+      createIndex(INITIAL_CAPACITY);
+      rebuildIndex();
+    }
+  }
+
+  /** Closes both files. Mapped segments stay readable until they are garbage collected. */
+  private void close() throws IOException {
+    try {
+      if (logChannel != null) {
+        logChannel.close();
+      }
+    } finally {
+      if (indexChannel != null) {
+        indexChannel.close();
+      }
+      logChannel = null;
+      indexChannel = null;
+      index = null;
+    }
+  }
+
+  private MappedByteBuffer mapSegment(int segment) throws IOException {
+    Preconditions.checkState(segment == segments.length);
+    MappedByteBuffer buffer = map(logChannel, (long) segment * segmentSize, segmentSize);
+    MappedByteBuffer[] newSegments = Arrays.copyOf(segments, segment + 1);
+    newSegments[segment] = buffer;
+    segments = newSegments;
+    return buffer;
+  }
+
+  /**
+   * Maps a region of a file. An interrupt closes a channel in the middle of an operation, and with
+   * it the cache, so any interrupt is deferred until the region is mapped.
+   */
+  private static MappedByteBuffer map(FileChannel channel, long position, long size)
+      throws IOException {
+    boolean interrupted = Thread.interrupted();
+    try {
+      return channel.map(FileChannel.MapMode.READ_WRITE, position, size);
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /** Maps an existing index; returns false if there is none, or it is stale or damaged. */
+  private boolean loadIndex() throws IOException {
+    long fileSize = indexChannel.size();
+    if (fileSize < INDEX_HEADER_SIZE) {
+      return false;
+    }
+    MappedByteBuffer buffer = map(indexChannel, 0, fileSize);
+    int indexCapacity = buffer.getInt(INDEX_CAPACITY_OFFSET);
+    if (buffer.getInt(0) != INDEX_MAGIC || buffer.getInt(4) != VERSION
+        || buffer.getInt(INDEX_CLEAN_OFFSET) != 1
+        || buffer.getLong(INDEX_LOG_LENGTH_OFFSET) != logLength
+        || Integer.bitCount(indexCapacity) != 1
+        || fileSize != INDEX_HEADER_SIZE + 8L * indexCapacity) {
+      return false;
+    }
+    index = buffer;
+    capacity = indexCapacity;
+    size = buffer.getInt(INDEX_SIZE_OFFSET);
+    garbageBytes = buffer.getLong(INDEX_GARBAGE_OFFSET);
+    indexClean = true;
+    return true;
+  }
+
+  private void createIndex(int indexCapacity) throws IOException {
+    index = map(indexChannel, 0, INDEX_HEADER_SIZE + 8L * indexCapacity);
+    index.putInt(0, INDEX_MAGIC);
+    index.putInt(4, VERSION);
+    index.putInt(INDEX_CAPACITY_OFFSET, indexCapacity);
+    capacity = indexCapacity;
+    size = 0;
+    garbageBytes = 0;
+    indexClean = false;
+  }
+
+  /** Indexes every valid record of the log, and truncates the log after the last one. */
+  private void rebuildIndex() throws IOException {
+    long offset = LOG_HEADER_SIZE;
+    long end = (long) segments.length * segmentSize;
+    while (offset < end) {
+      ByteBuffer buffer = segmentAt(segments, offset);
+      if (buffer.get(buffer.position()) == PADDING) {
+        offset = nextSegment(offset);
+        continue;
+      }
+      Record record;
+      try {
+        record = readRecord(segments, offset);
+      } catch (IOException e) {
+        break;
+      }
+      indexRecord(record.type, toBytes(record.key), offset);
+      offset += record.size;
+    }
+    logLength = offset;
+  }
+
+  private long nextSegment(long offset) {
+    return (offset / segmentSize + 1) * segmentSize;
+  }
+
+  private ByteBuffer segmentAt(MappedByteBuffer[] segs, long offset) {
+    ByteBuffer buffer = segs[(int) (offset / segmentSize)].duplicate();
+    buffer.position((int) (offset % segmentSize));
+    return buffer;
+  }
+
+  /** Reads and checks the record at the given offset of the log. */
+  private Record readRecord(MappedByteBuffer[] segs, long offset) throws IOException {
+    if (offset < LOG_HEADER_SIZE || offset >= (long) segs.length * segmentSize) {
+      throw new IOException("Invalid action log offset " + offset);
+    }
+    ByteBuffer buffer = segmentAt(segs, offset);
+    int start = buffer.position();
+    try {
+      byte type = buffer.get();
+      if (type < STRING || type > REMOVED) {
+        throw new IOException("Invalid action log record type " + type);
+      }
+      int keyLength = VarInt.getVarInt(buffer);
+      int valueLength = VarInt.getVarInt(buffer);
+      if (keyLength < 0 || valueLength < 0 || keyLength + valueLength > buffer.remaining()) {
+        throw new IOException("Invalid action log record at " + offset);
+      }
+      ByteBuffer key = slice(buffer, keyLength);
+      ByteBuffer value = slice(buffer, valueLength);
+      int end = buffer.position();
+      int checksum = buffer.getInt();
+      ByteBuffer checked = buffer.duplicate();
+      checked.position(start);
+      checked.limit(end);
+      CRC32 crc = new CRC32();
+      crc.update(checked);
+      if ((int) crc.getValue() != checksum) {
+        throw new IOException("Checksum mismatch in action log record at " + offset);
+      }
+      return new Record(type, key, value, buffer.position() - start);
+    } catch (BufferUnderflowException e) {
+      throw new IOException("Incomplete action log record at " + offset, e);
+    }
+  }
+
+  private static ByteBuffer slice(ByteBuffer buffer, int length) {
+    ByteBuffer slice = buffer.slice();
+    slice.limit(length);
+    buffer.position(buffer.position() + length);
+    return slice;
+  }
+
+  private static byte[] toBytes(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.duplicate().get(bytes);
+    return bytes;
+  }
+
+  /** Appends a record to the log and returns its offset. */
+  private long append(byte type, byte[] key, byte[] value) throws IOException {
+    int recordSize = 1 + VarInt.varIntSize(key.length) + VarInt.varIntSize(value.length)
+        + key.length + value.length + 4;
+    if (recordSize > segmentSize) {
+      throw new IOException("Action cache record of " + recordSize + " bytes is too large");
+    }
+    if (logLength % segmentSize + recordSize > segmentSize) {
+      if (logLength % segmentSize != 0) {
+        segmentAt(segments, logLength).put(PADDING);
+      }
+      logLength = nextSegment(logLength);
+    }
+    int segment = (int) (logLength / segmentSize);
+    if (segment == segments.length) {
+      mapSegment(segment);
+    }
+    firstUnsavedSegment = Math.min(firstUnsavedSegment, segment);
+    ByteBuffer buffer = segmentAt(segments, logLength);
+    int start = buffer.position();
+    buffer.put(type);
+    VarInt.putVarInt(key.length, buffer);
+    VarInt.putVarInt(value.length, buffer);
+    buffer.put(key);
+    buffer.put(value);
+    ByteBuffer checked = buffer.duplicate();
+    checked.flip();
+    checked.position(start);
+    CRC32 crc = new CRC32();
+    crc.update(checked);
+    buffer.putInt((int) crc.getValue());
+
+    long offset = logLength;
+    logLength += recordSize;
+    return offset;
+  }
+
+  private static byte keyspace(byte type) {
+    return type == STRING ? STRING : ENTRY;
+  }
+
+  private static long hash(byte keyspace, byte[] key) {
+    return Hashing.murmur3_128().newHasher().putByte(keyspace).putBytes(key).hash().asLong();
+  }
+
+  private static int slotPosition(int slot) {
+    return INDEX_HEADER_SIZE + 8 * slot;
+  }
+
+  /**
+   * Returns the slot that holds the given key, or the empty slot where it belongs.
+   */
+  private int findSlot(byte keyspace, byte[] key, long hash) throws IOException {
+    long fragment = hash >>> OFFSET_BITS;
+    ByteBuffer wrappedKey = ByteBuffer.wrap(key);
+    int mask = capacity - 1;
+    for (int slot = (int) hash & mask; ; slot = (slot + 1) & mask) {
+      long value = index.getLong(slotPosition(slot));
+      if (value == 0) {
+        return slot;
+      }
+      if (value >>> OFFSET_BITS == fragment) {
+        Record record = readRecord(segments, value & OFFSET_MASK);
+        if (keyspace(record.type) == keyspace && record.key.equals(wrappedKey)) {
+          return slot;
+        }
+      }
+    }
+  }
+
+  /** Returns the offset of the latest record for the given key, or 0 if there is none. */
+  private long lookup(byte keyspace, byte[] key) throws IOException {
+    return index.getLong(slotPosition(findSlot(keyspace, key, hash(keyspace, key))))
+        & OFFSET_MASK;
+  }
+
+  /** Points the index entry for the key of a record at the record at the given offset. */
+  private void indexRecord(byte type, byte[] key, long offset) throws IOException {
+    Preconditions.checkState(offset <= OFFSET_MASK, offset);
+    if (indexClean) {
+      // Make sure a crash before the next save() rebuilds the index.
+      index.putInt(INDEX_CLEAN_OFFSET, 0);
+      index.force();
+      indexClean = false;
+    }
+    if ((size + 1) * 2 > capacity) {
+      resizeIndex(capacity * 2);
+    }
+    byte keyspace = keyspace(type);
+    long hash = hash(keyspace, key);
+    int position = slotPosition(findSlot(keyspace, key, hash));
+    long previous = index.getLong(position) & OFFSET_MASK;
+    if (previous == 0) {
+      size++;
+    } else {
+      garbageBytes += readRecord(segments, previous).size;
+    }
+    if (type == REMOVED) {
+      garbageBytes += readRecord(segments, offset).size;
+    }
+    index.putLong(position, ((hash >>> OFFSET_BITS) << OFFSET_BITS) | offset);
+  }
+
+  /** Moves all slots into a new, larger index file that then replaces the current one. */
+  private void resizeIndex(int newCapacity) throws IOException {
+    MappedByteBuffer oldIndex = index;
+    int oldCapacity = capacity;
+    int oldSize = size;
+    long oldGarbage = garbageBytes;
+    Path tmpFile = indexFile.getParentDirectory().getChild(indexFile.getBaseName() + ".tmp");
+    tmpFile.delete();
+    FileChannel oldChannel = indexChannel;
+    indexChannel = openChannel(tmpFile);
+    createIndex(newCapacity);
+    for (int slot = 0; slot < oldCapacity; slot++) {
+      long value = oldIndex.getLong(slotPosition(slot));
+      if (value != 0) {
+        Record record = readRecord(segments, value & OFFSET_MASK);
+        byte keyspace = keyspace(record.type);
+        byte[] key = toBytes(record.key);
+        int position = slotPosition(findSlot(keyspace, key, hash(keyspace, key)));
+        index.putLong(position, value);
+      }
+    }
+    oldChannel.close();
+    tmpFile.renameTo(indexFile);
+    size = oldSize;
+    garbageBytes = oldGarbage;
+  }
+
+  @Override
+  public ActionCache.Entry createEntry(String key) {
+    return new ActionCache.Entry(key);
+  }
+
+  @Override
+  public ActionCache.Entry get(String key) {
+    byte[] keyBytes = key.getBytes(UTF_8);
+    MappedByteBuffer[] segs;
+    long offset;
+    try {
+      synchronized (this) {
+        offset = lookup(ENTRY, keyBytes);
+        segs = segments;
+      }
+      if (offset == 0) {
+        return null;
+      }
+      Record record = readRecord(segs, offset);
+      return record.type == REMOVED ? null : decode(segs, record.value);
+    } catch (IOException e) {
+      // return entry marked as corrupted.
+      return CORRUPTED;
+    }
+  }
+
+  @Override
+  public synchronized void put(String key, ActionCache.Entry entry) {
+    try {
+      byte[] value = encode(entry);
+      byte[] keyBytes = key.getBytes(UTF_8);
+      indexRecord(ENTRY, keyBytes, append(ENTRY, keyBytes, value));
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Failed to add action cache entry for " + key, e);
+    }
+  }
+
+  @Override
+  public synchronized void remove(String key) {
+    try {
+      byte[] keyBytes = key.getBytes(UTF_8);
+      long offset = lookup(ENTRY, keyBytes);
+      if (offset != 0 && readRecord(segments, offset).type != REMOVED) {
+        indexRecord(REMOVED, keyBytes, append(REMOVED, keyBytes, new byte[0]));
+      }
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Failed to remove action cache entry for " + key, e);
+    }
+  }
+
+  @Override
+  public synchronized long save() throws IOException {
+    MappedByteBuffer[] segs = segments;
+    for (int i = firstUnsavedSegment; i < segs.length; i++) {
+      segs[i].force();
+    }
+    segs[0].putLong(LOG_LENGTH_OFFSET, logLength);
+    segs[0].force();
+    firstUnsavedSegment = segs.length;
+
+    index.putInt(INDEX_SIZE_OFFSET, size);
+    index.putLong(INDEX_LOG_LENGTH_OFFSET, logLength);
+    index.putLong(INDEX_GARBAGE_OFFSET, garbageBytes);
+    index.force();
+    index.putInt(INDEX_CLEAN_OFFSET, 1);
+    index.force();
+    indexClean = true;
+    return logLength + index.capacity();
+  }
+
+  /**
+   * Returns whether at least half of the log is taken by replaced or removed entries, and the
+   * log is large enough for {@link #compact} to be worthwhile.
+   */
+  public synchronized boolean needsCompaction() {
+    return logLength > segmentSize && garbageBytes * 2 > logLength;
+  }
+
+  /**
+   * Rewrites the log with only the live entries, and saves the cache. Entries that cannot be
+   * decoded are dropped. Blocks all other operations on the cache while it runs.
+   *
+   * @return false if the current thread was interrupted, in which case the cache is unchanged
+   *     and the thread stays interrupted
+   */
+  public synchronized boolean compact() throws IOException {
+    Path newLogFile = logFile.getParentDirectory().getChild(logFile.getBaseName() + ".compacting");
+    Path newIndexFile =
+        indexFile.getParentDirectory().getChild(indexFile.getBaseName() + ".compacting");
+    newLogFile.delete();
+    newIndexFile.delete();
+    MappedActionCache compacted =
+        new MappedActionCache(cacheRoot, newLogFile, newIndexFile, segmentSize);
+    boolean done = false;
+    try {
+      compacted.open();
+      for (int slot = 0; slot < capacity; slot++) {
+        long value = index.getLong(slotPosition(slot));
+        if (value == 0) {
+          continue;
+        }
+        Record record = readRecord(segments, value & OFFSET_MASK);
+        if (record.type != ENTRY) {
+          continue;
+        }
+        if (Thread.currentThread().isInterrupted()) {
+          return false;
+        }
+        ActionCache.Entry entry;
+        try {
+          entry = decode(segments, record.value);
+        } catch (IOException e) {
+          continue;
+        }
+        compacted.put(new String(toBytes(record.key), UTF_8), entry);
+      }
+      if (Thread.currentThread().isInterrupted()) {
+        return false;
+      }
+      compacted.save();
+      done = true;
+    } finally {
+      compacted.close();
+      if (!done) {
+        newLogFile.delete();
+        newIndexFile.delete();
+      }
+    }
+
+    long oldLength = logLength;
+    close();
+    newLogFile.renameTo(logFile);
+    newIndexFile.renameTo(indexFile);
+    open();
+    LOG.info("Compacted action cache log from " + oldLength + " to " + logLength + " bytes");
+    return true;
+  }
+
+  /**
+   * Returns the offset of the string record for the given path, appending one if needed.
+   */
+  private long stringOffset(String path) throws IOException {
+    byte[] bytes = path.getBytes(UTF_8);
+    long offset = lookup(STRING, bytes);
+    if (offset == 0) {
+      offset = append(STRING, bytes, new byte[0]);
+      indexRecord(STRING, bytes, offset);
+    }
+    return offset;
+  }
+
+  /**
+   * @return action data encoded as a byte[] array.
+   */
+  private byte[] encode(ActionCache.Entry entry) throws IOException {
+    Preconditions.checkState(!entry.isCorrupted());
+
+    byte[] actionKeyBytes = entry.getActionKey().getBytes(ISO_8859_1);
+    Collection<String> files = entry.getPaths();
+
+    // Estimate the size of the buffer:
+    //   5 bytes max for the actionKey length
+    // + the actionKey itself
+    // + 5 bytes max for the digest length, and the digest
+    // + 5 bytes max for the file list length
+    // + 10 bytes max for each file offset
+    ByteBuffer sink = ByteBuffer.allocate(VarInt.MAX_VARINT_SIZE + actionKeyBytes.length
+        + VarInt.MAX_VARINT_SIZE + Digest.size() + VarInt.MAX_VARINT_SIZE
+        + files.size() * VarInt.MAX_VARLONG_SIZE);
+
+    VarInt.putVarInt(actionKeyBytes.length, sink);
+    sink.put(actionKeyBytes);
+
+    entry.getFileDigest().write(sink);
+
+    VarInt.putVarInt(files.size(), sink);
+    for (String file : files) {
+      VarInt.putVarLong(stringOffset(file), sink);
+    }
+    return Arrays.copyOf(sink.array(), sink.position());
+  }
+
+  /**
+   * Creates an action cache entry from encoded entry data, reading its file paths from the
+   * given log segments.
+   */
+  private ActionCache.Entry decode(MappedByteBuffer[] segs, ByteBuffer data) throws IOException {
+    try {
+      ByteBuffer source = data.duplicate();
+
+      byte[] actionKeyBytes = new byte[VarInt.getVarInt(source)];
+      source.get(actionKeyBytes);
+      String actionKey = new String(actionKeyBytes, ISO_8859_1);
+
+      Digest digest = Digest.read(source);
+
+      int count = VarInt.getVarInt(source);
+      ImmutableList.Builder<String> builder = new ImmutableList.Builder<>();
+      for (int i = 0; i < count; i++) {
+        Record record = readRecord(segs, VarInt.getVarLong(source));
+        if (record.type != STRING) {
+          throw new IOException("Corrupted file index");
+        }
+        builder.add(new String(toBytes(record.key), UTF_8));
+      }
+      if (source.remaining() > 0) {
+        throw new IOException("serialized entry data has not been fully decoded");
+      }
+      return new Entry(actionKey, builder.build(), digest);
+    } catch (BufferUnderflowException | NegativeArraySizeException e) {
+      throw new IOException("encoded entry data is incomplete", e);
+    }
+  }
+
+  /** Calls the visitor with the key and record of every live entry, in index order. */
+  private interface EntryVisitor {
+    void visit(String key, Record record);
+  }
+
+  private void visitEntries(EntryVisitor visitor) {
+    for (int slot = 0; slot < capacity; slot++) {
+      long value = index.getLong(slotPosition(slot));
+      if (value == 0) {
+        continue;
+      }
+      Record record;
+      try {
+        record = readRecord(segments, value & OFFSET_MASK);
+      } catch (IOException e) {
+        continue;
+      }
+      if (record.type == ENTRY) {
+        visitor.visit(new String(toBytes(record.key), UTF_8), record);
+      }
+    }
+  }
+
+  private int countEntries() {
+    final int[] count = new int[1];
+    visitEntries(new EntryVisitor() {
+      @Override
+      public void visit(String key, Record record) {
+        count[0]++;
+      }
+    });
+    return count[0];
+  }
+
+  private String decodeToString(Record record) {
+    try {
+      return decode(segments, record.value).toString();
+    } catch (IOException e) {
+      return e + "\n";
+    }
+  }
+
+  @Override
+  public synchronized String toString() {
+    final StringBuilder builder = new StringBuilder();
+    final int count = countEntries();
+    builder.append("Action cache (" + count + " records):\n");
+    final int limit = count > 1000 ? 10 : count;
+    final int[] ct = new int[1];
+    visitEntries(new EntryVisitor() {
+      @Override
+      public void visit(String key, Record record) {
+        if (ct[0] > limit) {
+          return;
+        }
+        builder.append("-> ").append(key).append("\n")
+            .append(decodeToString(record)).append("  packed_len = ")
+            .append(record.value.remaining()).append("\n");
+        if (++ct[0] > limit) {
+          builder.append("...");
+        }
+      }
+    });
+    return builder.toString();
+  }
+
+  /**
+   * Dumps action cache content.
+   */
+  @Override
+  public synchronized void dump(final PrintStream out) {
+    out.println("Action log: " + logLength + " bytes, " + garbageBytes + " bytes of garbage, "
+        + size + " index slots used of " + capacity + "\n");
+    out.println("Action cache (" + countEntries() + " records):\n");
+    visitEntries(new EntryVisitor() {
+      @Override
+      public void visit(String key, Record record) {
+        out.println(key + ":\n" + decodeToString(record)
+            + "\n      packed_len = " + record.value.remaining() + "\n");
+      }
+    });
+  }
+}
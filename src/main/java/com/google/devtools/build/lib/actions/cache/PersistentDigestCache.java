@@ -0,0 +1,306 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.actions.cache;
+
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.util.Clock;
+import com.google.devtools.build.lib.util.PersistentMap;
+import com.google.devtools.build.lib.vfs.DigestHashFunction;
+import com.google.devtools.build.lib.vfs.FileStatus;
+import com.google.devtools.build.lib.vfs.Path;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+/**
+ * A persistent cache of file digests, so that a new server does not read the contents of files
+ * that have not changed since an earlier server digested them.
+ *
+ * <p>A digest is keyed by the path of the file, and is only returned while the inode number,
+ * size, modification time and change time of the file are those it was recorded with. The change
+ * time cannot be set by tools that restore modification times, and changes when the file is
+ * replaced by a rename.
+ *
+ * <p>Like the {@link com.google.devtools.build.lib.util.io.TimestampGranularityMonitor}, this
+ * cache has to allow for file systems that record times at a coarse granularity: a file that is
+ * modified again within the same tick as the version that was digested keeps its times. So the
+ * digest of a file is not recorded if the file was modified or changed less than
+ * {@link #RACY_INTERVAL_MILLIS} before its status was taken; it is digested again by the next
+ * server.
+ *
+ * <p>Digests that have not been used for {@link #MAX_AGE_MILLIS} are dropped when the cache is
+ * saved, and so are the least recently used ones beyond a maximum number of entries.
+ *
+ * <p>Each hash function has its own cache file, so that switching functions never returns a
+ * digest of the wrong kind.
+ */
+@ThreadSafe
+public class PersistentDigestCache {
+  private static final int VERSION = 2;
+
+  /**
+   * How long a file must have been left unchanged before its digest is recorded. Covers one
+   * second of timestamp granularity, plus slack for clock skew between the file system and us.
+   */
+  static final long RACY_INTERVAL_MILLIS = 2000;
+
+  /** How long a digest is kept without being used. */
+  static final long MAX_AGE_MILLIS = TimeUnit.DAYS.toMillis(30);
+
+  /**
+   * How often the last use of a digest is recorded. Each recording is written to the journal, so
+   * a digest that is used by every build is only written about once a day.
+   */
+  private static final long LAST_USE_GRANULARITY_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+  private static final int DEFAULT_MAX_ENTRIES = 1000000;
+
+  /** The status of a file when it was digested, its digest, and when the digest was last used. */
+  private static final class FileDigest {
+    final long nodeId;
+    final long size;
+    final long mtime;
+    final long ctime;
+    final byte[] digest;
+    final long lastUsed;
+
+    FileDigest(long nodeId, long size, long mtime, long ctime, byte[] digest, long lastUsed) {
+      this.nodeId = nodeId;
+      this.size = size;
+      this.mtime = mtime;
+      this.ctime = ctime;
+      this.digest = digest;
+      this.lastUsed = lastUsed;
+    }
+
+    FileDigest usedAt(long time) {
+      return new FileDigest(nodeId, size, mtime, ctime, digest, time);
+    }
+
+    boolean matches(long nodeId, FileStatus stat) throws IOException {
+      return this.nodeId == nodeId && size == stat.getSize()
+          && mtime == stat.getLastModifiedTime() && ctime == stat.getLastChangeTime();
+    }
+  }
+
+  private static final class DigestMap extends PersistentMap<String, FileDigest> {
+    DigestMap(Path mapFile, Path journalFile) throws IOException {
+      super(VERSION, new HashMap<String, FileDigest>(), mapFile, journalFile);
+      load();
+    }
+
+    @Override
+    protected boolean updateJournal() {
+      // Entries are only written by save(); losing the ones of a crashed server is harmless.
+      return false;
+    }
+
+    @Override
+    protected boolean keepJournal() {
+      // We must first flush the journal to get an accurate measure of its size.
+      forceFlush();
+      try {
+        return journalSize() * 100 < cacheSize();
+      } catch (IOException e) {
+        return false;
+      }
+    }
+
+    @Override
+    protected String readKey(DataInputStream in) throws IOException {
+      return in.readUTF();
+    }
+
+    @Override
+    protected FileDigest readValue(DataInputStream in) throws IOException {
+      long nodeId = in.readLong();
+      long size = in.readLong();
+      long mtime = in.readLong();
+      long ctime = in.readLong();
+      int length = in.readUnsignedByte();
+      if (length != DigestHashFunction.getDefault().getDigestLength()) {
+        throw new IOException("Unexpected digest length: " + length);
+      }
+      byte[] digest = new byte[length];
+      in.readFully(digest);
+      long lastUsed = in.readLong();
+      return new FileDigest(nodeId, size, mtime, ctime, digest, lastUsed);
+    }
+
+    @Override
+    protected void writeKey(String key, DataOutputStream out) throws IOException {
+      out.writeUTF(key);
+    }
+
+    @Override
+    protected void writeValue(FileDigest value, DataOutputStream out) throws IOException {
+      out.writeLong(value.nodeId);
+      out.writeLong(value.size);
+      out.writeLong(value.mtime);
+      out.writeLong(value.ctime);
+      out.writeByte(value.digest.length);
+      out.write(value.digest);
+      out.writeLong(value.lastUsed);
+    }
+  }
+
+  private final DigestMap map;
+  private final Clock clock;
+  private final int maxEntries;
+
+  public PersistentDigestCache(Path cacheRoot, Clock clock) throws IOException {
+    this(cacheRoot, clock, DEFAULT_MAX_ENTRIES);
+  }
+
+  PersistentDigestCache(Path cacheRoot, Clock clock, int maxEntries) throws IOException {
+    deleteOldVersions(cacheRoot);
+    this.map = new DigestMap(cacheFile(cacheRoot), journalFile(cacheRoot));
+    this.clock = clock;
+    this.maxEntries = maxEntries;
+  }
+
+  private static String baseName(DigestHashFunction function, int version) {
+    return "digest_cache_" + function.name().toLowerCase(Locale.US) + "_v" + version;
+  }
+
+  public static Path cacheFile(Path cacheRoot) {
+    return cacheRoot.getChild(baseName(DigestHashFunction.getDefault(), VERSION) + ".blaze");
+  }
+
+  public static Path journalFile(Path cacheRoot) {
+    return cacheRoot.getChild(
+        baseName(DigestHashFunction.getDefault(), VERSION) + "_journal.blaze");
+  }
+
+  /** Deletes the files of earlier versions of the cache, which are never read again. */
+  private static void deleteOldVersions(Path cacheRoot) throws IOException {
+    for (DigestHashFunction function : DigestHashFunction.values()) {
+      for (int version = 1; version < VERSION; version++) {
+        cacheRoot.getChild(baseName(function, version) + ".blaze").delete();
+        cacheRoot.getChild(baseName(function, version) + "_journal.blaze").delete();
+      }
+    }
+  }
+
+  /**
+   * Returns the current time, which must be read before the status of a file whose digest is
+   * passed to {@link #put}.
+   */
+  public long currentTimeMillis() {
+    return clock.currentTimeMillis();
+  }
+
+  /**
+   * Returns the recorded digest of the file at {@code path}, if the file still has the given
+   * status, which must have been obtained by following symbolic links.
+   */
+  @Nullable
+  public byte[] get(Path path, FileStatus stat) throws IOException {
+    long nodeId = stat.getNodeId();
+    if (nodeId < 0) {
+      // Without inode numbers, a replaced file could not be told apart from the original.
+      return null;
+    }
+    String key = path.getPathString();
+    FileDigest entry;
+    synchronized (this) {
+      entry = map.get(key);
+    }
+    if (entry == null || !entry.matches(nodeId, stat)) {
+      return null;
+    }
+    long now = clock.currentTimeMillis();
+    if (now - entry.lastUsed >= LAST_USE_GRANULARITY_MILLIS) {
+      synchronized (this) {
+        if (map.get(key) == entry) {
+          map.put(key, entry.usedAt(now));
+        }
+      }
+    }
+    return entry.digest;
+  }
+
+  /**
+   * Records the digest of the file at {@code path}, which must have been computed from contents
+   * read after {@code stat} was obtained, unless the file was changed too recently to tell
+   * whether it changed again since. {@code statTime} is the {@link #currentTimeMillis} read
+   * before {@code stat} was obtained: a file modified while it was read keeps its times if the
+   * modification falls within the same tick as the status, which is only ruled out by comparing
+   * with a time from before the read.
+   */
+  public void put(Path path, FileStatus stat, long statTime, byte[] digest) throws IOException {
+    long nodeId = stat.getNodeId();
+    long mtime = stat.getLastModifiedTime();
+    long ctime = stat.getLastChangeTime();
+    if (nodeId < 0 || statTime - Math.max(mtime, ctime) < RACY_INTERVAL_MILLIS) {
+      return;
+    }
+    FileDigest entry =
+        new FileDigest(nodeId, stat.getSize(), mtime, ctime, digest.clone(), statTime);
+    synchronized (this) {
+      map.put(path.getPathString(), entry);
+    }
+  }
+
+  /** Returns the number of recorded digests. */
+  public synchronized int size() {
+    return map.size();
+  }
+
+  /**
+   * Drops the digests that are too old or too many, and writes the changes since the last save to
+   * disk.
+   */
+  public synchronized long save() throws IOException {
+    prune(clock.currentTimeMillis());
+    return map.save();
+  }
+
+  private void prune(long now) {
+    List<Map.Entry<String, FileDigest>> entries = new ArrayList<>(map.size());
+    List<String> expired = new ArrayList<>();
+    for (Map.Entry<String, FileDigest> entry : map.entrySet()) {
+      if (now - entry.getValue().lastUsed > MAX_AGE_MILLIS) {
+        expired.add(entry.getKey());
+      } else {
+        entries.add(entry);
+      }
+    }
+    if (entries.size() > maxEntries) {
+      Collections.sort(entries, new Comparator<Map.Entry<String, FileDigest>>() {
+        @Override
+        public int compare(Map.Entry<String, FileDigest> a, Map.Entry<String, FileDigest> b) {
+          return Long.compare(a.getValue().lastUsed, b.getValue().lastUsed);
+        }
+      });
+      for (Map.Entry<String, FileDigest> entry : entries.subList(0, entries.size() - maxEntries)) {
+        expired.add(entry.getKey());
+      }
+    }
+    for (String key : expired) {
+      map.remove(key);
+    }
+  }
+}
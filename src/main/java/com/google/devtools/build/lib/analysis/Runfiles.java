@@ -22,6 +22,7 @@ import com.google.common.collect.Iterables;
 import com.google.devtools.build.lib.Constants;
 import com.google.devtools.build.lib.actions.Artifact;
 import com.google.devtools.build.lib.analysis.RuleConfiguredTarget.Mode;
+import com.google.devtools.build.lib.collect.nestedset.ElementReceiver;
 import com.google.devtools.build.lib.collect.nestedset.NestedSet;
 import com.google.devtools.build.lib.collect.nestedset.NestedSetBuilder;
 import com.google.devtools.build.lib.collect.nestedset.Order;
@@ -256,10 +257,11 @@ public final class Runfiles {
    */
   public NestedSet<Artifact> getArtifacts() {
     NestedSetBuilder<Artifact> allArtifacts = NestedSetBuilder.stableOrder();
-    allArtifacts.addAll(unconditionalArtifacts.toCollection());
     for (PruningManifest manifest : getPruningManifests()) {
       allArtifacts.addTransitive(manifest.getCandidateRunfiles());
     }
+    // Added last so that the unconditional artifacts still come after the candidates.
+    allArtifacts.addTransitive(unconditionalArtifacts);
     return allArtifacts.build();
   }
 
@@ -340,19 +342,29 @@ public final class Runfiles {
    */
   public Map<PathFragment, Artifact> getRunfilesInputs(EventHandler eventHandler,
       Location location) throws IOException {
-    Map<PathFragment, Artifact> manifest = getSymlinksAsMap();
-    // Add unconditional artifacts (committed to inclusion on construction of runfiles).
-    for (Artifact artifact : getUnconditionalArtifactsWithoutMiddlemen()) {
-      manifest.put(artifact.getRootRelativePath(), artifact);
-    }
+    final Map<PathFragment, Artifact> manifest = getSymlinksAsMap();
+    // Add unconditional artifacts (committed to inclusion on construction of runfiles). The
+    // nested sets are streamed, so that huge runfiles trees are not also held in lists.
+    unconditionalArtifacts.forEachElement(new ElementReceiver<Artifact, RuntimeException>() {
+      @Override
+      public void accept(Artifact artifact) {
+        if (!artifact.isMiddlemanArtifact()) {
+          manifest.put(artifact.getRootRelativePath(), artifact);
+        }
+      }
+    });
 
     // Add conditional artifacts (only included if they appear in a pruning manifest).
     for (Runfiles.PruningManifest pruningManifest : getPruningManifests()) {
       // This map helps us convert from source tree root-relative paths back to artifacts.
-      Map<String, Artifact> allowedRunfiles = new HashMap<>();
-      for (Artifact artifact : pruningManifest.getCandidateRunfiles()) {
-        allowedRunfiles.put(artifact.getRootRelativePath().getPathString(), artifact);
-      }
+      final Map<String, Artifact> allowedRunfiles = new HashMap<>();
+      pruningManifest.getCandidateRunfiles().forEachElement(
+          new ElementReceiver<Artifact, RuntimeException>() {
+            @Override
+            public void accept(Artifact artifact) {
+              allowedRunfiles.put(artifact.getRootRelativePath().getPathString(), artifact);
+            }
+          });
       BufferedReader reader = new BufferedReader(
           new InputStreamReader(pruningManifest.getManifestFile().getPath().getInputStream()));
       String line;
@@ -364,16 +376,17 @@ public final class Runfiles {
       }
     }
 
-    manifest = filterListForObscuringSymlinks(eventHandler, location, manifest);
+    Map<PathFragment, Artifact> filtered =
+        filterListForObscuringSymlinks(eventHandler, location, manifest);
 
     // TODO(bazel-team): Create /dev/null-like Artifact to avoid nulls?
-    for (PathFragment extraPath : emptyFilesSupplier.getExtraPaths(manifest.keySet())) {
-      manifest.put(extraPath, null);
+    for (PathFragment extraPath : emptyFilesSupplier.getExtraPaths(filtered.keySet())) {
+      filtered.put(extraPath, null);
     }
 
     PathFragment path = new PathFragment(suffix);
     Map<PathFragment, Artifact> result = new HashMap<>();
-    for (Map.Entry<PathFragment, Artifact> entry : manifest.entrySet()) {
+    for (Map.Entry<PathFragment, Artifact> entry : filtered.entrySet()) {
       result.put(path.getRelative(entry.getKey()), entry.getValue());
     }
 
@@ -464,11 +477,14 @@ public final class Runfiles {
         pruningManifests.isEmpty();
   }
 
-  private static Map<PathFragment, Artifact> entriesToMap(Iterable<SymlinkEntry> entrySet) {
-    Map<PathFragment, Artifact> map = new LinkedHashMap<>();
-    for (SymlinkEntry entry : entrySet) {
-      map.put(entry.getPath(), entry.getArtifact());
-    }
+  private static Map<PathFragment, Artifact> entriesToMap(NestedSet<SymlinkEntry> entrySet) {
+    final Map<PathFragment, Artifact> map = new LinkedHashMap<>();
+    entrySet.forEachElement(new ElementReceiver<SymlinkEntry, RuntimeException>() {
+      @Override
+      public void accept(SymlinkEntry entry) {
+        map.put(entry.getPath(), entry.getArtifact());
+      }
+    });
     return map;
   }
 
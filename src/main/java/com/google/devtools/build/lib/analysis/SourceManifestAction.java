@@ -21,6 +21,7 @@ import com.google.devtools.build.lib.actions.ActionOwner;
 import com.google.devtools.build.lib.actions.Artifact;
 import com.google.devtools.build.lib.actions.Executor;
 import com.google.devtools.build.lib.analysis.actions.AbstractFileWriteAction;
+import com.google.devtools.build.lib.collect.nestedset.ElementReceiver;
 import com.google.devtools.build.lib.events.EventHandler;
 import com.google.devtools.build.lib.util.Fingerprint;
 import com.google.devtools.build.lib.vfs.PathFragment;
@@ -187,7 +188,7 @@ public class SourceManifestAction extends AbstractFileWriteAction {
 
   @Override
   protected String computeKey() {
-    Fingerprint f = new Fingerprint();
+    final Fingerprint f = new Fingerprint();
     f.addString(GUID);
     Map<PathFragment, Artifact> symlinks = runfiles.getSymlinksAsMap();
     f.addInt(symlinks.size());
@@ -202,10 +203,15 @@ public class SourceManifestAction extends AbstractFileWriteAction {
       f.addPath(rootSymlink.getValue().getPath());
     }
 
-    for (Artifact artifact : runfiles.getArtifactsWithoutMiddlemen()) {
-      f.addPath(artifact.getRootRelativePath());
-      f.addPath(artifact.getPath());
-    }
+    runfiles.getArtifacts().forEachElement(new ElementReceiver<Artifact, RuntimeException>() {
+      @Override
+      public void accept(Artifact artifact) {
+        if (!artifact.isMiddlemanArtifact()) {
+          f.addPath(artifact.getRootRelativePath());
+          f.addPath(artifact.getPath());
+        }
+      }
+    });
     return f.hexDigestAndReset();
   }
 
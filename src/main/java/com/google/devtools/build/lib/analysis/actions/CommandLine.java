@@ -19,6 +19,8 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.devtools.build.lib.collect.CollectionUtils;
+import com.google.devtools.build.lib.collect.nestedset.ElementReceiver;
+import com.google.devtools.build.lib.util.Fingerprint;
 
 /**
  * A representation of a command line to be executed by a SpawnAction.
@@ -29,6 +31,29 @@ public abstract class CommandLine {
    */
   public abstract Iterable<String> arguments();
 
+  /**
+   * Passes each of {@link #arguments} to {@code receiver}, in order. Command lines that contain
+   * nested sets should override this to pass their elements on as they are expanded, so that
+   * huge command lines, for example for parameter files, are never held in memory at once.
+   */
+  public <X extends Exception> void forEachArgument(ElementReceiver<String, X> receiver)
+      throws X {
+    for (String argument : arguments()) {
+      receiver.accept(argument);
+    }
+  }
+
+  /**
+   * Adds the command line to {@code fingerprint}, for the key of an action. Command lines that add
+   * the same bytes must have the same {@link #arguments}.
+   *
+   * <p>By default, this method adds {@link #arguments}. Command lines that contain nested sets
+   * should add their fingerprints instead, which avoids expanding them.
+   */
+  public void addToFingerprint(Fingerprint fingerprint) {
+    fingerprint.addStrings(arguments());
+  }
+
   /**
    * Returns whether the command line represents a shell command with the given shell executable.
    * This is used to give better error messages.
@@ -88,6 +113,21 @@ public abstract class CommandLine {
         return Iterables.concat(executableArgs, commandLine.arguments());
       }
 
+      @Override
+      public <X extends Exception> void forEachArgument(ElementReceiver<String, X> receiver)
+          throws X {
+        for (String argument : executableArgs) {
+          receiver.accept(argument);
+        }
+        commandLine.forEachArgument(receiver);
+      }
+
+      @Override
+      public void addToFingerprint(Fingerprint fingerprint) {
+        fingerprint.addStrings(executableArgs);
+        commandLine.addToFingerprint(fingerprint);
+      }
+
       @Override
       public boolean isShellCommand() {
         return isShellCommand;
@@ -16,11 +16,15 @@ package com.google.devtools.build.lib.analysis.actions;
 
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Funnel;
+import com.google.common.hash.PrimitiveSink;
 import com.google.devtools.build.lib.actions.Artifact;
 import com.google.devtools.build.lib.collect.CollectionUtils;
+import com.google.devtools.build.lib.collect.nestedset.ElementReceiver;
 import com.google.devtools.build.lib.collect.nestedset.NestedSet;
 import com.google.devtools.build.lib.concurrent.ThreadSafety.Immutable;
 import com.google.devtools.build.lib.syntax.Label;
+import com.google.devtools.build.lib.util.Fingerprint;
 import com.google.devtools.build.lib.vfs.PathFragment;
 
 import java.util.ArrayList;
@@ -32,8 +36,40 @@ import java.util.List;
 @Immutable
 public final class CustomCommandLine extends CommandLine {
 
+  /**
+   * Added to a fingerprint before the fingerprint of a nested set, where other fragments add the
+   * number of their arguments, which is never negative. {@link CustomArgv} and
+   * {@link CustomMultiArgv} overrides of {@code addToFingerprint} that add a nested set start
+   * with it too.
+   */
+  public static final int NESTED_SET_MARKER = -1;
+
+  private static final Funnel<Object> TO_STRING_FUNNEL = new Funnel<Object>() {
+    @Override
+    public void funnel(Object from, PrimitiveSink into) {
+      String string = from.toString();
+      into.putInt(string.length()).putUnencodedChars(string);
+    }
+  };
+
   private abstract static class ArgvFragment {
-    abstract void eval(ImmutableList.Builder<String> builder);
+    abstract <X extends Exception> void eval(ElementReceiver<String, X> receiver) throws X;
+
+    void addToFingerprint(Fingerprint fingerprint) {
+      ImmutableList.Builder<String> builder = ImmutableList.builder();
+      eval(addingTo(builder));
+      fingerprint.addStrings(builder.build());
+    }
+  }
+
+  private static ElementReceiver<String, RuntimeException> addingTo(
+      final ImmutableList.Builder<String> builder) {
+    return new ElementReceiver<String, RuntimeException>() {
+      @Override
+      public void accept(String argument) {
+        builder.add(argument);
+      }
+    };
   }
 
   // It's better to avoid anonymous classes if we want to serialize command lines
@@ -46,8 +82,8 @@ public final class CustomCommandLine extends CommandLine {
     }
 
     @Override
-    void eval(ImmutableList.Builder<String> builder) {
-      builder.add(arg.toString());
+    <X extends Exception> void eval(ElementReceiver<String, X> receiver) throws X {
+      receiver.accept(arg.toString());
     }
   }
 
@@ -62,8 +98,19 @@ public final class CustomCommandLine extends CommandLine {
     }
 
     @Override
-    void eval(ImmutableList.Builder<String> builder) {
-      builder.add(Artifact.joinExecPaths(delimiter, artifacts));
+    <X extends Exception> void eval(ElementReceiver<String, X> receiver) throws X {
+      receiver.accept(Artifact.joinExecPaths(delimiter, artifacts));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    void addToFingerprint(Fingerprint fingerprint) {
+      if (artifacts instanceof NestedSet) {
+        fingerprint.addInt(NESTED_SET_MARKER).addString(delimiter)
+            .addNestedSet((NestedSet<Artifact>) artifacts, Artifact.EXEC_PATH_FUNNEL);
+      } else {
+        super.addToFingerprint(fingerprint);
+      }
     }
   }
 
@@ -78,9 +125,9 @@ public final class CustomCommandLine extends CommandLine {
     }
 
     @Override
-    void eval(ImmutableList.Builder<String> builder) {
+    <X extends Exception> void eval(ElementReceiver<String, X> receiver) throws X {
       // PathFragment.toString() uses getPathString()
-      builder.add(String.format(template, (Object[]) paths));
+      receiver.accept(String.format(template, (Object[]) paths));
     }
   }
 
@@ -93,8 +140,17 @@ public final class CustomCommandLine extends CommandLine {
   public abstract static class CustomArgv extends ArgvFragment {
 
     @Override
-    void eval(ImmutableList.Builder<String> builder) {
-      builder.add(argv());
+    <X extends Exception> void eval(ElementReceiver<String, X> receiver) throws X {
+      receiver.accept(argv());
+    }
+
+    /**
+     * Adds the argument to {@code fingerprint}. Override this to avoid expanding nested sets; the
+     * same bytes must always stand for the same argument.
+     */
+    @Override
+    public void addToFingerprint(Fingerprint fingerprint) {
+      super.addToFingerprint(fingerprint);
     }
 
     public abstract String argv();
@@ -106,8 +162,19 @@ public final class CustomCommandLine extends CommandLine {
   public abstract static class CustomMultiArgv extends ArgvFragment {
 
     @Override
-    void eval(ImmutableList.Builder<String> builder) {
-      builder.addAll(argv());
+    <X extends Exception> void eval(ElementReceiver<String, X> receiver) throws X {
+      for (String argument : argv()) {
+        receiver.accept(argument);
+      }
+    }
+
+    /**
+     * Adds the arguments to {@code fingerprint}. Override this to avoid expanding nested sets; the
+     * same bytes must always stand for the same arguments.
+     */
+    @Override
+    public void addToFingerprint(Fingerprint fingerprint) {
+      super.addToFingerprint(fingerprint);
     }
 
     public abstract Iterable<String> argv();
@@ -124,8 +191,19 @@ public final class CustomCommandLine extends CommandLine {
     }
 
     @Override
-    void eval(ImmutableList.Builder<String> builder) {
-      builder.add(Joiner.on(delimiter).join(paths));
+    <X extends Exception> void eval(ElementReceiver<String, X> receiver) throws X {
+      receiver.accept(Joiner.on(delimiter).join(paths));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    void addToFingerprint(Fingerprint fingerprint) {
+      if (paths instanceof NestedSet) {
+        fingerprint.addInt(NESTED_SET_MARKER).addString(delimiter)
+            .addNestedSet((NestedSet<PathFragment>) paths, PathFragment.PATH_STRING_FUNNEL);
+      } else {
+        super.addToFingerprint(fingerprint);
+      }
     }
   }
 
@@ -147,45 +225,96 @@ public final class CustomCommandLine extends CommandLine {
     private final Iterable<?> sequence;
     private final String beforeEach;
     private final String formatEach;
+    /** Whether {@code sequence} holds artifacts, which stand for their exec paths. */
+    private final boolean execPaths;
 
     /**
      * Do not call from outside this class because this does not guarantee that {@code sequence} is
      * immutable.
      */
-    private InterspersingArgs(Iterable<?> sequence, String beforeEach, String formatEach) {
+    private InterspersingArgs(Iterable<?> sequence, String beforeEach, String formatEach,
+        boolean execPaths) {
       this.sequence = sequence;
       this.beforeEach = beforeEach;
       this.formatEach = formatEach;
+      this.execPaths = execPaths;
     }
 
     static InterspersingArgs fromStrings(
         Iterable<?> sequence, String beforeEach, String formatEach) {
       return new InterspersingArgs(
-          CollectionUtils.makeImmutable(sequence), beforeEach, formatEach);
+          CollectionUtils.makeImmutable(sequence), beforeEach, formatEach, /*execPaths=*/false);
     }
 
     static InterspersingArgs fromExecPaths(
         Iterable<Artifact> sequence, String beforeEach, String formatEach) {
+      // Keep the artifacts rather than a view of their exec paths, so that a nested set can be
+      // fingerprinted without expanding it.
       return new InterspersingArgs(
-          Artifact.toExecPaths(CollectionUtils.makeImmutable(sequence)), beforeEach, formatEach);
+          CollectionUtils.makeImmutable(sequence), beforeEach, formatEach, /*execPaths=*/true);
     }
 
+    @SuppressWarnings("unchecked")
     @Override
-    void eval(ImmutableList.Builder<String> builder) {
-      for (Object item : sequence) {
-        if (item == null) {
-          continue;
-        }
+    void addToFingerprint(Fingerprint fingerprint) {
+      if (!(sequence instanceof NestedSet)) {
+        super.addToFingerprint(fingerprint);
+        return;
+      }
+      fingerprint.addInt(NESTED_SET_MARKER);
+      fingerprint.addBoolean(beforeEach != null);
+      if (beforeEach != null) {
+        fingerprint.addString(beforeEach);
+      }
+      fingerprint.addBoolean(formatEach != null);
+      if (formatEach != null) {
+        fingerprint.addString(formatEach);
+      }
+      if (execPaths) {
+        fingerprint.addNestedSet((NestedSet<Artifact>) sequence, Artifact.EXEC_PATH_FUNNEL);
+      } else {
+        fingerprint.addNestedSet((NestedSet<?>) sequence, TO_STRING_FUNNEL);
+      }
+    }
 
-        if (beforeEach != null) {
-          builder.add(beforeEach);
+    @Override
+    <X extends Exception> void eval(final ElementReceiver<String, X> receiver) throws X {
+      if (sequence instanceof NestedSet) {
+        // Stream the set rather than iterate over it, which would build a list of its elements.
+        ((NestedSet<?>) sequence).forEachElement(new ElementReceiver<Object, X>() {
+          @Override
+          public void accept(Object item) throws X {
+            evalItem(item, receiver);
+          }
+        });
+      } else {
+        for (Object item : sequence) {
+          evalItem(item, receiver);
         }
-        String arg = item.toString();
-        if (formatEach != null) {
-          arg = String.format(formatEach, arg);
+      }
+    }
+
+    private <X extends Exception> void evalItem(Object item, ElementReceiver<String, X> receiver)
+        throws X {
+      if (item == null) {
+        return;
+      }
+      if (execPaths) {
+        Artifact artifact = (Artifact) item;
+        if (artifact.isMiddlemanArtifact()) {
+          return;
         }
-        builder.add(arg);
+        item = artifact.getExecPathString();
+      }
+
+      if (beforeEach != null) {
+        receiver.accept(beforeEach);
+      }
+      String arg = item.toString();
+      if (formatEach != null) {
+        arg = String.format(formatEach, arg);
       }
+      receiver.accept(arg);
     }
   }
 
@@ -350,9 +479,27 @@ public final class CustomCommandLine extends CommandLine {
   @Override
   public Iterable<String> arguments() {
     ImmutableList.Builder<String> builder = ImmutableList.builder();
+    forEachArgument(addingTo(builder));
+    return builder.build();
+  }
+
+  @Override
+  public <X extends Exception> void forEachArgument(ElementReceiver<String, X> receiver)
+      throws X {
     for (ArgvFragment arg : arguments) {
-      arg.eval(builder);
+      arg.eval(receiver);
+    }
+  }
+
+  /**
+   * Adds each fragment of the command line to {@code fingerprint}. Nested sets of arguments add
+   * their memoized fingerprints, so they are not expanded.
+   */
+  @Override
+  public void addToFingerprint(Fingerprint fingerprint) {
+    fingerprint.addInt(arguments.size());
+    for (ArgvFragment arg : arguments) {
+      arg.addToFingerprint(fingerprint);
     }
-    return builder.build();
   }
 }
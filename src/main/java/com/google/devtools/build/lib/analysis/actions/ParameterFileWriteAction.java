@@ -20,6 +20,7 @@ import com.google.devtools.build.lib.actions.ActionOwner;
 import com.google.devtools.build.lib.actions.Artifact;
 import com.google.devtools.build.lib.actions.Executor;
 import com.google.devtools.build.lib.actions.ParameterFile.ParameterFileType;
+import com.google.devtools.build.lib.collect.nestedset.ElementReceiver;
 import com.google.devtools.build.lib.events.EventHandler;
 import com.google.devtools.build.lib.util.Fingerprint;
 import com.google.devtools.build.lib.util.ShellEscaper;
@@ -87,15 +88,11 @@ public final class ParameterFileWriteAction extends AbstractFileWriteAction {
   }
 
   /**
-   * Writes the arguments from the list into the parameter file.
+   * Writes the arguments from the list into the parameter file, as the command line produces
+   * them.
    */
   private void writeContentUnquoted(OutputStream outputStream) throws IOException {
-    OutputStreamWriter out = new OutputStreamWriter(outputStream, charset);
-    for (String line : commandLine.arguments()) {
-      out.write(line);
-      out.write('\n');
-    }
-    out.flush();
+    writeContent(outputStream, /*quoted=*/false);
   }
 
   /**
@@ -103,11 +100,18 @@ public final class ParameterFileWriteAction extends AbstractFileWriteAction {
    * quoting (if required).
    */
   private void writeContentQuoted(OutputStream outputStream) throws IOException {
-    OutputStreamWriter out = new OutputStreamWriter(outputStream, charset);
-    for (String line : ShellEscaper.escapeAll(commandLine.arguments())) {
-      out.write(line);
-      out.write('\n');
-    }
+    writeContent(outputStream, /*quoted=*/true);
+  }
+
+  private void writeContent(OutputStream outputStream, final boolean quoted) throws IOException {
+    final OutputStreamWriter out = new OutputStreamWriter(outputStream, charset);
+    commandLine.forEachArgument(new ElementReceiver<String, IOException>() {
+      @Override
+      public void accept(String line) throws IOException {
+        out.write(quoted ? ShellEscaper.escapeString(line) : line);
+        out.write('\n');
+      }
+    });
     out.flush();
   }
 
@@ -116,7 +120,7 @@ public final class ParameterFileWriteAction extends AbstractFileWriteAction {
     Fingerprint f = new Fingerprint();
     f.addString(GUID);
     f.addString(String.valueOf(makeExecutable));
-    f.addStrings(commandLine.arguments());
+    commandLine.addToFingerprint(f);
     return f.hexDigestAndReset();
   }
 }
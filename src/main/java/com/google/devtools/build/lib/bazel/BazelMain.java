@@ -39,7 +39,8 @@ public final class BazelMain {
       com.google.devtools.build.lib.standalone.StandaloneModule.class,
       com.google.devtools.build.lib.runtime.BuildSummaryStatsModule.class,
       com.google.devtools.build.lib.webstatusserver.WebStatusServerModule.class,
-      com.google.devtools.build.lib.worker.WorkerModule.class
+      com.google.devtools.build.lib.worker.WorkerModule.class,
+      com.google.devtools.build.lib.remote.RemoteModule.class
   );
 
   public static void main(String[] args) {
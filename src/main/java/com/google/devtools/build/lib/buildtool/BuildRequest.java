@@ -96,6 +96,15 @@ public class BuildRequest implements OptionsClassProvider {
                 + " are not allowed.")
     public int jobs;
 
+    @Option(name = "experimental_prioritize_slow_actions",
+            defaultValue = "false",
+            category = "undocumented",
+            help = "If true, actions with the longest path of actions depending on them in "
+                + "previous builds in the same server are started first when more actions are "
+                + "ready than can be run. Cannot be used with the "
+                + "--experimental_fork_join_skyframe_evaluator startup option.")
+    public boolean prioritizeSlowActions;
+
     @Option(name = "progress_report_interval",
             defaultValue = "0",
             category = "verbosity",
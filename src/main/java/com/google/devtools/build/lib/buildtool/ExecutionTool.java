@@ -46,6 +46,9 @@ import com.google.devtools.build.lib.actions.ResourceSet;
 import com.google.devtools.build.lib.actions.SpawnActionContext;
 import com.google.devtools.build.lib.actions.TestExecException;
 import com.google.devtools.build.lib.actions.cache.ActionCache;
+import com.google.devtools.build.lib.actions.cache.DigestUtils;
+import com.google.devtools.build.lib.actions.cache.PersistentDigestCache;
+import com.google.devtools.build.lib.actions.cache.DiskCache;
 import com.google.devtools.build.lib.analysis.BuildView;
 import com.google.devtools.build.lib.analysis.BuildView.AnalysisResult;
 import com.google.devtools.build.lib.analysis.ConfiguredTarget;
@@ -60,6 +63,7 @@ import com.google.devtools.build.lib.analysis.ViewCreationFailedException;
 import com.google.devtools.build.lib.analysis.WorkspaceStatusAction;
 import com.google.devtools.build.lib.analysis.config.BuildConfiguration;
 import com.google.devtools.build.lib.analysis.config.BuildConfigurationCollection;
+import com.google.devtools.build.lib.buildtool.buildevent.DiskCacheStatisticsEvent;
 import com.google.devtools.build.lib.buildtool.buildevent.ExecutionPhaseCompleteEvent;
 import com.google.devtools.build.lib.buildtool.buildevent.ExecutionStartingEvent;
 import com.google.devtools.build.lib.collect.CollectionUtils;
@@ -81,6 +85,7 @@ import com.google.devtools.build.lib.rules.fileset.FilesetActionContextImpl;
 import com.google.devtools.build.lib.rules.test.TestActionContext;
 import com.google.devtools.build.lib.runtime.BlazeModule;
 import com.google.devtools.build.lib.runtime.BlazeRuntime;
+import com.google.devtools.build.lib.runtime.BlazeServerStartupOptions;
 import com.google.devtools.build.lib.skyframe.Builder;
 import com.google.devtools.build.lib.skyframe.SkyframeExecutor;
 import com.google.devtools.build.lib.syntax.Label;
@@ -88,6 +93,7 @@ import com.google.devtools.build.lib.util.AbruptExitException;
 import com.google.devtools.build.lib.util.BlazeClock;
 import com.google.devtools.build.lib.util.ExitCode;
 import com.google.devtools.build.lib.util.LoggingUtil;
+import com.google.devtools.build.lib.util.OS;
 import com.google.devtools.build.lib.util.io.OutErr;
 import com.google.devtools.build.lib.vfs.FileSystem;
 import com.google.devtools.build.lib.vfs.FileSystemUtils;
@@ -184,6 +190,13 @@ public class ExecutionTool {
     this.runtime = runtime;
     this.request = request;
 
+    // Prioritizing actions needs the shared work queue that the fork-join evaluator does not have.
+    if (request.getBuildOptions().prioritizeSlowActions && runtime.getStartupOptionsProvider()
+        .getOptions(BlazeServerStartupOptions.class).forkJoinSkyframeEvaluator) {
+      throw new ExecutorInitException("--experimental_prioritize_slow_actions cannot be used "
+          + "with the --experimental_fork_join_skyframe_evaluator startup option");
+    }
+
     List<ActionContextConsumer> actionContextConsumers = new ArrayList<>();
     actionContextProviders = new ArrayList<>();
     for (BlazeModule module : runtime.getBlazeModules()) {
@@ -337,8 +350,14 @@ public class ExecutionTool {
       startLocalOutputBuild(); // TODO(bazel-team): this could be just another OutputService
     }
 
+    DigestUtils.setMaxConcurrentLargeFileReads(
+        request.getOptions(ExecutionOptions.class).maxConcurrentLargeFileReads);
     ActionCache actionCache = getActionCache();
+    PersistentDigestCache digestCache = getDigestCache(request);
+    DigestUtils.setPersistentDigestCache(digestCache);
     Builder builder = createBuilder(request, executor, actionCache, skyframeExecutor);
+    DiskCache diskCache = createDiskCache(request);
+    skyframeExecutor.setDiskCache(diskCache);
 
     //
     // Execution proper.  All statements below are logically nested in
@@ -420,8 +439,15 @@ public class ExecutionTool {
 
       Profiler.instance().markPhase(ProfilePhase.FINISH);
 
+      DigestUtils.setPersistentDigestCache(null);
       if (!interrupted) {
-        saveCaches(actionCache);
+        saveCaches(actionCache, digestCache);
+      }
+      if (diskCache != null) {
+        skyframeExecutor.setDiskCache(null);
+        getEventBus().post(
+            new DiskCacheStatisticsEvent(diskCache.getHits(), diskCache.getMisses()));
+        evictFromDiskCache(diskCache);
       }
 
       long startTime = Profiler.nanoTimeMaybe();
@@ -720,6 +746,51 @@ public class ExecutionTool {
     }
   }
 
+  /**
+   * Returns the cache of file digests requested by --experimental_persistent_digest_cache, if any.
+   * Failing to load it only costs reading files again, so errors are not fatal.
+   */
+  @Nullable
+  private PersistentDigestCache getDigestCache(BuildRequest request) {
+    if (!request.getOptions(ExecutionOptions.class).persistentDigestCache) {
+      return null;
+    }
+    try {
+      return runtime.getPersistentDigestCache();
+    } catch (IOException e) {
+      getReporter().handle(Event.warn("Failed to initialize digest cache: " + e.getMessage()));
+      return null;
+    }
+  }
+
+  /** Returns the cache of action outputs requested by --experimental_disk_cache, if any. */
+  @Nullable
+  private DiskCache createDiskCache(BuildRequest request) {
+    ExecutionOptions options = request.getOptions(ExecutionOptions.class);
+    if (options.diskCache == null) {
+      return null;
+    }
+    Path root = getWorkspace().getRelative(options.diskCache);
+    try {
+      return new DiskCache(root, options.diskCacheMaxSizeMb * 1024 * 1024);
+    } catch (IOException e) {
+      getReporter().handle(Event.warn("Disk cache disabled: couldn't create '" + root + "': "
+          + e.getMessage()));
+      return null;
+    }
+  }
+
+  private void evictFromDiskCache(DiskCache diskCache) {
+    long startTime = Profiler.nanoTimeMaybe();
+    try {
+      diskCache.evict();
+    } catch (IOException e) {
+      getReporter().handle(Event.warn("Failed to evict files from the disk cache: "
+          + e.getMessage()));
+    }
+    Profiler.instance().logSimpleTask(startTime, ProfilerTask.INFO, "Evicting from disk cache");
+  }
+
   private Builder createBuilder(BuildRequest request,
       Executor executor,
       ActionCache actionCache,
@@ -740,6 +811,7 @@ public class ExecutionTool {
     // client.
     fileCache = createBuildSingleFileCache(executor.getExecRoot());
     skyframeExecutor.setActionOutputRoot(actionOutputRoot);
+    skyframeExecutor.setPrioritizeSlowActions(options.prioritizeSlowActions);
     return new SkyframeBuilder(skyframeExecutor,
         new ActionCacheChecker(actionCache, getView().getArtifactFactory(), executionFilter,
             verboseExplanations),
@@ -758,6 +830,7 @@ public class ExecutionTool {
       resources = LocalHostCapacity.getLocalHostCapacity();
       resourceMgr.setRamUtilizationPercentage(options.ramUtilizationPercentage);
     }
+    resourceMgr.setAdaptive(options.adaptiveResources && OS.getCurrent() == OS.LINUX);
 
     resourceMgr.setAvailableResources(ResourceSet.create(
         resources.getMemoryMb(),
@@ -772,7 +845,7 @@ public class ExecutionTool {
    * Writes the cache files to disk, reporting any errors that occurred during
    * writing.
    */
-  private void saveCaches(ActionCache actionCache) {
+  private void saveCaches(ActionCache actionCache, @Nullable PersistentDigestCache digestCache) {
     long actionCacheSizeInBytes = 0;
     long actionCacheSaveTime;
 
@@ -791,6 +864,18 @@ public class ExecutionTool {
                                         ProfilerTask.INFO, "Saving action cache");
     }
 
+    if (digestCache != null) {
+      startTime = BlazeClock.nanoTime();
+      try {
+        digestCache.save();
+      } catch (IOException e) {
+        getReporter().handle(
+            Event.warn("I/O error while writing digest cache: " + e.getMessage()));
+      } finally {
+        Profiler.instance().logSimpleTask(startTime, ProfilerTask.INFO, "Saving digest cache");
+      }
+    }
+
     runtime.getEventBus().post(new CachesSavedEvent(
         actionCacheSaveTime, actionCacheSizeInBytes));
   }
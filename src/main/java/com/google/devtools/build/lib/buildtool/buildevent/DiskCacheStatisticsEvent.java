@@ -0,0 +1,42 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.buildtool.buildevent;
+
+/**
+ * This event is fired at the end of the execution phase of a build that used the local disk cache
+ * of action outputs.
+ */
+public class DiskCacheStatisticsEvent {
+  private final int hits;
+  private final int misses;
+
+  /**
+   * Construct the event.
+   *
+   * @param hits number of actions whose outputs were fetched from the cache
+   * @param misses number of cacheable actions that had to be executed
+   */
+  public DiskCacheStatisticsEvent(int hits, int misses) {
+    this.hits = hits;
+    this.misses = misses;
+  }
+
+  public int getHits() {
+    return hits;
+  }
+
+  public int getMisses() {
+    return misses;
+  }
+}
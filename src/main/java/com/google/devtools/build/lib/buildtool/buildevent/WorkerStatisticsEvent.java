@@ -0,0 +1,97 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.buildtool.buildevent;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * This event is fired at the end of the execution phase of a build that used persistent worker
+ * processes.
+ */
+public class WorkerStatisticsEvent {
+  /** The statistics of a single worker process. */
+  public static final class WorkerStatistics {
+    private final String mnemonic;
+    private final long pid;
+    private final int requests;
+    private final long latencyNanos;
+    private final long rssKb;
+
+    /**
+     * @param mnemonic the mnemonic of the actions the worker executes
+     * @param pid the process id of the worker, or -1 if unknown
+     * @param requests number of requests the worker served during the build
+     * @param latencyNanos the total time it took to serve those requests
+     * @param rssKb the resident set size of the worker, or -1 if unknown
+     */
+    public WorkerStatistics(String mnemonic, long pid, int requests, long latencyNanos,
+        long rssKb) {
+      this.mnemonic = mnemonic;
+      this.pid = pid;
+      this.requests = requests;
+      this.latencyNanos = latencyNanos;
+      this.rssKb = rssKb;
+    }
+
+    public String getMnemonic() {
+      return mnemonic;
+    }
+
+    public long getPid() {
+      return pid;
+    }
+
+    public int getRequests() {
+      return requests;
+    }
+
+    public long getLatencyNanos() {
+      return latencyNanos;
+    }
+
+    public long getRssKb() {
+      return rssKb;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%s worker %d: %d requests, %d ms average latency, %d MB RSS",
+          mnemonic, pid, requests, requests == 0 ? 0 : latencyNanos / requests / 1000000,
+          rssKb / 1024);
+    }
+  }
+
+  private final ImmutableList<WorkerStatistics> workers;
+  private final int evicted;
+
+  /**
+   * Construct the event.
+   *
+   * @param workers the statistics of the worker processes that are still running
+   * @param evicted number of idle worker processes that were stopped to stay within the memory
+   *     limit
+   */
+  public WorkerStatisticsEvent(Iterable<WorkerStatistics> workers, int evicted) {
+    this.workers = ImmutableList.copyOf(workers);
+    this.evicted = evicted;
+  }
+
+  public ImmutableList<WorkerStatistics> getWorkers() {
+    return workers;
+  }
+
+  public int getEvicted() {
+    return evicted;
+  }
+}
@@ -13,8 +13,6 @@
 // limitations under the License.
 package com.google.devtools.build.lib.collect.nestedset;
 
-import com.google.common.collect.ImmutableCollection;
-
 /**
  * A nested set expander that implements left-to-right postordering.
  *
@@ -30,18 +28,26 @@ final class CompileOrderExpander<E> implements NestedSetExpander<E> {
   // NestedSet.
   @SuppressWarnings("unchecked")
   @Override
-  public void expandInto(NestedSet<E> set, Uniqueifier uniqueifier,
-      ImmutableCollection.Builder<E> builder) {
-    for (NestedSet<E> subset : set.transitiveSets()) {
-      if (!subset.isEmpty() && uniqueifier.isUnique(subset)) {
-        expandInto(subset, uniqueifier, builder);
+  public <X extends Exception> void expandInto(NestedSet<E> set, Uniqueifier uniqueifier,
+      ElementReceiver<? super E, X> receiver) throws X {
+    Object children = set.rawChildren();
+    if (!(children instanceof Object[])) {
+      if (uniqueifier.isUnique(children)) {
+        receiver.accept((E) children);
+      }
+      return;
+    }
+    Object[] array = (Object[]) children;
+    int directCount = set.directCount(array);
+    for (int i = directCount + 1; i < array.length; i++) {
+      if (uniqueifier.isUnique(array[i])) {
+        expandInto((NestedSet<E>) array[i], uniqueifier, receiver);
       }
     }
 
-    // This switch is here to compress the memo used by the uniqueifier
-    for (Object e : set.directMembers()) {
-      if (uniqueifier.isUnique(e)) {
-        builder.add((E) e);
+    for (int i = 0; i < directCount; i++) {
+      if (uniqueifier.isUnique(array[i])) {
+        receiver.accept((E) array[i]);
       }
     }
   }
@@ -0,0 +1,26 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.collect.nestedset;
+
+/**
+ * Receives the elements of an expansion one at a time, for example from
+ * {@link NestedSet#forEachElement}, so that they need not be collected first.
+ *
+ * @param <E> the type of the elements
+ * @param <X> the type of exception that the receiver may throw, which is passed on to the
+ *     caller; use {@link RuntimeException} for receivers that throw no checked exceptions
+ */
+public interface ElementReceiver<E, X extends Exception> {
+  void accept(E element) throws X;
+}
@@ -13,8 +13,8 @@
 // limitations under the License.
 package com.google.devtools.build.lib.collect.nestedset;
 
-import com.google.common.collect.ImmutableCollection;
-import com.google.common.collect.ImmutableList;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * A nested set expander that implements a variation of left-to-right preordering.
@@ -70,35 +70,43 @@ import com.google.common.collect.ImmutableList;
  * dictates "E D". In such cases ordering is decided by the rightmost branch
  * because of the list reversing behind the scenes, so the ordering in the final
  * enumeration will be "E D".
+ *
+ * <p>Because of the reversal, this expander collects the elements before it passes them on.
  */
 
 final class LinkOrderExpander<E> implements NestedSetExpander<E> {
   @Override
-  public void expandInto(NestedSet<E> nestedSet, Uniqueifier uniqueifier,
-      ImmutableCollection.Builder<E> builder) {
-    ImmutableList.Builder<E> result = ImmutableList.builder();
+  public <X extends Exception> void expandInto(NestedSet<E> nestedSet, Uniqueifier uniqueifier,
+      ElementReceiver<? super E, X> receiver) throws X {
+    List<E> result = new ArrayList<>();
     internalEnumerate(nestedSet, uniqueifier, result);
-    builder.addAll(result.build().reverse());
+    for (int i = result.size() - 1; i >= 0; i--) {
+      receiver.accept(result.get(i));
+    }
   }
 
   // We suppress unchecked warning so that we can access the internal raw structure of the
   // NestedSet.
   @SuppressWarnings("unchecked")
-  private void internalEnumerate(NestedSet<E> set, Uniqueifier uniqueifier,
-      ImmutableCollection.Builder<E> builder) {
-    NestedSet[] transitiveSets = set.transitiveSets();
-    for (int i = transitiveSets.length - 1; i >= 0; i--) {
-      NestedSet<E> subset = transitiveSets[i];
-      if (!subset.isEmpty() && uniqueifier.isUnique(subset)) {
-        internalEnumerate(subset, uniqueifier, builder);
+  private void internalEnumerate(NestedSet<E> set, Uniqueifier uniqueifier, List<E> result) {
+    Object children = set.rawChildren();
+    if (!(children instanceof Object[])) {
+      if (uniqueifier.isUnique(children)) {
+        result.add((E) children);
+      }
+      return;
+    }
+    Object[] array = (Object[]) children;
+    int directCount = set.directCount(array);
+    for (int i = array.length - 1; i > directCount; i--) {
+      if (uniqueifier.isUnique(array[i])) {
+        internalEnumerate((NestedSet<E>) array[i], uniqueifier, result);
       }
     }
 
-    Object[] directMembers = set.directMembers();
-    for (int i = directMembers.length - 1; i >= 0; i--) {
-      Object e = directMembers[i];
-      if (uniqueifier.isUnique(e)) {
-        builder.add((E) e);
+    for (int i = directCount - 1; i >= 0; i--) {
+      if (uniqueifier.isUnique(array[i])) {
+        result.add((E) array[i]);
       }
     }
   }
@@ -14,29 +14,144 @@
 package com.google.devtools.build.lib.collect.nestedset;
 
 import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableCollection;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Sets;
+import com.google.common.hash.Funnel;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import javax.annotation.Nullable;
 
 /**
  * A list-like iterable that supports efficient nesting.
  *
+ * <p>All nested sets share one compact representation: a single field that holds either the only
+ * element of the set, or an array of its direct members followed by its transitive sets. The
+ * {@link Order}, and whether there are transitive sets, are encoded in the class, so that they
+ * take no space. If there are transitive sets, the array has one more slot between the direct
+ * members and the transitive sets, which memoizes the expansion of the set and, on demand, its
+ * size, depth and fingerprint. The memo is not serialized.
+ *
+ * <p>Each order has a single empty set, which is the only nested set that stores its order in a
+ * field.
+ *
  * @see NestedSetBuilder
  */
 public abstract class NestedSet<E> implements Iterable<E>, Serializable {
 
-  NestedSet() {}
+  private static final Object[] EMPTY_CHILDREN = new Object[0];
+
+  /**
+   * The only element of this set if it has no transitive sets, or else the direct members, and
+   * if there are any non-empty transitive sets, the memo slot followed by these sets.
+   *
+   * <p>Elements are never arrays or nested sets, which keeps the cases apart.
+   */
+  private final Object children;
+
+  private NestedSet(Object children) {
+    this.children = children;
+  }
+
+  /**
+   * Creates a nested set of the given order, with the given direct members followed by the given
+   * transitive sets, which must not be empty.
+   */
+  static <E> NestedSet<E> create(Order order, Collection<?> directs,
+      Collection<? extends NestedSet<?>> transitives) {
+    if (transitives.isEmpty() && directs.isEmpty()) {
+      return order.emptySet();
+    }
+    if (transitives.isEmpty() && directs.size() == 1) {
+      return order.create(checkElement(directs.iterator().next()), false);
+    }
+    boolean hasTransitiveSets = !transitives.isEmpty();
+    Object[] children =
+        new Object[directs.size() + (hasTransitiveSets ? 1 + transitives.size() : 0)];
+    int i = 0;
+    for (Object direct : directs) {
+      children[i++] = checkElement(direct);
+    }
+    if (hasTransitiveSets) {
+      i++;  // The memo slot.
+      for (NestedSet<?> transitive : transitives) {
+        children[i++] = transitive;
+      }
+    }
+    return order.create(children, hasTransitiveSets);
+  }
+
+  private static Object checkElement(Object element) {
+    Preconditions.checkNotNull(element);
+    Preconditions.checkArgument(!(element instanceof NestedSet) && !(element instanceof Object[]),
+        "Nested sets cannot contain nested sets or arrays as elements: %s", element);
+    return element;
+  }
+
+  /** Creates the empty set of {@code order}; only for {@link Order}, which keeps a singleton. */
+  static <E> NestedSet<E> empty(Order order) {
+    return new EmptyNestedSet<>(order);
+  }
 
   /**
    * Returns the ordering of this nested set.
    */
   public abstract Order getOrder();
 
+  /**
+   * Returns whether this set has transitive sets, and thus a memo slot. This only depends on the
+   * class, so that the direct members need not be read to tell.
+   */
+  final boolean hasTransitiveSets() {
+    return this instanceof WithTransitiveSets;
+  }
+
+  /**
+   * Returns the only element of this set if it has exactly one element and no transitive sets,
+   * or else its array of children: the direct members, then, if the set has transitive sets, the
+   * memo slot and the transitive sets; use {@link #directCount}. For expanders, which must not
+   * modify the array.
+   */
+  final Object rawChildren() {
+    return children;
+  }
+
+  /**
+   * Returns the number of direct members in {@code array}, the {@link #rawChildren} of this set.
+   * If the set has transitive sets, this is the index of the memo slot, and the transitive sets
+   * start right after it; otherwise, it is the length of the array.
+   *
+   * <p>The memo slot is found by walking back over the transitive sets, which never reads the
+   * direct members: during an expansion that replays a memo, they are not otherwise touched.
+   */
+  final int directCount(Object[] array) {
+    if (!hasTransitiveSets()) {
+      return array.length;
+    }
+    // The memo slot never holds a nested set, so this stops there.
+    int i = array.length - 1;
+    while (array[i] instanceof NestedSet) {
+      i--;
+    }
+    return i;
+  }
+
   /**
    * Returns a collection of elements added to this specific set in an implementation-specified
    * order.
@@ -47,22 +162,33 @@ public abstract class NestedSet<E> implements Iterable<E>, Serializable {
    * would need to have access to the specific class that E represents in order to create an E
    * array. Since this method is only designed to be used internally it is fine to keep it as
    * Object[].
-   *
-   * <p>Callers of this method should only consume the objects and not modify the array.
    */
-  abstract Object[] directMembers();
+  final Object[] directMembers() {
+    if (!(children instanceof Object[])) {
+      return new Object[] {children};
+    }
+    Object[] array = (Object[]) children;
+    return Arrays.copyOf(array, directCount(array));
+  }
 
   /**
    * Returns the collection of sets included as subsets in this set.
-   *
-   * <p>Callers of this method should only consume the objects and not modify the array.
    */
-  abstract NestedSet[] transitiveSets();
+  final NestedSet[] transitiveSets() {
+    if (!hasTransitiveSets()) {
+      return new NestedSet[0];
+    }
+    Object[] array = (Object[]) children;
+    return Arrays.copyOfRange(array, directCount(array) + 1, array.length, NestedSet[].class);
+  }
 
   /**
    * Returns true if the set is empty.
    */
-  public abstract boolean isEmpty();
+  public final boolean isEmpty() {
+    // The builder drops empty transitive sets, so only the empty set has no children.
+    return children instanceof Object[] && ((Object[]) children).length == 0;
+  }
 
   /**
    * Returns a collection of all unique elements of this set (including subsets)
@@ -81,7 +207,19 @@ public abstract class NestedSet<E> implements Iterable<E>, Serializable {
    *
    * <p>Use {@link #toCollection} when possible for better efficiency.
    */
-  public abstract List<E> toList();
+  @SuppressWarnings("unchecked")
+  public List<E> toList() {
+    if (!hasTransitiveSets()) {
+      // All orders list the direct members of a set without transitive sets in the order in which
+      // they were added, so skip the expander.
+      return children instanceof Object[]
+          ? (List<E>) ImmutableList.copyOf((Object[]) children)
+          : ImmutableList.of((E) children);
+    }
+    ImmutableList.Builder<E> builder = ImmutableList.builder();
+    memoizedExpand(addingTo(builder), /*holdLockWhileRecording=*/true);
+    return builder.build();
+  }
 
   /**
    * Returns a collection of all unique elements of this set (including subsets)
@@ -89,7 +227,335 @@ public abstract class NestedSet<E> implements Iterable<E>, Serializable {
    *
    * <p>Use {@link #toCollection} when possible for better efficiency.
    */
-  public abstract Set<E> toSet();
+  @SuppressWarnings("unchecked")
+  public Set<E> toSet() {
+    if (!hasTransitiveSets()) {
+      return children instanceof Object[]
+          ? (Set<E>) ImmutableSet.copyOf((Object[]) children)
+          : ImmutableSet.of((E) children);
+    }
+    ImmutableSet.Builder<E> builder = ImmutableSet.builder();
+    memoizedExpand(addingTo(builder), /*holdLockWhileRecording=*/true);
+    return builder.build();
+  }
+
+  /**
+   * Passes each element of {@link #toList} to {@code receiver}, in the same order, without
+   * building a collection of them. Sets in {@link Order#LINK_ORDER} are the exception: their
+   * expansion has to be reversed, so it is collected first.
+   *
+   * <p>Like {@link #toList}, the first expansion of a set with transitive sets records which
+   * children were duplicates, and later expansions replay that record instead of looking children
+   * up in a hash set. The receiver is never called while a lock is held.
+   */
+  @SuppressWarnings("unchecked")
+  public <X extends Exception> void forEachElement(ElementReceiver<? super E, X> receiver)
+      throws X {
+    if (hasTransitiveSets()) {
+      memoizedExpand(receiver, /*holdLockWhileRecording=*/false);
+    } else if (children instanceof Object[]) {
+      for (Object element : (Object[]) children) {
+        receiver.accept((E) element);
+      }
+    } else {
+      receiver.accept((E) children);
+    }
+  }
+
+  /**
+   * Passes each element of this set to {@code receiver} exactly once, in no particular order and
+   * possibly from several threads of {@code pool} at the same time, and returns when all elements
+   * were passed. The set must be in {@link Order#STABLE_ORDER}, whose consumers do not depend on
+   * the order of the elements.
+   *
+   * <p>Transitive sets are expanded by separate fork/join tasks, which share one set of the
+   * visited transitive sets, compared by identity, and one set of the visited elements. This is
+   * only worthwhile for large sets and receivers that do significant work; otherwise, use
+   * {@link #forEachElement}. Exceptions thrown by {@code receiver} are rethrown.
+   */
+  public void forEachElementInParallel(ElementReceiver<? super E, RuntimeException> receiver,
+      ForkJoinPool pool) {
+    Preconditions.checkState(getOrder() == Order.STABLE_ORDER,
+        "Only sets in stable order can be expanded in parallel, not %s", getOrder());
+    if (!hasTransitiveSets()) {
+      forEachElement(receiver);
+      return;
+    }
+    pool.invoke(new ParallelExpansion<E>(this, receiver, Sets.<NestedSet<?>>newConcurrentHashSet(),
+        Sets.newConcurrentHashSet()));
+  }
+
+  /** Expands one set of a parallel expansion, forking a task for each unvisited transitive set. */
+  private static final class ParallelExpansion<E> extends RecursiveAction {
+    private final NestedSet<E> set;
+    private final ElementReceiver<? super E, RuntimeException> receiver;
+    // Nested sets do not override equals, so they are compared by identity.
+    private final Set<NestedSet<?>> visitedSets;
+    private final Set<Object> visitedElements;
+
+    ParallelExpansion(NestedSet<E> set, ElementReceiver<? super E, RuntimeException> receiver,
+        Set<NestedSet<?>> visitedSets, Set<Object> visitedElements) {
+      this.set = set;
+      this.receiver = receiver;
+      this.visitedSets = visitedSets;
+      this.visitedElements = visitedElements;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    protected void compute() {
+      Object children = set.rawChildren();
+      if (!(children instanceof Object[])) {
+        if (visitedElements.add(children)) {
+          receiver.accept((E) children);
+        }
+        return;
+      }
+      Object[] array = (Object[]) children;
+      int directCount = set.directCount(array);
+      List<ParallelExpansion<E>> subtasks = new ArrayList<>();
+      for (int i = directCount + 1; i < array.length; i++) {
+        NestedSet<E> subset = (NestedSet<E>) array[i];
+        if (visitedSets.add(subset)) {
+          subtasks.add(new ParallelExpansion<>(subset, receiver, visitedSets, visitedElements));
+        }
+      }
+      for (int i = 0; i < directCount; i++) {
+        if (visitedElements.add(array[i])) {
+          receiver.accept((E) array[i]);
+        }
+      }
+      invokeAll(subtasks);
+    }
+  }
+
+  /** Returns a receiver that adds each element to {@code builder}. */
+  private static <E> ElementReceiver<E, RuntimeException> addingTo(
+      final ImmutableCollection.Builder<E> builder) {
+    return new ElementReceiver<E, RuntimeException>() {
+      @Override
+      public void accept(E element) {
+        builder.add(element);
+      }
+    };
+  }
+
+  /**
+   * Expands this set into {@code receiver}, using a memoized {@link Uniqueifier} for faster
+   * uniqueness checks after the first time. Only one thread records the memo if
+   * {@code holdLockWhileRecording}; otherwise, concurrent first expansions may each record it.
+   */
+  private <X extends Exception> void memoizedExpand(ElementReceiver<? super E, X> receiver,
+      boolean holdLockWhileRecording) throws X {
+    Uniqueifier memoed;
+    synchronized (this) {
+      Object uniqueifierMemo = uniqueifierMemo();
+      if (uniqueifierMemo == null && holdLockWhileRecording) {
+        RecordingUniqueifier uniqueifier = new RecordingUniqueifier();
+        getOrder().<E>expander().expandInto(this, uniqueifier, receiver);
+        setUniqueifierMemo(uniqueifier.getMemo());
+        return;
+      }
+      memoed = uniqueifierMemo == null
+          ? null
+          : RecordingUniqueifier.createReplayUniqueifier(uniqueifierMemo);
+    }
+    if (memoed != null) {
+      getOrder().<E>expander().expandInto(this, memoed, receiver);
+      return;
+    }
+    RecordingUniqueifier uniqueifier = new RecordingUniqueifier();
+    getOrder().<E>expander().expandInto(this, uniqueifier, receiver);
+    synchronized (this) {
+      if (uniqueifierMemo() == null) {
+        setUniqueifierMemo(uniqueifier.getMemo());
+      }
+    }
+  }
+
+  /** Returns the memo of the first expansion, or null. Must be called holding the lock. */
+  @Nullable
+  private Object uniqueifierMemo() {
+    Memo memo = memoOrNull();
+    return memo != null ? memo.uniqueifierMemo : memoSlot();
+  }
+
+  /** Sets the memo of the first expansion. Must be called holding the lock. */
+  private void setUniqueifierMemo(Object uniqueifierMemo) {
+    Memo memo = memoOrNull();
+    if (memo != null) {
+      memo.uniqueifierMemo = uniqueifierMemo;
+    } else {
+      setMemoSlot(uniqueifierMemo);
+    }
+  }
+
+  /**
+   * The contents of the memo slot once more than the expansion of the set is memoized. Until
+   * then, the slot holds the memo of the {@link RecordingUniqueifier} directly, so that sets that
+   * are only ever expanded take no more memory than that memo.
+   */
+  private static final class Memo {
+    /** The largest number of funnels for which a fingerprint is kept. */
+    private static final int MAX_FINGERPRINTS = 4;
+
+    Object uniqueifierMemo;
+    int size = -1;
+    int depth = -1;
+    /** Funnels and the fingerprints for them, alternating, the most recently added last. */
+    Object[] fingerprints;
+
+    @Nullable
+    HashCode getFingerprint(Funnel<?> funnel) {
+      if (fingerprints != null) {
+        for (int i = 0; i < fingerprints.length; i += 2) {
+          if (fingerprints[i] == funnel) {
+            return (HashCode) fingerprints[i + 1];
+          }
+        }
+      }
+      return null;
+    }
+
+    void putFingerprint(Funnel<?> funnel, HashCode fingerprint) {
+      if (getFingerprint(funnel) != null) {
+        return;
+      }
+      int length = fingerprints == null ? 0 : fingerprints.length;
+      // Drop the oldest fingerprint if there are too many, in case callers create funnels anew.
+      int kept = Math.min(length, 2 * (MAX_FINGERPRINTS - 1));
+      Object[] newFingerprints = new Object[kept + 2];
+      if (kept > 0) {
+        System.arraycopy(fingerprints, length - kept, newFingerprints, 0, kept);
+      }
+      newFingerprints[kept] = funnel;
+      newFingerprints[kept + 1] = fingerprint;
+      fingerprints = newFingerprints;
+    }
+  }
+
+  private Object memoSlot() {
+    Object[] array = (Object[]) children;
+    return array[directCount(array)];
+  }
+
+  private void setMemoSlot(Object value) {
+    Object[] array = (Object[]) children;
+    array[directCount(array)] = value;
+  }
+
+  /** Returns the memo of this set if it has one. Must be called holding the lock. */
+  @Nullable
+  private Memo memoOrNull() {
+    Object slot = memoSlot();
+    return slot instanceof Memo ? (Memo) slot : null;
+  }
+
+  /**
+   * Returns the memo of this set, creating it if needed. The set must have transitive sets, and
+   * the caller must hold the lock.
+   */
+  private Memo memo() {
+    Memo memo = memoOrNull();
+    if (memo == null) {
+      memo = new Memo();
+      memo.uniqueifierMemo = memoSlot();
+      setMemoSlot(memo);
+    }
+    return memo;
+  }
+
+  /**
+   * Returns the number of elements of {@link #toList}. This expands the set the first time it is
+   * called on a set with transitive sets, and is cheap afterwards.
+   */
+  public int getSize() {
+    if (!hasTransitiveSets()) {
+      return children instanceof Object[] ? ((Object[]) children).length : 1;
+    }
+    synchronized (this) {
+      Memo memo = memoOrNull();
+      if (memo != null && memo.size >= 0) {
+        return memo.size;
+      }
+    }
+    int size = toList().size();
+    synchronized (this) {
+      memo().size = size;
+    }
+    return size;
+  }
+
+  /**
+   * Returns the length of the longest chain of nested sets that starts with this one: 0 for the
+   * empty set, 1 for a set without transitive sets, and one more than the greatest depth of its
+   * transitive sets otherwise. It is memoized for sets with transitive sets.
+   */
+  public int getDepth() {
+    if (!hasTransitiveSets()) {
+      return isEmpty() ? 0 : 1;
+    }
+    synchronized (this) {
+      Memo memo = memoOrNull();
+      if (memo != null && memo.depth >= 0) {
+        return memo.depth;
+      }
+    }
+    int depth = 0;
+    for (NestedSet<?> subset : transitiveSets()) {
+      depth = Math.max(depth, subset.getDepth());
+    }
+    synchronized (this) {
+      memo().depth = depth + 1;
+    }
+    return depth + 1;
+  }
+
+  /**
+   * Returns a fingerprint of the structure and elements of this set, to which {@code funnel} adds
+   * each element. Equal sets built the same way have the same fingerprint, in any server, as long
+   * as {@code funnel} writes the same bytes for equal elements; sets with the same elements that
+   * are nested differently usually have different fingerprints.
+   *
+   * <p>The fingerprint of a set combines its direct members and the fingerprints of its
+   * transitive sets, and is memoized for sets with transitive sets, so that fingerprinting a set
+   * whose transitive sets were fingerprinted before only costs its direct members. Fingerprints
+   * are kept for the few most recently used funnels, which are told apart by identity, so use the
+   * same funnel instance for the same purpose. {@code funnel} must write a prefix-free encoding,
+   * for example by writing the length of variable-length data first.
+   */
+  public HashCode getFingerprint(Funnel<? super E> funnel) {
+    boolean memoized = hasTransitiveSets();
+    if (memoized) {
+      synchronized (this) {
+        Memo memo = memoOrNull();
+        HashCode fingerprint = memo != null ? memo.getFingerprint(funnel) : null;
+        if (fingerprint != null) {
+          return fingerprint;
+        }
+      }
+    }
+    Hasher hasher = Hashing.md5().newHasher();
+    hasher.putString(getOrder().getName(), StandardCharsets.UTF_8);
+    for (Object direct : directMembers()) {
+      @SuppressWarnings("unchecked")
+      E element = (E) direct;
+      hasher.putByte((byte) 0);
+      funnel.funnel(element, hasher);
+    }
+    for (NestedSet<?> transitive : transitiveSets()) {
+      @SuppressWarnings("unchecked")
+      NestedSet<E> subset = (NestedSet<E>) transitive;
+      hasher.putByte((byte) 1).putBytes(subset.getFingerprint(funnel).asBytes());
+    }
+    HashCode fingerprint = hasher.hash();
+    if (memoized) {
+      synchronized (this) {
+        memo().putFingerprint(funnel, fingerprint);
+      }
+    }
+    return fingerprint;
+  }
 
   /**
    * Returns true if this set is equal to {@code other} based on the top-level
@@ -100,7 +566,31 @@ public abstract class NestedSet<E> implements Iterable<E>, Serializable {
    *
    * @param other the {@code NestedSet} to compare against.
    */
-  public abstract boolean shallowEquals(@Nullable NestedSet<? extends E> other);
+  public boolean shallowEquals(@Nullable NestedSet<? extends E> other) {
+    if (this == other) {
+      return true;
+    }
+    if (other == null || getOrder() != other.getOrder()
+        || hasTransitiveSets() != other.hasTransitiveSets()) {
+      return false;
+    }
+    if (!(children instanceof Object[]) || !(other.children instanceof Object[])) {
+      return children.equals(other.children);
+    }
+    Object[] array = (Object[]) children;
+    Object[] otherArray = (Object[]) other.children;
+    int directCount = directCount(array);
+    if (array.length != otherArray.length || directCount != other.directCount(otherArray)) {
+      return false;
+    }
+    for (int i = 0; i < array.length; i++) {
+      // Nested sets do not override equals, so transitive sets are compared by identity.
+      if (i != directCount && !array[i].equals(otherArray[i])) {
+        return false;
+      }
+    }
+    return true;
+  }
 
   /**
    * Returns a hash code that produces a notion of identity that is consistent with
@@ -111,17 +601,155 @@ public abstract class NestedSet<E> implements Iterable<E>, Serializable {
    * the standard equals/hashCode is to minimize accidental use, since they are
    * different from both standard Java objects and collection-like objects.
    */
-  public abstract int shallowHashCode();
+  public int shallowHashCode() {
+    int result = getOrder().hashCode();
+    if (!(children instanceof Object[])) {
+      return 31 * result + children.hashCode();
+    }
+    Object[] array = (Object[]) children;
+    int directCount = directCount(array);
+    for (int i = 0; i < array.length; i++) {
+      if (i != directCount) {
+        result = 31 * result + array[i].hashCode();
+      }
+    }
+    return result;
+  }
 
   @Override
   public String toString() {
-    String members = Joiner.on(", ").join(directMembers());
-    String nestedSets = Joiner.on(", ").join(transitiveSets());
-    String separator = members.length() > 0 && nestedSets.length() > 0 ? ", " : "";
-    return "{" + members + separator + nestedSets + "}";
+    if (isEmpty()) {
+      return "{}";
+    }
+    return "{" + Joiner.on(", ").join(Iterators.concat(Iterators.forArray(directMembers()),
+        Iterators.forArray(transitiveSets()))) + "}";
   }
 
+  @SuppressWarnings("unchecked")
   @Override
-  public Iterator<E> iterator() { return new NestedSetLazyIterator<>(this); }
+  public Iterator<E> iterator() {
+    if (isEmpty()) {
+      return ImmutableList.<E>of().iterator();
+    }
+    if (!(children instanceof Object[])) {
+      return Iterators.singletonIterator((E) children);
+    }
+    return new NestedSetLazyIterator<>(this);
+  }
+
+  /**
+   * Serializes this set as its order and children, without the memo, which is only a cache and
+   * need not be serializable. Not private, so that it applies to the subclasses.
+   */
+  final Object writeReplace() {
+    Object serializedChildren = children;
+    if (hasTransitiveSets()) {
+      Object[] array = ((Object[]) children).clone();
+      array[directCount(array)] = null;
+      serializedChildren = array;
+    }
+    return new SerializedNestedSet(getOrder(), serializedChildren, hasTransitiveSets());
+  }
+
+  /** The serialized form of a nested set; see {@link #writeReplace}. */
+  private static final class SerializedNestedSet implements Serializable {
+    private final Order order;
+    private final Object children;
+    private final boolean hasTransitiveSets;
 
+    SerializedNestedSet(Order order, Object children, boolean hasTransitiveSets) {
+      this.order = order;
+      this.children = children;
+      this.hasTransitiveSets = hasTransitiveSets;
+    }
+
+    private Object readResolve() {
+      if (children instanceof Object[] && ((Object[]) children).length == 0) {
+        return order.emptySet();
+      }
+      return order.create(children, hasTransitiveSets);
+    }
+  }
+
+  /** The empty set of an order. There is one per order, which {@link Order#emptySet} returns. */
+  static final class EmptyNestedSet<E> extends NestedSet<E> {
+    private final Order order;
+
+    EmptyNestedSet(Order order) {
+      super(EMPTY_CHILDREN);
+      this.order = order;
+    }
+
+    @Override
+    public Order getOrder() { return order; }
+  }
+
+  /** A nested set with transitive sets; see {@link #hasTransitiveSets}. */
+  private abstract static class WithTransitiveSets<E> extends NestedSet<E> {
+    WithTransitiveSets(Object children) { super(children); }
+  }
+
+  /** A nested set in {@link Order#STABLE_ORDER} without transitive sets. */
+  static final class StableOrderNestedSet<E> extends NestedSet<E> {
+    StableOrderNestedSet(Object children) { super(children); }
+
+    @Override
+    public Order getOrder() { return Order.STABLE_ORDER; }
+  }
+
+  /** A nested set in {@link Order#STABLE_ORDER} with transitive sets. */
+  static final class StableOrderWithTransitiveSets<E> extends WithTransitiveSets<E> {
+    StableOrderWithTransitiveSets(Object children) { super(children); }
+
+    @Override
+    public Order getOrder() { return Order.STABLE_ORDER; }
+  }
+
+  /** A nested set in {@link Order#COMPILE_ORDER} without transitive sets. */
+  static final class CompileOrderNestedSet<E> extends NestedSet<E> {
+    CompileOrderNestedSet(Object children) { super(children); }
+
+    @Override
+    public Order getOrder() { return Order.COMPILE_ORDER; }
+  }
+
+  /** A nested set in {@link Order#COMPILE_ORDER} with transitive sets. */
+  static final class CompileOrderWithTransitiveSets<E> extends WithTransitiveSets<E> {
+    CompileOrderWithTransitiveSets(Object children) { super(children); }
+
+    @Override
+    public Order getOrder() { return Order.COMPILE_ORDER; }
+  }
+
+  /** A nested set in {@link Order#LINK_ORDER} without transitive sets. */
+  static final class LinkOrderNestedSet<E> extends NestedSet<E> {
+    LinkOrderNestedSet(Object children) { super(children); }
+
+    @Override
+    public Order getOrder() { return Order.LINK_ORDER; }
+  }
+
+  /** A nested set in {@link Order#LINK_ORDER} with transitive sets. */
+  static final class LinkOrderWithTransitiveSets<E> extends WithTransitiveSets<E> {
+    LinkOrderWithTransitiveSets(Object children) { super(children); }
+
+    @Override
+    public Order getOrder() { return Order.LINK_ORDER; }
+  }
+
+  /** A nested set in {@link Order#NAIVE_LINK_ORDER} without transitive sets. */
+  static final class NaiveLinkOrderNestedSet<E> extends NestedSet<E> {
+    NaiveLinkOrderNestedSet(Object children) { super(children); }
+
+    @Override
+    public Order getOrder() { return Order.NAIVE_LINK_ORDER; }
+  }
+
+  /** A nested set in {@link Order#NAIVE_LINK_ORDER} with transitive sets. */
+  static final class NaiveLinkOrderWithTransitiveSets<E> extends WithTransitiveSets<E> {
+    NaiveLinkOrderWithTransitiveSets(Object children) { super(children); }
+
+    @Override
+    public Order getOrder() { return Order.NAIVE_LINK_ORDER; }
+  }
 }
@@ -151,60 +151,20 @@ public final class NestedSetBuilder<E> {
         return candidate;
       }
     }
-    int transitiveSize = transitiveSets.size();
-    int directSize = items.size();
-
-    switch (transitiveSize) {
-      case 0:
-        switch (directSize) {
-          case 0:
-            return order.emptySet();
-          case 1:
-            return order.factory.oneDirect(getOnlyElement(items));
-          default:
-            return order.factory.onlyDirects(items.toArray());
-        }
-      case 1:
-        switch (directSize) {
-          case 0:
-            return order.factory.onlyOneTransitive(getOnlyElement(transitiveSetsCast));
-          case 1:
-            return order.factory.oneDirectOneTransitive(getOnlyElement(items),
-                getOnlyElement(transitiveSetsCast));
-          default:
-            return order.factory.manyDirectsOneTransitive(items.toArray(),
-                getOnlyElement(transitiveSetsCast));
-        }
-      default:
-        switch (directSize) {
-          case 0:
-            return order.factory.onlyManyTransitives(
-                transitiveSetsCast.toArray(new NestedSet[transitiveSize]));
-          case 1:
-            return order.factory.oneDirectManyTransitive(getOnlyElement(items), transitiveSetsCast
-                .toArray(new NestedSet[transitiveSize]));
-          default:
-            return order.factory.manyDirectManyTransitive(items.toArray(),
-                transitiveSetsCast.toArray(new NestedSet[transitiveSize]));
-        }
-    }
+    return NestedSet.create(order, items, transitiveSetsCast);
   }
 
   /**
    * Creates a nested set from a given list of items.
    *
-   * <p>If the list of items is an {@link ImmutableList}, reuses the list as the backing store for
-   * the nested set.
+   * <p>Unlike the builder, keeps duplicate items.
    */
   public static <E> NestedSet<E> wrap(Order order, Iterable<E> wrappedItems) {
     ImmutableList<E> wrappedList = ImmutableList.copyOf(wrappedItems);
     if (wrappedList.isEmpty()) {
       return order.emptySet();
-    } else if (wrappedList.size() == 1) {
-      return order.factory.oneDirect(getOnlyElement(wrappedItems));
-    } else {
-      return order.factory.onlyDirects(wrappedList);
     }
+    return NestedSet.create(order, wrappedList, ImmutableList.<NestedSet<E>>of());
   }
 
 
@@ -13,18 +13,16 @@
 // limitations under the License.
 package com.google.devtools.build.lib.collect.nestedset;
 
-import com.google.common.collect.ImmutableCollection;
-
 /**
- * An expander that converts a nested set into a flattened collection.
+ * An expander that converts a nested set into a flattened sequence of elements.
  *
  * <p>Expanders are initialized statically (there is one for each order), so they should
  * contain no state and all methods must be threadsafe.
  */
 interface NestedSetExpander<E> {
   /**
-   * Flattens the NestedSet into the builder.
+   * Flattens the NestedSet, passing each element to the receiver in order.
    */
-  void expandInto(NestedSet<E> nestedSet, Uniqueifier uniqueifier,
-      ImmutableCollection.Builder<E> builder);
+  <X extends Exception> void expandInto(NestedSet<E> nestedSet, Uniqueifier uniqueifier,
+      ElementReceiver<? super E, X> receiver) throws X;
 }
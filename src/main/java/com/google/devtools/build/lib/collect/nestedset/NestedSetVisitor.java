@@ -65,12 +65,21 @@ public final class NestedSetVisitor<E> {
       return;
     }
 
-    for (NestedSet<E> subset : nestedSet.transitiveSets()) {
-      visit(subset);
+    Object children = nestedSet.rawChildren();
+    if (!(children instanceof Object[])) {
+      if (visited.add((E) children)) {
+        callback.accept((E) children);
+      }
+      return;
+    }
+    Object[] array = (Object[]) children;
+    int directCount = nestedSet.directCount(array);
+    for (int i = directCount + 1; i < array.length; i++) {
+      visit((NestedSet<E>) array[i]);
     }
-    for (Object member : nestedSet.directMembers()) {
-      if (visited.add((E) member)) {
-        callback.accept((E) member);
+    for (int i = 0; i < directCount; i++) {
+      if (visited.add((E) array[i])) {
+        callback.accept((E) array[i]);
       }
     }
   }
@@ -22,26 +22,57 @@ import java.util.HashMap;
  */
 public enum Order {
 
-  STABLE_ORDER("stable", new CompileOrderExpander<>(), new StableOrderNestedSetFactory()),
-  COMPILE_ORDER("compile", new CompileOrderExpander<>(), new CompileOrderNestedSetFactory()),
-  LINK_ORDER("link", new LinkOrderExpander<>(), new LinkOrderNestedSetFactory()),
-  NAIVE_LINK_ORDER("naive_link", new NaiveLinkOrderExpander<>(), 
-      new NaiveLinkOrderNestedSetFactory());
+  STABLE_ORDER("stable", new CompileOrderExpander<>()) {
+    @Override
+    <E> NestedSet<E> create(Object children, boolean hasTransitiveSets) {
+      return hasTransitiveSets
+          ? new NestedSet.StableOrderWithTransitiveSets<E>(children)
+          : new NestedSet.StableOrderNestedSet<E>(children);
+    }
+  },
+  COMPILE_ORDER("compile", new CompileOrderExpander<>()) {
+    @Override
+    <E> NestedSet<E> create(Object children, boolean hasTransitiveSets) {
+      return hasTransitiveSets
+          ? new NestedSet.CompileOrderWithTransitiveSets<E>(children)
+          : new NestedSet.CompileOrderNestedSet<E>(children);
+    }
+  },
+  LINK_ORDER("link", new LinkOrderExpander<>()) {
+    @Override
+    <E> NestedSet<E> create(Object children, boolean hasTransitiveSets) {
+      return hasTransitiveSets
+          ? new NestedSet.LinkOrderWithTransitiveSets<E>(children)
+          : new NestedSet.LinkOrderNestedSet<E>(children);
+    }
+  },
+  NAIVE_LINK_ORDER("naive_link", new NaiveLinkOrderExpander<>()) {
+    @Override
+    <E> NestedSet<E> create(Object children, boolean hasTransitiveSets) {
+      return hasTransitiveSets
+          ? new NestedSet.NaiveLinkOrderWithTransitiveSets<E>(children)
+          : new NestedSet.NaiveLinkOrderNestedSet<E>(children);
+    }
+  };
 
   private static final ImmutableMap<String, Order> VALUES;
   
   private final String name;  
   private final NestedSetExpander<?> expander;
-  final NestedSetFactory factory;
   private final NestedSet<?> emptySet;
 
-  private Order(String name, NestedSetExpander<?> expander, NestedSetFactory factory) {
+  private Order(String name, NestedSetExpander<?> expander) {
     this.name = name;
     this.expander = expander;
-    this.factory = factory;
-    this.emptySet = new EmptyNestedSet<>(this);
+    this.emptySet = NestedSet.empty(this);
   }
 
+  /**
+   * Creates a nested set of this order with the given children, which include a memo slot if it
+   * has transitive sets; see {@link NestedSet#create}.
+   */
+  abstract <E> NestedSet<E> create(Object children, boolean hasTransitiveSets);
+
   /**
    * Returns an empty set of the given ordering.
    */
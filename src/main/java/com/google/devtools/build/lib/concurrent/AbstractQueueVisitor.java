@@ -23,14 +23,20 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import java.util.Map;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * AbstractQueueVisitor is a wrapper around {@link ThreadPoolExecutor} which
+ * AbstractQueueVisitor is a wrapper around {@link ThreadPoolExecutor} or {@link ForkJoinPool} which
  * delays thread pool shutdown until entire visitation is complete.
  * This is useful for cases in which worker tasks may submit additional tasks.
  *
@@ -49,6 +55,11 @@ import java.util.concurrent.atomic.AtomicBoolean;
  * <p>AbstractQueueVisitor supports interruption. If the main thread is
  * interrupted, tasks will no longer be added to the queue, and the
  * {@link #work(boolean)} method will throw {@link InterruptedException}.
+ *
+ * <p>With a {@link ForkJoinPool}, tasks enqueued by a worker thread go to that thread's own deque
+ * instead of a queue shared by all threads. Idle threads steal from the other end of busy threads'
+ * deques, so visitations that fan out from every task contend much less than with a
+ * {@link ThreadPoolExecutor}.
  */
 public class AbstractQueueVisitor {
 
@@ -86,12 +97,15 @@ public class AbstractQueueVisitor {
   // Currently used only for interrupt handling.
   private final Map<Thread, Long> jobs = Maps.newConcurrentMap();
 
+  // Number of tasks ever enqueued. Orders tasks of equal priority.
+  private final AtomicLong enqueuedTasks = new AtomicLong();
+
   /**
    * The thread pool. If !concurrent, always null. Created lazily on first
    * call to {@link #enqueue(Runnable)}, and removed after call to
    * {@link #work(boolean)}.
    */
-  private final ThreadPoolExecutor pool;
+  private final ExecutorService pool;
 
   /**
    * Flag used to record when the main thread (the thread which called
@@ -227,6 +241,27 @@ public class AbstractQueueVisitor {
     this(executor, true, failFastOnException, true);
   }
 
+  /**
+   * Create the AbstractQueueVisitor.
+   *
+   * @param forkJoinPool The ForkJoinPool to use.
+   * @param shutdownOnCompletion If true, pass ownership of the pool to
+   *                             this class. The pool will be shut down after a
+   *                             call to work(). Callers must not shut down the
+   *                             pool while queue visitors use it.
+   * @param failFastOnException if true, don't run new actions after
+   *                            an uncaught exception.
+   * @param failFastOnInterrupt if true, don't run new actions after interrupt.
+   */
+  public AbstractQueueVisitor(ForkJoinPool forkJoinPool, boolean shutdownOnCompletion,
+                              boolean failFastOnException, boolean failFastOnInterrupt) {
+    this.concurrent = true;
+    this.failFastOnException = failFastOnException;
+    this.failFastOnInterrupt = failFastOnInterrupt;
+    this.pool = Preconditions.checkNotNull(forkJoinPool);
+    this.ownThreadPool = shutdownOnCompletion;
+  }
+
   /**
    * Create the AbstractQueueVisitor.
    *
@@ -291,10 +326,22 @@ public class AbstractQueueVisitor {
    * Called in a worker thread if concurrent.
    */
   protected void enqueue(Runnable runnable) {
+    enqueue(runnable, 0);
+  }
+
+  /**
+   * Schedules a call with the given priority.
+   * Called in a worker thread if concurrent.
+   *
+   * <p>Priorities only take effect if the visitor's {@link ThreadPoolExecutor} has a
+   * {@link PriorityBlockingQueue} as its work queue. Queued tasks with higher priorities then run
+   * first, and tasks with equal priorities run in the order they were enqueued.
+   */
+  protected void enqueue(Runnable runnable, int priority) {
     if (concurrent) {
       AtomicBoolean ranTask = new AtomicBoolean(false);
       try {
-        pool.execute(wrapRunnable(runnable, ranTask));
+        execute(wrapRunnable(runnable, ranTask, priority));
       } catch (Throwable e) {
         if (!ranTask.get()) {
           // Note that keeping track of ranTask is necessary to disambiguate the case where
@@ -309,6 +356,17 @@ public class AbstractQueueVisitor {
     }
   }
 
+  private void execute(Runnable runnable) {
+    Thread thread = Thread.currentThread();
+    if (thread instanceof ForkJoinWorkerThread
+        && ((ForkJoinWorkerThread) thread).getPool() == pool) {
+      // Keep the task on this thread's deque, where it runs next unless another thread steals it.
+      ForkJoinTask.adapt(runnable).fork();
+    } else {
+      pool.execute(runnable);
+    }
+  }
+
   private void recordError(Throwable e) {
     catastrophe = e;
     try {
@@ -323,46 +381,73 @@ public class AbstractQueueVisitor {
     }
   }
 
-  private Runnable wrapRunnable(final Runnable runnable, final AtomicBoolean ranTask) {
+  private Runnable wrapRunnable(Runnable runnable, AtomicBoolean ranTask, int priority) {
     synchronized (zeroRemainingTasks) {
       remainingTasks++;
     }
-    return new Runnable() {
-      @Override
-      public void run() {
-        Thread thread = null;
-        boolean addedJob = false;
-        try {
-          ranTask.set(true);
-          thread = Thread.currentThread();
-          addJob(thread);
-          addedJob = true;
-          if (blockNewActions()) {
-            // Make any newly enqueued tasks quickly die. We check after adding to the jobs map so
-            // that if another thread is racing to kill this thread and didn't make it before this
-            // conditional, it will be able to find and kill this thread anyway.
-            return;
+    return new WrappedRunnable(runnable, ranTask, priority, enqueuedTasks.getAndIncrement());
+  }
+
+  /**
+   * A task as handed to the thread pool. Ordered by decreasing priority, then by increasing
+   * sequence number, for use in a {@link PriorityBlockingQueue}.
+   */
+  private final class WrappedRunnable implements Runnable, Comparable<WrappedRunnable> {
+    private final Runnable runnable;
+    private final AtomicBoolean ranTask;
+    private final int priority;
+    private final long sequenceNumber;
+
+    private WrappedRunnable(Runnable runnable, AtomicBoolean ranTask, int priority,
+        long sequenceNumber) {
+      this.runnable = runnable;
+      this.ranTask = ranTask;
+      this.priority = priority;
+      this.sequenceNumber = sequenceNumber;
+    }
+
+    @Override
+    public void run() {
+      Thread thread = null;
+      boolean addedJob = false;
+      try {
+        ranTask.set(true);
+        thread = Thread.currentThread();
+        addJob(thread);
+        addedJob = true;
+        if (blockNewActions()) {
+          // Make any newly enqueued tasks quickly die. We check after adding to the jobs map so
+          // that if another thread is racing to kill this thread and didn't make it before this
+          // conditional, it will be able to find and kill this thread anyway.
+          return;
+        }
+        runnable.run();
+      } catch (Throwable e) {
+        synchronized (AbstractQueueVisitor.this) {
+          if (unhandled == null) { // save only the first one.
+            unhandled = e;
+            exceptionLatch.countDown();
           }
-          runnable.run();
-        } catch (Throwable e) {
-          synchronized (AbstractQueueVisitor.this) {
-            if (unhandled == null) { // save only the first one.
-              unhandled = e;
-              exceptionLatch.countDown();
-            }
-            markToStopAllJobsIfNeeded(e);
+          markToStopAllJobsIfNeeded(e);
+        }
+      } finally {
+        try {
+          if (thread != null && addedJob) {
+            removeJob(thread);
           }
         } finally {
-          try {
-            if (thread != null && addedJob) {
-              removeJob(thread);
-            }
-          } finally {
-            decrementRemainingTasks();
-          }
+          decrementRemainingTasks();
         }
       }
-    };
+    }
+
+    @Override
+    public int compareTo(WrappedRunnable other) {
+      if (priority != other.priority) {
+        return priority > other.priority ? -1 : 1;
+      }
+      return Long.compare(sequenceNumber, other.sequenceNumber);
+    }
   }
 
   private final void addJob(Thread thread) {
@@ -553,8 +638,10 @@ public class AbstractQueueVisitor {
   }
 
   private void setRejectedExecutionHandler() {
-    if (ownThreadPool) {
-      pool.setRejectedExecutionHandler(new RejectedExecutionHandler() {
+    // A ForkJoinPool only rejects tasks after it is shut down, which does not happen before all
+    // tasks have finished.
+    if (ownThreadPool && pool instanceof ThreadPoolExecutor) {
+      ((ThreadPoolExecutor) pool).setRejectedExecutionHandler(new RejectedExecutionHandler() {
         @Override
         public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
           decrementRemainingTasks();
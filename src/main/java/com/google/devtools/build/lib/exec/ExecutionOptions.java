@@ -174,6 +174,15 @@ public class ExecutionOptions extends OptionsBase {
       )
   public int ramUtilizationPercentage;
 
+  @Option(name = "experimental_adaptive_resources",
+      defaultValue = "false",
+      category = "strategy",
+      help = "If true, Blaze samples how much CPU and memory the machine has left while "
+          + "executing actions, and does not start more actions than fit. Memory estimates of "
+          + "actions are replaced by the peak memory recently used by local spawns of the same "
+          + "mnemonic. Only supported on Linux.")
+  public boolean adaptiveResources;
+
   @Option(name = "local_resources",
       defaultValue = "null",
       category = "strategy",
@@ -196,6 +205,53 @@ public class ExecutionOptions extends OptionsBase {
   )
   public int localTestJobs;
 
+  @Option(name = "experimental_disk_cache",
+      defaultValue = "null",
+      category = "strategy",
+      converter = OptionsUtils.PathFragmentConverter.class,
+      help = "A directory in which to cache the outputs of actions, so that they can be reused "
+          + "after a clean, or by other workspaces on this machine. Relative paths are resolved "
+          + "against the workspace directory. The cache is disabled by default.")
+  public PathFragment diskCache;
+
+  @Option(name = "experimental_disk_cache_max_size_mb",
+      defaultValue = "10240",
+      category = "strategy",
+      help = "The size, in megabytes, above which the least recently used outputs are deleted "
+          + "from the --experimental_disk_cache directory at the end of a build.")
+  public long diskCacheMaxSizeMb;
+
+  @Option(name = "experimental_max_concurrent_digest_reads",
+      defaultValue = "4",
+      category = "strategy",
+      help = "How many files larger than 4K may be read at the same time to compute their "
+          + "digests. Use 1 on spinning disks, where concurrent reads cause seeks.")
+  public int maxConcurrentLargeFileReads;
+
+  @Option(name = "experimental_persistent_digest_cache",
+      defaultValue = "false",
+      category = "strategy",
+      help = "If true, the digests of files are recorded in the output base, keyed by the inode "
+          + "number, size, modification and change time of each file, so that a new server does "
+          + "not read unchanged files again.")
+  public boolean persistentDigestCache;
+
+  @Option(name = "experimental_reuse_sandboxes",
+      defaultValue = "false",
+      category = "strategy",
+      help = "If true, the sandboxed strategy keeps up to --jobs sandbox directories after actions "
+          + "succeeded in them, and later actions only copy the inputs that these sandboxes do "
+          + "not contain yet.")
+  public boolean reuseSandboxes;
+
+  @Option(name = "experimental_fork_server",
+      defaultValue = "false",
+      category = "strategy",
+      help = "If true, the standalone and sandboxed strategies start subprocesses through a "
+          + "long-lived native helper process instead of forking the server, which is faster "
+          + "when many actions run in parallel.")
+  public boolean forkServer;
+
   public boolean usingLocalTestJobs() {
     return localTestJobs != 0;
   }
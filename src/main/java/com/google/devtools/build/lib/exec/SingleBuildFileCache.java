@@ -25,6 +25,7 @@ import com.google.devtools.build.lib.actions.ActionInput;
 import com.google.devtools.build.lib.actions.ActionInputFileCache;
 import com.google.devtools.build.lib.actions.Artifact;
 import com.google.devtools.build.lib.actions.DigestOfDirectoryException;
+import com.google.devtools.build.lib.actions.cache.DigestUtils;
 import com.google.devtools.build.lib.vfs.FileSystem;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.protobuf.ByteString;
@@ -71,13 +72,14 @@ public class SingleBuildFileCache implements ActionInputFileCache {
           try {
             path = fs.getPath(fullPath(input));
             BaseEncoding hex = BaseEncoding.base16().lowerCase();
+            long size = path.getFileSize();
             ByteString digest = ByteString.copyFrom(
-                hex.encode(path.getMD5Digest())
+                hex.encode(DigestUtils.getDigestOrFail(path, size))
                    .getBytes(US_ASCII));
             // Inject reverse mapping. Doing this unconditionally in getDigest() showed up
             // as a hotspot in CPU profiling.
             digestToPath.put(digest, input);
-            return new ActionInputMetadata(digest, path.getFileSize());
+            return new ActionInputMetadata(digest, size);
           } catch (IOException e) {
             if (path != null && path.isDirectory()) {
               // TODO(bazel-team): This is rather presumptuous- it could have been another type of
@@ -72,6 +72,15 @@ public class PackageCacheOptions extends OptionsBase {
     }
   }
 
+  /**
+   * Converter for the {@code --experimental_skyframe_eviction_heap_percentage} option.
+   */
+  public static class HeapPercentageConverter extends Converters.RangeConverter {
+    public HeapPercentageConverter() {
+      super(0, 100);
+    }
+  }
+
   @Option(name = "package_path",
           defaultValue = "",
           category = "package loading",
@@ -146,6 +155,16 @@ public class PackageCacheOptions extends OptionsBase {
       help = "Threshold for number of loaded packages before skyframe-m1 cache eviction kicks in")
   public int minLoadedPkgCountForCtNodeEviction;
 
+  @Option(name = "experimental_skyframe_eviction_heap_percentage",
+      defaultValue = "0",
+      category = "undocumented",
+      converter = HeapPercentageConverter.class,
+      help = "If positive, whenever the live heap exceeds this percentage of the maximum heap size "
+          + "before a Skyframe evaluation, Blaze evicts the least recently used globs, BUILD file "
+          + "syntax trees and transitive target values from the Skyframe graph. They are "
+          + "recomputed when needed again.")
+  public int skyframeEvictionHeapPercentage;
+
   @Option(name = "fetch",
       defaultValue = "true",
       category = "undocumented",
@@ -73,6 +73,12 @@ public enum ProfilerTask {
   CRITICAL_PATH_COMPONENT("critical path component", -1, 0x666699, 0),
   IDE_BUILD_INFO("ide_build_info", -1, 0xCC6633, 0),
   HANDLE_GC_NOTIFICATION("gc notification", -1, 0x996633, 0),
+  SKYFRAME_INVALIDATION("skyframe invalidation", -1, 0x996699, 0),
+  SKYFUNCTION_SUMMARY("skyfunction summary", -1, 0xCC6633, 0),
+  ACTION_ADMISSION("action resource admission", -1, 0x996633, 0),
+  WORKER("worker process", -1, 0x669966, 0),
+  SANDBOX_SETUP("sandbox setup", -1, 0x339999, 0),
+  SANDBOX_TEARDOWN("sandbox teardown", -1, 0x336699, 0),
   UNKNOWN("Unknown event", -1, 0x339966, 0);
 
   // Size of the ProfilerTask value space.
@@ -0,0 +1,81 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.remote;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+import com.google.devtools.build.lib.actions.ActionInput;
+import com.google.devtools.build.lib.actions.ActionInputFileCache;
+import com.google.devtools.build.lib.remote.RemoteProtocol.Action;
+import com.google.devtools.build.lib.remote.RemoteProtocol.ContentDigest;
+import com.google.devtools.build.lib.vfs.DigestHashFunction;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.protobuf.ByteString;
+
+import java.io.IOException;
+
+/**
+ * Helper methods for {@link ContentDigest}s, the keys of the remote cache. They are always MD5
+ * digests, whatever digest function the server was started with, so that the client and the
+ * remote server agree on them.
+ */
+public final class ContentDigests {
+  private ContentDigests() {}
+
+  public static ContentDigest computeDigest(byte[] data) {
+    return ContentDigest.newBuilder()
+        .setDigest(ByteString.copyFrom(Hashing.md5().hashBytes(data).asBytes()))
+        .setSizeBytes(data.length)
+        .build();
+  }
+
+  public static ContentDigest computeDigest(Path file) throws IOException {
+    return ContentDigest.newBuilder()
+        .setDigest(ByteString.copyFrom(file.getMD5Digest()))
+        .setSizeBytes(file.getFileSize())
+        .build();
+  }
+
+  /**
+   * Returns the digest of an action input, which {@code path} points to. The digest of
+   * {@code fileCache}, which is hex-encoded, is reused if it is an MD5 digest; otherwise the file
+   * is hashed again.
+   */
+  public static ContentDigest computeDigest(ActionInputFileCache fileCache, ActionInput input,
+      Path path) throws IOException {
+    ByteString hexDigest = DigestHashFunction.getDefault() == DigestHashFunction.MD5
+        ? fileCache.getDigest(input)
+        : null;
+    if (hexDigest == null) {
+      return computeDigest(path);
+    }
+    return ContentDigest.newBuilder()
+        .setDigest(ByteString.copyFrom(
+            BaseEncoding.base16().lowerCase().decode(hexDigest.toStringUtf8())))
+        .setSizeBytes(fileCache.getSizeInBytes(input))
+        .build();
+  }
+
+  /**
+   * Returns the digest of {@code action}, which must list its input files and output paths sorted
+   * by path so that equal actions have equal digests.
+   */
+  public static ContentDigest computeDigest(Action action) {
+    return computeDigest(action.toByteArray());
+  }
+
+  public static String toHexString(ContentDigest digest) {
+    return BaseEncoding.base16().lowerCase().encode(digest.getDigest().toByteArray());
+  }
+}
@@ -0,0 +1,336 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.remote;
+
+import com.google.common.base.Preconditions;
+import com.google.common.io.ByteStreams;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.remote.RemoteProtocol.Action;
+import com.google.devtools.build.lib.remote.RemoteProtocol.ActionResult;
+import com.google.devtools.build.lib.remote.RemoteProtocol.ContentDigest;
+import com.google.devtools.build.lib.remote.RemoteProtocol.DownloadBlobRequest;
+import com.google.devtools.build.lib.remote.RemoteProtocol.DownloadBlobResponse;
+import com.google.devtools.build.lib.remote.RemoteProtocol.EnvironmentVariable;
+import com.google.devtools.build.lib.remote.RemoteProtocol.ExecuteResponse;
+import com.google.devtools.build.lib.remote.RemoteProtocol.FileEntry;
+import com.google.devtools.build.lib.remote.RemoteProtocol.FindMissingBlobsResponse;
+import com.google.devtools.build.lib.remote.RemoteProtocol.GetActionResultResponse;
+import com.google.devtools.build.lib.remote.RemoteProtocol.RemoteRequest;
+import com.google.devtools.build.lib.remote.RemoteProtocol.RemoteResponse;
+import com.google.devtools.build.lib.remote.RemoteProtocol.UploadBlobRequest;
+import com.google.devtools.build.lib.remote.RemoteProtocol.UploadBlobResponse;
+import com.google.devtools.build.lib.shell.AbnormalTerminationException;
+import com.google.devtools.build.lib.shell.Command;
+import com.google.devtools.build.lib.shell.CommandException;
+import com.google.devtools.build.lib.shell.TerminationStatus;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.JavaIoFileSystem;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.Symlinks;
+import com.google.protobuf.ByteString;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+
+/**
+ * A stand-in for a remote cache and execution server that keeps its cache in a local directory
+ * and runs actions as local subprocesses. It can be called in-process, which lets the "remote"
+ * strategy be tested on a single machine without network services, or be run on its own with
+ * {@code java ... LocalRemoteServer <directory> <port>}.
+ *
+ * <p>The server runs any command that it is sent, and does not authenticate its clients, so it
+ * only listens on the loopback interface; other machines must reach it through a tunnel that
+ * authenticates them. It only caches the results of actions that it ran itself.
+ *
+ * <p>Blobs are stored as {@code cas/<digest>} and action results as {@code ac/<digest>}. Each
+ * action runs in a fresh directory under {@code work/}, populated with copies of its input files.
+ */
+@ThreadSafe
+public final class LocalRemoteServer implements RemoteTransport {
+  private static final Logger LOG = Logger.getLogger(LocalRemoteServer.class.getName());
+
+  private final Path casDir;
+  private final Path acDir;
+  private final Path workDir;
+  private final AtomicLong counter = new AtomicLong();
+
+  public LocalRemoteServer(Path root) throws IOException {
+    this.casDir = root.getRelative("cas");
+    this.acDir = root.getRelative("ac");
+    this.workDir = root.getRelative("work");
+    FileSystemUtils.createDirectoryAndParents(casDir);
+    FileSystemUtils.createDirectoryAndParents(acDir);
+    if (workDir.exists()) {
+      // Left over by a server that was killed while running actions.
+      FileSystemUtils.deleteTree(workDir);
+    }
+    FileSystemUtils.createDirectoryAndParents(workDir);
+  }
+
+  @Override
+  public RemoteResponse call(RemoteRequest request) {
+    try {
+      switch (request.getRequestCase()) {
+        case FIND_MISSING_BLOBS:
+          FindMissingBlobsResponse.Builder missing = FindMissingBlobsResponse.newBuilder();
+          for (ContentDigest digest : request.getFindMissingBlobs().getDigestsList()) {
+            if (!blobPath(digest).exists()) {
+              missing.addMissing(digest);
+            }
+          }
+          return RemoteResponse.newBuilder().setFindMissingBlobs(missing).build();
+        case UPLOAD_BLOB:
+          String uploadError = upload(request.getUploadBlob());
+          if (uploadError != null) {
+            return error(uploadError);
+          }
+          return RemoteResponse.newBuilder()
+              .setUploadBlob(UploadBlobResponse.getDefaultInstance())
+              .build();
+        case DOWNLOAD_BLOB:
+          return RemoteResponse.newBuilder()
+              .setDownloadBlob(download(request.getDownloadBlob()))
+              .build();
+        case GET_ACTION_RESULT:
+          Path entry = actionResultPath(request.getGetActionResult().getActionDigest());
+          GetActionResultResponse.Builder result = GetActionResultResponse.newBuilder();
+          if (entry.exists()) {
+            result.setFound(true)
+                .setResult(ActionResult.parseFrom(FileSystemUtils.readContent(entry)));
+          }
+          return RemoteResponse.newBuilder().setGetActionResult(result).build();
+        case EXECUTE:
+          return RemoteResponse.newBuilder()
+              .setExecute(ExecuteResponse.newBuilder()
+                  .setResult(execute(request.getExecute().getAction())))
+              .build();
+        default:
+          return error("Unknown request " + request.getRequestCase());
+      }
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Failed to serve " + request.getRequestCase(), e);
+      return error(e.toString());
+    }
+  }
+
+  /**
+   * Appends a chunk to the upload it belongs to, and moves the upload into the cache once it is
+   * complete and matches its digest. Returns an error message, or null.
+   */
+  @Nullable
+  private String upload(UploadBlobRequest upload) throws IOException {
+    ContentDigest digest = upload.getDigest();
+    long end = upload.getOffset() + upload.getData().size();
+    if (upload.getOffset() < 0 || end > digest.getSizeBytes()) {
+      return "Chunk at " + upload.getOffset() + " is out of range for blob "
+          + ContentDigests.toHexString(digest);
+    }
+    // The upload id is only used as a number, so that clients cannot choose file names.
+    Path partial = workDir.getChild("upload-" + ContentDigests.toHexString(digest) + "-"
+        + Long.toHexString(upload.getUploadId()));
+    synchronized (this) {
+      long size = partial.exists() ? partial.getFileSize() : 0;
+      if (size != upload.getOffset()) {
+        return "Expected chunk at " + size + " of blob " + ContentDigests.toHexString(digest)
+            + ", got chunk at " + upload.getOffset();
+      }
+      try (OutputStream out = partial.getOutputStream(/*append=*/true)) {
+        upload.getData().writeTo(out);
+      }
+    }
+    if (end < digest.getSizeBytes()) {
+      return null;
+    }
+    if (!ContentDigests.computeDigest(partial).equals(digest)) {
+      partial.delete();
+      return "Contents do not match digest " + ContentDigests.toHexString(digest);
+    }
+    partial.renameTo(blobPath(digest));
+    return null;
+  }
+
+  /** Returns the chunk of a blob that starts at the requested offset. */
+  private DownloadBlobResponse download(DownloadBlobRequest download) throws IOException {
+    Path blob = blobPath(download.getDigest());
+    DownloadBlobResponse.Builder response = DownloadBlobResponse.newBuilder();
+    try (InputStream in = blob.getInputStream()) {
+      ByteStreams.skipFully(in, download.getOffset());
+      response.setFound(true).setData(ByteString.readFrom(
+          ByteStreams.limit(in, RemoteClient.CHUNK_SIZE_BYTES)));
+    } catch (FileNotFoundException e) {
+      // Not in the cache.
+    }
+    return response.build();
+  }
+
+  /**
+   * Returns the path under {@code execRoot} that an action names, which must be relative and
+   * normalized, so that it is inside {@code execRoot}.
+   */
+  private static Path resolve(Path execRoot, String path) throws IOException {
+    PathFragment fragment = new PathFragment(path);
+    if (fragment.isAbsolute() || !fragment.isNormalized() || fragment.segmentCount() == 0) {
+      throw new IOException("Path " + path + " is not relative to the execution root");
+    }
+    return execRoot.getRelative(fragment);
+  }
+
+  private ActionResult execute(Action action) throws IOException {
+    Path execRoot = workDir.getChild(Long.toString(counter.incrementAndGet()));
+    try {
+      execRoot.createDirectory();
+      for (FileEntry input : action.getInputFilesList()) {
+        Path blob = blobPath(input.getDigest());
+        if (!blob.exists()) {
+          throw new IOException("Missing input " + input.getPath());
+        }
+        Path path = resolve(execRoot, input.getPath());
+        FileSystemUtils.createDirectoryAndParents(path.getParentDirectory());
+        FileSystemUtils.copyFile(blob, path);
+        path.setExecutable(input.getExecutable());
+      }
+      for (String output : action.getOutputPathsList()) {
+        FileSystemUtils.createDirectoryAndParents(resolve(execRoot, output).getParentDirectory());
+      }
+
+      Map<String, String> env = new HashMap<>();
+      for (EnvironmentVariable variable : action.getEnvironmentList()) {
+        env.put(variable.getName(), variable.getValue());
+      }
+      Command command = new Command(
+          action.getArgumentsList().toArray(new String[0]), env, execRoot.getPathFile());
+      ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+      ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+      int exitCode = 0;
+      try {
+        command.execute(new byte[0], Command.NO_OBSERVER, stdout, stderr,
+            /*killSubprocessOnInterrupt=*/true);
+      } catch (AbnormalTerminationException e) {
+        TerminationStatus status = e.getResult().getTerminationStatus();
+        exitCode = status.exited() ? status.getExitCode() : 128 + status.getTerminatingSignal();
+      } catch (CommandException e) {
+        throw new IOException("Failed to run " + action.getArguments(0), e);
+      }
+
+      ActionResult.Builder result = ActionResult.newBuilder()
+          .setExitCode(exitCode)
+          .setStdoutDigest(putBlob(stdout.toByteArray()))
+          .setStderrDigest(putBlob(stderr.toByteArray()));
+      for (String output : action.getOutputPathsList()) {
+        Path path = resolve(execRoot, output);
+        if (!path.isFile(Symlinks.NOFOLLOW)) {
+          // The client reports outputs that were not created.
+          continue;
+        }
+        ContentDigest digest = ContentDigests.computeDigest(path);
+        Path blob = blobPath(digest);
+        if (!blob.exists()) {
+          path.renameTo(blob);
+        }
+        result.addOutputFilesBuilder()
+            .setPath(output)
+            .setDigest(digest)
+            .setExecutable(blob.isExecutable());
+      }
+      ActionResult actionResult = result.build();
+      if (exitCode == 0) {
+        writeAtomically(actionResultPath(ContentDigests.computeDigest(action)),
+            actionResult.toByteArray());
+      }
+      return actionResult;
+    } finally {
+      FileSystemUtils.deleteTree(execRoot);
+    }
+  }
+
+  private ContentDigest putBlob(byte[] data) throws IOException {
+    ContentDigest digest = ContentDigests.computeDigest(data);
+    Path blob = blobPath(digest);
+    if (!blob.exists()) {
+      writeAtomically(blob, data);
+    }
+    return digest;
+  }
+
+  private void writeAtomically(Path path, byte[] data) throws IOException {
+    Path tmp = workDir.getChild("tmp-" + counter.incrementAndGet());
+    FileSystemUtils.writeContent(tmp, data);
+    tmp.renameTo(path);
+  }
+
+  private Path blobPath(ContentDigest digest) {
+    return casDir.getChild(ContentDigests.toHexString(digest));
+  }
+
+  private Path actionResultPath(ContentDigest actionDigest) {
+    return acDir.getChild(ContentDigests.toHexString(actionDigest));
+  }
+
+  private static RemoteResponse error(String message) {
+    return RemoteResponse.newBuilder().setError(message).build();
+  }
+
+  /**
+   * Serves requests from the connections to {@code serverSocket}, until it is closed. Each
+   * connection may carry any number of requests.
+   */
+  public void serve(ServerSocket serverSocket) throws IOException {
+    while (true) {
+      final Socket socket = serverSocket.accept();
+      new Thread("remote-server-connection") {
+        @Override
+        public void run() {
+          try (Socket s = socket) {
+            s.setTcpNoDelay(true);
+            InputStream in = new BufferedInputStream(s.getInputStream());
+            OutputStream out = s.getOutputStream();
+            RemoteRequest request;
+            while ((request = RemoteRequest.parseDelimitedFrom(in)) != null) {
+              call(request).writeDelimitedTo(out);
+              out.flush();
+            }
+          } catch (IOException e) {
+            LOG.log(Level.WARNING, "Connection failed", e);
+          }
+        }
+      }.start();
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    Preconditions.checkArgument(args.length == 2, "Usage: LocalRemoteServer <directory> <port>");
+    LocalRemoteServer server =
+        new LocalRemoteServer(FileSystemUtils.getWorkingDirectory(new JavaIoFileSystem())
+            .getRelative(args[0]));
+    try (ServerSocket serverSocket = new ServerSocket(
+        Integer.parseInt(args[1]), /*backlog=*/50, InetAddress.getLoopbackAddress())) {
+      server.serve(serverSocket);
+    }
+  }
+}
@@ -0,0 +1,96 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.remote;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.net.HostAndPort;
+import com.google.devtools.build.lib.actions.ActionContextProvider;
+import com.google.devtools.build.lib.actions.ActionGraph;
+import com.google.devtools.build.lib.actions.ActionInputFileCache;
+import com.google.devtools.build.lib.actions.Artifact;
+import com.google.devtools.build.lib.actions.Executor.ActionContext;
+import com.google.devtools.build.lib.actions.ExecutorInitException;
+import com.google.devtools.build.lib.buildtool.BuildRequest;
+import com.google.devtools.build.lib.exec.ExecutionOptions;
+import com.google.devtools.build.lib.runtime.BlazeRuntime;
+import com.google.devtools.build.lib.standalone.StandaloneSpawnStrategy;
+
+import java.io.IOException;
+
+import javax.annotation.Nullable;
+
+/**
+ * Factory for the remote execution strategy.
+ */
+final class RemoteActionContextProvider implements ActionContextProvider {
+  private final RemoteSpawnStrategy strategy;
+  private final String initError;
+  @Nullable private final SocketTransport socketTransport;
+
+  RemoteActionContextProvider(BlazeRuntime runtime, BuildRequest buildRequest) {
+    RemoteOptions options = buildRequest.getOptions(RemoteOptions.class);
+    boolean verboseFailures = buildRequest.getOptions(ExecutionOptions.class).verboseFailures;
+    RemoteTransport transport = null;
+    SocketTransport socketTransport = null;
+    String error = null;
+    try {
+      if (options.localRemoteServer != null) {
+        transport =
+            new LocalRemoteServer(runtime.getWorkspace().getRelative(options.localRemoteServer));
+      } else if (options.remoteServer != null) {
+        socketTransport = new SocketTransport(HostAndPort.fromString(options.remoteServer));
+        transport = socketTransport;
+      } else {
+        error = "it needs --remote_server or --experimental_local_remote_server";
+      }
+    } catch (IOException | IllegalArgumentException e) {
+      error = e.getMessage();
+    }
+    this.initError = error;
+    this.socketTransport = socketTransport;
+    this.strategy = new RemoteSpawnStrategy(runtime.getExecRoot(),
+        new StandaloneSpawnStrategy(runtime.getExecRoot(), verboseFailures, /*forkServer=*/null),
+        transport == null ? null : new RemoteClient(transport), options, verboseFailures);
+  }
+
+  @Override
+  public Iterable<ActionContext> getActionContexts() {
+    return ImmutableList.<ActionContext>of(strategy);
+  }
+
+  @Override
+  public void executorCreated(Iterable<ActionContext> usedContexts) throws ExecutorInitException {
+    if (initError != null && Iterables.contains(usedContexts, strategy)) {
+      throw new ExecutorInitException("Cannot use the 'remote' strategy: " + initError);
+    }
+  }
+
+  @Override
+  public void executionPhaseStarting(ActionInputFileCache actionInputFileCache,
+      ActionGraph actionGraph, Iterable<Artifact> topLevelArtifacts)
+      throws ExecutorInitException, InterruptedException {
+  }
+
+  @Override
+  public void executionPhaseEnding() {
+    if (socketTransport != null) {
+      try {
+        socketTransport.close();
+      } catch (IOException e) {
+        // The connections are gone either way.
+      }
+    }
+  }
+}
@@ -0,0 +1,153 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.remote;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.remote.RemoteProtocol.Action;
+import com.google.devtools.build.lib.remote.RemoteProtocol.ActionResult;
+import com.google.devtools.build.lib.remote.RemoteProtocol.ContentDigest;
+import com.google.devtools.build.lib.remote.RemoteProtocol.DownloadBlobRequest;
+import com.google.devtools.build.lib.remote.RemoteProtocol.DownloadBlobResponse;
+import com.google.devtools.build.lib.remote.RemoteProtocol.ExecuteRequest;
+import com.google.devtools.build.lib.remote.RemoteProtocol.FindMissingBlobsRequest;
+import com.google.devtools.build.lib.remote.RemoteProtocol.GetActionResultRequest;
+import com.google.devtools.build.lib.remote.RemoteProtocol.GetActionResultResponse;
+import com.google.devtools.build.lib.remote.RemoteProtocol.RemoteRequest;
+import com.google.devtools.build.lib.remote.RemoteProtocol.RemoteResponse;
+import com.google.devtools.build.lib.remote.RemoteProtocol.UploadBlobRequest;
+import com.google.protobuf.ByteString;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+
+import javax.annotation.Nullable;
+
+/**
+ * The calls of the remote protocol, on top of a {@link RemoteTransport}. Every method throws
+ * {@link IOException} if the server cannot be reached or reports an error.
+ */
+@ThreadSafe
+public final class RemoteClient {
+  /** The largest chunk of a blob that one request or response carries. */
+  static final int CHUNK_SIZE_BYTES = 1024 * 1024;
+
+  private static final Random random = new Random();
+
+  private final RemoteTransport transport;
+
+  public RemoteClient(RemoteTransport transport) {
+    this.transport = transport;
+  }
+
+  /** Returns those of {@code digests} whose contents the cache does not hold. */
+  public ImmutableSet<ContentDigest> findMissingBlobs(Iterable<ContentDigest> digests)
+      throws IOException {
+    RemoteResponse response = call(RemoteRequest.newBuilder()
+        .setFindMissingBlobs(FindMissingBlobsRequest.newBuilder().addAllDigests(digests))
+        .build());
+    return ImmutableSet.copyOf(response.getFindMissingBlobs().getMissingList());
+  }
+
+  /** Uploads the contents of {@code in}, which have the given digest, one chunk at a time. */
+  public void uploadBlob(ContentDigest digest, InputStream in) throws IOException {
+    long uploadId = random.nextLong();
+    long offset = 0;
+    do {
+      ByteString chunk = ByteString.readFrom(ByteStreams.limit(in, CHUNK_SIZE_BYTES));
+      call(RemoteRequest.newBuilder()
+          .setUploadBlob(UploadBlobRequest.newBuilder()
+              .setDigest(digest)
+              .setData(chunk)
+              .setOffset(offset)
+              .setUploadId(uploadId))
+          .build());
+      offset += chunk.size();
+      if (chunk.isEmpty() && offset < digest.getSizeBytes()) {
+        throw new IOException(
+            "Contents are shorter than blob " + ContentDigests.toHexString(digest));
+      }
+    } while (offset < digest.getSizeBytes());
+  }
+
+  /**
+   * Writes the contents with the given digest to {@code out}, one chunk at a time. The contents
+   * are checked against the digest once they are all written, so callers that must not see wrong
+   * contents have to write them somewhere temporary first.
+   *
+   * @throws IOException if the cache does not hold them, or they do not match the digest
+   */
+  public void downloadBlob(ContentDigest digest, OutputStream out) throws IOException {
+    Hasher hasher = Hashing.md5().newHasher();
+    long offset = 0;
+    do {
+      DownloadBlobResponse response = call(RemoteRequest.newBuilder()
+          .setDownloadBlob(DownloadBlobRequest.newBuilder().setDigest(digest).setOffset(offset))
+          .build())
+          .getDownloadBlob();
+      if (!response.getFound()) {
+        throw new IOException(
+            "Remote cache does not hold blob " + ContentDigests.toHexString(digest));
+      }
+      if (response.getData().isEmpty() && offset < digest.getSizeBytes()) {
+        throw new IOException("Remote blob " + ContentDigests.toHexString(digest) + " is short");
+      }
+      if (offset + response.getData().size() > digest.getSizeBytes()) {
+        throw new IOException("Remote blob " + ContentDigests.toHexString(digest) + " is long");
+      }
+      response.getData().writeTo(out);
+      hasher.putBytes(response.getData().toByteArray());
+      offset += response.getData().size();
+    } while (offset < digest.getSizeBytes());
+    if (!ByteString.copyFrom(hasher.hash().asBytes()).equals(digest.getDigest())) {
+      throw new IOException(
+          "Remote blob does not match its digest " + ContentDigests.toHexString(digest));
+    }
+  }
+
+  /** Returns the cached result of the action with the given digest, or null if there is none. */
+  @Nullable
+  public ActionResult getActionResult(ContentDigest actionDigest) throws IOException {
+    GetActionResultResponse response = call(RemoteRequest.newBuilder()
+        .setGetActionResult(GetActionResultRequest.newBuilder().setActionDigest(actionDigest))
+        .build())
+        .getGetActionResult();
+    return response.getFound() ? response.getResult() : null;
+  }
+
+  /**
+   * Runs {@code action} on the server, all of whose input files must already be in the cache, and
+   * returns its result. The outputs, standard output and standard error are added to the cache.
+   */
+  public ActionResult execute(Action action) throws IOException {
+    return call(RemoteRequest.newBuilder()
+        .setExecute(ExecuteRequest.newBuilder().setAction(action))
+        .build())
+        .getExecute()
+        .getResult();
+  }
+
+  private RemoteResponse call(RemoteRequest request) throws IOException {
+    RemoteResponse response = transport.call(request);
+    if (!response.getError().isEmpty()) {
+      throw new IOException("Remote server error: " + response.getError());
+    }
+    return response;
+  }
+}
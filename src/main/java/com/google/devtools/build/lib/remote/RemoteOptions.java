@@ -0,0 +1,53 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.remote;
+
+import com.google.devtools.build.lib.util.OptionsUtils;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.common.options.Option;
+import com.google.devtools.common.options.OptionsBase;
+
+/**
+ * Options related to the remote cache and execution server.
+ */
+public class RemoteOptions extends OptionsBase {
+  @Option(name = "remote_server",
+      defaultValue = "null",
+      category = "strategy",
+      help = "The host:port of the remote cache and execution server used by the 'remote' "
+          + "strategy.")
+  public String remoteServer;
+
+  @Option(name = "experimental_local_remote_server",
+      defaultValue = "null",
+      category = "strategy",
+      converter = OptionsUtils.PathFragmentConverter.class,
+      help = "If set, the 'remote' strategy uses a stand-in for the remote server that runs "
+          + "inside Blaze and keeps its cache in this directory, relative to the workspace. For "
+          + "testing on a single machine.")
+  public PathFragment localRemoteServer;
+
+  @Option(name = "remote_execution",
+      defaultValue = "false",
+      category = "strategy",
+      help = "Whether the 'remote' strategy runs spawns whose results are not cached on the remote "
+          + "server. Otherwise they run locally, and their results are not cached.")
+  public boolean remoteExecution;
+
+  @Option(name = "remote_local_fallback",
+      defaultValue = "true",
+      category = "strategy",
+      help = "Whether the 'remote' strategy runs spawns locally if the remote server fails.")
+  public boolean remoteLocalFallback;
+}
@@ -0,0 +1,242 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.remote;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableSet;
+import com.google.devtools.build.lib.actions.ActionExecutionContext;
+import com.google.devtools.build.lib.actions.ActionInput;
+import com.google.devtools.build.lib.actions.ActionInputFileCache;
+import com.google.devtools.build.lib.actions.ActionInputHelper;
+import com.google.devtools.build.lib.actions.EnvironmentalExecException;
+import com.google.devtools.build.lib.actions.ExecException;
+import com.google.devtools.build.lib.actions.ExecutionStrategy;
+import com.google.devtools.build.lib.actions.Executor;
+import com.google.devtools.build.lib.actions.Spawn;
+import com.google.devtools.build.lib.actions.SpawnActionContext;
+import com.google.devtools.build.lib.actions.UserExecException;
+import com.google.devtools.build.lib.events.Event;
+import com.google.devtools.build.lib.remote.RemoteProtocol.Action;
+import com.google.devtools.build.lib.remote.RemoteProtocol.ActionResult;
+import com.google.devtools.build.lib.remote.RemoteProtocol.ContentDigest;
+import com.google.devtools.build.lib.remote.RemoteProtocol.FileEntry;
+import com.google.devtools.build.lib.syntax.Label;
+import com.google.devtools.build.lib.util.CommandFailureUtils;
+import com.google.devtools.build.lib.util.io.FileOutErr;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import javax.annotation.Nullable;
+
+/**
+ * Strategy that looks up the results of spawns in a remote cache, and either runs the spawns
+ * whose results are not cached on the remote server, which caches their results, or runs them with
+ * another strategy. Results of spawns that run locally are not added to the cache, which only
+ * holds results that the server computed itself.
+ *
+ * <p>A spawn is identified by its arguments, environment, the paths and contents of its inputs,
+ * and the paths of its outputs. Only spawns that succeed are cached. Spawns that are not remotable,
+ * or whose inputs include a directory, always run with the other strategy.
+ */
+@ExecutionStrategy(name = { "remote" }, contextType = SpawnActionContext.class)
+final class RemoteSpawnStrategy implements SpawnActionContext {
+  private final Path execRoot;
+  private final SpawnActionContext localStrategy;
+  private final RemoteClient client;
+  private final boolean remoteExecution;
+  private final boolean localFallback;
+  private final boolean verboseFailures;
+
+  /**
+   * Creates the strategy. {@code client} may only be null if the strategy is not used; see
+   * {@link RemoteActionContextProvider#executorCreated}.
+   */
+  RemoteSpawnStrategy(Path execRoot, SpawnActionContext localStrategy,
+      @Nullable RemoteClient client, RemoteOptions options, boolean verboseFailures) {
+    this.execRoot = execRoot;
+    this.localStrategy = localStrategy;
+    this.client = client;
+    this.remoteExecution = options.remoteExecution;
+    this.localFallback = options.remoteLocalFallback;
+    this.verboseFailures = verboseFailures;
+  }
+
+  @Override
+  public void exec(Spawn spawn, ActionExecutionContext actionExecutionContext)
+      throws ExecException, InterruptedException {
+    if (!spawn.isRemotable()) {
+      localStrategy.exec(spawn, actionExecutionContext);
+      return;
+    }
+    Executor executor = actionExecutionContext.getExecutor();
+    Map<ContentDigest, Path> inputs = new HashMap<>();
+    Action action;
+    try {
+      action = buildAction(spawn, actionExecutionContext, inputs);
+    } catch (IOException e) {
+      // Most likely a directory input, which the protocol cannot describe.
+      localStrategy.exec(spawn, actionExecutionContext);
+      return;
+    }
+    ContentDigest actionDigest = ContentDigests.computeDigest(action);
+    FileOutErr outErr = actionExecutionContext.getFileOutErr();
+
+    try {
+      ActionResult result = client.getActionResult(actionDigest);
+      if (result != null) {
+        downloadResult(result, spawn.getOutputFiles(), outErr);
+        return;
+      }
+      if (remoteExecution) {
+        if (executor.reportsSubcommands()) {
+          executor.reportSubcommand(Label.print(spawn.getOwner().getLabel())
+              + " [" + spawn.getResourceOwner().prettyPrint() + "]",
+              spawn.asShellCommand(execRoot));
+        }
+        ImmutableSet<ContentDigest> missing = client.findMissingBlobs(inputs.keySet());
+        for (ContentDigest digest : missing) {
+          try (InputStream in = inputs.get(digest).getInputStream()) {
+            client.uploadBlob(digest, in);
+          }
+        }
+        result = client.execute(action);
+        downloadResult(result, spawn.getOutputFiles(), outErr);
+        if (result.getExitCode() != 0) {
+          String message = CommandFailureUtils.describeCommandFailure(verboseFailures,
+              spawn.getArguments(), spawn.getEnvironment(), execRoot.getPathString());
+          throw new UserExecException(String.format("%s: Remote execution exited with %d",
+              message, result.getExitCode()));
+        }
+        return;
+      }
+    } catch (IOException e) {
+      if (!localFallback) {
+        throw new EnvironmentalExecException("Remote execution failed: " + e.getMessage(), e);
+      }
+      executor.getEventHandler().handle(Event.warn(spawn.getMnemonic()
+          + " remote execution failed, running locally: " + e.getMessage()));
+    }
+
+    localStrategy.exec(spawn, actionExecutionContext);
+  }
+
+  /**
+   * Describes {@code spawn} to the remote server, and records the files its input digests stand
+   * for in {@code inputs}.
+   */
+  private Action buildAction(Spawn spawn, ActionExecutionContext actionExecutionContext,
+      Map<ContentDigest, Path> inputs) throws IOException {
+    ActionInputFileCache fileCache = actionExecutionContext.getActionInputFileCache();
+    SortedMap<String, FileEntry> inputFiles = new TreeMap<>();
+    for (ActionInput input : ActionInputHelper.expandMiddlemen(
+        spawn.getInputFiles(), actionExecutionContext.getMiddlemanExpander())) {
+      Path path = execRoot.getRelative(input.getExecPathString());
+      ContentDigest digest = ContentDigests.computeDigest(fileCache, input, path);
+      inputs.put(digest, path);
+      inputFiles.put(input.getExecPathString(), FileEntry.newBuilder()
+          .setPath(input.getExecPathString())
+          .setDigest(digest)
+          .setExecutable(path.isExecutable())
+          .build());
+    }
+    Action.Builder action = Action.newBuilder()
+        .addAllArguments(spawn.getArguments())
+        .addAllInputFiles(inputFiles.values());
+    for (Map.Entry<String, String> variable
+        : new TreeMap<>(spawn.getEnvironment()).entrySet()) {
+      action.addEnvironmentBuilder().setName(variable.getKey()).setValue(variable.getValue());
+    }
+    SortedMap<String, ActionInput> outputs = new TreeMap<>();
+    for (ActionInput output : spawn.getOutputFiles()) {
+      outputs.put(output.getExecPathString(), output);
+    }
+    action.addAllOutputPaths(outputs.keySet());
+    return action.build();
+  }
+
+  /**
+   * Writes the outputs of a remote result to the exec root, and replays its output. Only
+   * {@code declaredOutputs} are written, and only once all paths of the result are checked and
+   * each blob matched its digest, so that a broken or malicious server cannot write elsewhere.
+   */
+  @VisibleForTesting
+  void downloadResult(ActionResult result, Iterable<? extends ActionInput> declaredOutputs,
+      FileOutErr outErr) throws IOException {
+    Set<String> declared = new HashSet<>();
+    for (ActionInput output : declaredOutputs) {
+      declared.add(output.getExecPathString());
+    }
+    Map<FileEntry, Path> paths = new LinkedHashMap<>();
+    for (FileEntry output : result.getOutputFilesList()) {
+      PathFragment fragment = new PathFragment(output.getPath());
+      if (fragment.isAbsolute() || !fragment.isNormalized() || fragment.segmentCount() == 0) {
+        throw new IOException(
+            "Remote output " + output.getPath() + " is not relative to the execution root");
+      }
+      if (!declared.contains(fragment.getPathString())) {
+        throw new IOException(
+            "Remote output " + output.getPath() + " is not an output of the action");
+      }
+      paths.put(output, execRoot.getRelative(fragment));
+    }
+    for (Map.Entry<FileEntry, Path> entry : paths.entrySet()) {
+      FileEntry output = entry.getKey();
+      Path path = entry.getValue();
+      FileSystemUtils.createDirectoryAndParents(path.getParentDirectory());
+      Path partial = path.getParentDirectory().getChild(path.getBaseName() + ".remote");
+      try {
+        try (OutputStream out = partial.getOutputStream()) {
+          client.downloadBlob(output.getDigest(), out);
+        }
+        path.delete();
+        partial.renameTo(path);
+      } finally {
+        partial.delete();
+      }
+      path.setExecutable(output.getExecutable());
+    }
+    replay(result.getStdoutDigest(), outErr.getOutputStream());
+    replay(result.getStderrDigest(), outErr.getErrorStream());
+  }
+
+  /** Writes a blob to {@code out}, once it has been downloaded and matched its digest. */
+  private void replay(ContentDigest digest, OutputStream out) throws IOException {
+    ByteArrayOutputStream contents = new ByteArrayOutputStream();
+    client.downloadBlob(digest, contents);
+    contents.writeTo(out);
+  }
+
+  @Override
+  public String strategyLocality(String mnemonic, boolean remotable) {
+    return "remote";
+  }
+
+  @Override
+  public boolean isRemotable(String mnemonic, boolean remotable) {
+    return remotable;
+  }
+}
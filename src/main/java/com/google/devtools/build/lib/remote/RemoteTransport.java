@@ -0,0 +1,33 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.remote;
+
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.remote.RemoteProtocol.RemoteRequest;
+import com.google.devtools.build.lib.remote.RemoteProtocol.RemoteResponse;
+
+import java.io.IOException;
+
+/**
+ * Carries requests to a remote cache and execution server, which answers each with a response.
+ */
+@ThreadSafe
+public interface RemoteTransport {
+  /**
+   * Sends {@code request} to the server and returns its response.
+   *
+   * @throws IOException if the server could not be reached
+   */
+  RemoteResponse call(RemoteRequest request) throws IOException;
+}
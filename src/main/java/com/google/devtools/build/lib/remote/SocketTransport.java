@@ -0,0 +1,130 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.remote;
+
+import com.google.common.net.HostAndPort;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.remote.RemoteProtocol.RemoteRequest;
+import com.google.devtools.build.lib.remote.RemoteProtocol.RemoteResponse;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import javax.annotation.Nullable;
+
+/**
+ * Sends requests to a remote server over TCP connections, as length-delimited
+ * {@link RemoteRequest}s, and reads back length-delimited {@link RemoteResponse}s. A connection
+ * carries one call at a time, and is kept open for later calls once its call returns.
+ */
+@ThreadSafe
+final class SocketTransport implements RemoteTransport, Closeable {
+  private final HostAndPort address;
+
+  /** Connections that no call is using. */
+  private final Deque<Connection> idle = new ArrayDeque<>();
+  private boolean closed;
+
+  SocketTransport(HostAndPort address) {
+    this.address = address;
+  }
+
+  @Override
+  public RemoteResponse call(RemoteRequest request) throws IOException {
+    Connection connection = takeIdle();
+    if (connection != null) {
+      try {
+        return call(connection, request);
+      } catch (IOException e) {
+        // The server may have closed the connection while it was idle; try a new one.
+      }
+    }
+    return call(new Connection(address), request);
+  }
+
+  private RemoteResponse call(Connection connection, RemoteRequest request) throws IOException {
+    try {
+      request.writeDelimitedTo(connection.out);
+      connection.out.flush();
+      RemoteResponse response = RemoteResponse.parseDelimitedFrom(connection.in);
+      if (response == null) {
+        throw new IOException("Remote server " + address + " closed the connection");
+      }
+      release(connection);
+      return response;
+    } catch (IOException e) {
+      connection.close();
+      throw e;
+    }
+  }
+
+  @Nullable
+  private synchronized Connection takeIdle() {
+    return idle.pollLast();
+  }
+
+  private void release(Connection connection) throws IOException {
+    synchronized (this) {
+      if (!closed) {
+        idle.addLast(connection);
+        return;
+      }
+    }
+    connection.close();
+  }
+
+  /** Closes the idle connections, and the others once their calls return. */
+  @Override
+  public void close() throws IOException {
+    Connection[] connections;
+    synchronized (this) {
+      closed = true;
+      connections = idle.toArray(new Connection[0]);
+      idle.clear();
+    }
+    for (Connection connection : connections) {
+      connection.close();
+    }
+  }
+
+  private static final class Connection implements Closeable {
+    private final Socket socket;
+    private final InputStream in;
+    private final OutputStream out;
+
+    Connection(HostAndPort address) throws IOException {
+      this.socket = new Socket(address.getHostText(), address.getPort());
+      try {
+        // Each call is a single write followed by a read, which Nagle's algorithm would delay.
+        socket.setTcpNoDelay(true);
+        this.in = new BufferedInputStream(socket.getInputStream());
+        this.out = socket.getOutputStream();
+      } catch (IOException e) {
+        socket.close();
+        throw e;
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      socket.close();
+    }
+  }
+}
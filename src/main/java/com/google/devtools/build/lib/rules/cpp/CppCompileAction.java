@@ -1057,9 +1057,9 @@ public class CppCompileAction extends AbstractAction implements IncludeScannable
      * that affect whether validateIncludes() will report an error or warning
      * have changed, otherwise we might miss some errors.
      */
-    f.addPaths(context.getDeclaredIncludeDirs());
-    f.addPaths(context.getDeclaredIncludeWarnDirs());
-    f.addPaths(getDeclaredIncludeSrcsInStableOrder());
+    f.addNestedSet(context.getDeclaredIncludeDirs(), PathFragment.PATH_STRING_FUNNEL);
+    f.addNestedSet(context.getDeclaredIncludeWarnDirs(), PathFragment.PATH_STRING_FUNNEL);
+    f.addNestedSet(context.getDeclaredIncludeSrcs(), Artifact.EXEC_PATH_FUNNEL);
     f.addPaths(getExtraSystemIncludePrefixes());
     return f.hexDigestAndReset();
   }
@@ -44,6 +44,7 @@ import com.google.devtools.build.lib.analysis.config.BuildConfiguration;
 import com.google.devtools.build.lib.collect.CollectionUtils;
 import com.google.devtools.build.lib.collect.ImmutableIterable;
 import com.google.devtools.build.lib.collect.IterablesChain;
+import com.google.devtools.build.lib.collect.nestedset.ElementReceiver;
 import com.google.devtools.build.lib.collect.nestedset.NestedSet;
 import com.google.devtools.build.lib.collect.nestedset.NestedSetBuilder;
 import com.google.devtools.build.lib.collect.nestedset.Order;
@@ -859,9 +860,13 @@ public final class CppLinkAction extends AbstractAction {
      * libraries.
      */
     public Builder addLibraries(NestedSet<LibraryToLink> inputs) {
-      for (LibraryToLink input : inputs) {
-        checkLibrary(input);
-      }
+      // Stream the libraries, as iterating over the set would build a list of all of them.
+      inputs.forEachElement(new ElementReceiver<LibraryToLink, RuntimeException>() {
+        @Override
+        public void accept(LibraryToLink input) {
+          checkLibrary(input);
+        }
+      });
       this.libraries.addTransitive(inputs);
       return this;
     }
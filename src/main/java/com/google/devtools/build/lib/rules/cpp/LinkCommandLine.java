@@ -30,6 +30,7 @@ import com.google.devtools.build.lib.analysis.RuleContext;
 import com.google.devtools.build.lib.analysis.actions.CommandLine;
 import com.google.devtools.build.lib.analysis.config.BuildConfiguration;
 import com.google.devtools.build.lib.collect.CollectionUtils;
+import com.google.devtools.build.lib.collect.nestedset.ElementReceiver;
 import com.google.devtools.build.lib.concurrent.ThreadSafety.Immutable;
 import com.google.devtools.build.lib.rules.cpp.Link.LinkStaticness;
 import com.google.devtools.build.lib.rules.cpp.Link.LinkTargetType;
@@ -273,7 +274,7 @@ public final class LinkCommandLine extends CommandLine {
       // a parameter file and pass any linker options through it.
       List<String> paramFileArgs = new ArrayList<>();
       List<String> commandlineArgs = new ArrayList<>();
-      extractArgumentsForParamFile(args, commandlineArgs, paramFileArgs);
+      extractArgumentsForParamFile(args, addingTo(commandlineArgs), addingTo(paramFileArgs));
 
       commandlineArgs.add("-Wl,@" + paramFileExecPath.getPathString());
       return Pair.of(commandlineArgs, paramFileArgs);
@@ -281,7 +282,8 @@ public final class LinkCommandLine extends CommandLine {
   }
 
   /**
-   * Returns just the .params file portion of the command-line as a {@link CommandLine}.
+   * Returns just the .params file portion of the command-line as a {@link CommandLine}. Writing
+   * it streams the arguments out of the raw link command line, without splitting it into lists.
    *
    * @throws IllegalStateException if the command-line cannot be split
    */
@@ -292,6 +294,35 @@ public final class LinkCommandLine extends CommandLine {
       public Iterable<String> arguments() {
         return splitCommandline().getSecond();
       }
+
+      @Override
+      public <X extends Exception> void forEachArgument(ElementReceiver<String, X> receiver)
+          throws X {
+        List<String> args = getRawLinkArgv();
+        if (linkTargetType.isStaticLibraryLink()) {
+          for (String arg : args.subList(1, args.size())) {
+            receiver.accept(arg);
+          }
+        } else {
+          extractArgumentsForParamFile(args, LinkCommandLine.<X>ignoring(), receiver);
+        }
+      }
+    };
+  }
+
+  private static ElementReceiver<String, RuntimeException> addingTo(final List<String> list) {
+    return new ElementReceiver<String, RuntimeException>() {
+      @Override
+      public void accept(String arg) {
+        list.add(arg);
+      }
+    };
+  }
+
+  private static <X extends Exception> ElementReceiver<String, X> ignoring() {
+    return new ElementReceiver<String, X>() {
+      @Override
+      public void accept(String arg) {}
     };
   }
 
@@ -315,49 +346,50 @@ public final class LinkCommandLine extends CommandLine {
     }
   }
 
-  private static void extractArgumentsForParamFile(List<String> args, List<String> commandlineArgs,
-      List<String> paramFileArgs) {
+  private static <X extends Exception> void extractArgumentsForParamFile(List<String> args,
+      ElementReceiver<String, X> commandlineArgs,
+      ElementReceiver<String, X> paramFileArgs) throws X {
     // Note, that it is not important that all linker arguments are extracted so that
     // they can be moved into a parameter file, but the vast majority should.
-    commandlineArgs.add(args.get(0));   // gcc command, must not be moved!
+    commandlineArgs.accept(args.get(0));   // gcc command, must not be moved!
     int argsSize = args.size();
     for (int i = 1; i < argsSize; i++) {
       String arg = args.get(i);
       if (arg.equals("-Wl,-no-whole-archive")) {
-        paramFileArgs.add("-no-whole-archive");
+        paramFileArgs.accept("-no-whole-archive");
       } else if (arg.equals("-Wl,-whole-archive")) {
-        paramFileArgs.add("-whole-archive");
+        paramFileArgs.accept("-whole-archive");
       } else if (arg.equals("-Wl,--start-group")) {
-        paramFileArgs.add("--start-group");
+        paramFileArgs.accept("--start-group");
       } else if (arg.equals("-Wl,--end-group")) {
-        paramFileArgs.add("--end-group");
+        paramFileArgs.accept("--end-group");
       } else if (arg.equals("-Wl,--start-lib")) {
-        paramFileArgs.add("--start-lib");
+        paramFileArgs.accept("--start-lib");
       } else if (arg.equals("-Wl,--end-lib")) {
-        paramFileArgs.add("--end-lib");
+        paramFileArgs.accept("--end-lib");
       } else if (arg.equals("--incremental-unchanged")) {
-        paramFileArgs.add(arg);
+        paramFileArgs.accept(arg);
       } else if (arg.equals("--incremental-changed")) {
-        paramFileArgs.add(arg);
+        paramFileArgs.accept(arg);
       } else if (arg.charAt(0) == '-') {
         if (arg.startsWith("-l")) {
-          paramFileArgs.add(arg);
+          paramFileArgs.accept(arg);
         } else {
           // Anything else starting with a '-' can stay on the commandline.
-          commandlineArgs.add(arg);
+          commandlineArgs.accept(arg);
           if (arg.equals("-o")) {
             // Special case for '-o': add the following argument as well - it is the output file!
-            commandlineArgs.add(args.get(++i));
+            commandlineArgs.accept(args.get(++i));
           }
         }
       } else if (arg.endsWith(".a") || arg.endsWith(".lo") || arg.endsWith(".so")
           || arg.endsWith(".ifso") || arg.endsWith(".o")
           || CppFileTypes.VERSIONED_SHARED_LIBRARY.matches(arg)) {
         // All objects of any kind go into the linker parameters.
-        paramFileArgs.add(arg);
+        paramFileArgs.accept(arg);
       } else {
         // Everything that's left stays conservatively on the commandline.
-        commandlineArgs.add(arg);
+        commandlineArgs.accept(arg);
       }
     }
   }
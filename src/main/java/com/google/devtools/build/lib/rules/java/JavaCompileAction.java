@@ -22,6 +22,8 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
+import com.google.common.hash.Funnel;
+import com.google.common.hash.PrimitiveSink;
 import com.google.devtools.build.lib.actions.AbstractAction;
 import com.google.devtools.build.lib.actions.Action;
 import com.google.devtools.build.lib.actions.ActionExecutionContext;
@@ -389,7 +391,7 @@ public class JavaCompileAction extends AbstractAction {
   protected String computeKey() {
     Fingerprint f = new Fingerprint();
     f.addString(GUID);
-    f.addStrings(commandLine.arguments());
+    commandLine.addToFingerprint(f);
     return f.hexDigestAndReset();
   }
 
@@ -541,6 +543,14 @@ public class JavaCompileAction extends AbstractAction {
         classpathEntries.add(classDirectory);
         return Joiner.on(configuration.getHostPathSeparator()).join(classpathEntries);
       }
+
+      @Override
+      public void addToFingerprint(Fingerprint fingerprint) {
+        fingerprint.addInt(CustomCommandLine.NESTED_SET_MARKER);
+        fingerprint.addString(configuration.getHostPathSeparator());
+        fingerprint.addNestedSet(classpath, CLASSPATH_FUNNEL);
+        fingerprint.addPath(classDirectory);
+      }
     });
 
     if (!extdirInputs.isEmpty()) {
@@ -600,6 +610,16 @@ public class JavaCompileAction extends AbstractAction {
         public Iterable<String> argv() {
           return addJarsToTargets(classpath, directJars);
         }
+
+        @Override
+        public void addToFingerprint(Fingerprint fingerprint) {
+          fingerprint.addInt(CustomCommandLine.NESTED_SET_MARKER);
+          fingerprint.addNestedSet(classpath, CLASSPATH_FUNNEL);
+          fingerprint.addInt(directJars.size());
+          for (Artifact directJar : directJars) {
+            fingerprint.addPath(directJar.getExecPath());
+          }
+        }
       });
 
       if (configuration.getFragment(JavaConfiguration.class).getReduceJavaClasspath()
@@ -673,6 +693,19 @@ public class JavaCompileAction extends AbstractAction {
     return builder.build();
   }
 
+  /**
+   * Writes the exec path and the owner of a jar, which are all that the command line uses, for
+   * fingerprinting the classpath without expanding it.
+   */
+  private static final Funnel<Artifact> CLASSPATH_FUNNEL = new Funnel<Artifact>() {
+    @Override
+    public void funnel(Artifact from, PrimitiveSink into) {
+      Artifact.EXEC_PATH_FUNNEL.funnel(from, into);
+      String owner = getTargetName(from).toString();
+      into.putInt(owner.length()).putUnencodedChars(owner);
+    }
+  };
+
   /**
    * Gets the name of the target that produced the given jar artifact.
    *
@@ -101,6 +101,11 @@ public class AbstractCriticalPathComponent<C extends AbstractCriticalPathCompone
     return relativeFinishNanos - relativeStartNanos;
   }
 
+  synchronized long getRelativeFinishNanos() {
+    Preconditions.checkState(!isRunning, "Still running %s", action);
+    return relativeFinishNanos;
+  }
+
   /**
    * Returns the current critical path for the action in nanoseconds.
    *
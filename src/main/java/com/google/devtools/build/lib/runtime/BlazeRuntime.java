@@ -33,8 +33,9 @@ import com.google.common.eventbus.SubscriberExceptionHandler;
 import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.devtools.build.lib.actions.PackageRootResolver;
 import com.google.devtools.build.lib.actions.cache.ActionCache;
-import com.google.devtools.build.lib.actions.cache.CompactPersistentActionCache;
+import com.google.devtools.build.lib.actions.cache.MappedActionCache;
 import com.google.devtools.build.lib.actions.cache.NullActionCache;
+import com.google.devtools.build.lib.actions.cache.PersistentDigestCache;
 import com.google.devtools.build.lib.analysis.BlazeDirectories;
 import com.google.devtools.build.lib.analysis.BlazeVersionInfo;
 import com.google.devtools.build.lib.analysis.BuildView;
@@ -102,13 +103,16 @@ import com.google.devtools.build.lib.util.OsUtils;
 import com.google.devtools.build.lib.util.ThreadUtils;
 import com.google.devtools.build.lib.util.io.OutErr;
 import com.google.devtools.build.lib.util.io.TimestampGranularityMonitor;
+import com.google.devtools.build.lib.vfs.DigestHashFunction;
 import com.google.devtools.build.lib.vfs.FileSystem;
 import com.google.devtools.build.lib.vfs.FileSystemUtils;
 import com.google.devtools.build.lib.vfs.JavaIoFileSystem;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
 import com.google.devtools.build.lib.vfs.UnixFileSystem;
+import com.google.devtools.build.skyframe.InMemoryMemoizingEvaluator;
 import com.google.devtools.build.skyframe.SkyFunction;
+import com.google.devtools.build.skyframe.SkyFunctionMetrics;
 import com.google.devtools.build.skyframe.SkyFunctionName;
 import com.google.devtools.common.options.Option;
 import com.google.devtools.common.options.OptionPriority;
@@ -184,6 +188,9 @@ public final class BlazeRuntime {
   private Range<Long> lastExecutionStartFinish = null;
 
   private final SkyframeExecutor skyframeExecutor;
+  /** What the SkyFunctions had done when the profiler was started for the current command. */
+  private Map<SkyFunctionName, SkyFunctionMetrics.Totals> skyFunctionMetricsAtProfileStart =
+      ImmutableMap.of();
 
   private final Reporter reporter;
   private EventBus eventBus;
@@ -194,6 +201,7 @@ public final class BlazeRuntime {
   private final ConfiguredRuleClassProvider ruleClassProvider;
   private final BuildView view;
   private ActionCache actionCache;
+  private PersistentDigestCache digestCache;
   private final TimestampGranularityMonitor timestampGranularityMonitor;
   private final Clock clock;
   private final BuildTool buildTool;
@@ -493,6 +501,14 @@ public final class BlazeRuntime {
     return directories.getOutputBase();
   }
 
+  /**
+   * Returns the file that the server saves its Skyframe graph to on request when shutting down,
+   * and restores it from on startup.
+   */
+  public Path getSkyframeSnapshotFile() {
+    return getOutputBase().getRelative("skyframe_snapshot");
+  }
+
   /**
    * Returns the output path associated with this Blaze server process..
    */
@@ -643,7 +659,7 @@ public final class BlazeRuntime {
       }
       long startTime = Profiler.nanoTimeMaybe();
       try {
-        actionCache = new CompactPersistentActionCache(getCacheDirectory(), clock);
+        actionCache = new MappedActionCache(getCacheDirectory());
       } catch (IOException e) {
         LOG.log(Level.WARNING, "Failed to load action cache: " + e.getMessage(), e);
         LoggingUtil.logToRemote(Level.WARNING, "Failed to load action cache: "
@@ -652,7 +668,7 @@ public final class BlazeRuntime {
             Event.error("Error during action cache initialization: " + e.getMessage()
             + ". Corrupted files were renamed to '" + getCacheDirectory() + "/*.bad'. "
             + "Blaze will now reset action cache data, causing a full rebuild"));
-        actionCache = new CompactPersistentActionCache(getCacheDirectory(), clock);
+        actionCache = new MappedActionCache(getCacheDirectory());
       } finally {
         Profiler.instance().logSimpleTask(startTime, ProfilerTask.INFO, "Loading action cache");
       }
@@ -660,12 +676,59 @@ public final class BlazeRuntime {
     return actionCache;
   }
 
+  /**
+   * Returns the lazily loaded cache of file digests computed by earlier servers. Like the action
+   * cache, it may be recreated between build requests.
+   */
+  public PersistentDigestCache getPersistentDigestCache() throws IOException {
+    if (digestCache == null) {
+      long startTime = Profiler.nanoTimeMaybe();
+      try {
+        digestCache = new PersistentDigestCache(getCacheDirectory(), clock);
+      } catch (IOException e) {
+        // The digests are only an optimization, so start over without telling the user.
+        LOG.log(Level.WARNING, "Failed to load digest cache: " + e.getMessage(), e);
+        PersistentDigestCache.cacheFile(getCacheDirectory()).delete();
+        PersistentDigestCache.journalFile(getCacheDirectory()).delete();
+        digestCache = new PersistentDigestCache(getCacheDirectory(), clock);
+      } finally {
+        Profiler.instance().logSimpleTask(startTime, ProfilerTask.INFO, "Loading digest cache");
+      }
+    }
+    return digestCache;
+  }
+
+  /**
+   * Compacts the persistent action cache if it is loaded and mostly made of replaced or removed
+   * entries. Stops early if the current thread is interrupted.
+   */
+  public void compactPersistentActionCache() {
+    if (!(actionCache instanceof MappedActionCache)) {
+      return;
+    }
+    MappedActionCache cache = (MappedActionCache) actionCache;
+    if (!cache.needsCompaction()) {
+      return;
+    }
+    long startTime = Profiler.nanoTimeMaybe();
+    try {
+      cache.compact();
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Failed to compact action cache: " + e.getMessage(), e);
+      // Reload the cache, or recreate it if the files are damaged, on the next build.
+      actionCache = null;
+    } finally {
+      Profiler.instance().logSimpleTask(startTime, ProfilerTask.INFO, "Compacting action cache");
+    }
+  }
+
   /**
    * Removes in-memory caches.
    */
   public void clearCaches() throws IOException {
     clearSkyframeRelevantCaches();
     actionCache = null;
+    digestCache = null;
     FileSystemUtils.deleteTree(getCacheDirectory());
   }
 
@@ -763,6 +826,7 @@ public final class BlazeRuntime {
     long startupTimeNanos = options.startupTime * 1000000L;
     if (initProfiler(options, this.getCommandId(), execStartTimeNanos - startupTimeNanos)) {
       Profiler profiler = Profiler.instance();
+      skyFunctionMetricsAtProfileStart = skyframeExecutor.getSkyFunctionMetrics().snapshot();
 
       // Instead of logEvent() we're calling the low level function to pass the timings we took in
       // the launcher. We're setting the INIT phase marker so that it follows immediately the LAUNCH
@@ -864,6 +928,8 @@ public final class BlazeRuntime {
     clearEventBus();
 
     try {
+      skyframeExecutor.getSkyFunctionMetrics().logToProfiler(skyFunctionMetricsAtProfileStart);
+      skyFunctionMetricsAtProfileStart = ImmutableMap.of();
       Profiler.instance().stop();
       MemoryProfiler.instance().stop();
     } catch (IOException e) {
@@ -930,7 +996,7 @@ public final class BlazeRuntime {
    */
   public String[] getCrashData() {
     return new String[]{
-        getFileSizeString(CompactPersistentActionCache.cacheFile(getCacheDirectory()),
+        getFileSizeString(MappedActionCache.logFile(getCacheDirectory()),
                           "action cache"),
         commandIdString(),
     };
@@ -1376,6 +1442,11 @@ public final class BlazeRuntime {
       public boolean shutdown() {
         return shutdown;
       }
+
+      @Override
+      public void runIdleTasks() {
+        runtime.compactPersistentActionCache();
+      }
     };
 
     RPCServer server = RPCServer.newServerWith(runtime.getClock(), blazeCommand,
@@ -1462,6 +1533,9 @@ public final class BlazeRuntime {
           "Bad --output_base option specified: '" + outputBase + "'");
     }
 
+    // Must be before the first digest is computed.
+    DigestHashFunction.setDefault(startupOptions.digestFunction);
+
     PathFragment outputPathFragment = BlazeDirectories.outputPathFromOutputBase(
         outputBase, workspaceDirectory);
     FileSystem fs = null;
@@ -1641,7 +1715,11 @@ public final class BlazeRuntime {
         }
       }
       if (skyframeExecutorFactory == null) {
-        skyframeExecutorFactory = new SequencedSkyframeExecutorFactory();
+        BlazeServerStartupOptions serverOptions =
+            startupOptionsProvider.getOptions(BlazeServerStartupOptions.class);
+        skyframeExecutorFactory = new SequencedSkyframeExecutorFactory(
+            InMemoryMemoizingEvaluator.supplier(serverOptions.compactSkyframeGraph,
+                serverOptions.forkJoinSkyframeEvaluator));
       }
       if (preprocessorFactorySupplier == null) {
         preprocessorFactorySupplier = Preprocessor.Factory.Supplier.NullSupplier.INSTANCE;
@@ -1751,11 +1829,12 @@ public final class BlazeRuntime {
         }
       }
 
-      return new BlazeRuntime(directories, reporter, workspaceStatusActionFactory, skyframeExecutor,
-          pkgFactory, ruleClassProvider, configurationFactory,
-          clock, startupOptionsProvider, ImmutableList.copyOf(blazeModules),
-          clientEnv, timestampMonitor,
-          eventBusExceptionHandler, binTools, projectFileProvider);
+      BlazeRuntime runtime = new BlazeRuntime(directories, reporter,
+          workspaceStatusActionFactory, skyframeExecutor, pkgFactory, ruleClassProvider,
+          configurationFactory, clock, startupOptionsProvider, ImmutableList.copyOf(blazeModules),
+          clientEnv, timestampMonitor, eventBusExceptionHandler, binTools, projectFileProvider);
+      skyframeExecutor.restoreGraphSnapshot(runtime.getSkyframeSnapshotFile());
+      return runtime;
     }
 
     public Builder setBinTools(BinTools binTools) {
@@ -15,6 +15,7 @@ package com.google.devtools.build.lib.runtime;
 
 import com.google.common.collect.ImmutableMap;
 import com.google.devtools.build.lib.util.OptionsUtils;
+import com.google.devtools.build.lib.vfs.DigestHashFunction;
 import com.google.devtools.build.lib.vfs.PathFragment;
 import com.google.devtools.common.options.Converter;
 import com.google.devtools.common.options.Option;
@@ -225,6 +226,31 @@ public class BlazeServerStartupOptions extends OptionsBase {
           + "changes instead of scanning every file for a change.")
   public boolean watchFS;
 
+  @Option(name = "experimental_compact_skyframe_graph",
+      defaultValue = "false",
+      category = "undocumented",
+      help = "If true, the Skyframe graph stores its edges as int ids instead of references, "
+          + "and shares groups of deps that many nodes have in common, trading some CPU for a "
+          + "smaller server heap. Each node costs about 10 more bytes, so this only saves memory "
+          + "if nodes have several deps each, mostly in groups, as in the analysis phase.")
+  public boolean compactSkyframeGraph;
+
+  @Option(name = "experimental_fork_join_skyframe_evaluator",
+      defaultValue = "false",
+      category = "undocumented",
+      help = "If true, Skyframe evaluates nodes in a work-stealing fork-join pool, which keeps "
+          + "newly enqueued nodes on the thread that enqueued them.")
+  public boolean forkJoinSkyframeEvaluator;
+
+  @Option(name = "digest_function",
+      defaultValue = "md5",
+      category = "server startup",
+      converter = DigestHashFunction.Converter.class,
+      help = "The hash function that file contents, action keys and the action cache are "
+          + "digested with: md5, sha1, sha256 or murmur3. murmur3 is the fastest, but it is not "
+          + "collision resistant, so only use it if the digests never leave this machine.")
+  public DigestHashFunction digestFunction;
+
   @Option(name = "use_webstatusserver",
       defaultValue = "0",
       category = "server startup",
@@ -17,15 +17,21 @@ import com.google.common.base.Joiner;
 import com.google.common.eventbus.EventBus;
 import com.google.common.eventbus.Subscribe;
 import com.google.devtools.build.lib.buildtool.buildevent.BuildCompleteEvent;
+import com.google.devtools.build.lib.buildtool.buildevent.DiskCacheStatisticsEvent;
 import com.google.devtools.build.lib.buildtool.buildevent.ExecutionStartingEvent;
+import com.google.devtools.build.lib.buildtool.buildevent.WorkerStatisticsEvent;
+import com.google.devtools.build.lib.buildtool.buildevent.WorkerStatisticsEvent.WorkerStatistics;
 import com.google.devtools.build.lib.events.Event;
 import com.google.devtools.build.lib.events.Reporter;
 import com.google.devtools.build.lib.profiler.Profiler;
 import com.google.devtools.build.lib.profiler.ProfilerTask;
+import com.google.devtools.build.lib.skyframe.SkyframeExecutor;
 import com.google.devtools.build.lib.util.BlazeClock;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
@@ -37,11 +43,15 @@ public class BuildSummaryStatsModule extends BlazeModule {
   private static final Logger LOG = Logger.getLogger(BuildSummaryStatsModule.class.getName());
 
   private SimpleCriticalPathComputer criticalPathComputer;
+  private BlazeRuntime runtime;
   private EventBus eventBus;
   private Reporter reporter;
+  private DiskCacheStatisticsEvent diskCacheStatistics;
+  private WorkerStatisticsEvent workerStatistics;
 
   @Override
   public void beforeCommand(BlazeRuntime runtime, Command command) {
+    this.runtime = runtime;
     this.reporter = runtime.getReporter();
     this.eventBus = runtime.getEventBus();
     eventBus.register(this);
@@ -53,6 +63,19 @@ public class BuildSummaryStatsModule extends BlazeModule {
     eventBus.register(criticalPathComputer);
   }
 
+  @Subscribe
+  public void diskCacheStatistics(DiskCacheStatisticsEvent event) {
+    diskCacheStatistics = event;
+  }
+
+  @Subscribe
+  public void workerStatistics(WorkerStatisticsEvent event) {
+    workerStatistics = event;
+    for (WorkerStatistics worker : event.getWorkers()) {
+      Profiler.instance().logEvent(ProfilerTask.WORKER, worker.toString());
+    }
+  }
+
   @Subscribe
   public void buildComplete(BuildCompleteEvent event) {
     try {
@@ -78,11 +101,58 @@ public class BuildSummaryStatsModule extends BlazeModule {
               ProfilerTask.CRITICAL_PATH_COMPONENT, stat.getAction());
         }
         Profiler.instance().completeTask(ProfilerTask.CRITICAL_PATH);
+
+        SkyframeExecutor skyframeExecutor = runtime.getSkyframeExecutor();
+        if (skyframeExecutor.prioritizesSlowActions()) {
+          skyframeExecutor.recordRemainingCriticalPaths(
+              criticalPathComputer.getRemainingPathNanos());
+        }
+      }
+
+      if (diskCacheStatistics != null) {
+        items.add(String.format("Disk cache: %d hits, %d misses",
+            diskCacheStatistics.getHits(), diskCacheStatistics.getMisses()));
+      }
+
+      if (workerStatistics != null) {
+        addWorkerStatistics(workerStatistics, items);
       }
 
       reporter.handle(Event.info(Joiner.on(", ").join(items)));
     } finally {
       criticalPathComputer = null;
+      diskCacheStatistics = null;
+      workerStatistics = null;
+    }
+  }
+
+  /** Adds one item per mnemonic that sums up the statistics of its workers. */
+  private static void addWorkerStatistics(WorkerStatisticsEvent event, List<String> items) {
+    Map<String, List<WorkerStatistics>> byMnemonic = new LinkedHashMap<>();
+    for (WorkerStatistics worker : event.getWorkers()) {
+      List<WorkerStatistics> workers = byMnemonic.get(worker.getMnemonic());
+      if (workers == null) {
+        workers = new ArrayList<>();
+        byMnemonic.put(worker.getMnemonic(), workers);
+      }
+      workers.add(worker);
+    }
+    for (Map.Entry<String, List<WorkerStatistics>> entry : byMnemonic.entrySet()) {
+      int requests = 0;
+      long latencyNanos = 0;
+      long rssKb = 0;
+      for (WorkerStatistics worker : entry.getValue()) {
+        requests += worker.getRequests();
+        latencyNanos += worker.getLatencyNanos();
+        rssKb += Math.max(worker.getRssKb(), 0);
+      }
+      items.add(String.format("%s workers: %d processes, %d requests, %d ms average latency, "
+          + "%d MB RSS", entry.getKey(), entry.getValue().size(), requests,
+          requests == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(latencyNanos / requests),
+          rssKb / 1024));
+    }
+    if (event.getEvicted() > 0) {
+      items.add(String.format("%d idle workers stopped", event.getEvicted()));
     }
   }
 }
@@ -17,6 +17,7 @@ package com.google.devtools.build.lib.runtime;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.common.eventbus.Subscribe;
 import com.google.devtools.build.lib.actions.Action;
 import com.google.devtools.build.lib.actions.ActionCompletionEvent;
@@ -26,11 +27,16 @@ import com.google.devtools.build.lib.actions.Actions;
 import com.google.devtools.build.lib.actions.Artifact;
 import com.google.devtools.build.lib.actions.CachedActionEvent;
 import com.google.devtools.build.lib.util.Clock;
+import com.google.devtools.build.lib.vfs.PathFragment;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.PriorityQueue;
+import java.util.Set;
 import java.util.concurrent.ConcurrentMap;
 
 import javax.annotation.concurrent.ThreadSafe;
@@ -197,6 +203,50 @@ public abstract class CriticalPathComputer<C extends AbstractCriticalPathCompone
     return ImmutableList.copyOf(list).reverse();
   }
 
+  /**
+   * Returns, for each action that finished in this build, the time from its start to the end of
+   * the slowest path of actions that depend on it, keyed by the exec path of its primary output.
+   * Unlike the critical path, which follows the slowest dependency of each action, this follows the
+   * slowest dependent, so it tells how much of the build was waiting for each action.
+   *
+   * <p>Must only be called once no more events are posted for the build.
+   */
+  public Map<PathFragment, Long> getRemainingPathNanos() {
+    Set<C> finished = Sets.newIdentityHashSet();
+    for (C component : outputArtifactToComponent.values()) {
+      if (!component.isRunning) {
+        finished.add(component);
+      }
+    }
+    List<C> components = new ArrayList<>(finished);
+    // An action finishes after its inputs, so this visits every action before its dependencies.
+    Collections.sort(components, new Comparator<C>() {
+      @Override
+      public int compare(C o1, C o2) {
+        return Long.compare(o2.getRelativeFinishNanos(), o1.getRelativeFinishNanos());
+      }
+    });
+
+    Map<C, Long> dependentPathNanos = new IdentityHashMap<>();
+    Map<PathFragment, Long> remainingNanos = Maps.newHashMapWithExpectedSize(components.size());
+    for (C component : components) {
+      Long dependentNanos = dependentPathNanos.remove(component);
+      long remaining =
+          component.getElapsedTimeNanos() + (dependentNanos == null ? 0 : dependentNanos);
+      remainingNanos.put(component.getAction().getPrimaryOutput().getExecPath(), remaining);
+      for (Artifact input : component.getAction().getInputs()) {
+        C dep = outputArtifactToComponent.get(input);
+        if (dep != null && dep != component && finished.contains(dep)) {
+          Long old = dependentPathNanos.get(dep);
+          if (old == null || old < remaining) {
+            dependentPathNanos.put(dep, remaining);
+          }
+        }
+      }
+    }
+    return remainingNanos;
+  }
+
   private void finalizeActionStat(long startTimeNanos, Action action, C component) {
     boolean updated = component.finishActionExecution(startTimeNanos, clock.nanoTime());
 
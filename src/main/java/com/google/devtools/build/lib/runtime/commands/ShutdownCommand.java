@@ -13,16 +13,20 @@
 // limitations under the License.
 package com.google.devtools.build.lib.runtime.commands;
 
+import com.google.devtools.build.lib.events.Event;
 import com.google.devtools.build.lib.runtime.BlazeCommand;
 import com.google.devtools.build.lib.runtime.BlazeCommandDispatcher.ShutdownBlazeServerException;
 import com.google.devtools.build.lib.runtime.BlazeRuntime;
 import com.google.devtools.build.lib.runtime.Command;
 import com.google.devtools.build.lib.util.ExitCode;
+import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.common.options.Option;
 import com.google.devtools.common.options.OptionsBase;
 import com.google.devtools.common.options.OptionsParser;
 import com.google.devtools.common.options.OptionsProvider;
 
+import java.io.IOException;
+
 /**
  * The 'blaze shutdown' command.
  */
@@ -44,6 +48,13 @@ public final class ShutdownCommand implements BlazeCommand {
                  "server if the total memory (in MB) consumed by the JVM " +
                  "exceeds this value.")
     public int heapSizeLimit;
+
+    @Option(name = "experimental_save_skyframe_snapshot",
+            defaultValue = "false",
+            category = "undocumented",
+            help = "If true, the server saves its Skyframe graph before shutting down, and the "
+                + "next server for the same output base starts from it.")
+    public boolean saveSkyframeSnapshot;
   }
 
   @Override
@@ -53,7 +64,8 @@ public final class ShutdownCommand implements BlazeCommand {
   public ExitCode exec(BlazeRuntime runtime, OptionsProvider options)
       throws ShutdownBlazeServerException {
 
-    int limit = options.getOptions(Options.class).heapSizeLimit;
+    Options shutdownOptions = options.getOptions(Options.class);
+    int limit = shutdownOptions.heapSizeLimit;
 
     // Iff limit is non-zero, shut down the server if total memory exceeds the
     // limit. totalMemory is the actual heap size that the VM currently uses
@@ -64,9 +76,28 @@ public final class ShutdownCommand implements BlazeCommand {
 
     if (limit == 0 ||
         Runtime.getRuntime().totalMemory() > limit * 1000L * 1000) {
+      if (shutdownOptions.saveSkyframeSnapshot) {
+        saveSkyframeSnapshot(runtime);
+      }
       throw new ShutdownBlazeServerException(0);
     }
     return ExitCode.SUCCESS;
   }
 
+  private static void saveSkyframeSnapshot(BlazeRuntime runtime) {
+    Path snapshot = runtime.getSkyframeSnapshotFile();
+    try {
+      runtime.getSkyframeExecutor().saveGraphSnapshot(snapshot);
+    } catch (IOException e) {
+      runtime.getReporter().handle(
+          Event.warn("Could not save Skyframe snapshot: " + e.getMessage()));
+      try {
+        // Don't leave a truncated snapshot behind for the next server.
+        snapshot.delete();
+      } catch (IOException deleteException) {
+        // The next server will fail to read the snapshot and discard it.
+      }
+    }
+  }
+
 }
@@ -36,6 +36,7 @@ import javax.annotation.Nullable;
 class IdleServerTasks {
 
   private final Path workspaceDir;
+  @Nullable private final Runnable idleTask;
   private final ScheduledThreadPoolExecutor executor;
   private static final Logger LOG = Logger.getLogger(IdleServerTasks.class.getName());
 
@@ -44,9 +45,10 @@ class IdleServerTasks {
   /**
    * Must be called from the main thread.
    */
-  public IdleServerTasks(@Nullable Path workspaceDir) {
+  public IdleServerTasks(@Nullable Path workspaceDir, @Nullable Runnable idleTask) {
     this.executor = new ScheduledThreadPoolExecutor(1);
     this.workspaceDir = workspaceDir;
+    this.idleTask = idleTask;
   }
 
   /**
@@ -64,6 +66,20 @@ class IdleServerTasks {
           LOG.info("Idle GC: " + (System.currentTimeMillis() - before) + "ms");
         }
       }, 10, TimeUnit.SECONDS);
+
+    // Then let the application do its maintenance work, such as compacting caches. It is
+    // interrupted by busy() if a request arrives in the meantime.
+    if (idleTask != null) {
+      executor.schedule(new Runnable() {
+          @Override public void run() {
+            try {
+              idleTask.run();
+            } catch (RuntimeException e) {
+              LoggingUtil.logToRemote(Level.WARNING, "Idle task failed", e);
+            }
+          }
+        }, 30, TimeUnit.SECONDS);
+    }
   }
 
   /**
@@ -73,11 +89,9 @@ class IdleServerTasks {
   public void busy() {
     Preconditions.checkState(!executor.isShutdown());
 
-    // Make sure tasks are finished after shutdown(), so they do not intefere
-    // with subsequent server invocations.
-    executor.shutdown();
-    executor.setContinueExistingPeriodicTasksAfterShutdownPolicy(false);
-    executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    // Make sure tasks are finished after shutdown, so they do not intefere
+    // with subsequent server invocations. Running tasks are interrupted.
+    executor.shutdownNow();
 
     boolean interrupted = false;
     while (true) {
@@ -196,7 +196,12 @@ public final class RPCServer {
     try {
       while (!lameDuck) {
         try {
-          IdleServerTasks idleChecker = new IdleServerTasks(workspaceDir);
+          IdleServerTasks idleChecker = new IdleServerTasks(workspaceDir, new Runnable() {
+            @Override
+            public void run() {
+              rpcService.runIdleTasks();
+            }
+          });
           idleChecker.idle();
           RequestIo requestIo;
 
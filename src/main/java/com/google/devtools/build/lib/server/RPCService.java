@@ -72,6 +72,15 @@ public final class RPCService {
     }
   }
 
+  /**
+   * Performs the application's maintenance work while the server is idle.
+   */
+  public void runIdleTasks() {
+    if (appCommand != null && !isShutdown) {
+      appCommand.runIdleTasks();
+    }
+  }
+
   /**
    * After executing this function, further requests will fail, and
    * {@link #isShutdown()} will return true.
@@ -35,4 +35,11 @@ public interface ServerCommand {
    */
   boolean shutdown();
 
+  /**
+   * Performs maintenance work while the server is idle. Called from a background thread that is
+   * interrupted when the next request arrives, so the implementation should stop promptly once
+   * interrupted.
+   */
+  void runIdleTasks();
+
 }
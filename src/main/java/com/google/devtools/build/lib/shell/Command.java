@@ -507,6 +507,97 @@ public final class Command {
         false, closeOut).get();
   }
 
+  /**
+   * <p>Executes this command through the given fork server, with no input to
+   * stdin, and writes its output to the given files. Like process-wrapper, the
+   * fork server kills the whole process group of the command when the command
+   * terminates.
+   *
+   * @param forkServer the fork server that starts the process
+   * @param stdOut the file to which the process's stdout is appended
+   * @param stdErr the file to which the process's stderr is appended
+   * @param killSubprocessOnInterrupt whether the process should be killed
+   *  if the current thread is interrupted; either way, this method waits for
+   *  the process to terminate
+   * @return the resource usage of the process and its waited-for descendants
+   * @throws ExecFailedException if the process could not be started, or the
+   *  fork server failed
+   * @throws AbnormalTerminationException if the process was terminated due
+   *  to a signal
+   * @throws BadExitStatusException if the process exits with a
+   *  non-zero status
+   * @throws NullPointerException if any argument is null.
+   */
+  public ForkServer.Result executeWithForkServer(final ForkServer forkServer,
+      final File stdOut,
+      final File stdErr,
+      final boolean killSubprocessOnInterrupt)
+      throws CommandException {
+    return checkForkServerResult(
+        runWithForkServer(forkServer, stdOut, stdErr, killSubprocessOnInterrupt));
+  }
+
+  /**
+   * <p>Like {@link #executeWithForkServer}, but returns the result of the
+   * process whether or not it succeeded, so that callers can use its resource
+   * usage either way. Pass the result to {@link #checkForkServerResult} to
+   * find out how it failed.
+   *
+   * @throws ExecFailedException if the process could not be started, or the
+   *  fork server failed
+   * @throws NullPointerException if any argument is null.
+   */
+  public ForkServer.Result runWithForkServer(final ForkServer forkServer,
+      final File stdOut,
+      final File stdErr,
+      final boolean killSubprocessOnInterrupt)
+      throws ExecFailedException {
+    nullCheck(forkServer, "forkServer");
+    nullCheck(stdOut, "stdOut");
+    nullCheck(stdErr, "stdErr");
+    logCommand();
+    try {
+      return forkServer.run(getCommandLineElements(),
+          processBuilder.environment(),
+          processBuilder.directory(),
+          stdOut,
+          stdErr,
+          /*timeoutMillis=*/-1,
+          /*killDelayMillis=*/0,
+          killSubprocessOnInterrupt);
+    } catch (IOException ioe) {
+      throw new ExecFailedException(this, ioe);
+    }
+  }
+
+  /**
+   * <p>Returns the given result of {@link #runWithForkServer} if the process
+   * succeeded.
+   *
+   * @throws AbnormalTerminationException if the process was terminated due
+   *  to a signal
+   * @throws BadExitStatusException if the process exits with a
+   *  non-zero status
+   */
+  public ForkServer.Result checkForkServerResult(ForkServer.Result result)
+      throws CommandException {
+    TerminationStatus status = result.getTerminationStatus();
+    log.finer(status.toString());
+    if (status.success()) {
+      return result;
+    }
+    CommandResult noOutputResult =
+        new CommandResult(CommandResult.EMPTY_OUTPUT,
+                          CommandResult.EMPTY_OUTPUT,
+                          status);
+    if (status.exited()) {
+      throw new BadExitStatusException(this, noOutputResult, status.toString());
+    } else {
+      throw new AbnormalTerminationException(this, noOutputResult,
+          status.toString());
+    }
+  }
+
   /**
    * <p>Executes this command with the given stdinInput, but does not
    * wait for it to complete. The caller may choose to observe the status
@@ -0,0 +1,322 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.shell;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.ProcessBuilder.Redirect;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Client of fork-server, a small native process that starts subprocesses on
+ * behalf of this one. Forking a JVM with a large heap is slow, even when the
+ * child execs right away, so under high parallelism subprocesses start much
+ * sooner through a fork server.
+ *
+ * <p>Like process-wrapper, fork-server runs each subprocess in a new process
+ * group, which it kills when the subprocess exits, times out, or is killed.
+ * The output of a subprocess goes to files instead of through this process.
+ *
+ * <p>Requests and responses are exchanged over the standard input and output
+ * of fork-server; see fork-server.c for the protocol. If fork-server exits, all
+ * running and later subprocesses fail, and a new fork server must be started.
+ *
+ * <p>This class is thread-safe.
+ */
+public final class ForkServer {
+
+  private static final Logger log =
+    Logger.getLogger("com.google.devtools.build.lib.shell.ForkServer");
+
+  private static final int REQUEST_SPAWN = 1;
+  private static final int REQUEST_KILL = 2;
+
+  private static final int RESPONSE_EXITED = 0;
+  private static final int RESPONSE_EXEC_FAILED = 1;
+
+  /**
+   * The outcome of a subprocess that was started: how it terminated and its
+   * resource usage, which includes that of its waited-for descendants.
+   */
+  public static final class Result {
+    private final TerminationStatus status;
+    private final boolean timedOut;
+    private final long peakMemoryKb;
+    private final long userTimeMicros;
+    private final long systemTimeMicros;
+
+    Result(TerminationStatus status, boolean timedOut, long peakMemoryKb,
+        long userTimeMicros, long systemTimeMicros) {
+      this.status = status;
+      this.timedOut = timedOut;
+      this.peakMemoryKb = peakMemoryKb;
+      this.userTimeMicros = userTimeMicros;
+      this.systemTimeMicros = systemTimeMicros;
+    }
+
+    public TerminationStatus getTerminationStatus() {
+      return status;
+    }
+
+    /** Whether the subprocess was killed because it ran out of time. */
+    public boolean timedOut() {
+      return timedOut;
+    }
+
+    public long getPeakMemoryKb() {
+      return peakMemoryKb;
+    }
+
+    public long getUserTimeMicros() {
+      return userTimeMicros;
+    }
+
+    public long getSystemTimeMicros() {
+      return systemTimeMicros;
+    }
+  }
+
+  /** A subprocess that was requested and has not been reported yet. */
+  private static final class Pending {
+    private final CountDownLatch done = new CountDownLatch(1);
+    private volatile Result result;
+    private volatile int execErrno;
+    private volatile IOException failure;
+  }
+
+  private final Process process;
+  private final DataOutputStream requests;  // guarded by itself
+  private final ConcurrentMap<Integer, Pending> pending =
+      new ConcurrentHashMap<>();
+  private final AtomicInteger lastId = new AtomicInteger();
+  private volatile IOException failure;
+
+  private ForkServer(Process process) {
+    this.process = process;
+    this.requests = new DataOutputStream(
+        new BufferedOutputStream(process.getOutputStream()));
+  }
+
+  /**
+   * Starts the fork-server binary at {@code binary}. Its stderr is inherited.
+   */
+  public static ForkServer start(File binary) throws IOException {
+    Process process = new ProcessBuilder(binary.getPath())
+        .redirectError(Redirect.INHERIT)
+        .start();
+    final ForkServer forkServer = new ForkServer(process);
+    Thread reader = new Thread("fork-server reader") {
+      @Override
+      public void run() {
+        forkServer.readResponses();
+      }
+    };
+    reader.setDaemon(true);
+    reader.start();
+    return forkServer;
+  }
+
+  /**
+   * Runs a subprocess and waits for it to terminate.
+   *
+   * @param argv the command line; the binary is looked up in the PATH of
+   *     {@code env}
+   * @param env the complete environment of the subprocess
+   * @param workingDirectory the working directory, or null for that of the
+   *     fork server
+   * @param stdout the file to which the standard output is appended
+   * @param stderr the file to which the standard error is appended
+   * @param timeoutMillis if positive, the subprocess is sent SIGTERM after this
+   *     long
+   * @param killDelayMillis how long after SIGTERM a timed out subprocess is sent
+   *     SIGKILL
+   * @param killSubprocessOnInterrupt whether to kill the subprocess if this
+   *     thread is interrupted; either way, this method waits for the subprocess
+   *     and then restores the interrupted status
+   * @throws IOException if the subprocess could not be started, or the fork
+   *     server failed
+   */
+  public Result run(String[] argv, Map<String, String> env,
+      File workingDirectory, File stdout, File stderr, long timeoutMillis,
+      long killDelayMillis, boolean killSubprocessOnInterrupt)
+      throws IOException {
+    int id = nextId();
+    Pending request = new Pending();
+    pending.put(id, request);
+    boolean wasInterrupted = false;
+    try {
+      // The reader sets the failure before it fails the pending requests, so
+      // either it sees this request or we see the failure.
+      checkNotFailed();
+      synchronized (requests) {
+        requests.writeInt(REQUEST_SPAWN);
+        requests.writeInt(id);
+        requests.writeInt((int) Math.min(timeoutMillis, Integer.MAX_VALUE));
+        requests.writeInt((int) Math.min(killDelayMillis, Integer.MAX_VALUE));
+        writeString(workingDirectory == null ? "" : workingDirectory.getPath());
+        writeString(stdout.getPath());
+        writeString(stderr.getPath());
+        requests.writeInt(argv.length);
+        for (String arg : argv) {
+          writeString(arg);
+        }
+        requests.writeInt(env.size());
+        for (Map.Entry<String, String> variable : env.entrySet()) {
+          writeString(variable.getKey() + "=" + variable.getValue());
+        }
+        requests.flush();
+      }
+      while (true) {
+        try {
+          request.done.await();
+          break;
+        } catch (InterruptedException e) {
+          if (killSubprocessOnInterrupt && !wasInterrupted) {
+            kill(id);
+          }
+          wasInterrupted = true;
+        }
+      }
+    } finally {
+      pending.remove(id);
+      if (wasInterrupted) {
+        Thread.currentThread().interrupt(); // preserve interrupted status
+      }
+    }
+    if (request.failure != null) {
+      throw new IOException(request.failure.getMessage(), request.failure);
+    }
+    if (request.result == null) {
+      throw new IOException(
+          "Cannot run program \"" + argv[0] + "\": error=" + request.execErrno);
+    }
+    return request.result;
+  }
+
+  private int nextId() {
+    int id;
+    do {
+      id = lastId.incrementAndGet() & Integer.MAX_VALUE;
+    } while (id == 0);
+    return id;
+  }
+
+  private void writeString(String s) throws IOException {
+    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+    requests.writeInt(bytes.length);
+    requests.write(bytes);
+  }
+
+  private void kill(int id) {
+    try {
+      synchronized (requests) {
+        requests.writeInt(REQUEST_KILL);
+        requests.writeInt(id);
+        requests.flush();
+      }
+    } catch (IOException e) {
+      // The fork server is gone, and so is the subprocess.
+    }
+  }
+
+  private void checkNotFailed() throws IOException {
+    IOException e = failure;
+    if (e != null) {
+      throw new IOException(e.getMessage(), e);
+    }
+  }
+
+  private void readResponses() {
+    DataInputStream responses = new DataInputStream(process.getInputStream());
+    try {
+      while (true) {
+        int id = responses.readInt();
+        int kind = responses.readInt();
+        int value = responses.readInt();
+        boolean timedOut = responses.readInt() != 0;
+        long peakMemoryKb = responses.readLong();
+        long userTimeMicros = responses.readLong();
+        long systemTimeMicros = responses.readLong();
+        Pending request = pending.get(id);
+        if (request == null) {
+          log.warning("fork-server reported unknown subprocess " + id);
+          continue;
+        }
+        if (kind == RESPONSE_EXITED) {
+          request.result = new Result(new TerminationStatus(toWaitForCode(value)),
+              timedOut, peakMemoryKb, userTimeMicros, systemTimeMicros);
+        } else if (kind == RESPONSE_EXEC_FAILED) {
+          request.execErrno = value;
+        } else {
+          throw new IOException("Unknown response from fork-server: " + kind);
+        }
+        request.done.countDown();
+      }
+    } catch (IOException e) {
+      fail(e);
+    }
+  }
+
+  /**
+   * Converts a wait(2) status to the value that {@link Process#waitFor} would
+   * have returned, which {@link TerminationStatus} expects.
+   */
+  private static int toWaitForCode(int waitStatus) {
+    int signal = waitStatus & 0x7f;
+    return signal == 0 ? (waitStatus >> 8) & 0xff : 128 + signal;
+  }
+
+  private void fail(IOException e) {
+    if (failure == null) {
+      log.log(Level.WARNING, "fork-server failed", e);
+      failure = e;
+    }
+    for (Pending request : pending.values()) {
+      request.failure = failure;
+      request.done.countDown();
+    }
+    process.destroy();
+  }
+
+  /** Whether the fork server can still start subprocesses. */
+  public boolean isAlive() {
+    return failure == null;
+  }
+
+  /**
+   * Stops the fork server, which kills all subprocesses that are still
+   * running.
+   */
+  public void shutdown() {
+    failure = new IOException("The fork server was shut down");
+    try {
+      synchronized (requests) {
+        requests.close();
+      }
+    } catch (IOException e) {
+      // The fork server is gone already.
+    }
+    process.destroy();
+  }
+}
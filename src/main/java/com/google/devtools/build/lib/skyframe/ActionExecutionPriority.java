@@ -0,0 +1,70 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.skyframe;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.devtools.build.lib.actions.Action;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.skyframe.EvaluationPriority;
+import com.google.devtools.build.skyframe.SkyKey;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Prioritizes the execution of each action by the length of the remaining critical path behind it
+ * in previous builds by this server: the time from the start of the action to the end of the
+ * slowest chain of actions that depended on it. Actions that gate the most work start before
+ * cheaper work that is ready at the same time. Nodes other than actions, and actions that have not
+ * been executed yet, get the lowest priority.
+ *
+ * <p>Actions are identified by the exec path of their primary output, which is stable across
+ * builds, unlike the {@link Action} objects themselves. At most {@link #MAX_ACTIONS} actions are
+ * remembered; the ones that have not been looked up for the longest are forgotten first.
+ */
+@ThreadSafe
+final class ActionExecutionPriority implements EvaluationPriority {
+  /** Enough for the actions of several large builds. */
+  private static final int MAX_ACTIONS = 500000;
+
+  private final Cache<PathFragment, Integer> remainingMillis =
+      CacheBuilder.newBuilder().maximumSize(MAX_ACTIONS).build();
+
+  /**
+   * Records the remaining critical path of the actions of a build, in nanoseconds, keyed by the
+   * exec path of their primary outputs.
+   */
+  void recordRemainingPaths(Map<PathFragment, Long> remainingNanos) {
+    for (Map.Entry<PathFragment, Long> entry : remainingNanos.entrySet()) {
+      long millis = TimeUnit.NANOSECONDS.toMillis(entry.getValue());
+      remainingMillis.put(entry.getKey(), (int) Math.min(millis, Integer.MAX_VALUE));
+    }
+  }
+
+  @Override
+  public int getPriority(SkyKey key) {
+    if (!key.functionName().equals(SkyFunctions.ACTION_EXECUTION)) {
+      return 0;
+    }
+    return getPriority((Action) key.argument());
+  }
+
+  /** Returns the priority of executing {@code action}. */
+  int getPriority(Action action) {
+    Integer millis = remainingMillis.getIfPresent(action.getPrimaryOutput().getExecPath());
+    return millis == null ? 0 : millis;
+  }
+}
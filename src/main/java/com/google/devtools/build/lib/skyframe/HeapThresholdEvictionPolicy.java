@@ -0,0 +1,99 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.skyframe;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.HashCode;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.syntax.BuildFileAST;
+import com.google.devtools.build.lib.util.Fingerprint;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.skyframe.EvictionPolicy;
+import com.google.devtools.build.skyframe.SkyFunctionName;
+import com.google.devtools.build.skyframe.SkyKey;
+import com.google.devtools.build.skyframe.SkyValue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+
+import javax.annotation.Nullable;
+
+/**
+ * Evicts loading-phase values that are cheap to recompute once the live heap, as measured after
+ * the last garbage collection, exceeds a percentage of the maximum heap size.
+ *
+ * <p>Globs and BUILD file syntax trees are fingerprinted by their matches and file contents
+ * respectively, so that recomputing them does not invalidate the packages that depend on them.
+ * Transitive target values are compared by identity, so recomputing one also recomputes the
+ * transitive target values that depend on it; those are cheap as long as their packages are
+ * still loaded.
+ */
+@ThreadSafe
+final class HeapThresholdEvictionPolicy implements EvictionPolicy {
+  private static final ImmutableSet<SkyFunctionName> EVICTABLE_FUNCTIONS = ImmutableSet.of(
+      SkyFunctions.GLOB, SkyFunctions.AST_FILE_LOOKUP, SkyFunctions.TRANSITIVE_TARGET);
+
+  /** The fingerprint of a lookup of a BUILD file that does not exist. */
+  private static final String NO_FILE_FINGERPRINT = "no file";
+
+  private final int heapPercentage;
+
+  HeapThresholdEvictionPolicy(int heapPercentage) {
+    Preconditions.checkArgument(heapPercentage > 0 && heapPercentage <= 100, heapPercentage);
+    this.heapPercentage = heapPercentage;
+  }
+
+  @Override
+  public boolean shouldEvict() {
+    long maxHeap = Runtime.getRuntime().maxMemory();
+    return maxHeap != Long.MAX_VALUE && getLiveHeapBytes() * 100 > maxHeap * heapPercentage;
+  }
+
+  /** Returns the heap in use right after the last garbage collection of each heap pool. */
+  private static long getLiveHeapBytes() {
+    long used = 0;
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      MemoryUsage usage = pool.getType() == MemoryType.HEAP ? pool.getCollectionUsage() : null;
+      if (usage != null) {
+        used += usage.getUsed();
+      }
+    }
+    return used;
+  }
+
+  @Override
+  public boolean isEvictable(SkyKey key) {
+    return EVICTABLE_FUNCTIONS.contains(key.functionName());
+  }
+
+  @Override
+  @Nullable
+  public Object fingerprint(SkyValue value) {
+    if (value instanceof GlobValue) {
+      Fingerprint fingerprint = new Fingerprint();
+      for (PathFragment match : ((GlobValue) value).getMatches()) {
+        fingerprint.addPath(match);
+      }
+      return HashCode.fromBytes(fingerprint.digestAndReset());
+    }
+    if (value instanceof ASTFileLookupValue) {
+      BuildFileAST ast = ((ASTFileLookupValue) value).getAST();
+      return ast == null ? NO_FILE_FINGERPRINT : ast.getContentHashCode();
+    }
+    return null;
+  }
+}
@@ -14,7 +14,7 @@
 package com.google.devtools.build.lib.skyframe;
 
 import com.google.common.base.Preconditions;
-import com.google.common.cache.Cache;
+import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -84,7 +84,6 @@ public class PackageFunction implements SkyFunction {
   private final EventHandler reporter;
   private final PackageFactory packageFactory;
   private final CachingPackageLocator packageLocator;
-  private final Cache<PackageIdentifier, Package.LegacyBuilder> packageFunctionCache;
   private final AtomicBoolean showLoadingProgress;
   private final AtomicInteger numPackagesLoaded;
   private final Profiler profiler = Profiler.instance();
@@ -99,16 +98,28 @@ public class PackageFunction implements SkyFunction {
     Preconditions.checkArgument(!PRELUDE_FILE_FRAGMENT.isAbsolute());
   }
 
+  /** What earlier calls of this function for a package did before they ran out of deps. */
+  private static class LoadingState implements SkyFunction.ComputeState {
+    /** The package, as loaded before its glob, subinclude and subpackage deps were looked up. */
+    @Nullable private Package.LegacyBuilder legacyPkgBuilder;
+    private boolean reportedLoadingProgress;
+  }
+
+  private static final Supplier<LoadingState> NEW_LOADING_STATE = new Supplier<LoadingState>() {
+    @Override
+    public LoadingState get() {
+      return new LoadingState();
+    }
+  };
+
   public PackageFunction(Reporter reporter, PackageFactory packageFactory,
       CachingPackageLocator pkgLocator, AtomicBoolean showLoadingProgress,
-      Cache<PackageIdentifier, Package.LegacyBuilder> packageFunctionCache,
       AtomicInteger numPackagesLoaded) {
     this.reporter = reporter;
 
     this.packageFactory = packageFactory;
     this.packageLocator = pkgLocator;
     this.showLoadingProgress = showLoadingProgress;
-    this.packageFunctionCache = packageFunctionCache;
     this.numPackagesLoaded = numPackagesLoaded;
   }
 
@@ -437,44 +448,46 @@ public class PackageFunction implements SkyFunction {
     List<Statement> preludeStatements = astLookupValue.getAST() == null
         ? ImmutableList.<Statement>of() : astLookupValue.getAST().getStatements();
 
-    // Load the BUILD file AST and handle Skylark dependencies. This way BUILD files are
-    // only loaded twice if there are unavailable Skylark or package dependencies or an
-    // IOException occurs. Note that the BUILD files are still parsed two times.
-    ParserInputSource inputSource;
-    try {
-      if (showLoadingProgress.get() && packageFunctionCache.getIfPresent(packageId) == null) {
-        // TODO(bazel-team): don't duplicate the loading message if there are unavailable
-        // Skylark dependencies.
-        reporter.handle(Event.progress("Loading package: " + packageName));
+    // Load the BUILD file AST and handle Skylark dependencies. The package is only loaded once:
+    // if there are unavailable package dependencies, the next call of this function for the
+    // package finds it in the state. The BUILD file is only parsed again if there are unavailable
+    // Skylark dependencies or an IOException occurs.
+    LoadingState loadingState = env.getState(NEW_LOADING_STATE);
+    Package.LegacyBuilder legacyPkgBuilder = loadingState.legacyPkgBuilder;
+    if (legacyPkgBuilder == null) {
+      ParserInputSource inputSource;
+      try {
+        if (showLoadingProgress.get() && !loadingState.reportedLoadingProgress) {
+          reporter.handle(Event.progress("Loading package: " + packageName));
+          loadingState.reportedLoadingProgress = true;
+        }
+        inputSource = ParserInputSource.create(buildFilePath);
+      } catch (IOException e) {
+        env.getListener().handle(Event.error(Location.fromFile(buildFilePath), e.getMessage()));
+        // Note that we did this work, so we should conservatively report this error as transient.
+        throw new PackageFunctionException(new BuildFileContainsErrorsException(
+            packageName, e.getMessage()), Transience.TRANSIENT);
+      }
+      SkylarkImportResult importResult = fetchImportsFromBuildFile(buildFilePath,
+          buildFileFragment, packageId.getRepository(), preludeStatements, inputSource,
+          packageName, env);
+      if (importResult == null) {
+        return null;
       }
-      inputSource = ParserInputSource.create(buildFilePath);
-    } catch (IOException e) {
-      env.getListener().handle(Event.error(Location.fromFile(buildFilePath), e.getMessage()));
-      // Note that we did this work, so we should conservatively report this error as transient.
-      throw new PackageFunctionException(new BuildFileContainsErrorsException(
-          packageName, e.getMessage()), Transience.TRANSIENT);
-    }
-    SkylarkImportResult importResult = fetchImportsFromBuildFile(buildFilePath, buildFileFragment,
-        packageId.getRepository(), preludeStatements, inputSource, packageName, env);
-    if (importResult == null) {
-      return null;
-    }
 
-    Package.LegacyBuilder legacyPkgBuilder = loadPackage(externalPkg, inputSource,
-        replacementContents, packageId, buildFilePath, defaultVisibility, preludeStatements,
-        importResult);
+      legacyPkgBuilder = loadPackage(externalPkg, inputSource, replacementContents, packageId,
+          buildFilePath, defaultVisibility, preludeStatements, importResult);
+      loadingState.legacyPkgBuilder = legacyPkgBuilder;
+    }
     legacyPkgBuilder.buildPartial();
     try {
       handleLabelsCrossingSubpackagesAndPropagateInconsistentFilesystemExceptions(
           packageLookupValue.getRoot(), packageId, legacyPkgBuilder, env);
     } catch (InternalInconsistentFilesystemException e) {
-      packageFunctionCache.invalidate(packageId);
       throw new PackageFunctionException(e,
           e.isTransient() ? Transience.TRANSIENT : Transience.PERSISTENT);
     }
     if (env.valuesMissing()) {
-      // The package we just loaded will be in the {@code packageFunctionCache} next when this
-      // SkyFunction is called again.
       return null;
     }
     Collection<Pair<String, Boolean>> globPatterns = legacyPkgBuilder.getGlobPatterns();
@@ -487,7 +500,6 @@ public class PackageFunction implements SkyFunction {
           markDependenciesAndPropagateInconsistentFilesystemExceptions(pkg, env,
               globPatterns, subincludes);
     } catch (InternalInconsistentFilesystemException e) {
-      packageFunctionCache.invalidate(packageId);
       throw new PackageFunctionException(e,
           e.isTransient() ? Transience.TRANSIENT : Transience.PERSISTENT);
     }
@@ -495,8 +507,6 @@ public class PackageFunction implements SkyFunction {
     if (env.valuesMissing()) {
       return null;
     }
-    // We know this SkyFunction will not be called again, so we can remove the cache entry.
-    packageFunctionCache.invalidate(packageId);
 
     if (packageShouldBeConsideredInError) {
       throw new PackageFunctionException(new BuildFileContainsErrorsException(pkg,
@@ -714,28 +724,24 @@ public class PackageFunction implements SkyFunction {
           throws InterruptedException {
     ParserInputSource replacementSource = replacementContents == null ? null
         : ParserInputSource.create(replacementContents, buildFilePath.asFragment());
-    Package.LegacyBuilder pkgBuilder = packageFunctionCache.getIfPresent(packageId);
-    if (pkgBuilder == null) {
-      profiler.startTask(ProfilerTask.CREATE_PACKAGE, packageId.toString());
-      try {
-        Globber globber = packageFactory.createLegacyGlobber(buildFilePath.getParentDirectory(),
-            packageId, packageLocator);
-        StoredEventHandler localReporter = new StoredEventHandler();
-        Preprocessor.Result preprocessingResult = replacementSource == null
-            ? packageFactory.preprocess(packageId, buildFilePath, inputSource, globber,
-                localReporter)
-                : Preprocessor.Result.noPreprocessing(replacementSource);
-        pkgBuilder = packageFactory.createPackageFromPreprocessingResult(externalPkg, packageId,
-            buildFilePath, preprocessingResult, localReporter.getEvents(), preludeStatements,
-            importResult.importMap, importResult.fileDependencies, packageLocator,
-            defaultVisibility, globber);
-        numPackagesLoaded.incrementAndGet();
-        packageFunctionCache.put(packageId, pkgBuilder);
-      } finally {
-        profiler.completeTask(ProfilerTask.CREATE_PACKAGE);
-      }
+    profiler.startTask(ProfilerTask.CREATE_PACKAGE, packageId.toString());
+    try {
+      Globber globber = packageFactory.createLegacyGlobber(buildFilePath.getParentDirectory(),
+          packageId, packageLocator);
+      StoredEventHandler localReporter = new StoredEventHandler();
+      Preprocessor.Result preprocessingResult = replacementSource == null
+          ? packageFactory.preprocess(packageId, buildFilePath, inputSource, globber,
+              localReporter)
+              : Preprocessor.Result.noPreprocessing(replacementSource);
+      Package.LegacyBuilder pkgBuilder = packageFactory.createPackageFromPreprocessingResult(
+          externalPkg, packageId, buildFilePath, preprocessingResult, localReporter.getEvents(),
+          preludeStatements, importResult.importMap, importResult.fileDependencies,
+          packageLocator, defaultVisibility, globber);
+      numPackagesLoaded.incrementAndGet();
+      return pkgBuilder;
+    } finally {
+      profiler.completeTask(ProfilerTask.CREATE_PACKAGE);
     }
-    return pkgBuilder;
   }
 
   private static class InternalInconsistentFilesystemException extends NoSuchPackageException {
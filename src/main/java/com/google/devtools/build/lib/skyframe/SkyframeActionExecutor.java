@@ -51,6 +51,7 @@ import com.google.devtools.build.lib.actions.PackageRootResolver;
 import com.google.devtools.build.lib.actions.ResourceManager;
 import com.google.devtools.build.lib.actions.ResourceSet;
 import com.google.devtools.build.lib.actions.TargetOutOfDateException;
+import com.google.devtools.build.lib.actions.cache.DiskCache;
 import com.google.devtools.build.lib.actions.cache.MetadataHandler;
 import com.google.devtools.build.lib.concurrent.ExecutorShutdownUtil;
 import com.google.devtools.build.lib.concurrent.Sharder;
@@ -101,6 +102,7 @@ public final class SkyframeActionExecutor {
   private Executor executorEngine;
   private ActionLogBufferPathGenerator actionLogBufferPathGenerator;
   private ActionCacheChecker actionCacheChecker;
+  @Nullable private DiskCache diskCache;
   private final Profiler profiler = Profiler.instance();
   private boolean explain;
 
@@ -129,14 +131,17 @@ public final class SkyframeActionExecutor {
   private ProgressSupplier progressSupplier;
   private ActionCompletedReceiver completionReceiver;
   private final AtomicReference<ActionExecutionStatusReporter> statusReporterRef;
+  private final ActionExecutionPriority actionExecutionPriority;
 
   SkyframeActionExecutor(Reporter reporter, ResourceManager resourceManager,
       AtomicReference<EventBus> eventBus,
-      AtomicReference<ActionExecutionStatusReporter> statusReporterRef) {
+      AtomicReference<ActionExecutionStatusReporter> statusReporterRef,
+      ActionExecutionPriority actionExecutionPriority) {
     this.reporter = reporter;
     this.resourceManager = resourceManager;
     this.eventBus = eventBus;
     this.statusReporterRef = statusReporterRef;
+    this.actionExecutionPriority = actionExecutionPriority;
   }
 
   /**
@@ -348,6 +353,11 @@ public final class SkyframeActionExecutor {
     this.actionLogBufferPathGenerator = actionLogBufferPathGenerator;
   }
 
+  /** Sets the cache of action outputs to consult before executing actions, if any. */
+  void setDiskCache(@Nullable DiskCache diskCache) {
+    this.diskCache = diskCache;
+  }
+
   void executionOver() {
     // This transitively holds a bunch of heavy objects, so it's important to clear it at the
     // end of a build.
@@ -693,7 +703,15 @@ public final class SkyframeActionExecutor {
     }
 
     postEvent(new ActionStartedEvent(action, actionStartTime));
-    ResourceSet estimate = action.estimateResourceConsumption(executorEngine);
+    String diskCacheKey = diskCache == null
+        ? null
+        : DiskCache.getKey(action, context.getMetadataHandler());
+    boolean fetchedFromDiskCache =
+        diskCacheKey != null && diskCache.fetch(diskCacheKey, action.getOutputs());
+    // Outputs fetched from the disk cache need no resources.
+    ResourceSet estimate = fetchedFromDiskCache
+        ? null
+        : action.estimateResourceConsumption(executorEngine);
     ActionExecutionStatusReporter statusReporter = statusReporterRef.get();
     try {
       if (estimate == null || estimate == ResourceSet.ZERO) {
@@ -701,11 +719,20 @@ public final class SkyframeActionExecutor {
       } else {
         // If estimated resource consumption is null, action will manually call
         // resource manager when it knows what resources are needed.
-        resourceManager.acquireResources(action, estimate);
+        // Actions on the critical path of previous builds get resources first.
+        resourceManager.acquireResources(action, estimate,
+            actionExecutionPriority.getPriority(action));
+      }
+      if (fetchedFromDiskCache) {
+        completeAction(action, context.getMetadataHandler(), context.getFileOutErr(), false);
+      } else {
+        boolean outputDumped = executeActionTask(action, context);
+        completeAction(action, context.getMetadataHandler(),
+            context.getFileOutErr(), outputDumped);
+        if (diskCacheKey != null) {
+          diskCache.store(diskCacheKey, action.getOutputs(), context.getMetadataHandler());
+        }
       }
-      boolean outputDumped = executeActionTask(action, context);
-      completeAction(action, context.getMetadataHandler(),
-          context.getFileOutErr(), outputDumped);
     } finally {
       if (estimate != null) {
         resourceManager.releaseResources(action, estimate);
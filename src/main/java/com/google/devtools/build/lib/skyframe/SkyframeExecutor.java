@@ -19,8 +19,6 @@ import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.base.Predicates;
 import com.google.common.base.Throwables;
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
@@ -30,6 +28,7 @@ import com.google.common.collect.Maps;
 import com.google.common.collect.Range;
 import com.google.common.collect.Sets;
 import com.google.common.eventbus.EventBus;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.devtools.build.lib.actions.Action;
 import com.google.devtools.build.lib.actions.ActionCacheChecker;
 import com.google.devtools.build.lib.actions.ActionExecutionStatusReporter;
@@ -41,6 +40,7 @@ import com.google.devtools.build.lib.actions.ArtifactOwner;
 import com.google.devtools.build.lib.actions.Executor;
 import com.google.devtools.build.lib.actions.PackageRootResolutionException;
 import com.google.devtools.build.lib.actions.ResourceManager;
+import com.google.devtools.build.lib.actions.cache.DiskCache;
 import com.google.devtools.build.lib.actions.Root;
 import com.google.devtools.build.lib.analysis.Aspect;
 import com.google.devtools.build.lib.analysis.BlazeDirectories;
@@ -105,13 +105,21 @@ import com.google.devtools.build.skyframe.Injectable;
 import com.google.devtools.build.skyframe.MemoizingEvaluator;
 import com.google.devtools.build.skyframe.MemoizingEvaluator.EvaluatorSupplier;
 import com.google.devtools.build.skyframe.SkyFunction;
+import com.google.devtools.build.skyframe.SkyFunctionMetrics;
 import com.google.devtools.build.skyframe.SkyFunctionName;
+import com.google.devtools.build.skyframe.SkyFunctionProgressReceiver;
 import com.google.devtools.build.skyframe.SkyKey;
 import com.google.devtools.build.skyframe.SkyValue;
 import com.google.devtools.build.skyframe.WalkableGraph;
 import com.google.devtools.build.skyframe.WalkableGraph.WalkableGraphFactory;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -139,6 +147,9 @@ import javax.annotation.Nullable;
 public abstract class SkyframeExecutor implements WalkableGraphFactory {
   private final EvaluatorSupplier evaluatorSupplier;
   protected MemoizingEvaluator memoizingEvaluator;
+  // Non-null while a graph snapshot may still be being restored into memoizingEvaluator.
+  @Nullable
+  private GraphSnapshotRestorer graphSnapshotRestorer;
   private final MemoizingEvaluator.EmittedEventState emittedEventState =
       new MemoizingEvaluator.EmittedEventState();
   protected final Reporter reporter;
@@ -160,14 +171,6 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
       // performance.
       System.getenv("TEST_TMPDIR") == null ? 200 : 5;
 
-  // Cache of partially constructed Package instances, stored between reruns of the PackageFunction
-  // (because of missing dependencies, within the same evaluate() run) to avoid loading the same
-  // package twice (first time loading to find subincludes and declare value dependencies).
-  // TODO(bazel-team): remove this cache once we have skyframe-native package loading
-  // [skyframe-loading]
-  private final Cache<PackageIdentifier, Package.LegacyBuilder> packageFunctionCache =
-      newPkgFunctionCache();
-
   private final AtomicInteger numPackagesLoaded = new AtomicInteger(0);
 
   protected SkyframeBuildView skyframeBuildView;
@@ -212,8 +215,11 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
   private final AtomicReference<ActionExecutionStatusReporter> statusReporterRef =
       new AtomicReference<>();
   private final SkyframeActionExecutor skyframeActionExecutor;
+  private final ActionExecutionPriority actionExecutionPriority = new ActionExecutionPriority();
+  private boolean prioritizeSlowActions = false;
   private CompletionReceiver actionExecutionFunction;
   protected SkyframeProgressReceiver progressReceiver;
+  private final SkyFunctionMetrics skyFunctionMetrics = new SkyFunctionMetrics();
   private final AtomicReference<CyclesReporter> cyclesReporter = new AtomicReference<>();
 
   private final Set<Path> immutableDirectories;
@@ -269,7 +275,7 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
     this.errorEventListener = this.reporter;
     this.resourceManager = ResourceManager.instance();
     this.skyframeActionExecutor = new SkyframeActionExecutor(reporter, resourceManager, eventBus,
-        statusReporterRef);
+        statusReporterRef, actionExecutionPriority);
     this.directories = Preconditions.checkNotNull(directories);
     this.buildInfoFactories = buildInfoFactories;
     this.immutableDirectories = immutableDirectories;
@@ -309,8 +315,7 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
     map.put(SkyFunctions.PREPARE_DEPS_OF_PATTERNS, new PrepareDepsOfPatternsFunction());
     map.put(SkyFunctions.RECURSIVE_PKG, new RecursivePkgFunction());
     map.put(SkyFunctions.PACKAGE, new PackageFunction(
-        reporter, pkgFactory, packageManager, showLoadingProgress, packageFunctionCache,
-        numPackagesLoaded));
+        reporter, pkgFactory, packageManager, showLoadingProgress, numPackagesLoaded));
     map.put(SkyFunctions.TARGET_MARKER, new TargetMarkerFunction());
     map.put(SkyFunctions.TRANSITIVE_TARGET, new TransitiveTargetFunction(ruleClassProvider));
     map.put(SkyFunctions.CONFIGURED_TARGET,
@@ -358,7 +363,107 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
   }
 
   public void dump(boolean summarize, PrintStream out) {
+    awaitGraphSnapshotRestore();
     memoizingEvaluator.dump(summarize, out);
+    if (summarize) {
+      skyFunctionMetrics.dump(out);
+    }
+  }
+
+  /** Returns the work done by each {@link SkyFunction} since this server started. */
+  public SkyFunctionMetrics getSkyFunctionMetrics() {
+    return skyFunctionMetrics;
+  }
+
+  /**
+   * Writes the graph to {@code snapshot}, so that a later server for the same output base can
+   * start from it using {@link #restoreGraphSnapshot}.
+   */
+  public void saveGraphSnapshot(Path snapshot) throws IOException {
+    awaitGraphSnapshotRestore();
+    try (OutputStream out = new BufferedOutputStream(snapshot.getOutputStream())) {
+      // A snapshot is only meaningful to the binary that wrote it.
+      new DataOutputStream(out).writeUTF(directories.getInstallBase().getPathString());
+      int nodes = memoizingEvaluator.writeSnapshot(out);
+      LOG.info(String.format("Saved %d Skyframe nodes to %s", nodes, snapshot));
+    }
+  }
+
+  /**
+   * Starts populating the graph with the nodes saved by {@link #saveGraphSnapshot} in the
+   * background, so that the server can accept commands before it is done. Commands wait for it the
+   * first time they use the graph. Deletes {@code snapshot} once it has been read. Does nothing if
+   * there is no snapshot, or if it was written by a different binary. Must be called before the
+   * first command of this server.
+   *
+   * <p>Restored file system nodes are checked for changes when the first build syncs, because the
+   * {@link DiffAwareness} of a new server has no earlier view of the file system.
+   */
+  public void restoreGraphSnapshot(Path snapshot) {
+    Preconditions.checkState(graphSnapshotRestorer == null, "Already restoring %s", snapshot);
+    if (!hasIncrementalState() || !snapshot.exists()) {
+      return;
+    }
+    graphSnapshotRestorer = new GraphSnapshotRestorer(snapshot, memoizingEvaluator);
+    graphSnapshotRestorer.start();
+  }
+
+  /**
+   * Waits for the graph snapshot to be restored, if {@link #restoreGraphSnapshot} started doing so.
+   * Must be called before the graph is used.
+   */
+  private void awaitGraphSnapshotRestore() {
+    if (graphSnapshotRestorer == null) {
+      return;
+    }
+    Uninterruptibles.joinUninterruptibly(graphSnapshotRestorer);
+    boolean failed = graphSnapshotRestorer.failed;
+    graphSnapshotRestorer = null;
+    if (failed) {
+      // The graph may have been partially populated.
+      resetEvaluator();
+    }
+  }
+
+  /** Reads a graph snapshot into an evaluator that nothing else uses until the thread is done. */
+  private final class GraphSnapshotRestorer extends Thread {
+    private final Path snapshot;
+    private final MemoizingEvaluator evaluator;
+    // Only read after the thread is joined.
+    private boolean failed;
+
+    private GraphSnapshotRestorer(Path snapshot, MemoizingEvaluator evaluator) {
+      super("skyframe-snapshot-restorer");
+      this.snapshot = snapshot;
+      this.evaluator = evaluator;
+      // Don't keep a server that is asked to shut down alive for the sake of its snapshot.
+      setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+      try (InputStream in = new BufferedInputStream(snapshot.getInputStream())) {
+        String installBase = new DataInputStream(in).readUTF();
+        if (installBase.equals(directories.getInstallBase().getPathString())) {
+          int nodes = evaluator.readSnapshot(in);
+          LOG.info(String.format("Restored %d Skyframe nodes from %s", nodes, snapshot));
+        } else {
+          LOG.info("Ignoring Skyframe snapshot written by " + installBase);
+        }
+      } catch (IOException | RuntimeException e) {
+        // A corrupt snapshot may also trip the consistency checks of the graph. Either way, the
+        // server can do without it.
+        LOG.warning("Could not restore Skyframe snapshot: " + e);
+        failed = true;
+      }
+      try {
+        // Never restore the same snapshot twice: it would be stale by the time of a second
+        // restart.
+        snapshot.delete();
+      } catch (IOException e) {
+        LOG.warning("Could not delete Skyframe snapshot: " + e);
+      }
+    }
   }
 
   public abstract void dumpPackages(PrintStream out);
@@ -451,6 +556,7 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
    * put in {@link #reinjectConstantValuesLazily}.
    */
   public void resetEvaluator() {
+    awaitGraphSnapshotRestore();
     init();
     emittedEventState.clear();
     if (skyframeBuildView != null) {
@@ -564,10 +670,6 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
     }
   }
 
-  protected Cache<PackageIdentifier, Package.LegacyBuilder> newPkgFunctionCache() {
-    return CacheBuilder.newBuilder().build();
-  }
-
   /**
    * Injects the build info factory map that will be used when constructing build info
    * actions/artifacts. Unchanged across the life of the Blaze server, although it must be injected
@@ -774,8 +876,6 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
     checkPreprocessorFactory();
     emittedEventState.clear();
 
-    // If the PackageFunction was interrupted, there may be stale entries here.
-    packageFunctionCache.invalidateAll();
     numPackagesLoaded.set(0);
 
     // Reset the stateful SkyframeCycleReporter, which contains cycles from last run.
@@ -830,6 +930,37 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
     this.eventBus.set(eventBus);
   }
 
+  /**
+   * Sets whether {@link #buildArtifacts} starts first the actions that had the longest path of
+   * actions remaining after them in previous builds.
+   */
+  public void setPrioritizeSlowActions(boolean prioritizeSlowActions) {
+    this.prioritizeSlowActions = prioritizeSlowActions;
+  }
+
+  /**
+   * Returns whether the current build prioritizes actions. See {@link #setPrioritizeSlowActions}.
+   */
+  public boolean prioritizesSlowActions() {
+    return prioritizeSlowActions;
+  }
+
+  /**
+   * Records, for the actions of the last build, the time from the start of each action to the end
+   * of the slowest path of actions that depend on it, keyed by the exec path of its primary output.
+   * Later builds use it to prioritize actions if {@link #setPrioritizeSlowActions} is set.
+   */
+  public void recordRemainingCriticalPaths(Map<PathFragment, Long> remainingNanos) {
+    actionExecutionPriority.recordRemainingPaths(remainingNanos);
+  }
+
+  /**
+   * Sets the cache of action outputs to consult before executing actions, or null for none.
+   */
+  public void setDiskCache(@Nullable DiskCache diskCache) {
+    skyframeActionExecutor.setDiskCache(diskCache);
+  }
+
   /**
    * Sets the path for action log buffers.
    */
@@ -938,6 +1069,9 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
     resourceManager.resetResourceUsage();
     try {
       progressReceiver.executionProgressReceiver = executionProgressReceiver;
+      if (prioritizeSlowActions) {
+        memoizingEvaluator.setEvaluationPriority(actionExecutionPriority);
+      }
       Iterable<SkyKey> artifactKeys = ArtifactValue.mandatoryKeys(artifactsToBuild);
       Iterable<SkyKey> targetKeys = TargetCompletionValue.keys(targetsToBuild);
       Iterable<SkyKey> testKeys = TestCompletionValue.keys(targetsToTest, exclusiveTesting);
@@ -945,6 +1079,7 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
           numJobs, errorEventListener);
     } finally {
       progressReceiver.executionProgressReceiver = null;
+      memoizingEvaluator.setEvaluationPriority(null);
       // Also releases thread locks.
       resourceManager.resetResourceUsage();
       skyframeActionExecutor.executionOver();
@@ -1297,11 +1432,6 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
     public boolean isPackageDeleted(String packageName) {
       return deletedPackages.get().contains(packageName);
     }
-
-    /** Same as {@link PackageManager#partiallyClear}. */
-    void partiallyClear() {
-      packageFunctionCache.invalidateAll();
-    }
   }
 
   /**
@@ -1332,6 +1462,7 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
 
   @VisibleForTesting
   public MemoizingEvaluator getEvaluatorForTesting() {
+    awaitGraphSnapshotRestore();
     return memoizingEvaluator;
   }
 
@@ -1347,12 +1478,15 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
   public void sync(PackageCacheOptions packageCacheOptions, Path workingDirectory,
       String defaultsPackageContents, UUID commandId) throws InterruptedException,
       AbruptExitException{
-
+    awaitGraphSnapshotRestore();
     preparePackageLoading(
         createPackageLocator(packageCacheOptions, directories.getWorkspace(), workingDirectory),
         packageCacheOptions.defaultVisibility, packageCacheOptions.showLoadingProgress,
         packageCacheOptions.globbingThreads, defaultsPackageContents, commandId);
     setDeletedPackages(ImmutableSet.copyOf(packageCacheOptions.deletedPackages));
+    memoizingEvaluator.setEvictionPolicy(packageCacheOptions.skyframeEvictionHeapPercentage > 0
+        ? new HeapThresholdEvictionPolicy(packageCacheOptions.skyframeEvictionHeapPercentage)
+        : null);
 
     incrementalBuildMonitor = new SkyframeIncrementalBuildMonitor();
     invalidateTransientErrors();
@@ -1457,7 +1591,7 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
   /**
    * A progress received to track analysis invalidation and update progress messages.
    */
-  protected class SkyframeProgressReceiver implements EvaluationProgressReceiver {
+  protected class SkyframeProgressReceiver implements SkyFunctionProgressReceiver {
     /**
      * This flag is needed in order to avoid invalidating legacy data when we clear the
      * analysis cache because of --discard_analysis_cache flag. For that case we want to keep
@@ -1502,6 +1636,12 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
         executionProgressReceiver.evaluated(skyKey, value, state);
       }
     }
+
+    @Override
+    public void computed(SkyKey skyKey, long wallTimeNanos, long cpuTimeNanos, int depsRequested,
+        boolean restarted) {
+      skyFunctionMetrics.record(skyKey, wallTimeNanos, cpuTimeNanos, depsRequested, restarted);
+    }
   }
 
   public int getOutputDirtyFilesAndClear() {
@@ -112,7 +112,7 @@ class SkyframePackageManager implements PackageManager {
 
   @Override
   public void partiallyClear() {
-    packageLoader.partiallyClear();
+    // Skyframe discards partially loaded packages at the end of each evaluation.
   }
 
   @Override
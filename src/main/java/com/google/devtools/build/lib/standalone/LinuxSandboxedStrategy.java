@@ -25,8 +25,11 @@ import com.google.devtools.build.lib.actions.Spawn;
 import com.google.devtools.build.lib.actions.SpawnActionContext;
 import com.google.devtools.build.lib.actions.UserExecException;
 import com.google.devtools.build.lib.analysis.BlazeDirectories;
+import com.google.devtools.build.lib.profiler.Profiler;
+import com.google.devtools.build.lib.profiler.ProfilerTask;
 import com.google.devtools.build.lib.rules.cpp.CppCompileAction;
 import com.google.devtools.build.lib.shell.CommandException;
+import com.google.devtools.build.lib.shell.ForkServer;
 import com.google.devtools.build.lib.syntax.Label;
 import com.google.devtools.build.lib.unix.FilesystemUtils;
 import com.google.devtools.build.lib.util.CommandFailureUtils;
@@ -41,6 +44,8 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.TreeSet;
 
+import javax.annotation.Nullable;
+
 /**
  * Strategy that uses sandboxing to execute a process.
  */
@@ -49,10 +54,15 @@ import java.util.TreeSet;
 public class LinuxSandboxedStrategy implements SpawnActionContext {
   private final boolean verboseFailures;
   private final BlazeDirectories directories;
+  private final SandboxPool sandboxPool;
+  @Nullable private final ForkServer forkServer;
 
-  public LinuxSandboxedStrategy(BlazeDirectories blazeDirectories, boolean verboseFailures) {
+  public LinuxSandboxedStrategy(BlazeDirectories blazeDirectories, SandboxPool sandboxPool,
+      boolean verboseFailures, @Nullable ForkServer forkServer) {
     this.directories = blazeDirectories;
+    this.sandboxPool = sandboxPool;
     this.verboseFailures = verboseFailures;
+    this.forkServer = forkServer;
   }
 
   /**
@@ -60,7 +70,7 @@ public class LinuxSandboxedStrategy implements SpawnActionContext {
    */
   @Override
   public void exec(Spawn spawn, ActionExecutionContext actionExecutionContext)
-      throws ExecException {
+      throws ExecException, InterruptedException {
     Executor executor = actionExecutionContext.getExecutor();
     if (executor.reportsSubcommands()) {
       executor.reportSubcommand(
@@ -88,6 +98,7 @@ public class LinuxSandboxedStrategy implements SpawnActionContext {
     String cwd = executor.getExecRoot().getPathString();
 
     FileOutErr outErr = actionExecutionContext.getFileOutErr();
+    NamespaceSandboxRunner runner = null;
     try {
       PathFragment includePrefix = null; // null when there's no include mangling to do
       List<PathFragment> includeDirectories = ImmutableList.of();
@@ -99,22 +110,33 @@ public class LinuxSandboxedStrategy implements SpawnActionContext {
         includePrefix = getSandboxIncludeDir(cppAction);
       }
 
-      NamespaceSandboxRunner runner = new NamespaceSandboxRunner(directories, spawn, includePrefix,
-          includeDirectories, verboseFailures);
+      runner = new NamespaceSandboxRunner(directories, spawn, includePrefix, includeDirectories,
+          sandboxPool, verboseFailures);
+      long setupStartTime = Profiler.nanoTimeMaybe();
       runner.setupSandbox(expandedInputs, spawn.getOutputFiles());
-      runner.run(spawnArguments, spawn.getEnvironment(), new File(cwd), outErr);
+      Profiler.instance().logSimpleTask(setupStartTime, ProfilerTask.SANDBOX_SETUP,
+          spawn.getResourceOwner());
+      runner.run(spawnArguments, spawn.getEnvironment(), new File(cwd), outErr, forkServer);
       runner.copyOutputs(spawn.getOutputFiles(), outErr);
       if (processHeaders) {
         CppCompileAction cppAction = (CppCompileAction) spawn.getResourceOwner();
         unmangleHeaderFiles(cppAction);
       }
+      long teardownStartTime = Profiler.nanoTimeMaybe();
       runner.cleanup();
+      Profiler.instance().logSimpleTask(teardownStartTime, ProfilerTask.SANDBOX_TEARDOWN,
+          spawn.getResourceOwner());
     } catch (CommandException e) {
       String message = CommandFailureUtils.describeCommandFailure(verboseFailures,
           spawn.getArguments(), spawn.getEnvironment(), cwd);
       throw new UserExecException(String.format("%s: %s", message, e));
     } catch (IOException e) {
       throw new UserExecException(e.getMessage());
+    } finally {
+      if (runner != null) {
+        // Does nothing if the sandbox was returned to the pool.
+        runner.discard();
+      }
     }
   }
 
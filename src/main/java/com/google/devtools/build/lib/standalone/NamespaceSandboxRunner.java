@@ -23,8 +23,8 @@ import com.google.devtools.build.lib.actions.Spawn;
 import com.google.devtools.build.lib.analysis.BlazeDirectories;
 import com.google.devtools.build.lib.shell.Command;
 import com.google.devtools.build.lib.shell.CommandException;
+import com.google.devtools.build.lib.shell.ForkServer;
 import com.google.devtools.build.lib.unix.FilesystemUtils;
-import com.google.devtools.build.lib.util.Fingerprint;
 import com.google.devtools.build.lib.util.io.FileOutErr;
 import com.google.devtools.build.lib.vfs.FileSystemUtils;
 import com.google.devtools.build.lib.vfs.Path;
@@ -36,10 +36,13 @@ import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 
+import javax.annotation.Nullable;
+
 /**
  * Helper class for running the namespace sandbox. This runner prepares environment inside the
  * sandbox (copies inputs, creates file structure), handles sandbox output, performs cleanup and
@@ -47,8 +50,9 @@ import java.util.Map.Entry;
  */
 public class NamespaceSandboxRunner {
   private final boolean debug;
-  private final PathFragment sandboxDirectory;
-  private final Path sandboxPath;
+  private final SandboxPool sandboxPool;
+  private SandboxPool.Sandbox sandbox;
+  private Path sandboxPath;
   private final List<String> mounts;
   private final Path embeddedBinaries;
   private final ImmutableList<PathFragment> includeDirectories;
@@ -57,11 +61,9 @@ public class NamespaceSandboxRunner {
   private final Path execRoot;
 
   public NamespaceSandboxRunner(BlazeDirectories directories, Spawn spawn,
-      PathFragment includePrefix, List<PathFragment> includeDirectories, boolean debug) {
-    String md5sum = Fingerprint.md5Digest(spawn.getResourceOwner().getPrimaryOutput().toString());
-    this.sandboxDirectory = new PathFragment("sandbox-root-" + md5sum);
-    this.sandboxPath =
-        directories.getExecRoot().getRelative("sandboxes").getRelative(sandboxDirectory);
+      PathFragment includePrefix, List<PathFragment> includeDirectories, SandboxPool sandboxPool,
+      boolean debug) {
+    this.sandboxPool = sandboxPool;
     this.debug = debug;
     this.mounts = new ArrayList<>();
     this.embeddedBinaries = directories.getEmbeddedBinariesRoot();
@@ -71,14 +73,11 @@ public class NamespaceSandboxRunner {
     this.execRoot = directories.getExecRoot();
   }
 
+  /**
+   * Creates the directories of the sandbox. Some of them may exist already, if the sandbox was
+   * used by an earlier action.
+   */
   private void createFileSystem(Collection<? extends ActionInput> outputs) throws IOException {
-    // create the sandboxes' parent directory if needed
-    // TODO(bazel-team): create this with rest of the workspace dirs
-    if (!sandboxPath.getParentDirectory().isDirectory()) {
-      FilesystemUtils.mkdir(sandboxPath.getParentDirectory().getPathString(), 0755);
-    }
-
-    FilesystemUtils.mkdir(sandboxPath.getPathString(), 0755);
     String[] dirs = { "bin", "etc" };
     for (String dir : dirs) {
       FilesystemUtils.mkdir(sandboxPath.getChild(dir).getPathString(), 0755);
@@ -134,27 +133,30 @@ public class NamespaceSandboxRunner {
     }
   }
 
+  /**
+   * Acquires a sandbox from the pool that contains a copy of each input, of the files in the
+   * runfiles manifests and of the Blaze utilities, and creates its directories.
+   */
   public void setupSandbox(List<? extends ActionInput> inputs,
-      Collection<? extends ActionInput> outputs) throws IOException {
+      Collection<? extends ActionInput> outputs) throws IOException, InterruptedException {
+    Map<PathFragment, Path> files = new HashMap<>();
+    addBlazeUtils(files);
+    addManifests(files);
+    addInputs(inputs, files);
+    sandbox = sandboxPool.acquire(files);
+    sandboxPath = sandbox.getPath();
     createFileSystem(outputs);
-    setupBlazeUtils();
-    includeManifests();
     includeRunfiles();
-    copyInputs(inputs);
   }
 
-  private void copyInputs(List<? extends ActionInput> inputs) throws IOException {
+  private void addInputs(List<? extends ActionInput> inputs, Map<PathFragment, Path> files) {
     for (ActionInput input : inputs) {
       if (input.getExecPathString().contains("internal/_middlemen/")) {
         continue;
       }
-      Path target = sandboxPath.getRelative(input.getExecPathString());
-      Path source = execRoot.getRelative(input.getExecPathString());
-      FileSystemUtils.createDirectoryAndParents(target.getParentDirectory());
-      File targetFile = new File(target.getPathString());
       // TODO(bazel-team): mount inputs inside sandbox instead of copying
-      Files.copy(new File(source.getPathString()), targetFile);
-      FilesystemUtils.chmod(targetFile, 0755);
+      files.put(new PathFragment(input.getExecPathString()),
+          execRoot.getRelative(input.getExecPathString()));
     }
   }
 
@@ -179,29 +181,19 @@ public class NamespaceSandboxRunner {
     }
   }
 
-  private void includeManifests() throws IOException {
+  private void addManifests(Map<PathFragment, Path> files) throws IOException {
     for (Entry<PathFragment, Artifact> manifest : spawn.getRunfilesManifests().entrySet()) {
       String path = manifest.getValue().getPath().getPathString();
       for (String line : Files.readLines(new File(path), Charset.defaultCharset())) {
         String[] fields = line.split(" ");
-        String targetPath = sandboxPath.getPathString() + PathFragment.SEPARATOR_CHAR + fields[0];
-        String sourcePath = fields[1];
-        File source = new File(sourcePath);
-        File target = new File(targetPath);
-        Files.createParentDirs(target);
-        Files.copy(source, target);
+        files.put(new PathFragment(fields[0]), execRoot.getFileSystem().getPath(fields[1]));
       }
     }
   }
 
-  private void setupBlazeUtils() throws IOException {
-    Path bin = this.sandboxPath.getChild("_bin");
-    if (!bin.isDirectory()) {
-      FilesystemUtils.mkdir(bin.getPathString(), 0755);
-    }
-    Files.copy(new File(this.embeddedBinaries.getChild("build-runfiles").getPathString()),
-               new File(bin.getChild("build-runfiles").getPathString()));
-    FilesystemUtils.chmod(bin.getChild("build-runfiles").getPathString(), 0755);
+  private void addBlazeUtils(Map<PathFragment, Path> files) {
+    files.put(new PathFragment("_bin/build-runfiles"),
+        this.embeddedBinaries.getChild("build-runfiles"));
   }
 
 
@@ -212,10 +204,11 @@ public class NamespaceSandboxRunner {
    * @param env - environment to run sandbox in
    * @param cwd - current working directory
    * @param outErr - error output to capture sandbox's and command's stderr
+   * @param forkServer - if not null, starts the sandbox instead of this process
    * @throws CommandException
    */
   public void run(List<String> spawnArguments, ImmutableMap<String, String> env, File cwd,
-      FileOutErr outErr) throws CommandException {
+      FileOutErr outErr, @Nullable ForkServer forkServer) throws CommandException, IOException {
     List<String> args = new ArrayList<>();
     args.add(execRoot.getRelative("_bin/namespace-sandbox").getPathString());
 
@@ -245,6 +238,13 @@ public class NamespaceSandboxRunner {
     args.addAll(spawnArguments);
     Command cmd = new Command(args.toArray(new String[] {}), env, cwd);
 
+    if (forkServer != null) {
+      outErr.getOutputStream().flush();
+      outErr.getErrorStream().flush();
+      cmd.executeWithForkServer(forkServer, outErr.getOutputFile().getPathFile(),
+          outErr.getErrorFile().getPathFile(), /* killSubprocessOnInterrupt */true);
+      return;
+    }
     cmd.execute(
     /* stdin */new byte[] {},
     Command.NO_OBSERVER,
@@ -254,8 +254,23 @@ public class NamespaceSandboxRunner {
   }
 
 
+  /**
+   * Returns the sandbox to the pool, after the outputs were copied out of it.
+   */
   public void cleanup() throws IOException {
-    FilesystemUtils.rmTree(sandboxPath.getPathString());
+    SandboxPool.Sandbox released = sandbox;
+    sandbox = null;
+    sandboxPool.release(released);
+  }
+
+  /**
+   * Deletes the sandbox, if it was set up and not returned to the pool yet.
+   */
+  public void discard() {
+    if (sandbox != null) {
+      sandboxPool.discard(sandbox);
+      sandbox = null;
+    }
   }
 
 
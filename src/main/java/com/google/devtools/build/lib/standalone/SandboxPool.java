@@ -0,0 +1,416 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.standalone;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.util.Fingerprint;
+import com.google.devtools.build.lib.vfs.Dirent;
+import com.google.devtools.build.lib.vfs.FileStatus;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.Symlinks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Sandbox directories that are kept after an action ran in them, so that later actions only have
+ * to copy the files that they need and the sandbox does not contain yet.
+ *
+ * <p>An idle sandbox is preferably given to an action that needs exactly the same files, which
+ * is recognized by a fingerprint of their paths; otherwise to the action that needs the most files
+ * it already contains. Copies that are still up to date, according to the status of both the
+ * source and the copy, are kept; all other files are deleted or copied again, on several threads
+ * at once.
+ *
+ * <p>When an action is done, every file in its sandbox that is not an up-to-date copy is deleted,
+ * so that an action never sees the files that earlier actions created or modified.
+ */
+@ThreadSafe
+public final class SandboxPool {
+  private static final Logger LOG = Logger.getLogger(SandboxPool.class.getName());
+
+  /** Fewer copies than this are not worth handing to other threads. */
+  private static final int MIN_COPIES_PER_TASK = 64;
+
+  private final Path root;
+  private volatile int maxIdle;
+  private final ExecutorService copyExecutor;
+  private final AtomicInteger nextId = new AtomicInteger();
+
+  // Least recently released first. Guarded by this.
+  private final LinkedList<Sandbox> idle = new LinkedList<>();
+  private boolean initialized;
+
+  /**
+   * The size, modification and change time of a file. Equal states mean that the file was not
+   * modified in the meantime.
+   */
+  private static final class FileState {
+    private final long size;
+    private final long lastModifiedTime;
+    private final long lastChangeTime;
+
+    private FileState(FileStatus status) throws IOException {
+      this.size = status.getSize();
+      this.lastModifiedTime = status.getLastModifiedTime();
+      this.lastChangeTime = status.getLastChangeTime();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof FileState)) {
+        return false;
+      }
+      FileState that = (FileState) o;
+      return size == that.size && lastModifiedTime == that.lastModifiedTime
+          && lastChangeTime == that.lastChangeTime;
+    }
+
+    @Override
+    public int hashCode() {
+      return (int) (size ^ lastModifiedTime ^ lastChangeTime);
+    }
+  }
+
+  /**
+   * The states of a file that was copied into a sandbox and of its source at that time, and the
+   * path of the source. Another source at the same relative path may well have the same state,
+   * for example when a runfiles manifest maps the path elsewhere, or on a file system that records
+   * times in seconds.
+   */
+  private static final class Copy {
+    private final Path sourcePath;
+    private final FileState source;
+    private final FileState copy;
+
+    private Copy(Path sourcePath, FileState source, FileState copy) {
+      this.sourcePath = sourcePath;
+      this.source = source;
+      this.copy = copy;
+    }
+
+    /** Returns whether this is a copy of {@code path}, which has not changed since. */
+    private boolean isCopyOf(Path path) throws IOException {
+      return sourcePath.equals(path) && source.equals(new FileState(path.stat()));
+    }
+  }
+
+  /** A sandbox directory and the files that were copied into it. */
+  public static final class Sandbox {
+    private final Path path;
+    // Only accessed by the action that holds the sandbox.
+    private final Map<PathFragment, Copy> copies = new HashMap<>();
+    // The paths of the copies, and their fingerprint, as of the last release.
+    private ImmutableSet<PathFragment> contents = ImmutableSet.of();
+    private String fingerprint = "";
+
+    private Sandbox(Path path) {
+      this.path = path;
+    }
+
+    public Path getPath() {
+      return path;
+    }
+  }
+
+  /**
+   * Creates a pool that keeps no sandboxes until {@link #setMaxIdle} is called.
+   *
+   * @param root the directory in which the sandboxes are created; it is emptied when the first
+   *     sandbox is acquired
+   * @param copyThreads how many threads copy files into a sandbox
+   */
+  public SandboxPool(Path root, int copyThreads) {
+    Preconditions.checkArgument(copyThreads > 0);
+    this.root = root;
+    this.copyExecutor = Executors.newFixedThreadPool(copyThreads,
+        new ThreadFactoryBuilder().setNameFormat("sandbox-copy-%d").setDaemon(true).build());
+  }
+
+  /**
+   * Sets how many sandboxes are kept for reuse. If zero, every sandbox is deleted when it is
+   * released. Sandboxes in excess are deleted when the next sandbox is released.
+   */
+  public void setMaxIdle(int maxIdle) {
+    Preconditions.checkArgument(maxIdle >= 0);
+    this.maxIdle = maxIdle;
+  }
+
+  /**
+   * Returns a sandbox that contains exactly the given files, each a copy of its source.
+   *
+   * @param files the sources of the files, by their paths relative to the sandbox
+   */
+  public Sandbox acquire(Map<PathFragment, Path> files) throws IOException, InterruptedException {
+    String fingerprint = fingerprint(files.keySet());
+    Sandbox sandbox = takeIdle(files.keySet(), fingerprint);
+    if (sandbox == null) {
+      sandbox = new Sandbox(root.getChild("sandbox-" + nextId.incrementAndGet()));
+    }
+    try {
+      if (!sandbox.path.exists()) {
+        // Somebody deleted an idle sandbox, for example 'blaze clean'.
+        sandbox.copies.clear();
+        FileSystemUtils.createDirectoryAndParents(sandbox.path);
+      }
+      update(sandbox, files);
+    } catch (IOException | InterruptedException | RuntimeException e) {
+      discard(sandbox);
+      throw e;
+    }
+    return sandbox;
+  }
+
+  /**
+   * Deletes the files that the action created or modified in {@code sandbox}, and the directories
+   * that contain no copies, and keeps the sandbox for reuse.
+   */
+  public void release(Sandbox sandbox) throws IOException {
+    if (maxIdle == 0) {
+      discard(sandbox);
+      discardExcess();
+      return;
+    }
+    try {
+      Set<PathFragment> found = new HashSet<>();
+      deleteModifiedFiles(sandbox, sandbox.path, PathFragment.EMPTY_FRAGMENT, found);
+      sandbox.copies.keySet().retainAll(found);
+    } catch (IOException e) {
+      discard(sandbox);
+      throw e;
+    }
+    sandbox.contents = ImmutableSet.copyOf(sandbox.copies.keySet());
+    sandbox.fingerprint = fingerprint(sandbox.contents);
+    synchronized (this) {
+      idle.addLast(sandbox);
+    }
+    discardExcess();
+  }
+
+  /** Deletes the least recently released sandboxes beyond the maximum number of idle ones. */
+  private void discardExcess() {
+    List<Sandbox> evicted = new ArrayList<>();
+    synchronized (this) {
+      while (idle.size() > maxIdle) {
+        evicted.add(idle.removeFirst());
+      }
+    }
+    for (Sandbox sandbox : evicted) {
+      discard(sandbox);
+    }
+  }
+
+  /** Deletes {@code sandbox}, which must not be used any more. */
+  public void discard(Sandbox sandbox) {
+    try {
+      if (sandbox.path.exists()) {
+        FileSystemUtils.deleteTree(sandbox.path);
+      }
+    } catch (IOException e) {
+      // Sandboxes left behind are deleted by the next server.
+      LOG.log(Level.WARNING, "Could not delete sandbox " + sandbox.path, e);
+    }
+  }
+
+  private static String fingerprint(Set<PathFragment> paths) {
+    List<PathFragment> sorted = new ArrayList<>(paths);
+    Collections.sort(sorted);
+    Fingerprint fingerprint = new Fingerprint();
+    for (PathFragment path : sorted) {
+      fingerprint.addPath(path);
+    }
+    return fingerprint.hexDigestAndReset();
+  }
+
+  /**
+   * Removes and returns the idle sandbox with the given fingerprint or, if there is none, the one
+   * that contains the most of {@code paths}. Returns null if no idle sandbox contains any of them.
+   */
+  private Sandbox takeIdle(Set<PathFragment> paths, String fingerprint) throws IOException {
+    List<Sandbox> candidates;
+    synchronized (this) {
+      if (!initialized) {
+        // The sandboxes of an earlier server are in an unknown state.
+        if (root.exists()) {
+          FileSystemUtils.deleteTreesBelow(root);
+        }
+        initialized = true;
+      }
+      for (Sandbox sandbox : idle) {
+        if (sandbox.fingerprint.equals(fingerprint)) {
+          idle.remove(sandbox);
+          return sandbox;
+        }
+      }
+      candidates = new ArrayList<>(idle);
+    }
+    // The contents of idle sandboxes do not change, so they can be compared without the lock.
+    while (true) {
+      Sandbox best = null;
+      int bestOverlap = 0;
+      for (Sandbox sandbox : candidates) {
+        int overlap = 0;
+        for (PathFragment path : paths) {
+          if (sandbox.contents.contains(path)) {
+            overlap++;
+          }
+        }
+        if (overlap > bestOverlap) {
+          best = sandbox;
+          bestOverlap = overlap;
+        }
+      }
+      if (best == null) {
+        return null;
+      }
+      synchronized (this) {
+        if (idle.remove(best)) {
+          return best;
+        }
+      }
+      // Another action took it meanwhile.
+      candidates.remove(best);
+    }
+  }
+
+  /** Makes the copies in {@code sandbox} match {@code files}. */
+  private void update(Sandbox sandbox, Map<PathFragment, Path> files)
+      throws IOException, InterruptedException {
+    for (PathFragment path : new ArrayList<>(sandbox.copies.keySet())) {
+      if (!files.containsKey(path)) {
+        sandbox.path.getRelative(path).delete();
+        sandbox.copies.remove(path);
+      }
+    }
+
+    final List<Map.Entry<PathFragment, Path>> toCopy = new ArrayList<>();
+    Set<Path> parents = new HashSet<>();
+    for (Map.Entry<PathFragment, Path> file : files.entrySet()) {
+      Copy copy = sandbox.copies.get(file.getKey());
+      if (copy == null || !copy.isCopyOf(file.getValue())) {
+        toCopy.add(file);
+        parents.add(sandbox.path.getRelative(file.getKey()).getParentDirectory());
+      }
+    }
+    for (Path parent : parents) {
+      FileSystemUtils.createDirectoryAndParents(parent);
+    }
+    if (toCopy.size() < 2 * MIN_COPIES_PER_TASK) {
+      copy(sandbox, toCopy);
+      return;
+    }
+    List<Future<Void>> futures = new ArrayList<>();
+    for (final List<Map.Entry<PathFragment, Path>> partition
+        : Lists.partition(toCopy, MIN_COPIES_PER_TASK)) {
+      final Sandbox target = sandbox;
+      futures.add(copyExecutor.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws IOException {
+          copy(target, partition);
+          return null;
+        }
+      }));
+    }
+    try {
+      for (Future<Void> future : futures) {
+        future.get();
+      }
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      throw new IllegalStateException(cause);
+    } finally {
+      for (Future<Void> future : futures) {
+        future.cancel(true);
+      }
+    }
+  }
+
+  private static void copy(Sandbox sandbox, List<Map.Entry<PathFragment, Path>> files)
+      throws IOException {
+    for (Map.Entry<PathFragment, Path> file : files) {
+      Path source = file.getValue();
+      Path target = sandbox.path.getRelative(file.getKey());
+      FileState sourceState = new FileState(source.stat());
+      FileSystemUtils.copyFile(source, target);
+      target.chmod(0755);
+      Copy copy =
+          new Copy(source, sourceState, new FileState(target.stat(Symlinks.NOFOLLOW)));
+      synchronized (sandbox.copies) {
+        sandbox.copies.put(file.getKey(), copy);
+      }
+    }
+  }
+
+  /**
+   * Deletes the files below {@code dir} that are not unmodified copies, and the directories that
+   * are left empty, and adds the paths of the copies to {@code found}.
+   *
+   * @return whether {@code dir} is empty now
+   */
+  private static boolean deleteModifiedFiles(Sandbox sandbox, Path dir, PathFragment relative,
+      Set<PathFragment> found) throws IOException {
+    boolean empty = true;
+    for (Dirent dirent : dir.readdir(Symlinks.NOFOLLOW)) {
+      Path path = dir.getChild(dirent.getName());
+      PathFragment relativePath = relative.getChild(dirent.getName());
+      if (dirent.getType() == Dirent.Type.DIRECTORY) {
+        if (deleteModifiedFiles(sandbox, path, relativePath, found)) {
+          path.delete();
+        } else {
+          empty = false;
+        }
+        continue;
+      }
+      Copy copy = sandbox.copies.get(relativePath);
+      if (copy != null && dirent.getType() == Dirent.Type.FILE
+          && copy.copy.equals(new FileState(path.stat(Symlinks.NOFOLLOW)))) {
+        found.add(relativePath);
+        empty = false;
+      } else {
+        path.delete();
+      }
+    }
+    return empty;
+  }
+
+  @VisibleForTesting
+  synchronized int getIdleCount() {
+    return idle.size();
+  }
+}
@@ -35,11 +35,14 @@ import com.google.devtools.build.lib.rules.test.ExclusiveTestStrategy;
 import com.google.devtools.build.lib.rules.test.StandaloneTestStrategy;
 import com.google.devtools.build.lib.rules.test.TestActionContext;
 import com.google.devtools.build.lib.runtime.BlazeRuntime;
+import com.google.devtools.build.lib.shell.ForkServer;
 import com.google.devtools.build.lib.util.OS;
 import com.google.devtools.build.lib.vfs.FileSystemUtils;
 
 import java.io.IOException;
 
+import javax.annotation.Nullable;
+
 /**
  * Provide a standalone, local execution context.
  */
@@ -69,10 +72,12 @@ public class StandaloneContextProvider implements ActionContextProvider {
   private final ImmutableList<ActionContext> strategies;
   private final BlazeRuntime runtime;
 
-  public StandaloneContextProvider(BlazeRuntime runtime, BuildRequest buildRequest) {
+  public StandaloneContextProvider(BlazeRuntime runtime, BuildRequest buildRequest,
+      SandboxPool sandboxPool, @Nullable ForkServer forkServer) {
     boolean verboseFailures = buildRequest.getOptions(ExecutionOptions.class).verboseFailures;
 
-    standaloneSpawnStrategy = new StandaloneSpawnStrategy(runtime.getExecRoot(), verboseFailures);
+    standaloneSpawnStrategy = new StandaloneSpawnStrategy(runtime.getExecRoot(), verboseFailures,
+        forkServer);
     this.runtime = runtime;
 
     TestActionContext testStrategy = new StandaloneTestStrategy(buildRequest,
@@ -87,7 +92,8 @@ public class StandaloneContextProvider implements ActionContextProvider {
     // put sandboxed strategy first, as we don't want it by default
     if (OS.getCurrent() == OS.LINUX) {
       LinuxSandboxedStrategy sandboxedLinuxStrategy =
-          new LinuxSandboxedStrategy(runtime.getDirectories(), verboseFailures);
+          new LinuxSandboxedStrategy(runtime.getDirectories(), sandboxPool, verboseFailures,
+              forkServer);
       strategiesBuilder.add(sandboxedLinuxStrategy);
     }
 
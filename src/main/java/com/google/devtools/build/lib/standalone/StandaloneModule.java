@@ -19,9 +19,18 @@ import com.google.devtools.build.lib.actions.ActionContextConsumer;
 import com.google.devtools.build.lib.actions.ActionContextProvider;
 import com.google.devtools.build.lib.buildtool.BuildRequest;
 import com.google.devtools.build.lib.buildtool.buildevent.BuildStartingEvent;
+import com.google.devtools.build.lib.events.Event;
+import com.google.devtools.build.lib.exec.ExecutionOptions;
 import com.google.devtools.build.lib.runtime.BlazeModule;
 import com.google.devtools.build.lib.runtime.BlazeRuntime;
 import com.google.devtools.build.lib.runtime.Command;
+import com.google.devtools.build.lib.shell.ForkServer;
+import com.google.devtools.build.lib.util.OS;
+import com.google.devtools.build.lib.util.OsUtils;
+
+import java.io.IOException;
+
+import javax.annotation.Nullable;
 
 /**
  * StandaloneModule provides pluggable functionality for blaze.
@@ -30,6 +39,8 @@ public class StandaloneModule extends BlazeModule {
   private final ActionContextConsumer actionContextConsumer = new StandaloneContextConsumer();
   private BuildRequest buildRequest;
   private BlazeRuntime runtime;
+  private SandboxPool sandboxPool;
+  private ForkServer forkServer;
 
   /**
    * Returns the action context provider the module contributes to Blaze, if any.
@@ -37,7 +48,8 @@ public class StandaloneModule extends BlazeModule {
   @Override
   public Iterable<ActionContextProvider> getActionContextProviders() {
     return ImmutableList.<ActionContextProvider>of(
-        new StandaloneContextProvider(runtime, buildRequest));
+        new StandaloneContextProvider(runtime, buildRequest, getSandboxPool(),
+            getForkServer()));
   }
 
   /**
@@ -48,6 +60,47 @@ public class StandaloneModule extends BlazeModule {
     return ImmutableList.of(actionContextConsumer);
   }
 
+  /**
+   * Returns the pool of sandboxes, which is kept across builds so that incremental builds find
+   * the sandboxes of the actions they run again.
+   */
+  private SandboxPool getSandboxPool() {
+    if (sandboxPool == null) {
+      sandboxPool = new SandboxPool(runtime.getExecRoot().getRelative("sandboxes"),
+          Runtime.getRuntime().availableProcessors());
+    }
+    sandboxPool.setMaxIdle(buildRequest.getOptions(ExecutionOptions.class).reuseSandboxes
+        ? buildRequest.getBuildOptions().jobs
+        : 0);
+    return sandboxPool;
+  }
+
+  /**
+   * Returns the fork server if --experimental_fork_server is set, starting it if it is not
+   * running, or null if it could not be started. The fork server is kept across builds.
+   */
+  @Nullable
+  private ForkServer getForkServer() {
+    if (!buildRequest.getOptions(ExecutionOptions.class).forkServer
+        || (OS.getCurrent() != OS.LINUX && OS.getCurrent() != OS.DARWIN)) {
+      return null;
+    }
+    if (forkServer == null || !forkServer.isAlive()) {
+      if (forkServer != null) {
+        forkServer.shutdown();
+      }
+      try {
+        forkServer = ForkServer.start(runtime.getExecRoot()
+            .getRelative("_bin/fork-server" + OsUtils.executableExtension()).getPathFile());
+      } catch (IOException e) {
+        runtime.getReporter().handle(Event.warn(
+            "Could not start the fork server, forking subprocesses directly: " + e.getMessage()));
+        forkServer = null;
+      }
+    }
+    return forkServer;
+  }
+
   @Override
   public void beforeCommand(BlazeRuntime runtime, Command command) {
     this.runtime = runtime;
@@ -58,4 +111,12 @@ public class StandaloneModule extends BlazeModule {
   public void buildStarting(BuildStartingEvent event) {
     buildRequest = event.getRequest();
   }
+
+  @Override
+  public void blazeShutdown() {
+    if (forkServer != null) {
+      forkServer.shutdown();
+      forkServer = null;
+    }
+  }
 }
@@ -13,37 +13,55 @@
 // limitations under the License.
 package com.google.devtools.build.lib.standalone;
 
+import com.google.common.base.Splitter;
 import com.google.devtools.build.lib.actions.ActionExecutionContext;
 import com.google.devtools.build.lib.actions.ExecException;
 import com.google.devtools.build.lib.actions.ExecutionStrategy;
 import com.google.devtools.build.lib.actions.Executor;
+import com.google.devtools.build.lib.actions.ResourceManager;
 import com.google.devtools.build.lib.actions.Spawn;
 import com.google.devtools.build.lib.actions.SpawnActionContext;
 import com.google.devtools.build.lib.actions.UserExecException;
 import com.google.devtools.build.lib.shell.Command;
 import com.google.devtools.build.lib.shell.CommandException;
+import com.google.devtools.build.lib.shell.ForkServer;
 import com.google.devtools.build.lib.syntax.Label;
 import com.google.devtools.build.lib.util.CommandFailureUtils;
 import com.google.devtools.build.lib.util.OS;
 import com.google.devtools.build.lib.util.OsUtils;
+import com.google.devtools.build.lib.util.ProcMeminfoParser;
 import com.google.devtools.build.lib.util.io.FileOutErr;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
 import com.google.devtools.build.lib.vfs.Path;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
 
 /**
  * Strategy that uses subprocessing to execute a process.
  */
 @ExecutionStrategy(name = { "standalone" }, contextType = SpawnActionContext.class)
 public class StandaloneSpawnStrategy implements SpawnActionContext {
+  private static final Logger LOG = Logger.getLogger(StandaloneSpawnStrategy.class.getName());
+
+  private static final String PEAK_MEMORY_STAT = "peak_memory_kb ";
+
   private final boolean verboseFailures;
 
   private final Path processWrapper;
 
-  public StandaloneSpawnStrategy(Path execRoot, boolean verboseFailures) {
+  @Nullable private final ForkServer forkServer;
+
+  public StandaloneSpawnStrategy(Path execRoot, boolean verboseFailures,
+      @Nullable ForkServer forkServer) {
     this.verboseFailures = verboseFailures;
+    this.forkServer = forkServer;
     this.processWrapper = execRoot.getRelative(
         "_bin/process-wrapper" + OsUtils.executableExtension());
   }
@@ -62,16 +80,28 @@ public class StandaloneSpawnStrategy implements SpawnActionContext {
               + "]", spawn.asShellCommand(executor.getExecRoot()));
     }
 
+    FileOutErr outErr = actionExecutionContext.getFileOutErr();
+    if (forkServer != null) {
+      execWithForkServer(spawn, executor, outErr);
+      return;
+    }
+
     // We must wrap the subprocess with process-wrapper to kill the process tree.
     // All actions therefore depend on the process-wrapper file. Since it's embedded,
     // we don't bother with declaring it as an input.
     List<String> args = new ArrayList<>();
+    Path statsFile = null;
     if (OS.getCurrent() != OS.WINDOWS) {
       // TODO(bazel-team): process-wrapper seems to work on Windows, but requires
       // additional setup as it is an msys2 binary, so it needs msys2 DLLs on %PATH%.
       // Disable it for now to make the setup easier and to avoid further PATH hacks.
       // Ideally we should have a native implementation of process-wrapper for Windows.
       args.add(processWrapper.getPathString());
+      if (ResourceManager.instance().learnsPeakMemory()) {
+        Path outputFile = outErr.getOutputFile();
+        statsFile = outputFile.getParentDirectory().getChild(outputFile.getBaseName() + ".stats");
+        args.add("--stats=" + statsFile.getPathString());
+      }
       args.add("-1"); /* timeout */
       args.add("0");  /* kill delay. */
 
@@ -85,7 +115,6 @@ public class StandaloneSpawnStrategy implements SpawnActionContext {
     String cwd = executor.getExecRoot().getPathString();
     Command cmd = new Command(args.toArray(new String[]{}), spawn.getEnvironment(), new File(cwd));
 
-    FileOutErr outErr = actionExecutionContext.getFileOutErr();
     try {
       cmd.execute(
           /* stdin */ new byte[]{},
@@ -97,6 +126,70 @@ public class StandaloneSpawnStrategy implements SpawnActionContext {
       String message = CommandFailureUtils.describeCommandFailure(
           verboseFailures, spawn.getArguments(), spawn.getEnvironment(), cwd);
       throw new UserExecException(String.format("%s: %s", message, e));
+    } finally {
+      if (statsFile != null) {
+        recordPeakMemory(spawn, statsFile);
+      }
+    }
+  }
+
+  /**
+   * Executes the given {@code spawn} through the fork server, which kills the process tree like
+   * process-wrapper does, and writes the output of the subprocess directly to the files of
+   * {@code outErr}.
+   */
+  private void execWithForkServer(Spawn spawn, Executor executor, FileOutErr outErr)
+      throws ExecException {
+    String cwd = executor.getExecRoot().getPathString();
+    Command cmd = new Command(spawn.getArguments().toArray(new String[]{}),
+        spawn.getEnvironment(), new File(cwd));
+    try {
+      // Nothing should have been written to outErr yet, but keep the order of the output if it was.
+      outErr.getOutputStream().flush();
+      outErr.getErrorStream().flush();
+      ForkServer.Result result = cmd.runWithForkServer(forkServer,
+          outErr.getOutputFile().getPathFile(), outErr.getErrorFile().getPathFile(),
+          /*killSubprocessOnInterrupt*/ true);
+      // Failed spawns are as likely to have used a lot of memory as successful ones.
+      if (ResourceManager.instance().learnsPeakMemory()) {
+        ResourceManager.instance().recordPeakMemory(spawn.getResourceOwner().getMnemonic(),
+            ProcMeminfoParser.kbToMb(result.getPeakMemoryKb()));
+      }
+      cmd.checkForkServerResult(result);
+    } catch (IOException | CommandException e) {
+      String message = CommandFailureUtils.describeCommandFailure(
+          verboseFailures, spawn.getArguments(), spawn.getEnvironment(), cwd);
+      throw new UserExecException(String.format("%s: %s", message, e));
+    }
+  }
+
+  /**
+   * Reports the peak memory written by process-wrapper to the resource manager, which uses it to
+   * estimate the memory of later spawns with the same mnemonic.
+   */
+  private static void recordPeakMemory(Spawn spawn, Path statsFile) {
+    String mnemonic = spawn.getResourceOwner().getMnemonic();
+    try {
+      if (!statsFile.exists()) {
+        // The subprocess did not get to run, or process-wrapper could not write its stats.
+        return;
+      }
+      String stats = new String(FileSystemUtils.readContentAsLatin1(statsFile));
+      for (String line : Splitter.on('\n').omitEmptyStrings().split(stats)) {
+        if (line.startsWith(PEAK_MEMORY_STAT)) {
+          long peakKb = Long.parseLong(line.substring(PEAK_MEMORY_STAT.length()).trim());
+          ResourceManager.instance().recordPeakMemory(mnemonic, ProcMeminfoParser.kbToMb(peakKb));
+        }
+      }
+    } catch (IOException | NumberFormatException e) {
+      LOG.log(Level.WARNING, "Failed to read the peak memory of " + mnemonic + " from "
+          + statsFile, e);
+    } finally {
+      try {
+        statsFile.delete();
+      } catch (IOException e) {
+        LOG.log(Level.WARNING, "Failed to delete " + statsFile, e);
+      }
     }
   }
 
@@ -17,16 +17,19 @@ package com.google.devtools.build.lib.util;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
 import com.google.common.collect.Iterables;
+import com.google.common.hash.Funnel;
+import com.google.devtools.build.lib.collect.nestedset.NestedSet;
+import com.google.devtools.build.lib.vfs.DigestHashFunction;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
 
 import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.Map;
 import java.util.UUID;
 
 /**
- * Simplified wrapper for MD5 message digests. See also
+ * Simplified wrapper for message digests, by default under the hash function selected for the
+ * server (see {@link DigestHashFunction#getDefault}). See also
  * com.google.math.crypto.MD5HMAC for a similar interface.
  *
  * @see java.security.MessageDigest
@@ -36,15 +39,18 @@ public final class Fingerprint {
   private final MessageDigest md;
 
   /**
-   * Creates and initializes a new MD5 object; if this fails, Java must be
-   * installed incorrectly.
+   * Creates and initializes a new digest object under the hash function selected for the server;
+   * if this fails, Java must be installed incorrectly.
    */
   public Fingerprint() {
-    try {
-      md = MessageDigest.getInstance("md5");
-    } catch (NoSuchAlgorithmException e) {
-      throw new IllegalStateException("MD5 not available", e);
-    }
+    this(DigestHashFunction.getDefault());
+  }
+
+  /**
+   * Creates and initializes a new digest object under the given hash function.
+   */
+  public Fingerprint(DigestHashFunction function) {
+    md = function.newMessageDigest();
   }
 
   /**
@@ -52,7 +58,7 @@ public final class Fingerprint {
    *
    * <p>This method has the side-effect of resetting the underlying digest computer.
    *
-   * @return the MD5 digest as a 16-byte array
+   * @return the digest, 16 bytes long for MD5
    * @see java.security.MessageDigest#digest()
    */
   public byte[] digestAndReset() {
@@ -64,7 +70,7 @@ public final class Fingerprint {
    *
    * <p>This method has the side-effect of resetting the underlying digest computer.
    *
-   * @return the MD5 digest as a 32-character string of hexadecimal digits
+   * @return the digest as a string of hexadecimal digits, 32 characters long for MD5
    * @see com.google.math.crypto.MD5HMAC#toString()
    */
   public String hexDigestAndReset() {
@@ -72,10 +78,10 @@ public final class Fingerprint {
   }
 
   /**
-   * Returns a string representation of an MD5 digest.
+   * Returns a string representation of a digest.
    *
-   * @param digest the MD5 digest, perhaps from a previous call to digest
-   * @return the digest as a 32-character string of hexadecimal digits
+   * @param digest the digest, perhaps from a previous call to digest
+   * @return the digest as a string of two hexadecimal digits per byte
    */
   public static String hexDigest(byte[] digest) {
     StringBuilder b = new StringBuilder(32);
@@ -88,7 +94,7 @@ public final class Fingerprint {
   }
 
   /**
-   * Override of Object.toString to return a string for the MD5 digest without
+   * Override of Object.toString to return a string for the digest without
    * finalizing the digest computation. Calling hexDigest() instead will
    * finalize the digest computation.
    *
@@ -97,7 +103,7 @@ public final class Fingerprint {
   @Override
   public String toString() {
     try {
-      // MD5 does support cloning, so this should not fail
+      // The JDK's digests do support cloning, so this should not fail
       return hexDigest(((MessageDigest) md.clone()).digest());
     } catch (CloneNotSupportedException e) {
       // MessageDigest does not support cloning,
@@ -296,6 +302,23 @@ public final class Fingerprint {
     return this;
   }
 
+  /**
+   * Updates the digest with the fingerprint of a nested set, as computed by
+   * {@link NestedSet#getFingerprint}. The fingerprint is memoized on the set and on its transitive
+   * sets, so adding a set that was added before, or that shares transitive sets with one, only
+   * costs the elements that were not hashed yet. Use the same {@code funnel} instance every time
+   * for the same kind of elements.
+   *
+   * <p>Sets with the same elements but a different structure usually add different bytes.
+   *
+   * @param set the nested set with which to update the digest
+   * @param funnel writes an element of the set; it must write a prefix-free encoding
+   */
+  public <T> Fingerprint addNestedSet(NestedSet<T> set, Funnel<? super T> funnel) {
+    md.update(set.getFingerprint(funnel).asBytes());
+    return this;
+  }
+
   /**
    * Reset the Fingerprint for additional use as though previous digesting had not been done.
    */
@@ -306,13 +329,13 @@ public final class Fingerprint {
   // -------- Convenience methods ----------------------------
 
   /**
-   * Computes the hex digest from a String using UTF8 encoding and returning
-   * the hexDigest().
+   * Computes the hex MD5 digest from a String using UTF8 encoding and returning
+   * the hexDigest(), regardless of the hash function selected for the server.
    *
    * @param input the String from which to compute the digest
    */
   public static String md5Digest(String input) {
-    Fingerprint f = new Fingerprint();
+    Fingerprint f = new Fingerprint(DigestHashFunction.MD5);
     f.addBytes(input.getBytes(UTF_8));
     return f.hexDigestAndReset();
   }
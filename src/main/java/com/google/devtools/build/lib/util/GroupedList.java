@@ -300,7 +300,7 @@ public class GroupedList<T> implements Iterable<Iterable<T>> {
       return elements.contains(elt);
     }
 
-    private int size() {
+    public int size() {
       return elements.size();
     }
 
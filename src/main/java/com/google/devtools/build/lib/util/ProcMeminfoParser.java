@@ -99,6 +99,15 @@ public class ProcMeminfoParser {
     return getRamKb("Slab");
   }
 
+  /**
+   * Returns the kernel's estimate of how much memory is available for starting new processes
+   * without swapping, or {@link #getFreeRamKb} on kernels that do not provide one.
+   */
+  public long getAvailableKb() {
+    Long available = memInfo.get("MemAvailable");
+    return available != null ? available : getFreeRamKb();
+  }
+
   /**
    * Convert KB to MB.
    */
@@ -313,7 +313,8 @@ public class FileOutErr extends OutErr {
     private OutputStream getOutputStream() throws IOException {
       // you should hold the lock before you invoke this method
       if (outputStream == null) {
-        outputStream = outputFile.getOutputStream();
+        // Append, so as to keep what a subprocess wrote to the file directly.
+        outputStream = outputFile.getOutputStream(/*append=*/true);
       }
       return outputStream;
     }
@@ -24,6 +24,12 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
 
 /**
  * This class implements the FileSystem interface using direct calls to the
@@ -35,6 +41,37 @@ abstract class AbstractFileSystem extends FileSystem {
   protected static final String ERR_PERMISSION_DENIED = " (Permission denied)";
   protected static final Profiler profiler = Profiler.instance();
 
+  // Files at least this large are digested through a memory mapping instead of being read into
+  // the heap, one window of the file at a time.
+  private static final long MAPPED_DIGEST_THRESHOLD = 256 * 1024;
+  private static final long MAPPED_DIGEST_WINDOW = 64 * 1024 * 1024;
+
+  @Override
+  protected byte[] getDigest(Path path, DigestHashFunction function) throws IOException {
+    String name = path.toString();
+    long startTime = Profiler.nanoTimeMaybe();
+    MessageDigest md = function.newMessageDigest();
+    try (FileChannel channel = FileChannel.open(Paths.get(name), StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size < MAPPED_DIGEST_THRESHOLD) {
+        ByteBuffer buffer = ByteBuffer.allocate((int) size);
+        while (buffer.hasRemaining() && channel.read(buffer) != -1) {}
+        buffer.flip();
+        md.update(buffer);
+      } else {
+        for (long position = 0; position < size; position += MAPPED_DIGEST_WINDOW) {
+          md.update(channel.map(FileChannel.MapMode.READ_ONLY, position,
+              Math.min(MAPPED_DIGEST_WINDOW, size - position)));
+        }
+      }
+      return md.digest();
+    } catch (NoSuchFileException e) {
+      throw new FileNotFoundException(name + " (No such file or directory)");
+    } finally {
+      profiler.logSimpleTask(startTime, ProfilerTask.VFS_MD5, name);
+    }
+  }
+
   @Override
   protected InputStream getInputStream(Path path) throws FileNotFoundException {
     // This loop is a workaround for an apparent bug in FileInputStrean.open, which delegates
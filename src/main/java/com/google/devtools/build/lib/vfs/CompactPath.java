@@ -0,0 +1,126 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.vfs;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Predicate;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.util.OS;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+/**
+ * A {@link Path} that finds its children in the {@link PathTable} of its file system, instead of
+ * holding a map of weak references to its children.
+ *
+ * <p>File systems use these instead of plain {@link Path}s if the {@value
+ * FileSystem#COMPACT_PATHS_PROPERTY} system property is true.
+ */
+@ThreadSafe
+final class CompactPath extends Path {
+  /** Creates the root path of {@code fileSystem}. */
+  CompactPath(FileSystem fileSystem) {
+    super(fileSystem);
+  }
+
+  /**
+   * Creates a child of {@code parent}, whose name must be interned. Should only be called by
+   * {@link PathTable#getChild}.
+   */
+  CompactPath(CompactPath parent, String name) {
+    super(parent.getFileSystem(), name, parent);
+  }
+
+  private PathTable table() {
+    return getFileSystem().pathTable;
+  }
+
+  @Override
+  Path getCachedChildPath(String childName) {
+    return table().getChild(this, childName);
+  }
+
+  @Override
+  protected void applyToChildren(Predicate<Path> function) {
+    for (CompactPath child : table().getChildren(this)) {
+      function.apply(child);
+    }
+  }
+
+  @Override
+  public String getPathString() {
+    if (isRootDirectory() || OS.getCurrent() == OS.WINDOWS) {
+      // Windows volume names are not followed by a separator.
+      return super.getPathString();
+    }
+    int length = 0;
+    for (Path path = this; !path.isRootDirectory(); path = path.getParentDirectory()) {
+      length += 1 + path.getBaseName().length();
+    }
+    char[] result = new char[length];
+    for (Path path = this; !path.isRootDirectory(); path = path.getParentDirectory()) {
+      String name = path.getBaseName();
+      length -= name.length();
+      name.getChars(0, name.length(), result, length);
+      result[--length] = '/';
+    }
+    return new String(result);
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    // The table creates each compact path only once, so this does not need to compare names.
+    return this == other || (!(other instanceof CompactPath) && super.equals(other));
+  }
+
+  @Override
+  public int hashCode() {
+    return super.hashCode();
+  }
+
+  private Object writeReplace() {
+    Preconditions.checkState(getFileSystem() == getFileSystemForSerialization(), getFileSystem());
+    return new SerializationProxy(getPathString());
+  }
+
+  /** Serializes a compact path as its path string, and looks it up again when deserialized. */
+  private static final class SerializationProxy implements Externalizable {
+    private String pathString;
+
+    SerializationProxy(String pathString) {
+      this.pathString = pathString;
+    }
+
+    // For deserialization machinery.
+    public SerializationProxy() {
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+      out.writeUTF(pathString);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+      pathString = in.readUTF();
+    }
+
+    private Object readResolve() {
+      return getFileSystemForSerialization().getPath(pathString);
+    }
+  }
+}
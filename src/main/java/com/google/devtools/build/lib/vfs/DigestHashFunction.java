@@ -0,0 +1,134 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.vfs;
+
+import com.google.common.base.Preconditions;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.devtools.common.options.EnumConverter;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * The hash functions that file contents, action keys and the action cache may be digested with.
+ *
+ * <p>One of them is selected at server startup as the {@link #getDefault default}, and is then
+ * used by {@link Path#getDigest()}, by {@link com.google.devtools.build.lib.util.Fingerprint}, and
+ * by the action cache. {@link #MURMUR3} is much faster than the others but is not collision
+ * resistant; it is only meant for builds whose digests never leave the machine.
+ */
+public enum DigestHashFunction {
+  MD5("MD5", 16),
+  SHA1("SHA-1", 20),
+  SHA256("SHA-256", 32),
+  MURMUR3("MURMUR3-128", 16) {
+    @Override
+    public MessageDigest newMessageDigest() {
+      return new HasherMessageDigest(getName(), Hashing.murmur3_128());
+    }
+  };
+
+  /** Converts the names of the hash functions, ignoring case, for use in options. */
+  public static class Converter extends EnumConverter<DigestHashFunction> {
+    public Converter() {
+      super(DigestHashFunction.class, "digest function");
+    }
+  }
+
+  private static volatile DigestHashFunction defaultFunction = MD5;
+
+  private final String name;
+  private final int digestLength;
+
+  private DigestHashFunction(String name, int digestLength) {
+    this.name = name;
+    this.digestLength = digestLength;
+  }
+
+  /**
+   * Returns the name of the hash function, as used by {@link MessageDigest#getInstance} and by
+   * {@link Path#getFastDigestFunctionType}.
+   */
+  public String getName() {
+    return name;
+  }
+
+  /** Returns the length in bytes of the digests computed by this hash function. */
+  public int getDigestLength() {
+    return digestLength;
+  }
+
+  /** Returns a new digest computation using this hash function. */
+  public MessageDigest newMessageDigest() {
+    try {
+      return MessageDigest.getInstance(name);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(name + " not available", e);
+    }
+  }
+
+  /** Returns the hash function selected for this server. */
+  public static DigestHashFunction getDefault() {
+    return defaultFunction;
+  }
+
+  /**
+   * Selects the hash function for this server. Must be called before any digest is computed, as
+   * digests computed by different hash functions cannot be compared.
+   */
+  public static void setDefault(DigestHashFunction function) {
+    defaultFunction = Preconditions.checkNotNull(function);
+  }
+
+  /** Adapts a Guava hash function to the {@link MessageDigest} interface. Cannot be cloned. */
+  private static final class HasherMessageDigest extends MessageDigest {
+    private final HashFunction function;
+    private Hasher hasher;
+
+    HasherMessageDigest(String name, HashFunction function) {
+      super(name);
+      this.function = function;
+      this.hasher = function.newHasher();
+    }
+
+    @Override
+    protected void engineUpdate(byte input) {
+      hasher.putByte(input);
+    }
+
+    @Override
+    protected void engineUpdate(byte[] input, int offset, int len) {
+      hasher.putBytes(input, offset, len);
+    }
+
+    @Override
+    protected int engineGetDigestLength() {
+      return function.bits() / 8;
+    }
+
+    @Override
+    protected byte[] engineDigest() {
+      byte[] digest = hasher.hash().asBytes();
+      hasher = function.newHasher();
+      return digest;
+    }
+
+    @Override
+    protected void engineReset() {
+      hasher = function.newHasher();
+    }
+  }
+}
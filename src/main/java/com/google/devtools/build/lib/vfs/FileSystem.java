@@ -17,8 +17,6 @@ package com.google.devtools.build.lib.vfs;
 import static java.nio.charset.StandardCharsets.ISO_8859_1;
 
 import com.google.common.collect.Lists;
-import com.google.common.hash.Hashing;
-import com.google.common.io.ByteSource;
 import com.google.common.io.CharStreams;
 import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
 import com.google.devtools.build.lib.vfs.Dirent.Type;
@@ -28,6 +26,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.security.MessageDigest;
 import java.util.Collection;
 import java.util.List;
 
@@ -46,8 +45,17 @@ public abstract class FileSystem {
     }
   }
 
+  /**
+   * The system property that makes file systems created after it is set use {@link CompactPath}s,
+   * which find their children in one table per file system instead of in each path.
+   */
+  public static final String COMPACT_PATHS_PROPERTY = "blaze.vfs.compact_paths";
+
   protected final Path rootPath;
 
+  /** The children of the paths of this file system, if they are {@link CompactPath}s. */
+  PathTable pathTable;
+
   protected FileSystem() {
     this.rootPath = createRootPath();
   }
@@ -61,6 +69,10 @@ public abstract class FileSystem {
    * before subclasses are completely initialized.
    */
   protected Path createRootPath() {
+    if (Boolean.getBoolean(COMPACT_PATHS_PROPERTY)) {
+      pathTable = new PathTable();
+      return new CompactPath(this);
+    }
     return new Path(this);
   }
 
@@ -244,15 +256,26 @@ public abstract class FileSystem {
    * Returns the MD5 digest of the file denoted by {@code path}. See
    * {@link Path#getMD5Digest} for specification.
    */
-  protected byte[] getMD5Digest(final Path path) throws IOException {
+  protected byte[] getMD5Digest(Path path) throws IOException {
+    return getDigest(path, DigestHashFunction.MD5);
+  }
+
+  /**
+   * Returns the digest of the file denoted by {@code path} under the given hash function. See
+   * {@link Path#getDigest} for specification.
+   */
+  protected byte[] getDigest(Path path, DigestHashFunction function) throws IOException {
     // Naive I/O implementation.  Subclasses may (and do) optimize.
     // This code is only used by the InMemory or Zip or other weird FSs.
-    return new ByteSource() {
-      @Override
-      public InputStream openStream() throws IOException {
-        return getInputStream(path);
+    MessageDigest md = function.newMessageDigest();
+    try (InputStream in = getInputStream(path)) {
+      byte[] buffer = new byte[8192];
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        md.update(buffer, 0, read);
       }
-    }.hash(Hashing.md5()).asBytes();
+    }
+    return md.digest();
   }
 
   /**
@@ -287,7 +310,8 @@ public abstract class FileSystem {
       throw new IOException(naive + " (Too many levels of symbolic links)");
     }
     if (linkTarget.isAbsolute()) { dir = rootPath; }
-    for (String name : linkTarget.segments()) {
+    for (int i = 0; i < linkTarget.segmentCount(); i++) {
+      String name = linkTarget.getSegment(i);
       if (name.equals(".") || name.isEmpty()) {
         // no-op
       } else if (name.equals("..")) {
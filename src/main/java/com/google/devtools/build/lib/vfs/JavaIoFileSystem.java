@@ -394,17 +394,6 @@ public class JavaIoFileSystem extends AbstractFileSystem {
     }
   }
 
-  @Override
-  protected byte[] getMD5Digest(Path path) throws IOException {
-    String name = path.toString();
-    long startTime = Profiler.nanoTimeMaybe();
-    try {
-      return super.getMD5Digest(path);
-    } finally {
-      profiler.logSimpleTask(startTime, ProfilerTask.VFS_MD5, name);
-    }
-  }
-
   /**
    * Returns the status of a file. See {@link Path#stat(Symlinks)} for
    * specification.
@@ -49,7 +49,9 @@ import java.util.Objects;
  * (C:\\foo\\bar) and drive-relative paths ("C:foo") are explicitly not supported, same with
  * advanced features like \\\\network\\paths and \\\\?\\unc\\paths.
  *
- * <p>{@link FileSystem} implementations maintain pointers into this graph.
+ * <p>{@link FileSystem} implementations maintain pointers into this graph. If the {@value
+ * FileSystem#COMPACT_PATHS_PROPERTY} system property is true, its nodes are {@link CompactPath}s,
+ * which find their children in a {@link PathTable} instead.
  */
 @ThreadSafe
 public class Path implements Comparable<Path>, Serializable {
@@ -215,7 +217,7 @@ public class Path implements Comparable<Path>, Serializable {
    * Returns the child path named name, or creates such a path (and caches it)
    * if it doesn't already exist.
    */
-  private Path getCachedChildPath(String childName) {
+  Path getCachedChildPath(String childName) {
     // Don't hold the lock for the interning operation. It increases lock contention.
     childName = StringCanonicalizer.intern(childName);
     synchronized(this) {
@@ -590,8 +592,8 @@ public class Path implements Comparable<Path>, Serializable {
     if (!suffix.windowsVolume().isEmpty()) {
       result = result.getCanonicalPath(suffix.windowsVolume());
     }
-    for (String segment : suffix.segments()) {
-      result = result.getCanonicalPath(segment);
+    for (int i = 0; i < suffix.segmentCount(); i++) {
+      result = result.getCanonicalPath(suffix.getSegment(i));
     }
     return result;
   }
@@ -923,6 +925,28 @@ public class Path implements Comparable<Path>, Serializable {
     return fileSystem.getMD5Digest(this);
   }
 
+  /**
+   * Returns the digest of the file denoted by the current path under the hash function selected
+   * for this server, following symbolic links. This is the digest that file contents are compared
+   * by in the action cache.
+   *
+   * @throws IOException if the digest could not be computed for any reason
+   * @see DigestHashFunction#getDefault
+   */
+  public byte[] getDigest() throws IOException {
+    return getDigest(DigestHashFunction.getDefault());
+  }
+
+  /**
+   * Returns the digest of the file denoted by the current path under the given hash function,
+   * following symbolic links.
+   *
+   * @throws IOException if the digest could not be computed for any reason
+   */
+  public byte[] getDigest(DigestHashFunction function) throws IOException {
+    return fileSystem.getDigest(this, function);
+  }
+
   /**
    * Opens the file denoted by this path, following symbolic links, for reading,
    * and returns an input stream to it.
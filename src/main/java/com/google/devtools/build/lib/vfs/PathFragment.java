@@ -17,6 +17,8 @@ import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.collect.Iterables;
+import com.google.common.hash.Funnel;
+import com.google.common.hash.PrimitiveSink;
 import com.google.devtools.build.lib.concurrent.ThreadSafety.Immutable;
 import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
 import com.google.devtools.build.lib.util.OS;
@@ -26,12 +28,13 @@ import java.io.File;
 import java.io.InvalidObjectException;
 import java.io.ObjectInputStream;
 import java.io.Serializable;
-import java.util.Arrays;
 import java.util.Set;
 
 /**
  * This class represents an immutable UNIX filesystem path, which may be absolute or relative. The
- * path is maintained as a simple ordered list of path segment strings.
+ * path is maintained as an array of interned segments, so that fragments with common prefixes
+ * share the strings of those prefixes, and comparisons and prefix checks mostly compare
+ * references. The hash code is computed when a fragment is created.
  *
  * <p>This class is independent from other VFS classes, especially anything requiring native code.
  * It is safe to use in places that need simple segmented string path functionality.
@@ -53,6 +56,22 @@ public final class PathFragment implements Comparable<PathFragment>, Serializabl
 
   public static final String ROOT_DIR = "/";
 
+  // Initialized before EMPTY_FRAGMENT, which uses it.
+  private static final String[] NO_SEGMENTS = new String[0];
+
+  // The multiplicative inverse of 31 modulo 2^32, which undoes a step of the hash code.
+  private static final int INVERSE_OF_31 = 0xbdef7bdf;
+
+  // 31 to the power of the index, for fragments of usual depth.
+  private static final int[] POWERS_OF_31 = new int[32];
+
+  static {
+    POWERS_OF_31[0] = 1;
+    for (int i = 1; i < POWERS_OF_31.length; i++) {
+      POWERS_OF_31[i] = POWERS_OF_31[i - 1] * 31;
+    }
+  }
+
   /** An empty path fragment. */
   public static final PathFragment EMPTY_FRAGMENT = new PathFragment("");
 
@@ -72,6 +91,17 @@ public final class PathFragment implements Comparable<PathFragment>, Serializabl
         }
       };
 
+  /**
+   * Writes the length and characters of the path string, for fingerprinting nested sets of paths.
+   */
+  public static final Funnel<PathFragment> PATH_STRING_FUNNEL = new Funnel<PathFragment>() {
+    @Override
+    public void funnel(PathFragment from, PrimitiveSink into) {
+      String path = from.getPathString();
+      into.putInt(path.length()).putUnencodedChars(path);
+    }
+  };
+
   private static final Function<PathFragment, String> TO_SAFE_PATH_STRING =
       new Function<PathFragment, String>() {
         @Override
@@ -85,7 +115,7 @@ public final class PathFragment implements Comparable<PathFragment>, Serializabl
   // to 16 bytes.  Medium sized builds can easily hold millions of
   // live PathFragments, so do not add further fields on a whim.
 
-  // The individual path components.
+  // The individual path components, interned with StringCanonicalizer.
   private final String[] segments;
 
   // True both for UNIX-style absolute paths ("/foo") and Windows-style ("C:/foo").
@@ -95,7 +125,9 @@ public final class PathFragment implements Comparable<PathFragment>, Serializabl
   // general, we create a lot of these objects, so space is at a premium.
   private final char driveLetter;
 
-  // hashCode and path are lazily initialized but semantically immutable.
+  // hashCode and path are lazily initialized but semantically immutable. The hash code is set
+  // on construction when it can be derived from that of another fragment without touching the
+  // segments.
   private int hashCode;
   private String path;
 
@@ -104,12 +136,12 @@ public final class PathFragment implements Comparable<PathFragment>, Serializabl
    */
   public PathFragment(String path) {
     this.driveLetter = getWindowsDriveLetter(path);
-    if (driveLetter != '\0') {
-      path = path.substring(2);
-      // TODO(bazel-team): Decide what to do about non-absolute paths with a volume name, e.g. C:x.
-    }
-    this.isAbsolute = path.length() > 0 && isSeparator(path.charAt(0));
-    this.segments = segment(path, isAbsolute ? 1 : 0);
+    // TODO(bazel-team): Decide what to do about non-absolute paths with a volume name, e.g. C:x.
+    int start = (driveLetter != '\0') ? 2 : 0;
+    this.isAbsolute = path.length() > start && isSeparator(path.charAt(start));
+    this.segments = segment(path, start);
+    // The segments were just hashed to intern them, so this is cheap.
+    this.hashCode = computeHashCode();
   }
 
   private static boolean isSeparator(char c) {
@@ -125,9 +157,9 @@ public final class PathFragment implements Comparable<PathFragment>, Serializabl
   }
 
   /**
-   * Constructs a PathFragment, taking ownership of segments. Package-private,
-   * because it does not perform a defensive clone of the segments array. Used
-   * here in PathFragment, and by Path.asFragment() and Path.relativeTo().
+   * Constructs a PathFragment, taking ownership of segments, which must be interned. Package-
+   * private, because it does not perform a defensive clone of the segments array. Used here in
+   * PathFragment, and by Path.asFragment() and Path.relativeTo().
    */
   PathFragment(char driveLetter, boolean isAbsolute, String[] segments) {
     this.driveLetter = driveLetter;
@@ -135,39 +167,40 @@ public final class PathFragment implements Comparable<PathFragment>, Serializabl
     this.segments = segments;
   }
 
+  /** Like {@link #PathFragment(char, boolean, String[])}, with a known hash code, or 0. */
+  private PathFragment(char driveLetter, boolean isAbsolute, String[] segments, int hashCode) {
+    this(driveLetter, isAbsolute, segments);
+    this.hashCode = hashCode;
+  }
+
   /**
    * Construct a PathFragment from a sequence of other PathFragments. The new
    * fragment will be absolute iff the first fragment was absolute.
    */
   public PathFragment(PathFragment first, PathFragment second, PathFragment... more) {
     // TODO(bazel-team): The handling of absolute path fragments in this constructor is unexpected.
-    this.segments = new String[sumLengths(first, second, more)];
-    int offset = 0;
-    offset += addSegments(offset, first);
-    offset += addSegments(offset, second);
-    for (PathFragment fragment : more) {
-      offset += addSegments(offset, fragment);
-    }
-    this.isAbsolute = first.isAbsolute;
-    this.driveLetter = first.driveLetter;
+    this(first.driveLetter, first.isAbsolute, concat(first, second, more));
   }
 
-  private int addSegments(int offset, PathFragment fragment) {
-    int count = fragment.segmentCount();
-    System.arraycopy(fragment.segments, 0, this.segments, offset, count);
-    return count;
-  }
-
-  private static int sumLengths(PathFragment first, PathFragment second, PathFragment[] more) {
-    int total = first.segmentCount() + second.segmentCount();
+  private static String[] concat(PathFragment first, PathFragment second, PathFragment[] more) {
+    int total = first.segments.length + second.segments.length;
+    for (PathFragment fragment : more) {
+      total += fragment.segments.length;
+    }
+    String[] segments = new String[total];
+    System.arraycopy(first.segments, 0, segments, 0, first.segments.length);
+    int offset = first.segments.length;
+    System.arraycopy(second.segments, 0, segments, offset, second.segments.length);
+    offset += second.segments.length;
     for (PathFragment fragment : more) {
-      total += fragment.segmentCount();
+      System.arraycopy(fragment.segments, 0, segments, offset, fragment.segments.length);
+      offset += fragment.segments.length;
     }
-    return total;
+    return segments;
   }
 
   /**
-   * Segments the string passed in as argument and returns an array of strings.
+   * Segments the string passed in as argument and returns an array of interned strings.
    * The split is performed along occurrences of (sequences of) the slash
    * character.
    *
@@ -175,20 +208,14 @@ public final class PathFragment implements Comparable<PathFragment>, Serializabl
    * @param offset how many characters from the start of the string to ignore.
    */
   private static String[] segment(String toSegment, int offset) {
-    char[] chars = toSegment.toCharArray();
-    int length = chars.length;
-
-    // Handle "/" and "" quickly.
-    if (length == offset) {
-      return new String[0];
-    }
+    int length = toSegment.length();
 
-    // We make two passes through the array of characters: count & alloc,
+    // We make two passes through the characters: count & alloc,
     // because simply using ArrayList was a bottleneck showing up during profiling.
     int seg = 0;
     int start = offset;
     for (int i = offset; i < length; i++) {
-      if (isSeparator(chars[i])) {
+      if (isSeparator(toSegment.charAt(i))) {
         if (i > start) {  // to skip repeated separators
           seg++;
         }
@@ -198,24 +225,25 @@ public final class PathFragment implements Comparable<PathFragment>, Serializabl
     if (start < length) {
       seg++;
     }
+    if (seg == 0) {
+      return NO_SEGMENTS;
+    }
     String[] result = new String[seg];
     seg = 0;
     start = offset;
     for (int i = offset; i < length; i++) {
-      if (isSeparator(chars[i])) {
+      if (isSeparator(toSegment.charAt(i))) {
         if (i > start) {  // to skip repeated separators
-          // Make a copy of the String here to allow the interning to save memory. String.substring
-          // does not make a copy, but refers to the original char array, preventing garbage
-          // collection of the parts that are unnecessary.
-          result[seg] = StringCanonicalizer.intern(new String(chars, start,  i - start));
+          // String.substring copies the characters, so the interned segment does not keep the
+          // whole path alive.
+          result[seg] = StringCanonicalizer.intern(toSegment.substring(start, i));
           seg++;
         }
         start = i + 1;
       }
     }
     if (start < length) {
-      result[seg] = StringCanonicalizer.intern(new String(chars, start, length - start));
-      seg++;
+      result[seg] = StringCanonicalizer.intern(toSegment.substring(start, length));
     }
     return result;
   }
@@ -238,7 +266,7 @@ public final class PathFragment implements Comparable<PathFragment>, Serializabl
     if (path == null) {
       synchronized (this) {
         if (path == null) {
-          path = StringCanonicalizer.intern(joinSegments(SEPARATOR_CHAR));
+          path = StringCanonicalizer.intern(joinSegments());
         }
       }
     }
@@ -262,26 +290,22 @@ public final class PathFragment implements Comparable<PathFragment>, Serializabl
     return Iterables.transform(fragments, TO_SAFE_PATH_STRING);
   }
 
-  private String joinSegments(char separatorChar) {
-    if (segments.length == 0 && isAbsolute) {
-      return windowsVolume() + ROOT_DIR;
+  private String joinSegments() {
+    String volume = windowsVolume();
+    if (segments.length == 0) {
+      return isAbsolute ? volume + ROOT_DIR : volume;
     }
-
-    // Profile driven optimization:
-    // Preallocate a size determined by the number of segments, so that
-    // we do not have to expand the capacity of the StringBuilder.
-    // Heuristically, this estimate is right for about 99% of the time.
-    int estimateSize =
-        ((driveLetter != '\0') ? 2 : 0)
-        + ((segments.length == 0) ? 0 : (segments.length + 1) * 20);
-    StringBuilder result = new StringBuilder(estimateSize);
-    result.append(windowsVolume());
-    boolean initialSegment = true;
+    // Size the result exactly, so that the builder never grows.
+    int length = volume.length() + segments.length - (isAbsolute ? 0 : 1);
+    for (String segment : segments) {
+      length += segment.length();
+    }
+    StringBuilder result = new StringBuilder(length);
+    result.append(volume);
     for (String segment : segments) {
-      if (!initialSegment || isAbsolute) {
-        result.append(separatorChar);
+      if (result.length() > volume.length() || isAbsolute) {
+        result.append(SEPARATOR_CHAR);
       }
-      initialSegment = false;
       result.append(segment);
     }
     return result.toString();
@@ -305,6 +329,10 @@ public final class PathFragment implements Comparable<PathFragment>, Serializabl
    * start with "..").
    */
   public PathFragment normalize() {
+    if (isNormalized()) {
+      // Optimization, no new PathFragment needs to be created.
+      return this;
+    }
     String[] scratchSegments = new String[segments.length];
     int segmentCount = 0;
 
@@ -328,11 +356,6 @@ public final class PathFragment implements Comparable<PathFragment>, Serializabl
       }
     }
 
-    if (segmentCount == segments.length) {
-      // Optimization, no new PathFragment needs to be created.
-      return this;
-    }
-
     return new PathFragment(driveLetter, isAbsolute,
         subarray(scratchSegments, 0, segmentCount));
   }
@@ -346,9 +369,20 @@ public final class PathFragment implements Comparable<PathFragment>, Serializabl
    * normalization or I/O performed.
    */
   public PathFragment getRelative(PathFragment otherFragment) {
-    return otherFragment.isAbsolute()
-        ? otherFragment
-        : new PathFragment(this, otherFragment);
+    if (otherFragment.isAbsolute()) {
+      return otherFragment;
+    }
+    String[] suffix = otherFragment.segments;
+    if (suffix.length == 0) {
+      return this;
+    }
+    String[] newSegments = new String[segments.length + suffix.length];
+    System.arraycopy(segments, 0, newSegments, 0, segments.length);
+    System.arraycopy(suffix, 0, newSegments, segments.length, suffix.length);
+    // Each segment of the suffix scales the hash code of this fragment by 31.
+    int h = (hashCode == 0 || otherFragment.hashCode == 0)
+        ? 0 : hashCode * pow31(suffix.length) + otherFragment.hashCode;
+    return new PathFragment(driveLetter, isAbsolute, newSegments, h);
   }
 
   /**
@@ -377,9 +411,11 @@ public final class PathFragment implements Comparable<PathFragment>, Serializabl
   public PathFragment getChild(String baseName) {
     FileSystemUtils.checkBaseName(baseName);
     baseName = StringCanonicalizer.intern(baseName);
-    String[] newSegments = Arrays.copyOf(segments, segments.length + 1);
-    newSegments[newSegments.length - 1] = baseName;
-    return new PathFragment(driveLetter, isAbsolute, newSegments);
+    String[] newSegments = new String[segments.length + 1];
+    System.arraycopy(segments, 0, newSegments, 0, segments.length);
+    newSegments[segments.length] = baseName;
+    return new PathFragment(driveLetter, isAbsolute, newSegments,
+        hashCode == 0 ? 0 : hashCode * 31 + baseName.hashCode());
   }
 
   /**
@@ -400,25 +436,16 @@ public final class PathFragment implements Comparable<PathFragment>, Serializabl
    * returns <code>"bar/wiz"</code>.
    */
   public PathFragment relativeTo(PathFragment ancestorDirectory) {
-    String[] ancestorSegments = ancestorDirectory.segments();
-    int ancestorLength = ancestorSegments.length;
-
-    if (isAbsolute != ancestorDirectory.isAbsolute()
-        || segments.length < ancestorLength) {
+    if (isAbsolute != ancestorDirectory.isAbsolute() || !hasPrefix(ancestorDirectory.segments)) {
       throw new IllegalArgumentException("PathFragment " + this
           + " is not beneath " + ancestorDirectory);
     }
-
-    for (int index = 0; index < ancestorLength; index++) {
-      if (!segments[index].equals(ancestorSegments[index])) {
-        throw new IllegalArgumentException("PathFragment " + this
-            + " is not beneath " + ancestorDirectory);
-      }
-    }
-
+    int ancestorLength = ancestorDirectory.segments.length;
     int length = segments.length - ancestorLength;
-    String[] resultSegments = subarray(segments, ancestorLength, length);
-    return new PathFragment('\0', false, resultSegments);
+    // The ancestor has the same first segments, and is absolute if this fragment is.
+    int h = (hashCode == 0 || ancestorDirectory.hashCode == 0)
+        ? 0 : hashCode - ancestorDirectory.hashCode * pow31(length);
+    return new PathFragment('\0', false, subarray(segments, ancestorLength, length), h);
   }
 
   /**
@@ -447,7 +474,12 @@ public final class PathFragment implements Comparable<PathFragment>, Serializabl
    * <p>Note: This method DOES NOT normalize ".."  and "." path segments.
    */
   public PathFragment getParentDirectory() {
-    return segments.length == 0 ? null : subFragment(0, segments.length - 1);
+    int count = segments.length;
+    if (count == 0) {
+      return null;
+    }
+    int h = hashCode == 0 ? 0 : (hashCode - segments[count - 1].hashCode()) * INVERSE_OF_31;
+    return new PathFragment(driveLetter, isAbsolute, subarray(segments, 0, count - 1), h);
   }
 
   /**
@@ -459,19 +491,32 @@ public final class PathFragment implements Comparable<PathFragment>, Serializabl
    * order)
    */
   public boolean startsWith(PathFragment prefix) {
-    if (this.isAbsolute != prefix.isAbsolute ||
-        this.segments.length < prefix.segments.length ||
-        this.driveLetter != prefix.driveLetter) {
+    return this.isAbsolute == prefix.isAbsolute
+        && this.driveLetter == prefix.driveLetter
+        && hasPrefix(prefix.segments);
+  }
+
+  /** Returns whether {@code prefix} are the first segments of this fragment. */
+  private boolean hasPrefix(String[] prefix) {
+    if (segments.length < prefix.length) {
       return false;
     }
-    for (int i = 0, len = prefix.segments.length; i < len; i++) {
-      if (!this.segments[i].equals(prefix.segments[i])) {
+    for (int i = 0; i < prefix.length; i++) {
+      if (!segmentEquals(segments[i], prefix[i])) {
         return false;
       }
     }
     return true;
   }
 
+  /**
+   * Returns whether two segments are equal. Segments are interned, so they are almost always equal
+   * only if they are the same string; this avoids calling {@link String#equals} for a match.
+   */
+  private static boolean segmentEquals(String segment1, String segment2) {
+    return segment1 == segment2 || segment1.equals(segment2);
+  }
+
   /**
    * Returns true iff {@code suffix}, considered as a list of path segments, is
    * relative and a suffix of {@code this}, or both are absolute and equal.
@@ -486,7 +531,7 @@ public final class PathFragment implements Comparable<PathFragment>, Serializabl
     }
     int offset = this.segments.length - suffix.segments.length;
     for (int i = 0; i < suffix.segments.length; i++) {
-      if (!this.segments[offset + i].equals(suffix.segments[i])) {
+      if (!segmentEquals(this.segments[offset + i], suffix.segments[i])) {
         return false;
       }
     }
@@ -494,6 +539,9 @@ public final class PathFragment implements Comparable<PathFragment>, Serializabl
   }
 
   private static String[] subarray(String[] array, int start, int length) {
+    if (length == 0) {
+      return NO_SEGMENTS;
+    }
     String[] subarray = new String[length];
     System.arraycopy(array, start, subarray, 0, length);
     return subarray;
@@ -534,14 +582,6 @@ public final class PathFragment implements Comparable<PathFragment>, Serializabl
     return isAbsolute;
   }
 
-  /**
-   * Returns the segments of this path fragment. This array should not be
-   * modified.
-   */
-  String[] segments() {
-    return segments;
-  }
-
   public String windowsVolume() {
     if (OS.getCurrent() != OS.WINDOWS) {
       return "";
@@ -595,7 +635,20 @@ public final class PathFragment implements Comparable<PathFragment>, Serializabl
    */
   public PathFragment toRelative() {
     Preconditions.checkArgument(isAbsolute);
-    return new PathFragment(driveLetter, false, segments);
+    return new PathFragment(driveLetter, false, segments,
+        hashCode == 0 ? 0 : hashCode - pow31(segments.length));
+  }
+
+  /** Returns 31 to the power of {@code n}, as it is multiplied into the hash code. */
+  private static int pow31(int n) {
+    if (n < POWERS_OF_31.length) {
+      return POWERS_OF_31[n];
+    }
+    int result = POWERS_OF_31[POWERS_OF_31.length - 1];
+    for (int i = POWERS_OF_31.length - 1; i < n; i++) {
+      result *= 31;
+    }
+    return result;
   }
 
   /**
@@ -614,15 +667,20 @@ public final class PathFragment implements Comparable<PathFragment>, Serializabl
   public int hashCode() {
     int h = hashCode;
     if (h == 0) {
-      h = isAbsolute ? 1 : 0;
-      for (String segment : segments) {
-        h = h * 31 + segment.hashCode();
-      }
+      h = computeHashCode();
       hashCode = h;
     }
     return h;
   }
 
+  private int computeHashCode() {
+    int h = isAbsolute ? 1 : 0;
+    for (String segment : segments) {
+      h = h * 31 + segment.hashCode();
+    }
+    return h;
+  }
+
   @Override
   public boolean equals(Object other) {
     if (this == other) {
@@ -632,8 +690,17 @@ public final class PathFragment implements Comparable<PathFragment>, Serializabl
       return false;
     }
     PathFragment otherPath = (PathFragment) other;
-    return isAbsolute == otherPath.isAbsolute &&
-        Arrays.equals(otherPath.segments, segments);
+    if (isAbsolute != otherPath.isAbsolute || segments.length != otherPath.segments.length
+        || (hashCode != 0 && otherPath.hashCode != 0 && hashCode != otherPath.hashCode)) {
+      return false;
+    }
+    for (int i = segments.length - 1; i >= 0; i--) {
+      // Fragments that differ mostly differ in their last segments.
+      if (!segmentEquals(segments[i], otherPath.segments[i])) {
+        return false;
+      }
+    }
+    return true;
   }
 
   /**
@@ -653,8 +720,12 @@ public final class PathFragment implements Comparable<PathFragment>, Serializabl
     for (int i = 0; i < n; i++) {
       String segment1 = segments1[i];
       String segment2 = segments2[i];
-      if (!segment1.equals(segment2)) {
-       return segment1.compareTo(segment2);
+      // Shared prefixes are the same interned strings, which need not be compared.
+      if (segment1 != segment2) {
+        int result = segment1.compareTo(segment2);
+        if (result != 0) {
+          return result;
+        }
       }
     }
     return len1 - len2;
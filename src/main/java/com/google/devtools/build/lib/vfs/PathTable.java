@@ -0,0 +1,184 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.vfs;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.util.StringCanonicalizer;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The children of the {@link CompactPath}s of one file system.
+ *
+ * <p>Children are found by their parent and name in one open-addressing hash table of weak
+ * references, instead of a map in every directory. Lookups do not lock or intern the name: a slot
+ * of the table is set only after the path in it has been written. Adding a path synchronizes on
+ * the table, so that each path is created only once. Paths, and with them their names, are still
+ * collected once they are no longer used; their slots are reclaimed the next time a path is added.
+ */
+@ThreadSafe
+final class PathTable {
+  /** A slot whose path was collected. Lookups go on past it; adding a path may reuse it. */
+  private static final PathReference REMOVED = new PathReference(null, 0, null);
+
+  /** The paths other than the root, by the hash of their parent and name. */
+  private volatile AtomicReferenceArray<PathReference> slots = new AtomicReferenceArray<>(64);
+  /** The number of slots that are not null, including removed ones. */
+  private int usedSlots;
+  private final ReferenceQueue<CompactPath> collectedPaths = new ReferenceQueue<>();
+
+  /** The children of each path, built by {@link #getChildren} and dropped when a path is added. */
+  private SoftReference<Map<Path, List<CompactPath>>> childrenIndex;
+
+  private static final class PathReference extends WeakReference<CompactPath> {
+    final int hash;
+
+    PathReference(CompactPath path, int hash, ReferenceQueue<CompactPath> queue) {
+      super(path, queue);
+      this.hash = hash;
+    }
+  }
+
+  /** Returns the child of {@code parent} named {@code name}, creating it if it is not there yet. */
+  CompactPath getChild(CompactPath parent, String name) {
+    int hash = 31 * (31 + parent.hashCode()) + name.hashCode();
+    CompactPath child = find(slots, parent, name, hash);
+    if (child == null) {
+      synchronized (this) {
+        child = find(slots, parent, name, hash);
+        if (child == null) {
+          child = new CompactPath(parent, StringCanonicalizer.intern(name));
+          expungeCollectedPaths();
+          add(new PathReference(child, hash, collectedPaths));
+          childrenIndex = null;
+        }
+      }
+    }
+    return child;
+  }
+
+  /**
+   * Returns the children of {@code parent} that are in use. The first call after a path was added
+   * goes through all paths, so that a walk of the whole tree does too only once.
+   */
+  synchronized List<CompactPath> getChildren(Path parent) {
+    Map<Path, List<CompactPath>> index = childrenIndex == null ? null : childrenIndex.get();
+    if (index == null) {
+      index = new IdentityHashMap<>();
+      for (int i = 0; i < slots.length(); i++) {
+        PathReference reference = slots.get(i);
+        CompactPath path = reference == null ? null : reference.get();
+        if (path != null) {
+          List<CompactPath> children = index.get(path.getParentDirectory());
+          if (children == null) {
+            children = new ArrayList<>();
+            index.put(path.getParentDirectory(), children);
+          }
+          children.add(path);
+        }
+      }
+      childrenIndex = new SoftReference<>(index);
+    }
+    List<CompactPath> children = index.get(parent);
+    return children == null ? ImmutableList.<CompactPath>of() : children;
+  }
+
+  private CompactPath find(
+      AtomicReferenceArray<PathReference> slots, Path parent, String name, int hash) {
+    int mask = slots.length() - 1;
+    for (int i = spread(hash) & mask; ; i = (i + 1) & mask) {
+      PathReference reference = slots.get(i);
+      if (reference == null) {
+        return null;
+      }
+      if (reference.hash == hash) {
+        CompactPath path = reference.get();
+        if (path != null && path.getParentDirectory() == parent
+            && path.getBaseName().equals(name)) {
+          return path;
+        }
+      }
+    }
+  }
+
+  private void expungeCollectedPaths() {
+    PathReference reference;
+    while ((reference = (PathReference) collectedPaths.poll()) != null) {
+      AtomicReferenceArray<PathReference> current = slots;
+      int mask = current.length() - 1;
+      // The slot is gone if the table was resized since the path was collected.
+      for (int i = spread(reference.hash) & mask; current.get(i) != null; i = (i + 1) & mask) {
+        if (current.get(i) == reference) {
+          current.set(i, REMOVED);
+          break;
+        }
+      }
+    }
+  }
+
+  private void add(PathReference reference) {
+    AtomicReferenceArray<PathReference> current = slots;
+    if ((usedSlots + 1) * 4 > current.length() * 3) {
+      List<PathReference> live = new ArrayList<>();
+      for (int i = 0; i < current.length(); i++) {
+        PathReference existing = current.get(i);
+        if (existing != null && existing.get() != null) {
+          live.add(existing);
+        }
+      }
+      int length = current.length();
+      while ((live.size() + 1) * 2 > length) {
+        length *= 2;
+      }
+      AtomicReferenceArray<PathReference> rebuilt = new AtomicReferenceArray<>(length);
+      for (PathReference existing : live) {
+        insert(rebuilt, existing);
+      }
+      usedSlots = live.size();
+      // Readers that still use the old slots may miss new paths; they then look again while
+      // holding the lock.
+      slots = current = rebuilt;
+    }
+    // Publishes the path, which was completely written before.
+    if (insert(current, reference)) {
+      usedSlots++;
+    }
+  }
+
+  /** Inserts {@code reference}, and returns whether it took a slot that was null. */
+  private static boolean insert(
+      AtomicReferenceArray<PathReference> slots, PathReference reference) {
+    int mask = slots.length() - 1;
+    int i = spread(reference.hash) & mask;
+    while (slots.get(i) != null && slots.get(i) != REMOVED) {
+      i = (i + 1) & mask;
+    }
+    boolean wasNull = slots.get(i) == null;
+    slots.set(i, reference);
+    return wasNull;
+  }
+
+  private static int spread(int hash) {
+    int h = hash * 0x9e3779b9;
+    return h ^ (h >>> 16);
+  }
+}
@@ -416,4 +416,12 @@ public class UnixFileSystem extends AbstractFileSystem {
       profiler.logSimpleTask(startTime, ProfilerTask.VFS_MD5, name);
     }
   }
+
+  @Override
+  protected byte[] getDigest(Path path, DigestHashFunction function) throws IOException {
+    // The native MD5 implementation avoids copying the file contents into the Java heap.
+    return function == DigestHashFunction.MD5
+        ? getMD5Digest(path)
+        : super.getDigest(path, function);
+  }
 }
@@ -13,12 +13,20 @@
 // limitations under the License.
 package com.google.devtools.build.lib.worker;
 
+import com.google.common.base.CharMatcher;
 import com.google.common.base.Preconditions;
+import com.google.common.io.Files;
+import com.google.devtools.build.lib.buildtool.buildevent.WorkerStatisticsEvent.WorkerStatistics;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.lang.ProcessBuilder.Redirect;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Interface to a worker process running as a child process.
@@ -32,11 +40,21 @@ import java.lang.ProcessBuilder.Redirect;
  * class.
  */
 final class Worker {
+  private final WorkerKey key;
   private final Process process;
+  private final long pid;
   private final Thread shutdownHook;
 
-  private Worker(Process process, Thread shutdownHook) {
+  // Statistics of the requests served since the last call to takeStatistics().
+  private final AtomicInteger requests = new AtomicInteger();
+  private final AtomicLong latencyNanos = new AtomicLong();
+  private volatile long lastUsedNanos = System.nanoTime();
+  private volatile boolean borrowed;
+
+  private Worker(WorkerKey key, Process process, Thread shutdownHook) {
+    this.key = key;
     this.process = process;
+    this.pid = getPid(process);
     this.shutdownHook = shutdownHook;
   }
 
@@ -57,7 +75,79 @@ final class Worker {
     };
     Runtime.getRuntime().addShutdownHook(shutdownHook);
 
-    return new Worker(process, shutdownHook);
+    return new Worker(key, process, shutdownHook);
+  }
+
+  /**
+   * Returns the id of the process, or -1 if it is unknown. {@code Process.pid()} only exists since
+   * Java 9; on Java 8, only the pid field of UNIXProcess knows it.
+   */
+  private static long getPid(Process process) {
+    try {
+      return (Long) Process.class.getMethod("pid").invoke(process);
+    } catch (ReflectiveOperationException e) {
+      // Fall back to the private field.
+    }
+    try {
+      Field pid = process.getClass().getDeclaredField("pid");
+      pid.setAccessible(true);
+      return pid.getInt(process);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      // Not a UNIXProcess, or the field is not accessible.
+      return -1;
+    }
+  }
+
+  WorkerKey getKey() {
+    return key;
+  }
+
+  /** Records that a request was served in {@code nanos} nanoseconds. */
+  void recordRequest(long nanos) {
+    requests.incrementAndGet();
+    latencyNanos.addAndGet(nanos);
+    lastUsedNanos = System.nanoTime();
+  }
+
+  /** The {@link System#nanoTime} at which the worker last served a request or was started. */
+  long getLastUsedNanos() {
+    return lastUsedNanos;
+  }
+
+  /** Whether a thread of the {@link WorkerPool} holds the worker. */
+  boolean isBorrowed() {
+    return borrowed;
+  }
+
+  void setBorrowed(boolean borrowed) {
+    this.borrowed = borrowed;
+  }
+
+  /**
+   * Returns the resident set size of the process in kilobytes, as reported by /proc, or -1 if it
+   * is unknown.
+   */
+  long getRssKb() {
+    if (pid < 0) {
+      return -1;
+    }
+    try {
+      for (String line : Files.readLines(new File("/proc/" + pid + "/status"),
+          StandardCharsets.US_ASCII)) {
+        if (line.startsWith("VmRSS:")) {
+          return Long.parseLong(CharMatcher.inRange('0', '9').retainFrom(line));
+        }
+      }
+    } catch (IOException | NumberFormatException e) {
+      // The process exited, or there is no /proc.
+    }
+    return -1;
+  }
+
+  /** Returns the statistics of the requests served since the last call, and resets them. */
+  WorkerStatistics takeStatistics() {
+    return new WorkerStatistics(key.getMnemonic(), pid, requests.getAndSet(0),
+        latencyNanos.getAndSet(0), getRssKb());
   }
 
   void destroy() {
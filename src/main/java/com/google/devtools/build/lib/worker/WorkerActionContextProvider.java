@@ -14,6 +14,8 @@
 package com.google.devtools.build.lib.worker;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.eventbus.EventBus;
 import com.google.devtools.build.lib.actions.ActionContextProvider;
 import com.google.devtools.build.lib.actions.ActionGraph;
 import com.google.devtools.build.lib.actions.ActionInputFileCache;
@@ -21,16 +23,27 @@ import com.google.devtools.build.lib.actions.Artifact;
 import com.google.devtools.build.lib.actions.Executor.ActionContext;
 import com.google.devtools.build.lib.actions.ExecutorInitException;
 import com.google.devtools.build.lib.buildtool.BuildRequest;
+import com.google.devtools.build.lib.buildtool.buildevent.WorkerStatisticsEvent;
+import com.google.devtools.build.lib.buildtool.buildevent.WorkerStatisticsEvent.WorkerStatistics;
 
 /**
  * Factory for the Worker-based execution strategy.
  */
 final class WorkerActionContextProvider implements ActionContextProvider {
   private final ImmutableList<ActionContext> strategies;
+  private final WorkerOptions options;
+  private final WorkerPool workers;
+  private final WorkerMultiplexers multiplexers;
+  private final EventBus eventBus;
 
-  public WorkerActionContextProvider(BuildRequest buildRequest, WorkerPool workers) {
+  public WorkerActionContextProvider(BuildRequest buildRequest, WorkerPool workers,
+      WorkerMultiplexers multiplexers, EventBus eventBus) {
     this.strategies = ImmutableList.<ActionContext>of(new WorkerSpawnStrategy(buildRequest,
-        workers));
+        workers, multiplexers));
+    this.options = buildRequest.getOptions(WorkerOptions.class);
+    this.workers = workers;
+    this.multiplexers = multiplexers;
+    this.eventBus = eventBus;
   }
 
   @Override
@@ -46,9 +59,24 @@ final class WorkerActionContextProvider implements ActionContextProvider {
   public void executionPhaseStarting(ActionInputFileCache actionInputFileCache,
       ActionGraph actionGraph, Iterable<Artifact> topLevelArtifacts)
       throws ExecutorInitException, InterruptedException {
+    if (options.workerWarmup && !options.workerMultiplex) {
+      workers.warmUp();
+    }
   }
 
   @Override
   public void executionPhaseEnding() {
+    workers.finishBuild();
+    int evicted = options.workerMemoryLimitMb > 0
+        ? workers.evictIdleWorkers(options.workerMemoryLimitMb * 1024L)
+        : 0;
+    ImmutableList.Builder<WorkerStatistics> statistics = ImmutableList.builder();
+    for (Worker worker : Iterables.concat(workers.getWorkers(), multiplexers.getWorkers())) {
+      statistics.add(worker.takeStatistics());
+    }
+    ImmutableList<WorkerStatistics> allStatistics = statistics.build();
+    if (!allStatistics.isEmpty() || evicted > 0) {
+      eventBus.post(new WorkerStatisticsEvent(allStatistics, evicted));
+    }
   }
 }
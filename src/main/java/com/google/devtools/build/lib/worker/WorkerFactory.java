@@ -13,17 +13,31 @@
 // limitations under the License.
 package com.google.devtools.build.lib.worker;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Sets;
+
 import org.apache.commons.pool2.BaseKeyedPooledObjectFactory;
 import org.apache.commons.pool2.PooledObject;
 import org.apache.commons.pool2.impl.DefaultPooledObject;
 
+import java.util.Set;
+
 /**
  * Factory used by the pool to create / destroy / validate worker processes.
  */
 final class WorkerFactory extends BaseKeyedPooledObjectFactory<WorkerKey, Worker> {
+  private final Set<Worker> workers = Sets.newConcurrentHashSet();
+
   @Override
   public Worker create(WorkerKey key) throws Exception {
-    return Worker.create(key);
+    Worker worker = Worker.create(key);
+    workers.add(worker);
+    return worker;
+  }
+
+  /** Returns the workers that were created and not destroyed yet, whether idle or borrowed. */
+  ImmutableList<Worker> getWorkers() {
+    return ImmutableList.copyOf(workers);
   }
 
   /**
@@ -39,6 +53,7 @@ final class WorkerFactory extends BaseKeyedPooledObjectFactory<WorkerKey, Worker
    */
   @Override
   public void destroyObject(WorkerKey key, PooledObject<Worker> p) throws Exception {
+    workers.remove(p.getObject());
     p.getObject().destroy();
   }
 
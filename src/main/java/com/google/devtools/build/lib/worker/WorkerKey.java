@@ -24,17 +24,20 @@ import java.util.Map;
 
 /**
  * Data container that uniquely identifies a kind of worker process and is used as the key for the
- * {@link WorkerPool}.
+ * {@link WorkerPool}. The mnemonic is only used to describe the worker and is not part of its
+ * identity.
  */
 final class WorkerKey {
   private final ImmutableList<String> args;
   private final ImmutableMap<String, String> env;
   private final Path workDir;
+  private final String mnemonic;
 
-  WorkerKey(List<String> args, Map<String, String> env, Path workDir) {
+  WorkerKey(List<String> args, Map<String, String> env, Path workDir, String mnemonic) {
     this.args = ImmutableList.copyOf(Preconditions.checkNotNull(args));
     this.env = ImmutableMap.copyOf(Preconditions.checkNotNull(env));
     this.workDir = Preconditions.checkNotNull(workDir);
+    this.mnemonic = Preconditions.checkNotNull(mnemonic);
   }
 
   public ImmutableList<String> getArgs() {
@@ -49,6 +52,10 @@ final class WorkerKey {
     return workDir;
   }
 
+  public String getMnemonic() {
+    return mnemonic;
+  }
+
   @Override
   public boolean equals(Object o) {
     if (this == o) {
@@ -14,6 +14,7 @@
 package com.google.devtools.build.lib.worker;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.eventbus.EventBus;
 import com.google.common.eventbus.Subscribe;
 import com.google.devtools.build.lib.actions.ActionContextProvider;
 import com.google.devtools.build.lib.buildtool.BuildRequest;
@@ -30,8 +31,10 @@ import org.apache.commons.pool2.impl.GenericKeyedObjectPoolConfig;
  */
 public class WorkerModule extends BlazeModule {
   private final WorkerPool workers;
+  private final WorkerMultiplexers multiplexers = new WorkerMultiplexers();
 
   private BuildRequest buildRequest;
+  private EventBus eventBus;
 
   public WorkerModule() {
     GenericKeyedObjectPoolConfig config = new GenericKeyedObjectPoolConfig();
@@ -42,7 +45,7 @@ public class WorkerModule extends BlazeModule {
   @Override
   public Iterable<ActionContextProvider> getActionContextProviders() {
     return ImmutableList.<ActionContextProvider>of(new WorkerActionContextProvider(buildRequest,
-        workers));
+        workers, multiplexers, eventBus));
   }
 
   @Override
@@ -54,7 +57,8 @@ public class WorkerModule extends BlazeModule {
 
   @Override
   public void beforeCommand(BlazeRuntime blazeRuntime, Command command) {
-    blazeRuntime.getEventBus().register(this);
+    eventBus = blazeRuntime.getEventBus();
+    eventBus.register(this);
   }
 
   @Subscribe
@@ -65,5 +69,11 @@ public class WorkerModule extends BlazeModule {
   @Override
   public void afterCommand() {
     buildRequest = null;
+    eventBus = null;
+  }
+
+  @Override
+  public void blazeShutdown() {
+    multiplexers.destroyAll();
   }
 }
@@ -0,0 +1,150 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.worker;
+
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.devtools.build.lib.worker.WorkerProtocol.WorkRequest;
+import com.google.devtools.build.lib.worker.WorkerProtocol.WorkResponse;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Sends the requests of many threads to a single worker process, without waiting for the
+ * responses to earlier requests, and hands each response to the thread that sent the request.
+ *
+ * <p>Each request is tagged with a request id, which the worker copies into its response. A
+ * single thread reads the responses. If the worker exits, or sends a response without a request
+ * id, all outstanding and later requests fail, and the multiplexer must be replaced.
+ */
+@ThreadSafe
+final class WorkerMultiplexer {
+  private final Worker worker;
+  private final ConcurrentMap<Integer, SettableFuture<WorkResponse>> pendingResponses =
+      Maps.newConcurrentMap();
+  private final AtomicInteger lastRequestId = new AtomicInteger();
+  private volatile IOException failure;
+
+  private WorkerMultiplexer(Worker worker) {
+    this.worker = worker;
+  }
+
+  static WorkerMultiplexer create(final WorkerKey key) throws IOException {
+    final WorkerMultiplexer multiplexer = new WorkerMultiplexer(Worker.create(key));
+    Thread reader = new Thread("worker-multiplexer " + key.getArgs().get(0)) {
+      @Override
+      public void run() {
+        multiplexer.readResponses();
+      }
+    };
+    reader.setDaemon(true);
+    reader.start();
+    return multiplexer;
+  }
+
+  /**
+   * Sends {@code request} to the worker and waits for the response. The request id of the request
+   * is replaced.
+   */
+  WorkResponse execute(WorkRequest request) throws IOException, InterruptedException {
+    long startNanos = System.nanoTime();
+    int requestId = nextRequestId();
+    SettableFuture<WorkResponse> response = SettableFuture.create();
+    pendingResponses.put(requestId, response);
+    try {
+      // The reader sets the failure before it fails the pending responses, so either it sees this
+      // response or we see the failure.
+      checkNotFailed();
+      OutputStream out = worker.getOutputStream();
+      synchronized (out) {
+        request.toBuilder().setRequestId(requestId).build().writeDelimitedTo(out);
+        out.flush();
+      }
+      WorkResponse result = response.get();
+      worker.recordRequest(System.nanoTime() - startNanos);
+      return result;
+    } catch (ExecutionException e) {
+      throw (IOException) e.getCause();
+    } finally {
+      pendingResponses.remove(requestId);
+    }
+  }
+
+  private int nextRequestId() {
+    // Zero is reserved for requests that are not multiplexed.
+    int requestId;
+    do {
+      requestId = lastRequestId.incrementAndGet() & Integer.MAX_VALUE;
+    } while (requestId == 0);
+    return requestId;
+  }
+
+  private void checkNotFailed() throws IOException {
+    IOException e = failure;
+    if (e != null) {
+      throw new IOException(e.getMessage(), e);
+    }
+  }
+
+  private void readResponses() {
+    try {
+      while (true) {
+        WorkResponse response = WorkResponse.parseDelimitedFrom(worker.getInputStream());
+        if (response == null) {
+          fail(new IOException("Worker exited"));
+          return;
+        }
+        if (response.getRequestId() == 0) {
+          fail(new IOException("Worker does not support multiplexing: response has no request id"));
+          return;
+        }
+        // There is no pending response if the requesting thread was interrupted.
+        SettableFuture<WorkResponse> pending = pendingResponses.get(response.getRequestId());
+        if (pending != null) {
+          pending.set(response);
+        }
+      }
+    } catch (IOException e) {
+      fail(e);
+    }
+  }
+
+  private void fail(IOException e) {
+    failure = e;
+    for (SettableFuture<WorkResponse> pending : pendingResponses.values()) {
+      pending.setException(e);
+    }
+    worker.destroy();
+  }
+
+  Worker getWorker() {
+    return worker;
+  }
+
+  /** Whether the worker can still take requests. */
+  boolean isAlive() {
+    return failure == null && worker.isAlive();
+  }
+
+  /** Kills the worker process; outstanding requests fail. */
+  void destroy() {
+    worker.destroy();
+  }
+}
@@ -0,0 +1,61 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.worker;
+
+import com.google.common.collect.ImmutableList;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * The multiplexed worker processes, one per {@link WorkerKey}. A worker process that exited is
+ * replaced on the next request.
+ */
+@ThreadSafe
+final class WorkerMultiplexers {
+  private final Map<WorkerKey, WorkerMultiplexer> multiplexers = new HashMap<>();
+
+  /** Returns the multiplexer for {@code key}, starting a new worker process if necessary. */
+  synchronized WorkerMultiplexer get(WorkerKey key) throws IOException {
+    WorkerMultiplexer multiplexer = multiplexers.get(key);
+    if (multiplexer == null || !multiplexer.isAlive()) {
+      if (multiplexer != null) {
+        multiplexer.destroy();
+      }
+      multiplexer = WorkerMultiplexer.create(key);
+      multiplexers.put(key, multiplexer);
+    }
+    return multiplexer;
+  }
+
+  /** Returns the worker processes of all multiplexers. */
+  synchronized ImmutableList<Worker> getWorkers() {
+    ImmutableList.Builder<Worker> workers = ImmutableList.builder();
+    for (WorkerMultiplexer multiplexer : multiplexers.values()) {
+      workers.add(multiplexer.getWorker());
+    }
+    return workers.build();
+  }
+
+  /** Kills all worker processes. */
+  synchronized void destroyAll() {
+    for (WorkerMultiplexer multiplexer : multiplexers.values()) {
+      multiplexer.destroy();
+    }
+    multiplexers.clear();
+  }
+}
@@ -30,6 +30,30 @@ public class WorkerOptions extends OptionsBase {
           + "launched if you use the 'worker' strategy.")
   public int workerMaxInstances;
 
+  @Option(name = "worker_warmup",
+      defaultValue = "true",
+      category = "strategy",
+      help = "If true, as many worker processes of each kind are started at the beginning of the "
+          + "execution phase as were busy at once during the last build that used them.")
+  public boolean workerWarmup;
+
+  @Option(name = "worker_memory_limit_mb",
+      defaultValue = "0",
+      category = "strategy",
+      help = "If positive, idle worker processes are stopped at the end of the execution phase, "
+          + "least recently used first, until the worker processes together use at most this much "
+          + "resident memory, as reported by /proc. Multiplexed workers are neither counted nor "
+          + "stopped.")
+  public int workerMemoryLimitMb;
+
+  @Option(name = "experimental_worker_multiplex",
+      defaultValue = "false",
+      category = "strategy",
+      help = "If true, only one instance of each worker process is launched, and it is sent all "
+          + "requests at once, tagged with request ids. The worker process must support "
+          + "multiplexing, as the persistent Java compiler does.")
+  public boolean workerMultiplex;
+
   @Option(name = "experimental_persistent_javac",
       defaultValue = "null",
       category = "undocumented",
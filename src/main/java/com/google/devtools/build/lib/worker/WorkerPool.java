@@ -13,10 +13,26 @@
 // limitations under the License.
 package com.google.devtools.build.lib.worker;
 
-import org.apache.commons.pool2.KeyedPooledObjectFactory;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableMap;
+
 import org.apache.commons.pool2.impl.GenericKeyedObjectPool;
 import org.apache.commons.pool2.impl.GenericKeyedObjectPoolConfig;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
 import javax.annotation.concurrent.ThreadSafe;
 
 /**
@@ -24,15 +40,175 @@ import javax.annotation.concurrent.ThreadSafe;
  *
  * <p>This is useful when the worker cannot handle multiple parallel requests on its own and we need
  * to pre-fork a couple of them instead.
+ *
+ * <p>The pool remembers how many workers of each key were busy at once during the last build that
+ * used them, so that the next build can start that many ahead of time with {@link #warmUp}. Idle
+ * workers are not stopped by the pool on its own; {@link #evictIdleWorkers} stops the least
+ * recently used ones while the workers use more memory than allowed.
  */
 @ThreadSafe
 final class WorkerPool extends GenericKeyedObjectPool<WorkerKey, Worker> {
-  public WorkerPool(KeyedPooledObjectFactory<WorkerKey, Worker> factory) {
+  private static final Logger LOG = Logger.getLogger(WorkerPool.class.getName());
+
+  private static final Comparator<Worker> LEAST_RECENTLY_USED_FIRST = new Comparator<Worker>() {
+    @Override
+    public int compare(Worker a, Worker b) {
+      return Long.signum(a.getLastUsedNanos() - b.getLastUsedNanos());
+    }
+  };
+
+  private static final Function<Worker, Long> PROC_RSS_KB = new Function<Worker, Long>() {
+    @Override
+    public Long apply(Worker worker) {
+      return worker.getRssKb();
+    }
+  };
+
+  private final WorkerFactory factory;
+
+  // Returns the resident set size of a worker in kilobytes, or -1 if it is unknown.
+  private final Function<Worker, Long> rssKbSource;
+
+  // The most workers of each key that were borrowed at once during the current build, and during
+  // the last build that borrowed any.
+  private final ConcurrentMap<WorkerKey, AtomicInteger> peakBorrowed = new ConcurrentHashMap<>();
+  private volatile ImmutableMap<WorkerKey, Integer> previousPeakBorrowed = ImmutableMap.of();
+
+  public WorkerPool(WorkerFactory factory) {
     super(factory);
+    this.factory = factory;
+    this.rssKbSource = PROC_RSS_KB;
+  }
+
+  public WorkerPool(WorkerFactory factory, GenericKeyedObjectPoolConfig config) {
+    this(factory, config, PROC_RSS_KB);
   }
 
-  public WorkerPool(KeyedPooledObjectFactory<WorkerKey, Worker> factory,
-      GenericKeyedObjectPoolConfig config) {
+  @VisibleForTesting
+  WorkerPool(WorkerFactory factory, GenericKeyedObjectPoolConfig config,
+      Function<Worker, Long> rssKbSource) {
     super(factory, config);
+    this.factory = factory;
+    this.rssKbSource = rssKbSource;
+  }
+
+  @Override
+  public Worker borrowObject(WorkerKey key) throws Exception {
+    Worker worker = super.borrowObject(key);
+    worker.setBorrowed(true);
+    recordBorrowed(key, getNumActive(key));
+    return worker;
+  }
+
+  @Override
+  public void returnObject(WorkerKey key, Worker worker) {
+    worker.setBorrowed(false);
+    super.returnObject(key, worker);
+  }
+
+  private void recordBorrowed(WorkerKey key, int borrowed) {
+    AtomicInteger peak = peakBorrowed.get(key);
+    if (peak == null) {
+      peakBorrowed.putIfAbsent(key, new AtomicInteger());
+      peak = peakBorrowed.get(key);
+    }
+    int current;
+    do {
+      current = peak.get();
+    } while (borrowed > current && !peak.compareAndSet(current, borrowed));
+  }
+
+  /** Returns all workers of the pool, whether idle or borrowed. */
+  List<Worker> getWorkers() {
+    return factory.getWorkers();
+  }
+
+  /**
+   * Remembers how many workers of each key were borrowed at once during the build that just
+   * finished, for the next call to {@link #warmUp}. Keys that this build did not use keep the
+   * number of the last build that did.
+   */
+  void finishBuild() {
+    Map<WorkerKey, Integer> peaks = new HashMap<>(previousPeakBorrowed);
+    for (Map.Entry<WorkerKey, AtomicInteger> entry : peakBorrowed.entrySet()) {
+      peaks.put(entry.getKey(), entry.getValue().get());
+    }
+    peakBorrowed.clear();
+    previousPeakBorrowed = ImmutableMap.copyOf(peaks);
+  }
+
+  /**
+   * Starts, on a background thread, the workers that were busy at once during the last build that
+   * used them and are not running any more, so that their startup does not delay the first actions
+   * of the next build.
+   */
+  void warmUp() {
+    final Map<WorkerKey, Integer> missing = new LinkedHashMap<>();
+    for (Map.Entry<WorkerKey, Integer> entry : previousPeakBorrowed.entrySet()) {
+      WorkerKey key = entry.getKey();
+      int wanted = getMaxTotalPerKey() < 0
+          ? entry.getValue()
+          : Math.min(entry.getValue(), getMaxTotalPerKey());
+      int count = wanted - getNumIdle(key) - getNumActive(key);
+      if (count > 0) {
+        missing.put(key, count);
+      }
+    }
+    if (missing.isEmpty()) {
+      return;
+    }
+    Thread thread = new Thread("worker-warmup") {
+      @Override
+      public void run() {
+        for (Map.Entry<WorkerKey, Integer> entry : missing.entrySet()) {
+          try {
+            for (int i = 0; i < entry.getValue(); i++) {
+              // Does nothing once the build itself has started the maximum number of workers.
+              addObject(entry.getKey());
+            }
+          } catch (Exception e) {
+            LOG.log(Level.WARNING, "Could not start worker " + entry.getKey(), e);
+          }
+        }
+      }
+    };
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Stops idle workers, least recently used first, until the resident set size of all workers is
+   * at most {@code limitKb}. Must not be called while workers may be borrowed, that is, during the
+   * execution phase.
+   *
+   * @return the number of workers stopped
+   */
+  int evictIdleWorkers(long limitKb) {
+    Map<Worker, Long> rssKb = new HashMap<>();
+    List<Worker> idle = new ArrayList<>();
+    long totalKb = 0;
+    for (Worker worker : getWorkers()) {
+      long workerKb = Math.max(rssKbSource.apply(worker), 0);
+      rssKb.put(worker, workerKb);
+      totalKb += workerKb;
+      if (!worker.isBorrowed()) {
+        idle.add(worker);
+      }
+    }
+    Collections.sort(idle, LEAST_RECENTLY_USED_FIRST);
+    int evicted = 0;
+    for (Worker worker : idle) {
+      if (totalKb <= limitKb) {
+        break;
+      }
+      try {
+        invalidateObject(worker.getKey(), worker);
+      } catch (Exception e) {
+        // The worker was destroyed meanwhile.
+      }
+      totalKb -= rssKb.get(worker);
+      evicted++;
+    }
+    return evicted;
   }
 }
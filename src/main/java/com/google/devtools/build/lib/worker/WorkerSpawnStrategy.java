@@ -35,13 +35,17 @@ import com.google.devtools.common.options.OptionsClassProvider;
 @ExecutionStrategy(name = { "worker" }, contextType = SpawnActionContext.class)
 final class WorkerSpawnStrategy implements SpawnActionContext {
   private final WorkerPool workers;
+  private final WorkerMultiplexers multiplexers;
+  private final boolean multiplex;
 
-  public WorkerSpawnStrategy(OptionsClassProvider optionsProvider, WorkerPool workers) {
+  public WorkerSpawnStrategy(OptionsClassProvider optionsProvider, WorkerPool workers,
+      WorkerMultiplexers multiplexers) {
     WorkerOptions options = optionsProvider.getOptions(WorkerOptions.class);
     workers.setMaxTotalPerKey(options.workerMaxInstances);
     workers.setMaxIdlePerKey(options.workerMaxInstances);
-    workers.setMinIdlePerKey(options.workerMaxInstances);
     this.workers = workers;
+    this.multiplexers = multiplexers;
+    this.multiplex = options.workerMultiplex;
   }
 
   @Override
@@ -61,42 +65,52 @@ final class WorkerSpawnStrategy implements SpawnActionContext {
         .build();
     ImmutableMap<String, String> env = spawn.getEnvironment();
     Path workDir = actionExecutionContext.getExecutor().getExecRoot();
-    WorkerKey key = new WorkerKey(args, env, workDir);
+    WorkerKey key = new WorkerKey(args, env, workDir, spawn.getMnemonic());
 
-    try {
-      Worker worker = workers.borrowObject(key);
-      try {
-        WorkRequest.newBuilder()
-            .addArguments(paramFile)
-            .build()
-            .writeDelimitedTo(worker.getOutputStream());
-        worker.getOutputStream().flush();
+    WorkRequest request = WorkRequest.newBuilder()
+        .addArguments(paramFile)
+        .build();
 
-        WorkResponse response = WorkResponse.parseDelimitedFrom(worker.getInputStream());
+    try {
+      WorkResponse response = multiplex
+          ? multiplexers.get(key).execute(request)
+          : execInPooledWorker(key, request);
 
-        if (response == null) {
-          throw new UserExecException("Worker did not return a correct WorkResponse");
-        }
+      if (response == null) {
+        throw new UserExecException("Worker did not return a correct WorkResponse");
+      }
 
-        String trimmedOutput = response.getOutput().trim();
-        if (!trimmedOutput.isEmpty()) {
-          System.err.println(trimmedOutput);
-        }
+      String trimmedOutput = response.getOutput().trim();
+      if (!trimmedOutput.isEmpty()) {
+        System.err.println(trimmedOutput);
+      }
 
-        if (response.getExitCode() != 0) {
-          throw new UserExecException(String.format("Failed with exit code: %d.",
-              response.getExitCode()));
-        }
-      } finally {
-        if (worker != null) {
-          workers.returnObject(key, worker);
-        }
+      if (response.getExitCode() != 0) {
+        throw new UserExecException(String.format("Failed with exit code: %d.",
+            response.getExitCode()));
       }
+    } catch (UserExecException | InterruptedException e) {
+      throw e;
     } catch (Exception e) {
       throw new UserExecException(e.getMessage(), e);
     }
   }
 
+  /** Sends {@code request} to a worker that is not used by any other thread meanwhile. */
+  private WorkResponse execInPooledWorker(WorkerKey key, WorkRequest request) throws Exception {
+    Worker worker = workers.borrowObject(key);
+    try {
+      long startNanos = System.nanoTime();
+      request.writeDelimitedTo(worker.getOutputStream());
+      worker.getOutputStream().flush();
+      WorkResponse response = WorkResponse.parseDelimitedFrom(worker.getInputStream());
+      worker.recordRequest(System.nanoTime() - startNanos);
+      return response;
+    } finally {
+      workers.returnObject(key, worker);
+    }
+  }
+
   @Override
   public String strategyLocality(String mnemonic, boolean remotable) {
     return "worker";
@@ -26,12 +26,16 @@ import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+import javax.annotation.Nullable;
 
 /**
  * Data the NodeEntry uses to maintain its state before it is done building. It allows the
  * {@link NodeEntry} to keep the current state of the entry across invalidation and successive
  * evaluations. A done node does not contain any of this data. However, if a node is marked dirty,
  * its entry acquires a new {@code BuildingState} object, which persists until it is done again.
+ * Whether a {@code BuildingState} is dirty never changes.
  *
  * <p>This class should be considered a private inner class of {@link NodeEntry} -- no other
  * classes should instantiate a {@code BuildingState} object or call any of its methods directly.
@@ -95,8 +99,15 @@ final class BuildingState {
    * {@link #directDeps}.size() on the very last iteration of the loop, i.e., the thread is not
    * working on the node anymore. Note that this requires that there is no code after the loop in
    * {@code ParallelEvaluator.Evaluate#run}.
+   *
+   * <p>The counter is kept in the low 32 bits of this word, and {@link #directDeps}.size() in the
+   * high 32 bits, so that a node that is not dirty can be signaled with a single atomic add instead
+   * of under the entry's lock. See {@link #signalDepIfNotDirty}.
    */
-  private int signaledDeps = 0;
+  private volatile long depCounts = 0;
+
+  private static final AtomicLongFieldUpdater<BuildingState> DEP_COUNTS_UPDATER =
+      AtomicLongFieldUpdater.newUpdater(BuildingState.class, "depCounts");
 
   /**
    * Direct dependencies discovered during the build. They will be written to the immutable field
@@ -161,7 +172,7 @@ final class BuildingState {
    * dependency group storage.
    */
   private final GroupedList<SkyKey> lastBuildDirectDeps;
-  private final SkyValue lastBuildValue;
+  private SkyValue lastBuildValue;
 
   /**
    * Which child should be re-evaluated next in the process of determining if this entry needs to
@@ -212,7 +223,12 @@ final class BuildingState {
    * Returns whether all known children of this node have signaled that they are done.
    */
   boolean isReady() {
-    int directDepsSize = directDeps.size();
+    return isReady(depCounts);
+  }
+
+  private boolean isReady(long counts) {
+    int directDepsSize = (int) (counts >>> 32);
+    int signaledDeps = (int) counts;
     Preconditions.checkState(signaledDeps <= directDepsSize, "%s %s", directDepsSize, this);
     return signaledDeps == directDepsSize;
   }
@@ -276,20 +292,32 @@ final class BuildingState {
    * @see NodeEntry#signalDep(Version)
    */
   boolean signalDep(boolean childChanged) {
-    signaledDeps++;
+    boolean ready = isReady(DEP_COUNTS_UPDATER.incrementAndGet(this));
     if (isDirty() && !rebuilding()) {
       // Synchronization isn't needed here because the only caller is ValueEntry, which does it
       // through the synchronized method signalDep(long).
       if (childChanged) {
         dirtyState = NodeEntry.DirtyState.REBUILDING;
-      } else if (dirtyState == NodeEntry.DirtyState.CHECK_DEPENDENCIES && isReady()
+      } else if (dirtyState == NodeEntry.DirtyState.CHECK_DEPENDENCIES && ready
           && dirtyDirectDepIterator == null) {
         // No other dep already marked this as REBUILDING, no deps outstanding, and this was
         // the last block of deps to be checked.
         dirtyState = NodeEntry.DirtyState.VERIFIED_CLEAN;
       }
     }
-    return isReady();
+    return ready;
+  }
+
+  /**
+   * Like {@link #signalDep}, but may be called without synchronizing on the entry. Returns null,
+   * without signaling, if this node is dirty, since then signaling also updates its dirty state.
+   */
+  @Nullable
+  Boolean signalDepIfNotDirty() {
+    if (isDirty()) {
+      return null;
+    }
+    return isReady(DEP_COUNTS_UPDATER.incrementAndGet(this));
   }
 
   /**
@@ -299,7 +327,10 @@ final class BuildingState {
    */
   boolean unchangedFromLastBuild(SkyValue newValue) {
     checkNotProcessing();
-    return lastBuildValue.equals(newValue) && lastBuildDirectDeps.equals(directDeps);
+    boolean valueUnchanged = isLastBuildValueEvicted()
+        ? ((EvictedValue) lastBuildValue).matches(newValue)
+        : lastBuildValue.equals(newValue);
+    return valueUnchanged && lastBuildDirectDeps.equals(directDeps);
   }
 
   boolean noDepsLastBuild() {
@@ -307,9 +338,26 @@ final class BuildingState {
   }
 
   SkyValue getLastBuildValue() {
+    Preconditions.checkState(!isLastBuildValueEvicted(), this);
     return Preconditions.checkNotNull(lastBuildValue, this);
   }
 
+  /**
+   * Replaces the value from the last build with its fingerprint under {@code policy}, so that the
+   * value can be garbage collected while {@link #unchangedFromLastBuild} can still compare against
+   * it. Values with errors or events are kept, since the fingerprint only covers the value itself.
+   */
+  void evictLastBuildValue(EvictionPolicy policy) {
+    Preconditions.checkState(isChanged() && !evaluating, this);
+    if (!isLastBuildValueEvicted() && !(lastBuildValue instanceof ValueWithMetadata)) {
+      lastBuildValue = new EvictedValue(policy, policy.fingerprint(lastBuildValue));
+    }
+  }
+
+  boolean isLastBuildValueEvicted() {
+    return lastBuildValue instanceof EvictedValue;
+  }
+
   /**
    * Gets the current state of checking this dirty entry to see if it must be re-evaluated. Must be
    * called each time evaluation of a dirty entry starts to find the proper action to perform next,
@@ -346,7 +394,15 @@ final class BuildingState {
   }
 
   void addDirectDeps(GroupedListHelper<SkyKey> depsThisRun) {
+    int sizeBefore = directDeps.size();
     directDeps.append(depsThisRun);
+    addToDirectDepsSize(directDeps.size() - sizeBefore);
+  }
+
+  /** Updates the size of {@link #directDeps} in {@link #depCounts}. */
+  private void addToDirectDepsSize(int delta) {
+    // Adding to the high half cannot change the low half, which deps may be signaling concurrently.
+    DEP_COUNTS_UPDATER.addAndGet(this, (long) delta << 32);
   }
 
   /**
@@ -403,7 +459,9 @@ final class BuildingState {
    * @see NodeEntry#removeUnfinishedDeps
    */
   void removeDirectDeps(Set<SkyKey> unfinishedDeps) {
+    int sizeBefore = directDeps.size();
     directDeps.remove(unfinishedDeps);
+    addToDirectDepsSize(directDeps.size() - sizeBefore);
   }
 
   @Override
@@ -412,11 +470,31 @@ final class BuildingState {
     return Objects.toStringHelper(this)  // MoreObjects is not in Guava
         .add("evaluating", evaluating)
         .add("dirtyState", dirtyState)
-        .add("signaledDeps", signaledDeps)
+        .add("signaledDeps", (int) depCounts)
         .add("directDeps", directDeps)
         .add("reverseDepsToSignal", REVERSE_DEPS_UTIL.toString(this))
         .add("lastBuildDirectDeps", lastBuildDirectDeps)
         .add("lastBuildValue", lastBuildValue)
         .add("dirtyDirectDepIterator", dirtyDirectDepIterator).toString();
   }
+
+  /** Stands in for an evicted value from the last build. Never visible outside this class. */
+  private static final class EvictedValue implements SkyValue {
+    private final EvictionPolicy policy;
+    @Nullable private final Object fingerprint;
+
+    private EvictedValue(EvictionPolicy policy, @Nullable Object fingerprint) {
+      this.policy = policy;
+      this.fingerprint = fingerprint;
+    }
+
+    private boolean matches(SkyValue newValue) {
+      return fingerprint != null && fingerprint.equals(policy.fingerprint(newValue));
+    }
+
+    @Override
+    public String toString() {
+      return "EvictedValue{fingerprint=" + fingerprint + "}";
+    }
+  }
 }
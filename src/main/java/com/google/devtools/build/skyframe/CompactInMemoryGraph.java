@@ -0,0 +1,126 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.skyframe;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Sets;
+
+import java.util.Set;
+
+/**
+ * An {@link InMemoryGraph} whose nodes store their direct and reverse deps as primitive int ids
+ * instead of {@link SkyKey} references, and share groups of direct deps that many nodes have in
+ * common. See {@link CompactInMemoryNodeEntry}.
+ *
+ * <p>Each node entry holds the id of its own key, so that finding the id of a dep is a lookup of
+ * its entry, and a {@link SkyKeyIdTable} maps ids back to keys. The ids of removed nodes are
+ * reused once the next evaluation starts, when no edge to a removed node is left. So are the ids of
+ * shared groups of deps that no node stores anymore.
+ *
+ * <p>Ids take as much space as compressed references, and each node also stores its own id and a
+ * reference to this graph, so this graph only takes less memory than an {@link InMemoryGraph} if
+ * its nodes have enough deps in groups of several, whose encoding is denser and may be shared. On
+ * a synthetic analysis-like graph with 11 deps per node it took 307 instead of 363 bytes per node,
+ * but on a graph with 1.5 ungrouped deps per node it took 166 instead of 156.
+ */
+public class CompactInMemoryGraph extends InMemoryGraph {
+  private final SkyKeyIdTable keyIds = new SkyKeyIdTable();
+  private final SkyKeyGroupTable groupIds;
+
+  /** The entries that may have deferred the removal of a reverse dep since ids were reused. */
+  private final Set<CompactInMemoryNodeEntry> entriesWithRemovedReverseDeps =
+      Sets.newConcurrentHashSet();
+
+  public CompactInMemoryGraph(boolean keepEdges) {
+    this(keepEdges, new SkyKeyGroupTable());
+  }
+
+  @VisibleForTesting
+  CompactInMemoryGraph(boolean keepEdges, SkyKeyGroupTable groupIds) {
+    super(keepEdges);
+    this.groupIds = groupIds;
+  }
+
+  @Override
+  public NodeEntry createIfAbsent(SkyKey key) {
+    if (!keepsEdges()) {
+      return super.createIfAbsent(key);
+    }
+    NodeEntry entry = nodeMap.get(key);
+    if (entry != null) {
+      // Do not take an id for a key that already has one.
+      return putIfAbsent(key, entry);
+    }
+    int id = keyIds.assignId(key);
+    CompactInMemoryNodeEntry newEntry = new CompactInMemoryNodeEntry(this, id);
+    entry = putIfAbsent(key, newEntry);
+    if (entry != newEntry) {
+      keyIds.releaseId(id);
+    }
+    return entry;
+  }
+
+  @Override
+  public void remove(SkyKey skyKey) {
+    NodeEntry entry = nodeMap.remove(skyKey);
+    if (entry instanceof CompactInMemoryNodeEntry) {
+      keyIds.removed(skyKey, ((CompactInMemoryNodeEntry) entry).getId());
+      ((CompactInMemoryNodeEntry) entry).removedFromGraph();
+    }
+  }
+
+  @Override
+  void startEvaluation() {
+    // Invalidation, and the cleaning of nodes left in flight by the last evaluation, are done. Once
+    // the removals of reverse deps they deferred are applied, no edge to a removed node is left.
+    for (CompactInMemoryNodeEntry entry : entriesWithRemovedReverseDeps) {
+      entry.consolidateReverseDepsRemovals();
+    }
+    entriesWithRemovedReverseDeps.clear();
+    keyIds.reuseRemovedIds();
+    groupIds.pruneUnreferencedGroups();
+    super.startEvaluation();
+  }
+
+  void reverseDepRemoved(CompactInMemoryNodeEntry entry) {
+    entriesWithRemovedReverseDeps.add(entry);
+  }
+
+  /** Returns the id of {@code key}, whose node must be in the graph or removed only recently. */
+  int getId(SkyKey key) {
+    NodeEntry entry = nodeMap.get(key);
+    if (entry instanceof CompactInMemoryNodeEntry) {
+      return ((CompactInMemoryNodeEntry) entry).getId();
+    }
+    Integer removedId = keyIds.getRemovedId(key);
+    Preconditions.checkState(removedId != null, "No node for %s: %s", key, entry);
+    return removedId;
+  }
+
+  /** Returns the key with the given id. */
+  SkyKey getKey(int id) {
+    return keyIds.getKey(id);
+  }
+
+  SkyKeyGroupTable getGroupIds() {
+    return groupIds;
+  }
+
+  /** Returns the number of key ids in use. */
+  @VisibleForTesting
+  int getKeyIdCount() {
+    return keyIds.size();
+  }
+}
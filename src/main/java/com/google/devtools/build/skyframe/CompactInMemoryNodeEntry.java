@@ -0,0 +1,177 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.skyframe;
+
+import com.google.common.base.Preconditions;
+import com.google.devtools.build.lib.util.GroupedList;
+import com.google.devtools.build.lib.util.GroupedList.GroupedListHelper;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * {@link InMemoryNodeEntry} that stores its edges as the int ids that its
+ * {@link CompactInMemoryGraph} assigned to the keys of their nodes, rather than as references to
+ * {@link SkyKey}s. The entry also holds the id of its own key.
+ *
+ * <p>A done node with a single direct dep stores the {@link SkyKey} of that dep, as an
+ * {@link InMemoryNodeEntry} would, since a reference takes no more space than an id and saves an
+ * array. Other direct deps of a done node are stored in a single {@code int[]}. A group with a
+ * single element is stored as that element's id. A group that many nodes share is stored as
+ * {@code Integer.MIN_VALUE} plus its id in a shared {@link SkyKeyGroupTable}. Any other group with
+ * n > 1 elements is stored as the header {@code -n}, followed by the ids of its elements. Reverse
+ * deps, once there is more than one of them, are stored in a {@link SkyKeyIdList}.
+ */
+class CompactInMemoryNodeEntry extends InMemoryNodeEntry {
+  private static final int[] NO_DEPS = new int[0];
+
+  /** The encoding of the group with id 0 in the group table. */
+  private static final int INTERNED_GROUP = Integer.MIN_VALUE;
+
+  /** The largest number of elements of a group stored inline. */
+  private static final int MAX_INLINE_GROUP_SIZE = SkyKeyGroupTable.MAX_GROUP_ID + 1;
+
+  private final CompactInMemoryGraph graph;
+  private final int id;
+
+  CompactInMemoryNodeEntry(CompactInMemoryGraph graph, int id) {
+    this.graph = graph;
+    this.id = id;
+  }
+
+  /** Returns the id of the key of this entry. */
+  int getId() {
+    return id;
+  }
+
+  @Override
+  protected Object compressDirectDeps(GroupedList<SkyKey> directDeps) {
+    if (directDeps.isEmpty()) {
+      return NO_DEPS;
+    }
+    if (directDeps.size() == 1) {
+      return directDeps.compress();
+    }
+    // Every group needs at most one header in addition to its elements.
+    int[] compressed = new int[2 * directDeps.size()];
+    int i = 0;
+    for (Iterable<SkyKey> group : directDeps) {
+      List<SkyKey> groupList = (List<SkyKey>) group;
+      if (groupList.size() == 1) {
+        compressed[i++] = graph.getId(groupList.get(0));
+        continue;
+      }
+      Preconditions.checkState(groupList.size() <= MAX_INLINE_GROUP_SIZE, directDeps);
+      int header = i++;
+      for (SkyKey dep : groupList) {
+        compressed[i++] = graph.getId(dep);
+      }
+      int groupId = graph.getGroupIds().intern(compressed, header + 1, i);
+      if (groupId >= 0) {
+        compressed[header] = INTERNED_GROUP + groupId;
+        i = header + 1;
+      } else {
+        compressed[header] = -groupList.size();
+      }
+    }
+    return i == compressed.length ? compressed : Arrays.copyOf(compressed, i);
+  }
+
+  @Override
+  protected GroupedList<SkyKey> uncompressDirectDeps(Object compressedDirectDeps) {
+    if (!(compressedDirectDeps instanceof int[])) {
+      return GroupedList.create(compressedDirectDeps);
+    }
+    int[] compressed = (int[]) compressedDirectDeps;
+    GroupedListHelper<SkyKey> helper = new GroupedListHelper<>();
+    int i = 0;
+    while (i < compressed.length) {
+      if (compressed[i] >= 0) {
+        helper.add(graph.getKey(compressed[i++]));
+        continue;
+      }
+      helper.startGroup();
+      if (compressed[i] < -MAX_INLINE_GROUP_SIZE) {
+        for (int id : graph.getGroupIds().getGroup(compressed[i++] - INTERNED_GROUP)) {
+          helper.add(graph.getKey(id));
+        }
+      } else {
+        int groupEnd = i + 1 - compressed[i];
+        for (i++; i < groupEnd; i++) {
+          helper.add(graph.getKey(compressed[i]));
+        }
+      }
+      helper.endGroup();
+    }
+    GroupedList<SkyKey> directDeps = new GroupedList<>();
+    directDeps.append(helper);
+    return directDeps;
+  }
+
+  @Override
+  protected void retainDirectDeps(Object compressedDirectDeps) {
+    for (int groupId : getInternedGroups(compressedDirectDeps)) {
+      graph.getGroupIds().retain(groupId);
+    }
+  }
+
+  @Override
+  protected void releaseDirectDeps(Object compressedDirectDeps) {
+    for (int groupId : getInternedGroups(compressedDirectDeps)) {
+      graph.getGroupIds().release(groupId);
+    }
+  }
+
+  /** Returns the ids in the group table of the groups in {@code compressedDirectDeps}. */
+  private static int[] getInternedGroups(Object compressedDirectDeps) {
+    if (!(compressedDirectDeps instanceof int[])) {
+      return NO_DEPS;
+    }
+    int[] compressed = (int[]) compressedDirectDeps;
+    int[] groupIds = NO_DEPS;
+    int i = 0;
+    while (i < compressed.length) {
+      if (compressed[i] >= 0) {
+        i++;
+      } else if (compressed[i] < -MAX_INLINE_GROUP_SIZE) {
+        groupIds = Arrays.copyOf(groupIds, groupIds.length + 1);
+        groupIds[groupIds.length - 1] = compressed[i++] - INTERNED_GROUP;
+      } else {
+        i += 1 - compressed[i];
+      }
+    }
+    return groupIds;
+  }
+
+  @Override
+  public synchronized void removeReverseDep(SkyKey reverseDep) {
+    super.removeReverseDep(reverseDep);
+    // The removal may be deferred, leaving the id of the removed reverse dep in this entry.
+    graph.reverseDepRemoved(this);
+  }
+
+  @Override
+  protected List<SkyKey> newReverseDepsList(int expectedSize) {
+    return new SkyKeyIdList(graph, expectedSize);
+  }
+
+  /**
+   * Returns an entry of the same graph and id. Like this entry, the clone is only meaningful in
+   * that graph, and only while the node is in it.
+   */
+  @Override
+  protected InMemoryNodeEntry newEntryForClone() {
+    return new CompactInMemoryNodeEntry(graph, id);
+  }
+}
@@ -0,0 +1,30 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.skyframe;
+
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+
+/**
+ * Orders the nodes that are waiting to be evaluated. When there are more nodes ready for
+ * evaluation than there are threads, the nodes with the highest priority are evaluated first.
+ * Nodes with equal priorities are evaluated in the order in which they became ready.
+ */
+@ThreadSafe
+public interface EvaluationPriority {
+  /**
+   * Returns the priority of evaluating {@code key}. Called every time the node is enqueued, from
+   * evaluator threads, so it must be cheap.
+   */
+  int getPriority(SkyKey key);
+}
@@ -0,0 +1,46 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.skyframe;
+
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+
+import javax.annotation.Nullable;
+
+/**
+ * Bounds the memory used by an {@link InMemoryMemoizingEvaluator} by letting it evict values that
+ * are cheap to recompute.
+ *
+ * <p>Before each evaluation in which {@link #shouldEvict} returns true, the evaluator evicts the
+ * least recently requested half of the evictable values that the previous evaluation did not
+ * request. An evicted node is treated as if it had changed: it, and every node that transitively
+ * depends on it, is dirtied, and it is recomputed when it is next requested. Only the
+ * {@link #fingerprint} of its value is kept, so that if the recomputed value has the same
+ * fingerprint, the nodes that depend on it are not re-evaluated.
+ */
+@ThreadSafe
+public interface EvictionPolicy {
+  /** Returns whether values should be evicted before the next evaluation. */
+  boolean shouldEvict();
+
+  /** Returns whether the value of {@code key} may be evicted. */
+  boolean isEvictable(SkyKey key);
+
+  /**
+   * Returns a small object that is equal to the fingerprint of any value equal to {@code value},
+   * and to the fingerprint of no other value. If null, a recomputed value is always considered
+   * changed.
+   */
+  @Nullable
+  Object fingerprint(SkyValue value);
+}
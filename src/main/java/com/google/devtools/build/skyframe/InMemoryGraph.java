@@ -39,6 +39,9 @@ public class InMemoryGraph implements ProcessableGraph {
       new MapMaker().initialCapacity(1024).concurrencyLevel(200).makeMap();
   private final boolean keepEdges;
 
+  /** The number of evaluations started on this graph. Only written by the evaluating thread. */
+  private volatile int evaluations = 0;
+
   InMemoryGraph() {
     this(/*keepEdges=*/true);
   }
@@ -72,10 +75,28 @@ public class InMemoryGraph implements ProcessableGraph {
   @Override
   public NodeEntry createIfAbsent(SkyKey key) {
     NodeEntry newval = keepEdges ? new InMemoryNodeEntry() : new EdgelessInMemoryNodeEntry();
+    return putIfAbsent(key, newval);
+  }
+
+  /**
+   * Adds {@code newval} for {@code key} if there is no entry for {@code key} yet, and returns the
+   * entry for {@code key}.
+   */
+  protected NodeEntry putIfAbsent(SkyKey key, NodeEntry newval) {
     NodeEntry oldval = nodeMap.putIfAbsent(key, newval);
     return oldval == null ? newval : oldval;
   }
 
+  /** Starts a new evaluation, for the purposes of tracking when nodes were last requested. */
+  void startEvaluation() {
+    evaluations++;
+  }
+
+  /** Returns the number of the current or last evaluation started on this graph. */
+  int getEvaluations() {
+    return evaluations;
+  }
+
   /** Only done nodes exist to the outside world. */
   private static final Predicate<NodeEntry> NODE_DONE_PREDICATE =
       new Predicate<NodeEntry>() {
@@ -0,0 +1,242 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.skyframe;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Predicates;
+import com.google.common.collect.Iterables;
+import com.google.devtools.build.lib.util.GroupedList.GroupedListHelper;
+import com.google.devtools.build.lib.util.Pair;
+import com.google.devtools.build.skyframe.NodeEntry.DependencyState;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.WriteAbortedException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes the done nodes of an {@link InMemoryGraph} to a stream using Java serialization, and
+ * reads them back into an empty graph, so that a new server can start from the graph of an old
+ * one.
+ *
+ * <p>A node is only written if it is done, its key and value are serializable, it does not depend
+ * on {@link ErrorTransienceValue}, and all of its direct deps are written as well, so that the
+ * restored graph is closed under direct deps. Nodes are written in dependency order, which lets
+ * {@link #read} rebuild every node, including its edges, through the regular {@link NodeEntry}
+ * protocol.
+ *
+ * <p>Nodes are written to a single object stream, so that objects shared by many values are only
+ * written once. The stream is reset every {@link #NODES_PER_CHUNK} nodes, though, because both
+ * ends of an object stream keep a table of every object that went through it until it is reset.
+ * Objects shared across chunks are therefore written, and restored, once per chunk. Whether a key
+ * or value is serializable is only found out while writing it: {@link ObjectOutputStream} then
+ * records the failure in the stream, which {@link #read} skips.
+ *
+ * <p>Restored nodes get {@link #RESTORED_VERSION}, which is older than any version the restoring
+ * evaluator will evaluate at. Callers are responsible for invalidating restored nodes whose inputs
+ * changed in the meantime, exactly as they would after a build in the same server.
+ */
+final class InMemoryGraphSnapshot {
+  private static final int FORMAT_VERSION = 2;
+
+  /** The number of nodes written between two resets of the object stream. */
+  private static final int NODES_PER_CHUNK = 10000;
+
+  /** The version of all restored nodes. Precedes the first version of a fresh evaluator. */
+  static final IntVersion RESTORED_VERSION = new IntVersion(-1);
+
+  private InMemoryGraphSnapshot() {}
+
+  /** Writes all writable nodes of {@code graph} to {@code out}. Returns the number written. */
+  static int write(InMemoryGraph graph, OutputStream out) throws IOException {
+    Map<SkyKey, NodeEntry> nodes = graph.getAllValues();
+    Set<SkyKey> written = new HashSet<>();
+    ObjectOutputStream objectOut = new ObjectOutputStream(out);
+    objectOut.writeInt(FORMAT_VERSION);
+    for (SkyKey key : getCandidateKeysInDependencyOrder(nodes)) {
+      NodeEntry entry = nodes.get(key);
+      if (!Iterables.all(entry.getDirectDeps(), Predicates.in(written))) {
+        continue;
+      }
+      objectOut.writeBoolean(true);
+      if (!writeIfSerializable(objectOut, key)
+          || !writeIfSerializable(objectOut, entry.getValueWithMetadata())) {
+        continue;
+      }
+      Iterable<Iterable<SkyKey>> groups = ((InMemoryNodeEntry) entry).getGroupedDirectDeps();
+      objectOut.writeInt(Iterables.size(groups));
+      for (Iterable<SkyKey> group : groups) {
+        objectOut.writeInt(Iterables.size(group));
+        for (SkyKey dep : group) {
+          objectOut.writeObject(dep);
+        }
+      }
+      written.add(key);
+      if (written.size() % NODES_PER_CHUNK == 0) {
+        objectOut.reset();
+      }
+    }
+    objectOut.writeBoolean(false);
+    objectOut.flush();
+    return written.size();
+  }
+
+  /**
+   * Writes {@code object} to {@code out}, unless it is not serializable. In that case, {@code out}
+   * records the failure in place of the object, and stays usable.
+   */
+  private static boolean writeIfSerializable(ObjectOutputStream out, Object object)
+      throws IOException {
+    try {
+      out.writeObject(object);
+      return true;
+    } catch (NotSerializableException e) {
+      // Both streams forget the objects written so far on a failure, but not all readers forget
+      // the ones written for the failure itself. A reset keeps them in sync.
+      out.reset();
+      return false;
+    }
+  }
+
+  /**
+   * Reads the nodes written by {@link #write} into {@code graph}, which must not contain any of
+   * them yet. Returns the number of nodes read.
+   */
+  static int read(InMemoryGraph graph, InputStream in) throws IOException {
+    ObjectInputStream objectIn = new ObjectInputStream(in);
+    int formatVersion = objectIn.readInt();
+    if (formatVersion != FORMAT_VERSION) {
+      throw new IOException("Unsupported graph snapshot format: " + formatVersion);
+    }
+    int nodeCount = 0;
+    try {
+      while (objectIn.readBoolean()) {
+        SkyKey key;
+        ValueWithMetadata value;
+        try {
+          key = (SkyKey) objectIn.readObject();
+          value = (ValueWithMetadata) objectIn.readObject();
+        } catch (WriteAbortedException e) {
+          // The key or value could not be serialized, so the node was not written.
+          continue;
+        }
+        GroupedListHelper<SkyKey> directDeps = new GroupedListHelper<>();
+        int groupCount = objectIn.readInt();
+        for (int j = 0; j < groupCount; j++) {
+          directDeps.startGroup();
+          int groupSize = objectIn.readInt();
+          for (int k = 0; k < groupSize; k++) {
+            directDeps.add((SkyKey) objectIn.readObject());
+          }
+          directDeps.endGroup();
+        }
+        restore(graph, key, value, directDeps);
+        nodeCount++;
+      }
+    } catch (ClassNotFoundException | ClassCastException e) {
+      throw new IOException("Corrupt graph snapshot", e);
+    }
+    return nodeCount;
+  }
+
+  private static void restore(InMemoryGraph graph, SkyKey key, ValueWithMetadata value,
+      GroupedListHelper<SkyKey> directDeps) {
+    NodeEntry entry = graph.createIfAbsent(key);
+    Preconditions.checkState(entry.addReverseDepAndCheckIfDone(null)
+        == DependencyState.NEEDS_SCHEDULING, "%s already present: %s", key, entry);
+    entry.addTemporaryDirectDeps(directDeps);
+    for (SkyKey dep : directDeps) {
+      NodeEntry depEntry = Preconditions.checkNotNull(graph.get(dep), "%s %s", key, dep);
+      Preconditions.checkState(depEntry.addReverseDepAndCheckIfDone(key) == DependencyState.DONE,
+          "%s was restored before its dep %s", key, dep);
+      entry.signalDep(depEntry.getVersion());
+    }
+    entry.setValue(ValueWithMetadata.normal(value.getValue(), value.getErrorInfo(),
+        value.getTransitiveEvents()), RESTORED_VERSION);
+  }
+
+  /**
+   * Returns the keys of all nodes that can be written if their keys and values are serializable,
+   * such that every key comes after all of its direct deps.
+   */
+  private static List<SkyKey> getCandidateKeysInDependencyOrder(Map<SkyKey, NodeEntry> nodes) {
+    // Absent while unvisited, null while being visited, and whether the node is writable after.
+    Map<SkyKey, Boolean> writable = new HashMap<>();
+    List<SkyKey> result = new ArrayList<>();
+    Deque<Pair<SkyKey, Iterator<SkyKey>>> stack = new ArrayDeque<>();
+    for (SkyKey root : nodes.keySet()) {
+      if (writable.containsKey(root) || !startVisit(root, nodes, writable, stack)) {
+        continue;
+      }
+      while (!stack.isEmpty()) {
+        Pair<SkyKey, Iterator<SkyKey>> current = stack.peek();
+        if (!current.second.hasNext()) {
+          stack.pop();
+          writable.put(current.first, true);
+          result.add(current.first);
+          continue;
+        }
+        SkyKey dep = current.second.next();
+        if (!writable.containsKey(dep)) {
+          startVisit(dep, nodes, writable, stack);
+        } else if (!Boolean.TRUE.equals(writable.get(dep))) {
+          // The dep cannot be written, or depends on the current node. Either way, no node that is
+          // currently being visited can be written.
+          for (Pair<SkyKey, Iterator<SkyKey>> visiting : stack) {
+            writable.put(visiting.first, false);
+          }
+          stack.clear();
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Marks {@code key} as visited. If its node may be writable, pushes it onto {@code stack} so that
+   * its deps get visited, and returns true.
+   */
+  private static boolean startVisit(SkyKey key, Map<SkyKey, NodeEntry> nodes,
+      Map<SkyKey, Boolean> writable, Deque<Pair<SkyKey, Iterator<SkyKey>>> stack) {
+    NodeEntry entry = nodes.get(key);
+    // Nodes with transient errors depend on the error transience node. Leaving it out means those
+    // errors are retried by the next server, rather than restored.
+    if (entry == null || key.equals(ErrorTransienceValue.key()) || !entry.isDone()
+        || !entry.keepEdges()) {
+      writable.put(key, false);
+      if (!stack.isEmpty()) {
+        for (Pair<SkyKey, Iterator<SkyKey>> visiting : stack) {
+          writable.put(visiting.first, false);
+        }
+        stack.clear();
+      }
+      return false;
+    }
+    writable.put(key, null);
+    stack.push(Pair.of(key, entry.getDirectDeps().iterator()));
+    return true;
+  }
+}
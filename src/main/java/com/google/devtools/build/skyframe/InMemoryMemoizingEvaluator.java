@@ -18,9 +18,12 @@ import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Multiset;
 import com.google.common.collect.Sets;
+import com.google.common.collect.TreeMultiset;
 import com.google.devtools.build.lib.events.EventHandler;
 import com.google.devtools.build.skyframe.Differencer.Diff;
 import com.google.devtools.build.skyframe.InvalidatingNodeVisitor.DeletingInvalidationState;
@@ -28,10 +31,19 @@ import com.google.devtools.build.skyframe.InvalidatingNodeVisitor.DirtyingInvali
 import com.google.devtools.build.skyframe.InvalidatingNodeVisitor.InvalidationState;
 import com.google.devtools.build.skyframe.NodeEntry.DependencyState;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
@@ -76,6 +88,16 @@ public final class InMemoryMemoizingEvaluator implements MemoizingEvaluator {
 
   private final AtomicBoolean evaluating = new AtomicBoolean(false);
 
+  private final boolean useForkJoinPool;
+  @Nullable private EvaluationPriority priority = null;
+  @Nullable private EvictionPolicy evictionPolicy = null;
+
+  /**
+   * The roots requested since the nodes were last told which evaluation requested them, with the
+   * last evaluation that requested each root. See {@link #markRequestedNodes}.
+   */
+  private final Map<SkyKey, Integer> requestedRoots = new HashMap<>();
+
   public InMemoryMemoizingEvaluator(
       Map<? extends SkyFunctionName, ? extends SkyFunction> skyFunctions, Differencer differencer) {
     this(skyFunctions, differencer, null);
@@ -91,12 +113,22 @@ public final class InMemoryMemoizingEvaluator implements MemoizingEvaluator {
       Map<? extends SkyFunctionName, ? extends SkyFunction> skyFunctions, Differencer differencer,
       @Nullable EvaluationProgressReceiver invalidationReceiver,
       EmittedEventState emittedEventState, boolean keepEdges) {
+    this(skyFunctions, differencer, invalidationReceiver, emittedEventState, keepEdges,
+        new InMemoryGraph(keepEdges), /*useForkJoinPool=*/false);
+  }
+
+  private InMemoryMemoizingEvaluator(
+      Map<? extends SkyFunctionName, ? extends SkyFunction> skyFunctions, Differencer differencer,
+      @Nullable EvaluationProgressReceiver invalidationReceiver,
+      EmittedEventState emittedEventState, boolean keepEdges, InMemoryGraph graph,
+      boolean useForkJoinPool) {
     this.skyFunctions = ImmutableMap.copyOf(skyFunctions);
     this.differencer = Preconditions.checkNotNull(differencer);
     this.progressReceiver = invalidationReceiver;
-    this.graph = new InMemoryGraph(keepEdges);
+    this.graph = graph;
     this.emittedEventState = emittedEventState;
     this.keepEdges = keepEdges;
+    this.useForkJoinPool = useForkJoinPool;
   }
 
   private void invalidate(Iterable<SkyKey> diff) {
@@ -151,13 +183,18 @@ public final class InMemoryMemoizingEvaluator implements MemoizingEvaluator {
       invalidate(diff.changedKeysWithoutNewValues());
       pruneInjectedValues(valuesToInject);
       invalidate(valuesToInject.keySet());
+      Set<SkyKey> valuesToEvict = selectValuesToEvict();
+      invalidate(valuesToEvict);
 
       performInvalidation();
+      evictValues(valuesToEvict);
       injectValues(intVersion);
+      graph.startEvaluation();
+      recordRequestedRoots(roots);
 
       ParallelEvaluator evaluator = new ParallelEvaluator(graph, intVersion,
           skyFunctions, eventHandler, emittedEventState, keepGoing, numThreads, progressReceiver,
-          dirtyKeyTracker);
+          dirtyKeyTracker, useForkJoinPool, priority);
       EvaluationResult<T> result = evaluator.eval(roots);
       return EvaluationResult.<T>builder()
           .mergeFrom(result)
@@ -192,6 +229,119 @@ public final class InMemoryMemoizingEvaluator implements MemoizingEvaluator {
     }
   }
 
+  /**
+   * Records that the current evaluation requested {@code roots}. The nodes reachable from them
+   * only find out when values are evicted.
+   */
+  private void recordRequestedRoots(Iterable<SkyKey> roots) {
+    if (evictionPolicy == null) {
+      // An eviction policy that is set later only needs to know about the last evaluation.
+      requestedRoots.clear();
+    }
+    int evaluation = graph.getEvaluations();
+    for (SkyKey root : roots) {
+      requestedRoots.put(root, evaluation);
+    }
+  }
+
+  /**
+   * Returns the keys of the values to evict before this evaluation: the least recently requested
+   * half of the done, evictable values without errors that were not used by the last evaluation.
+   */
+  private Set<SkyKey> selectValuesToEvict() {
+    if (evictionPolicy == null || !evictionPolicy.shouldEvict()) {
+      return ImmutableSet.of();
+    }
+    int lastEvaluation = graph.getEvaluations();
+    markRequestedNodes();
+    // Count the candidates per evaluation that last requested them, instead of sorting them, and
+    // find the evaluation that splits them in half.
+    List<Entry<SkyKey, NodeEntry>> candidates = new ArrayList<>();
+    TreeMultiset<Integer> lastRequested = TreeMultiset.create();
+    for (Entry<SkyKey, NodeEntry> entry : graph.getAllValues().entrySet()) {
+      InMemoryNodeEntry nodeEntry = (InMemoryNodeEntry) entry.getValue();
+      if (nodeEntry.getLastRequestedEvaluation() < lastEvaluation && nodeEntry.isDone()
+          && nodeEntry.getErrorInfo() == null && evictionPolicy.isEvictable(entry.getKey())) {
+        candidates.add(entry);
+        lastRequested.add(nodeEntry.getLastRequestedEvaluation());
+      }
+    }
+    int remaining = (candidates.size() + 1) / 2;
+    if (remaining == 0) {
+      return ImmutableSet.of();
+    }
+    int cutoff = 0;
+    for (Multiset.Entry<Integer> count : lastRequested.entrySet()) {
+      cutoff = count.getElement();
+      if (count.getCount() >= remaining) {
+        break;
+      }
+      remaining -= count.getCount();
+    }
+    // Evict every candidate requested before the cutoff, and as many of those requested by the
+    // cutoff evaluation as are needed to make up half.
+    ImmutableSet.Builder<SkyKey> valuesToEvict = ImmutableSet.builder();
+    for (Entry<SkyKey, NodeEntry> entry : candidates) {
+      int evaluation = ((InMemoryNodeEntry) entry.getValue()).getLastRequestedEvaluation();
+      if (evaluation < cutoff || (evaluation == cutoff && remaining-- > 0)) {
+        valuesToEvict.add(entry.getKey());
+      }
+    }
+    return valuesToEvict.build();
+  }
+
+  /**
+   * Tells the nodes reachable from the roots in {@link #requestedRoots} the last evaluation that
+   * requested one of those roots. An evaluation does not visit the dependencies of a done value
+   * that it requests, but evicting them would dirty the value, so they are in use all the same.
+   * The roots of the most recent evaluations are visited first, so that each node is visited at
+   * most once.
+   */
+  private void markRequestedNodes() {
+    List<Entry<SkyKey, Integer>> roots = new ArrayList<>(requestedRoots.entrySet());
+    requestedRoots.clear();
+    Collections.sort(roots, new Comparator<Entry<SkyKey, Integer>>() {
+      @Override
+      public int compare(Entry<SkyKey, Integer> a, Entry<SkyKey, Integer> b) {
+        return Integer.compare(b.getValue(), a.getValue());
+      }
+    });
+    Deque<InMemoryNodeEntry> toVisit = new ArrayDeque<>();
+    for (Entry<SkyKey, Integer> root : roots) {
+      int evaluation = root.getValue();
+      markRequested(root.getKey(), evaluation, toVisit);
+      while (!toVisit.isEmpty()) {
+        for (SkyKey dep : toVisit.pop().getDirectDeps()) {
+          markRequested(dep, evaluation, toVisit);
+        }
+      }
+    }
+  }
+
+  private void markRequested(SkyKey key, int evaluation, Deque<InMemoryNodeEntry> toVisit) {
+    InMemoryNodeEntry entry = (InMemoryNodeEntry) graph.get(key);
+    if (entry != null && entry.getLastRequestedEvaluation() < evaluation) {
+      entry.markRequested(evaluation);
+      if (keepEdges && entry.isDone()) {
+        toVisit.push(entry);
+      }
+    }
+  }
+
+  /**
+   * Drops the values of {@code valuesToEvict}, which have just been marked changed, keeping only
+   * their fingerprints for change pruning.
+   */
+  private void evictValues(Set<SkyKey> valuesToEvict) {
+    for (SkyKey key : valuesToEvict) {
+      InMemoryNodeEntry entry = (InMemoryNodeEntry) graph.get(key);
+      // The node may have been deleted in the meantime.
+      if (entry != null) {
+        entry.evictLastBuildValue(evictionPolicy);
+      }
+    }
+  }
+
   /**
    * Injects values in {@code valuesToInject} into the graph.
    */
@@ -308,6 +458,30 @@ public final class InMemoryMemoizingEvaluator implements MemoizingEvaluator {
     }
   }
 
+  @Override
+  public int writeSnapshot(OutputStream out) throws IOException {
+    return InMemoryGraphSnapshot.write(graph, out);
+  }
+
+  @Override
+  public int readSnapshot(InputStream in) throws IOException {
+    Preconditions.checkState(lastGraphVersion == null, "Graph already evaluated at %s",
+        lastGraphVersion);
+    return InMemoryGraphSnapshot.read(graph, in);
+  }
+
+  @Override
+  public void setEvaluationPriority(@Nullable EvaluationPriority priority) {
+    Preconditions.checkArgument(priority == null || !useForkJoinPool,
+        "Nodes cannot be prioritized when they are evaluated in a fork-join pool");
+    this.priority = priority;
+  }
+
+  @Override
+  public void setEvictionPolicy(@Nullable EvictionPolicy policy) {
+    this.evictionPolicy = policy;
+  }
+
   public static final EvaluatorSupplier SUPPLIER = new EvaluatorSupplier() {
     @Override
     public MemoizingEvaluator create(
@@ -318,4 +492,25 @@ public final class InMemoryMemoizingEvaluator implements MemoizingEvaluator {
           emittedEventState, keepEdges);
     }
   };
+
+  /**
+   * Returns a supplier of evaluators that are backed by a {@link CompactInMemoryGraph} if
+   * {@code compactGraph} is true, and that evaluate in a work-stealing
+   * {@link java.util.concurrent.ForkJoinPool} if {@code useForkJoinPool} is true.
+   */
+  public static EvaluatorSupplier supplier(final boolean compactGraph,
+      final boolean useForkJoinPool) {
+    return new EvaluatorSupplier() {
+      @Override
+      public MemoizingEvaluator create(
+          Map<? extends SkyFunctionName, ? extends SkyFunction> skyFunctions,
+          Differencer differencer, @Nullable EvaluationProgressReceiver invalidationReceiver,
+          EmittedEventState emittedEventState, boolean keepEdges) {
+        return new InMemoryMemoizingEvaluator(skyFunctions, differencer, invalidationReceiver,
+            emittedEventState, keepEdges,
+            compactGraph ? new CompactInMemoryGraph(keepEdges) : new InMemoryGraph(keepEdges),
+            useForkJoinPool);
+      }
+    };
+  }
 }
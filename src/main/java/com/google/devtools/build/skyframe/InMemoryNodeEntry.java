@@ -18,6 +18,7 @@ import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
 import com.google.devtools.build.lib.util.GroupedList;
 import com.google.devtools.build.lib.util.GroupedList.GroupedListHelper;
 import com.google.devtools.build.lib.util.Pair;
@@ -31,6 +32,14 @@ import javax.annotation.Nullable;
 /**
  * In-memory implementation of {@link NodeEntry}. All operations on this class are thread-safe.
  *
+ * <p>State transitions are guarded by the entry's monitor. Operations that are performed
+ * concurrently by many threads on popular nodes avoid it, though: reading the value and version of
+ * a done node only reads volatile fields, and once a done node has many reverse deps, new ones are
+ * appended to a {@link ReverseDepsAppendBuffer} with a compare-and-swap. Buffered reverse deps are
+ * moved to {@link #reverseDeps} under the monitor before reverse deps are read or removed, or the
+ * node is marked dirty. Likewise, children signal a node that is not dirty with an atomic add to a
+ * word that holds both its number of deps and its number of signaled deps.
+ *
  * <p>Care was taken to provide certain compound operations to avoid certain check-then-act races.
  * That means this class is somewhat closely tied to the exact Evaluator implementation.
  *
@@ -50,8 +59,16 @@ import javax.annotation.Nullable;
  */
 public class InMemoryNodeEntry implements NodeEntry {
 
+  /**
+   * Done nodes with at least this many reverse deps accept new ones through a
+   * {@link ReverseDepsAppendBuffer}.
+   */
+  private static final int APPEND_BUFFER_THRESHOLD = 32;
+
+  private static final int MAX_APPEND_BUFFER_CAPACITY = 256;
+
   /** Actual data stored in this entry when it is done. */
-  private SkyValue value = null;
+  private volatile SkyValue value = null;
 
   /**
    * The last version of the graph at which this node entry was changed. In {@link #setValue} it
@@ -59,7 +76,14 @@ public class InMemoryNodeEntry implements NodeEntry {
    * the already-stored data. In that case, the version will remain the same. The version can be
    * thought of as the latest timestamp at which this entry was changed.
    */
-  private Version version = MinimalVersion.INSTANCE;
+  private volatile Version version = MinimalVersion.INSTANCE;
+
+  /**
+   * The last evaluation, as counted by {@link InMemoryGraph#startEvaluation}, that requested a
+   * root this node is reachable from. Only brought up to date when values are about to be evicted,
+   * to pick the least recently requested ones.
+   */
+  private int lastRequestedEvaluation = 0;
 
   /**
    * This object represents a {@link GroupedList}<SkyKey> in a memory-efficient way. It stores the
@@ -91,8 +115,12 @@ public class InMemoryNodeEntry implements NodeEntry {
    * {@code consolidateReverseDepsRemovals} first. While this operation is not free, it can be done
    * more effectively than trying to remove each dirty reverse dependency individually (O(N) each
    * time).
+   *
+   * <p>If this node is done and has many reverse deps, this instead holds the
+   * {@link ReverseDepsAppendBuffer} that new reverse deps are appended to. The two uses never
+   * overlap, since the buffer is always flushed before a reverse dep is removed.
    */
-  private List<SkyKey> reverseDepsToRemove = null;
+  private volatile Object reverseDepsToRemoveOrAppendBuffer = null;
 
   private static final ReverseDepsUtil<InMemoryNodeEntry> REVERSE_DEPS_UTIL =
       new ReverseDepsUtil<InMemoryNodeEntry>() {
@@ -108,7 +136,7 @@ public class InMemoryNodeEntry implements NodeEntry {
 
     @Override
     void setReverseDepsToRemove(InMemoryNodeEntry container, List<SkyKey> object) {
-      container.reverseDepsToRemove = object;
+      container.reverseDepsToRemoveOrAppendBuffer = object;
     }
 
     @Override
@@ -121,9 +149,16 @@ public class InMemoryNodeEntry implements NodeEntry {
       return container.reverseDepIsSingleObject;
     }
 
+    @SuppressWarnings("unchecked")
     @Override
     List<SkyKey> getReverseDepsToRemove(InMemoryNodeEntry container) {
-      return container.reverseDepsToRemove;
+      Object toRemove = container.reverseDepsToRemoveOrAppendBuffer;
+      return toRemove instanceof List ? (List<SkyKey>) toRemove : null;
+    }
+
+    @Override
+    List<SkyKey> newReverseDepsList(InMemoryNodeEntry container, int expectedSize) {
+      return container.newReverseDepsList(expectedSize);
     }
   };
 
@@ -132,7 +167,7 @@ public class InMemoryNodeEntry implements NodeEntry {
    * us to keep the current state of the entry across invalidation and successive evaluations.
    */
   @VisibleForTesting
-  protected BuildingState buildingState = new BuildingState();
+  protected volatile BuildingState buildingState = new BuildingState();
 
   /**
    * Construct a InMemoryNodeEntry. Use ONLY in Skyframe evaluation and graph implementations.
@@ -145,21 +180,103 @@ public class InMemoryNodeEntry implements NodeEntry {
     return true;
   }
 
+  /**
+   * Returns the representation of {@code directDeps} that is stored in this entry once it is done.
+   * Subclasses that override this must also override {@link #uncompressDirectDeps} and
+   * {@link #newEntryForClone}, and may override {@link #retainDirectDeps} and
+   * {@link #releaseDirectDeps}.
+   */
+  protected Object compressDirectDeps(GroupedList<SkyKey> directDeps) {
+    return directDeps.compress();
+  }
+
+  /** Inverse of {@link #compressDirectDeps}. */
+  protected GroupedList<SkyKey> uncompressDirectDeps(Object compressedDirectDeps) {
+    return GroupedList.create(compressedDirectDeps);
+  }
+
+  /**
+   * Called when a clone of this entry starts sharing {@code compressedDirectDeps}, which
+   * {@link #compressDirectDeps} returned.
+   */
+  protected void retainDirectDeps(Object compressedDirectDeps) {
+  }
+
+  /**
+   * Called when this entry stops holding {@code compressedDirectDeps}, which
+   * {@link #compressDirectDeps} returned or {@link #retainDirectDeps} was called with, because it
+   * was marked dirty or removed from its graph.
+   */
+  protected void releaseDirectDeps(Object compressedDirectDeps) {
+  }
+
+  /** Drops the direct deps of this done entry. */
+  private void dropDirectDeps() {
+    if (directDeps != null) {
+      releaseDirectDeps(directDeps);
+      directDeps = null;
+    }
+  }
+
+  /**
+   * Called by the graph when it removes this entry. Nothing may read the direct deps of this entry
+   * afterwards.
+   */
+  synchronized void removedFromGraph() {
+    dropDirectDeps();
+  }
+
+  /** Returns a new, empty entry of the same kind as this one, for {@link #cloneNodeEntry}. */
+  protected InMemoryNodeEntry newEntryForClone() {
+    return new InMemoryNodeEntry();
+  }
+
+  /**
+   * Returns a new mutable list that will hold the reverse deps of this entry once there is more
+   * than one of them.
+   */
+  protected List<SkyKey> newReverseDepsList(int expectedSize) {
+    return Lists.newArrayListWithExpectedSize(expectedSize);
+  }
+
   @Override
-  public synchronized boolean isDone() {
+  public boolean isDone() {
     return buildingState == null;
   }
 
+  /**
+   * Returns the value of this node if it is done, without taking the lock, or null if the caller
+   * must take the lock to find out. A done node always has a value, and {@link #setValue} and
+   * {@link #markClean} set it before they mark the node done.
+   */
+  @Nullable
+  private SkyValue getDoneValueUnsynchronized() {
+    SkyValue doneValue = value;
+    return doneValue != null && isDone() ? doneValue : null;
+  }
+
   @Override
-  public synchronized SkyValue getValue() {
-    Preconditions.checkState(isDone(), "no value until done. ValueEntry: %s", this);
-    return ValueWithMetadata.justValue(value);
+  public SkyValue getValue() {
+    SkyValue doneValue = getDoneValueUnsynchronized();
+    if (doneValue != null) {
+      return ValueWithMetadata.justValue(doneValue);
+    }
+    synchronized (this) {
+      Preconditions.checkState(isDone(), "no value until done. ValueEntry: %s", this);
+      return ValueWithMetadata.justValue(value);
+    }
   }
 
   @Override
-  public synchronized ValueWithMetadata getValueWithMetadata() {
-    Preconditions.checkState(isDone(), "no value until done: %s", this);
-    return ValueWithMetadata.wrapWithMetadata(value);
+  public ValueWithMetadata getValueWithMetadata() {
+    SkyValue doneValue = getDoneValueUnsynchronized();
+    if (doneValue != null) {
+      return ValueWithMetadata.wrapWithMetadata(doneValue);
+    }
+    synchronized (this) {
+      Preconditions.checkState(isDone(), "no value until done: %s", this);
+      return ValueWithMetadata.wrapWithMetadata(value);
+    }
   }
 
   @Override
@@ -167,6 +284,9 @@ public class InMemoryNodeEntry implements NodeEntry {
     if (isDone()) {
       return getErrorInfo() == null ? getValue() : null;
     } else if (isChanged() || isDirty()) {
+      if (buildingState.isLastBuildValueEvicted()) {
+        return null;
+      }
       return (buildingState.getLastBuildValue() == null)
               ? null
           : ValueWithMetadata.justValue(buildingState.getLastBuildValue());
@@ -178,7 +298,7 @@ public class InMemoryNodeEntry implements NodeEntry {
   public synchronized Iterable<SkyKey> getDirectDeps() {
     assertKeepEdges();
     Preconditions.checkState(isDone(), "no deps until done. ValueEntry: %s", this);
-    return GroupedList.<SkyKey>create(directDeps).toSet();
+    return uncompressDirectDeps(directDeps).toSet();
   }
 
   /**
@@ -188,14 +308,20 @@ public class InMemoryNodeEntry implements NodeEntry {
   public synchronized Iterable<Iterable<SkyKey>> getGroupedDirectDeps() {
     assertKeepEdges();
     Preconditions.checkState(isDone(), "no deps until done. ValueEntry: %s", this);
-    return GroupedList.<SkyKey>create(directDeps);
+    return uncompressDirectDeps(directDeps);
   }
 
   @Override
   @Nullable
-  public synchronized ErrorInfo getErrorInfo() {
-    Preconditions.checkState(isDone(), "no errors until done. ValueEntry: %s", this);
-    return ValueWithMetadata.getMaybeErrorInfo(value);
+  public ErrorInfo getErrorInfo() {
+    SkyValue doneValue = getDoneValueUnsynchronized();
+    if (doneValue != null) {
+      return ValueWithMetadata.getMaybeErrorInfo(doneValue);
+    }
+    synchronized (this) {
+      Preconditions.checkState(isDone(), "no errors until done. ValueEntry: %s", this);
+      return ValueWithMetadata.getMaybeErrorInfo(value);
+    }
   }
 
   private synchronized Set<SkyKey> setStateFinishedAndReturnReverseDeps() {
@@ -203,13 +329,13 @@ public class InMemoryNodeEntry implements NodeEntry {
     ImmutableSet<SkyKey> reverseDepsToSignal = buildingState.getReverseDepsToSignal();
     REVERSE_DEPS_UTIL.consolidateReverseDepsRemovals(this);
     REVERSE_DEPS_UTIL.addReverseDeps(this, reverseDepsToSignal);
-    this.directDeps = buildingState.getFinishedDirectDeps().compress();
+    this.directDeps = compressDirectDeps(buildingState.getFinishedDirectDeps());
 
     // Set state of entry to done.
     buildingState = null;
 
     if (!keepEdges()) {
-      this.directDeps = null;
+      dropDirectDeps();
       this.reverseDeps = null;
     }
     return reverseDepsToSignal;
@@ -230,8 +356,11 @@ public class InMemoryNodeEntry implements NodeEntry {
 
     if (isDirty() && buildingState.unchangedFromLastBuild(value)) {
       // If the value is the same as before, just use the old value. Note that we don't use the new
-      // value, because preserving == equality is even better than .equals() equality.
-      this.value = buildingState.getLastBuildValue();
+      // value, because preserving == equality is even better than .equals() equality. An evicted
+      // value only left its fingerprint behind, though.
+      this.value = buildingState.isLastBuildValueEvicted()
+          ? value
+          : buildingState.getLastBuildValue();
     } else {
       // If this is a new value, or it has changed since the last build, set the version to the
       // current graph version.
@@ -243,15 +372,30 @@ public class InMemoryNodeEntry implements NodeEntry {
   }
 
   @Override
-  public synchronized DependencyState addReverseDepAndCheckIfDone(SkyKey reverseDep) {
+  public DependencyState addReverseDepAndCheckIfDone(SkyKey reverseDep) {
+    if (reverseDep != null) {
+      // An append buffer is only present while this node is done.
+      Object appendBuffer = reverseDepsToRemoveOrAppendBuffer;
+      if (appendBuffer instanceof ReverseDepsAppendBuffer
+          && ((ReverseDepsAppendBuffer) appendBuffer).tryAppend(reverseDep)) {
+        return DependencyState.DONE;
+      }
+    }
+    return addReverseDepAndCheckIfDoneSynchronized(reverseDep);
+  }
+
+  private synchronized DependencyState addReverseDepAndCheckIfDoneSynchronized(
+      SkyKey reverseDep) {
     if (reverseDep != null) {
       if (keepEdges()) {
+        flushAppendedReverseDeps();
         REVERSE_DEPS_UTIL.consolidateReverseDepsRemovals(this);
         REVERSE_DEPS_UTIL.maybeCheckReverseDepNotPresent(this, reverseDep);
       }
       if (isDone()) {
         if (keepEdges()) {
           REVERSE_DEPS_UTIL.addReverseDeps(this, ImmutableList.of(reverseDep));
+          maybeCreateAppendBuffer();
         }
       } else {
         // Parent should never register itself twice in the same build.
@@ -265,11 +409,40 @@ public class InMemoryNodeEntry implements NodeEntry {
                                            : DependencyState.ADDED_DEP;
   }
 
+  /**
+   * If this done node has enough reverse deps that parents are likely to contend for its lock when
+   * adding more, lets them append to a buffer instead.
+   */
+  private void maybeCreateAppendBuffer() {
+    if (reverseDepIsSingleObject || reverseDepsToRemoveOrAppendBuffer != null) {
+      return;
+    }
+    int size = ((List<?>) reverseDeps).size();
+    if (size >= APPEND_BUFFER_THRESHOLD) {
+      reverseDepsToRemoveOrAppendBuffer =
+          new ReverseDepsAppendBuffer(Math.min(size / 4, MAX_APPEND_BUFFER_CAPACITY));
+    }
+  }
+
+  /**
+   * Moves the reverse deps that were appended without taking the lock to {@link #reverseDeps}.
+   * Must be called before reverse deps are read or removed, or this node stops being done.
+   */
+  protected synchronized void flushAppendedReverseDeps() {
+    if (reverseDepsToRemoveOrAppendBuffer instanceof ReverseDepsAppendBuffer) {
+      List<SkyKey> appended =
+          ((ReverseDepsAppendBuffer) reverseDepsToRemoveOrAppendBuffer).close();
+      reverseDepsToRemoveOrAppendBuffer = null;
+      REVERSE_DEPS_UTIL.addReverseDeps(this, appended);
+    }
+  }
+
   @Override
   public synchronized void removeReverseDep(SkyKey reverseDep) {
     if (!keepEdges()) {
       return;
     }
+    flushAppendedReverseDeps();
     REVERSE_DEPS_UTIL.removeReverseDep(this, reverseDep);
     if (!isDone()) {
       // This is currently unnecessary -- the only time we remove a reverse dep that was added this
@@ -279,22 +452,39 @@ public class InMemoryNodeEntry implements NodeEntry {
     }
   }
 
+  /** Applies the removals of reverse deps that were deferred by {@link #removeReverseDep}. */
+  protected synchronized void consolidateReverseDepsRemovals() {
+    REVERSE_DEPS_UTIL.consolidateReverseDepsRemovals(this);
+  }
+
   @Override
   public synchronized Iterable<SkyKey> getReverseDeps() {
     assertKeepEdges();
     Preconditions.checkState(isDone() || buildingState.getReverseDepsToSignal().isEmpty(),
         "Reverse deps should only be queried before the build has begun "
             + "or after the node is done %s", this);
+    flushAppendedReverseDeps();
     return REVERSE_DEPS_UTIL.getReverseDeps(this);
   }
 
   @Override
-  public synchronized boolean signalDep() {
+  public boolean signalDep() {
     return signalDep(/*childVersion=*/new IntVersion(Long.MAX_VALUE));
   }
 
   @Override
-  public synchronized boolean signalDep(Version childVersion) {
+  public boolean signalDep(Version childVersion) {
+    BuildingState state = buildingState;
+    if (state != null) {
+      Boolean ready = state.signalDepIfNotDirty();
+      if (ready != null) {
+        return ready;
+      }
+    }
+    return signalDepSynchronized(childVersion);
+  }
+
+  private synchronized boolean signalDepSynchronized(Version childVersion) {
     Preconditions.checkState(!isDone(), "Value must not be done in signalDep %s", this);
     return buildingState.signalDep(/*childChanged=*/!childVersion.atMost(getVersion()));
   }
@@ -320,12 +510,13 @@ public class InMemoryNodeEntry implements NodeEntry {
       boolean isChanged) {
     assertKeepEdges();
     if (isDone()) {
-      GroupedList<SkyKey> lastDirectDeps = GroupedList.create(directDeps);
+      flushAppendedReverseDeps();
+      GroupedList<SkyKey> lastDirectDeps = uncompressDirectDeps(directDeps);
       buildingState = BuildingState.newDirtyState(isChanged, lastDirectDeps, value);
       Pair<? extends Iterable<SkyKey>, ? extends SkyValue> result =
           Pair.of(lastDirectDeps.toSet(), value);
       value = null;
-      directDeps = null;
+      dropDirectDeps();
       return result;
     }
     // The caller may be simultaneously trying to mark this node dirty and changed, and the dirty
@@ -362,8 +553,26 @@ public class InMemoryNodeEntry implements NodeEntry {
     buildingState.forceChanged();
   }
 
+  /** Records that {@code evaluation} requested this node. */
+  void markRequested(int evaluation) {
+    lastRequestedEvaluation = evaluation;
+  }
+
+  int getLastRequestedEvaluation() {
+    return lastRequestedEvaluation;
+  }
+
+  /**
+   * Drops the value this node kept for change pruning when it was marked changed, keeping only its
+   * fingerprint under {@code policy}. See {@link EvictionPolicy}.
+   */
+  synchronized void evictLastBuildValue(EvictionPolicy policy) {
+    Preconditions.checkState(isChanged(), this);
+    buildingState.evictLastBuildValue(policy);
+  }
+
   @Override
-  public synchronized Version getVersion() {
+  public Version getVersion() {
     return version;
   }
 
@@ -413,8 +622,10 @@ public class InMemoryNodeEntry implements NodeEntry {
     return Objects.toStringHelper(this)  // MoreObjects is not in Guava
         .add("value", value)
         .add("version", version)
-        .add("directDeps", directDeps == null ? null : GroupedList.create(directDeps))
+        .add("directDeps", directDeps == null ? null : uncompressDirectDeps(directDeps))
         .add("reverseDeps", REVERSE_DEPS_UTIL.toString(this))
+        .add("appendBuffer", reverseDepsToRemoveOrAppendBuffer instanceof ReverseDepsAppendBuffer
+            ? reverseDepsToRemoveOrAppendBuffer : null)
         .add("buildingState", buildingState).toString();
   }
 
@@ -426,11 +637,13 @@ public class InMemoryNodeEntry implements NodeEntry {
   public synchronized InMemoryNodeEntry cloneNodeEntry() {
     // As this is temporary, for now lets limit to done nodes
     Preconditions.checkState(isDone(), "Only done nodes can be copied");
-    InMemoryNodeEntry nodeEntry = new InMemoryNodeEntry();
+    flushAppendedReverseDeps();
+    InMemoryNodeEntry nodeEntry = newEntryForClone();
     nodeEntry.value = value;
     nodeEntry.version = this.version;
     REVERSE_DEPS_UTIL.addReverseDeps(nodeEntry, REVERSE_DEPS_UTIL.getReverseDeps(this));
     nodeEntry.directDeps = directDeps;
+    nodeEntry.retainDirectDeps(directDeps);
     nodeEntry.buildingState = null;
     return nodeEntry;
   }
@@ -21,11 +21,14 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Sets;
 import com.google.devtools.build.lib.concurrent.AbstractQueueVisitor;
+import com.google.devtools.build.lib.concurrent.NamedForkJoinPool;
 import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.profiler.Profiler;
+import com.google.devtools.build.lib.profiler.ProfilerTask;
 import com.google.devtools.build.lib.util.Pair;
 
 import java.util.Set;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.Nullable;
 
@@ -46,6 +49,11 @@ import javax.annotation.Nullable;
  * on the graph can be delicate, and is documented below. Moreover, no other modifications to the
  * graph can take place while invalidation occurs.
  *
+ * <p>The workers are those of a {@link java.util.concurrent.ForkJoinPool}: nodes discovered by a
+ * worker are pushed onto that worker's own deque and stolen by idle workers, rather than going
+ * through a single queue shared by all workers, which is a point of contention when hundreds of
+ * thousands of nodes are invalidated at once.
+ *
  * <p>This is intended only for use in alternative {@code MemoizingEvaluator} implementations.
  */
 public abstract class InvalidatingNodeVisitor extends AbstractQueueVisitor {
@@ -62,17 +70,20 @@ public abstract class InvalidatingNodeVisitor extends AbstractQueueVisitor {
   protected final DirtyKeyTracker dirtyKeyTracker;
   // Aliased to InvalidationState.pendingVisitations.
   protected final Set<Pair<SkyKey, InvalidationType>> pendingVisitations;
+  /** The number of nodes invalidated by this visitor, indexed by {@link InvalidationType}. */
+  private final AtomicInteger[] invalidatedNodes =
+      new AtomicInteger[InvalidationType.values().length];
 
   protected InvalidatingNodeVisitor(
       DirtiableGraph graph, @Nullable EvaluationProgressReceiver invalidationReceiver,
       InvalidationState state, DirtyKeyTracker dirtyKeyTracker) {
-    super(/*concurrent*/true,
-        /*corePoolSize*/DEFAULT_THREAD_COUNT,
-        /*maxPoolSize*/DEFAULT_THREAD_COUNT,
-        1, TimeUnit.SECONDS,
-        /*failFastOnException*/true,
-        /*failFastOnInterrupt*/true,
-        "skyframe-invalidator");
+    super(NamedForkJoinPool.newNamedPool("skyframe-invalidator", DEFAULT_THREAD_COUNT),
+        /*shutdownOnCompletion=*/true,
+        /*failFastOnException=*/true,
+        /*failFastOnInterrupt=*/true);
+    for (int i = 0; i < invalidatedNodes.length; i++) {
+      invalidatedNodes[i] = new AtomicInteger();
+    }
     this.graph = Preconditions.checkNotNull(graph);
     this.invalidationReceiver = invalidationReceiver;
     this.dirtyKeyTracker = Preconditions.checkNotNull(dirtyKeyTracker);
@@ -83,20 +94,46 @@ public abstract class InvalidatingNodeVisitor extends AbstractQueueVisitor {
    * Initiates visitation and waits for completion.
    */
   void run() throws InterruptedException {
-    // Make a copy to avoid concurrent modification confusing us as to which nodes were passed by
-    // the caller, and which are added by other threads during the run. Since no tasks have been
-    // started yet (the queueDirtying calls start them), this is thread-safe.
-    for (Pair<SkyKey, InvalidationType> visitData : ImmutableList.copyOf(pendingVisitations)) {
-      // The caller may have specified non-existent SkyKeys, or there may be stale SkyKeys in
-      // pendingVisitations that have already been deleted. In both these cases, the nodes will not
-      // exist in the graph, so we must be tolerant of that case.
-      visit(visitData.first, visitData.second, !MUST_EXIST);
+    long startTime = Profiler.nanoTimeMaybe();
+    try {
+      // Make a copy to avoid concurrent modification confusing us as to which nodes were passed by
+      // the caller, and which are added by other threads during the run. Since no tasks have been
+      // started yet (the queueDirtying calls start them), this is thread-safe.
+      for (Pair<SkyKey, InvalidationType> visitData : ImmutableList.copyOf(pendingVisitations)) {
+        // The caller may have specified non-existent SkyKeys, or there may be stale SkyKeys in
+        // pendingVisitations that have already been deleted. In both these cases, the nodes will
+        // not exist in the graph, so we must be tolerant of that case.
+        visit(visitData.first, visitData.second, !MUST_EXIST);
+      }
+      work(/*failFastOnInterrupt=*/true);
+    } finally {
+      if (Profiler.instance().isActive()) {
+        Profiler.instance().logSimpleTask(startTime, ProfilerTask.SKYFRAME_INVALIDATION,
+            getInvalidationSummary());
+      }
     }
-    work(/*failFastOnInterrupt=*/true);
     Preconditions.checkState(pendingVisitations.isEmpty(),
         "All dirty nodes should have been processed: %s", pendingVisitations);
   }
 
+  /** Records that this visitor invalidated a node in the given way. */
+  @ThreadSafe
+  protected void countInvalidatedNode(InvalidationType invalidationType) {
+    invalidatedNodes[invalidationType.ordinal()].incrementAndGet();
+  }
+
+  @VisibleForTesting
+  int getInvalidatedNodeCount(InvalidationType invalidationType) {
+    return invalidatedNodes[invalidationType.ordinal()].get();
+  }
+
+  private String getInvalidationSummary() {
+    return String.format("%d changed, %d dirtied, %d deleted",
+        getInvalidatedNodeCount(InvalidationType.CHANGED),
+        getInvalidatedNodeCount(InvalidationType.DIRTIED),
+        getInvalidatedNodeCount(InvalidationType.DELETED));
+  }
+
   protected void informInvalidationReceiver(SkyValue value,
       EvaluationProgressReceiver.InvalidationState state) {
     if (invalidationReceiver != null && value != null) {
@@ -238,6 +275,7 @@ public abstract class InvalidatingNodeVisitor extends AbstractQueueVisitor {
           // Actually remove the node.
           graph.remove(key);
           dirtyKeyTracker.notDirty(key);
+          countInvalidatedNode(InvalidationType.DELETED);
 
           // Remove the node from the set as the last operation.
           pendingVisitations.remove(invalidationPair);
@@ -251,7 +289,10 @@ public abstract class InvalidatingNodeVisitor extends AbstractQueueVisitor {
    */
   static class DirtyingNodeVisitor extends InvalidatingNodeVisitor {
 
-    private final Set<Pair<SkyKey, InvalidationType>> visited = Sets.newConcurrentHashSet();
+    // Keyed by SkyKey alone, rather than by (SkyKey, InvalidationType) pairs, so that checking
+    // whether a node was already visited does not allocate.
+    private final Set<SkyKey> changed = Sets.newConcurrentHashSet();
+    private final Set<SkyKey> dirtied = Sets.newConcurrentHashSet();
 
     protected DirtyingNodeVisitor(DirtiableGraph graph,
         EvaluationProgressReceiver invalidationReceiver, InvalidationState state,
@@ -276,7 +317,7 @@ public abstract class InvalidatingNodeVisitor extends AbstractQueueVisitor {
      * {@link NodeEntry} ignores the second marking.
      *
      * The invariant that we do not process a (SkyKey, InvalidationType) pair twice is enforced by
-     * the {@link #visited} set.
+     * the {@link #changed} and {@link #dirtied} sets.
      *
      * The "invariant" is also enforced across builds by checking to see if the entry is already
      * marked changed, or if it is already marked dirty and we are just going to mark it dirty
@@ -291,10 +332,10 @@ public abstract class InvalidatingNodeVisitor extends AbstractQueueVisitor {
         final boolean mustExist) {
       Preconditions.checkState(invalidationType != InvalidationType.DELETED, key);
       final boolean isChanged = (invalidationType == InvalidationType.CHANGED);
-      final Pair<SkyKey, InvalidationType> invalidationPair = Pair.of(key, invalidationType);
-      if (!visited.add(invalidationPair)) {
+      if (!(isChanged ? changed : dirtied).add(key)) {
         return;
       }
+      final Pair<SkyKey, InvalidationType> invalidationPair = Pair.of(key, invalidationType);
       pendingVisitations.add(invalidationPair);
       enqueue(new Runnable() {
         @Override
@@ -341,6 +382,7 @@ public abstract class InvalidatingNodeVisitor extends AbstractQueueVisitor {
           SkyValue value = ValueWithMetadata.justValue(depsAndValue.second);
           informInvalidationReceiver(value, EvaluationProgressReceiver.InvalidationState.DIRTY);
           dirtyKeyTracker.dirty(key);
+          countInvalidatedNode(invalidationType);
           // Remove the node from the set as the last operation.
           pendingVisitations.remove(invalidationPair);
         }
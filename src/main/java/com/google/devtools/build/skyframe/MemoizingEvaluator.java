@@ -19,6 +19,9 @@ import com.google.devtools.build.lib.collect.nestedset.NestedSetVisitor;
 import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadHostile;
 import com.google.devtools.build.lib.events.EventHandler;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintStream;
 import java.util.Map;
 
@@ -124,6 +127,41 @@ public interface MemoizingEvaluator {
   @ThreadHostile
   void dump(boolean summarize, PrintStream out);
 
+  /**
+   * Writes the done nodes of the graph to the output stream, so that a new evaluator can start from
+   * them using {@link #readSnapshot}. Nodes whose keys or values cannot be serialized are skipped,
+   * along with all nodes that depend on them. Returns the number of nodes written.
+   */
+  @ThreadHostile
+  int writeSnapshot(OutputStream out) throws IOException;
+
+  /**
+   * Populates the graph of this evaluator, which must not have evaluated anything yet, with the
+   * nodes written by {@link #writeSnapshot}. Returns the number of nodes read.
+   *
+   * <p>The restored nodes are treated as if they had been built before the first evaluation of
+   * this evaluator, so it is up to the caller to invalidate those that are no longer up to date.
+   */
+  @ThreadHostile
+  int readSnapshot(InputStream in) throws IOException;
+
+  /**
+   * Sets the order in which subsequent evaluations evaluate nodes that are ready for evaluation.
+   * If {@code priority} is null, nodes are evaluated in the order in which they became ready.
+   *
+   * @throws IllegalArgumentException if {@code priority} is non-null and this evaluator evaluates
+   *     nodes in a fork-join pool, which has no shared work queue to prioritize
+   */
+  @ThreadHostile
+  void setEvaluationPriority(@Nullable EvaluationPriority priority);
+
+  /**
+   * Sets the policy by which subsequent evaluations evict values to bound memory use. If
+   * {@code policy} is null, values are never evicted.
+   */
+  @ThreadHostile
+  void setEvictionPolicy(@Nullable EvictionPolicy policy);
+
   /**
    * A supplier for creating instances of a particular evaluator implementation.
    */
@@ -16,6 +16,7 @@ package com.google.devtools.build.skyframe;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.base.Predicates;
+import com.google.common.base.Supplier;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -30,6 +31,7 @@ import com.google.devtools.build.lib.collect.nestedset.NestedSetBuilder;
 import com.google.devtools.build.lib.collect.nestedset.NestedSetVisitor;
 import com.google.devtools.build.lib.concurrent.AbstractQueueVisitor;
 import com.google.devtools.build.lib.concurrent.ExecutorShutdownUtil;
+import com.google.devtools.build.lib.concurrent.NamedForkJoinPool;
 import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadCompatible;
 import com.google.devtools.build.lib.concurrent.ThrowableRecordingRunnableWrapper;
 import com.google.devtools.build.lib.events.Event;
@@ -43,6 +45,8 @@ import com.google.devtools.build.skyframe.NodeEntry.DependencyState;
 import com.google.devtools.build.skyframe.Scheduler.SchedulerException;
 import com.google.devtools.build.skyframe.SkyFunctionException.ReifiedSkyFunctionException;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -55,9 +59,14 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -111,9 +120,16 @@ public final class ParallelEvaluator implements Evaluator {
   private final NestedSetVisitor<TaggedEvents> replayingNestedSetEventVisitor;
   private final boolean keepGoing;
   private final int threadCount;
+  private final boolean useForkJoinPool;
+  @Nullable private final EvaluationPriority priority;
   @Nullable private final EvaluationProgressReceiver progressReceiver;
+  @Nullable private final SkyFunctionProgressReceiver skyFunctionProgressReceiver;
   private final DirtyKeyTracker dirtyKeyTracker;
 
+  /** The states stashed by the functions of nodes that are not done yet in this evaluation. */
+  private final ConcurrentMap<SkyKey, SkyFunction.ComputeState> computeStates =
+      new ConcurrentHashMap<>();
+
   private static final Interner<SkyKey> KEY_CANONICALIZER =  Interners.newWeakInterner();
 
   public ParallelEvaluator(ProcessableGraph graph, Version graphVersion,
@@ -123,13 +139,39 @@ public final class ParallelEvaluator implements Evaluator {
                     boolean keepGoing, int threadCount,
                     @Nullable EvaluationProgressReceiver progressReceiver,
                     DirtyKeyTracker dirtyKeyTracker) {
+    this(graph, graphVersion, skyFunctions, reporter, emittedEventState, keepGoing, threadCount,
+        progressReceiver, dirtyKeyTracker, /*useForkJoinPool=*/false, /*priority=*/null);
+  }
+
+  /**
+   * @param useForkJoinPool if true, evaluate nodes in a work-stealing {@link ForkJoinPool} instead
+   *     of a thread pool with a single shared work queue
+   * @param priority if non-null, the order in which to evaluate nodes that are ready for
+   *     evaluation. Prioritizing nodes requires a shared work queue, so this must be null if
+   *     {@code useForkJoinPool} is true
+   */
+  public ParallelEvaluator(ProcessableGraph graph, Version graphVersion,
+                    ImmutableMap<? extends SkyFunctionName, ? extends SkyFunction> skyFunctions,
+                    final EventHandler reporter,
+                    MemoizingEvaluator.EmittedEventState emittedEventState,
+                    boolean keepGoing, int threadCount,
+                    @Nullable EvaluationProgressReceiver progressReceiver,
+                    DirtyKeyTracker dirtyKeyTracker, boolean useForkJoinPool,
+                    @Nullable EvaluationPriority priority) {
+    Preconditions.checkArgument(priority == null || !useForkJoinPool,
+        "Nodes cannot be prioritized when they are evaluated in a fork-join pool");
     this.graph = graph;
     this.skyFunctions = skyFunctions;
     this.graphVersion = graphVersion;
     this.reporter = Preconditions.checkNotNull(reporter);
     this.keepGoing = keepGoing;
     this.threadCount = threadCount;
+    this.useForkJoinPool = useForkJoinPool;
+    this.priority = priority;
     this.progressReceiver = progressReceiver;
+    this.skyFunctionProgressReceiver = progressReceiver instanceof SkyFunctionProgressReceiver
+        ? (SkyFunctionProgressReceiver) progressReceiver
+        : null;
     this.dirtyKeyTracker = Preconditions.checkNotNull(dirtyKeyTracker);
     this.replayingNestedSetEventVisitor =
         new NestedSetVisitor<>(new NestedSetEventReceiver(reporter), emittedEventState);
@@ -421,6 +463,7 @@ public final class ParallelEvaluator implements Evaluator {
      * {@code completeValue}.
      */
     void commit(boolean enqueueParents) {
+      computeStates.remove(skyKey);
       NodeEntry primaryEntry = Preconditions.checkNotNull(graph.get(skyKey), skyKey);
       // Construct the definitive error info, if there is one.
       finalizeErrorInfo();
@@ -490,6 +533,19 @@ public final class ParallelEvaluator implements Evaluator {
     public boolean inErrorBubblingForTesting() {
       return bubbleErrorInfo != null;
     }
+
+    @Override
+    public <T extends SkyFunction.ComputeState> T getState(Supplier<T> stateSupplier) {
+      checkActive();
+      @SuppressWarnings("unchecked")
+      T state = (T) computeStates.get(skyKey);
+      if (state == null) {
+        state = Preconditions.checkNotNull(stateSupplier.get(), skyKey);
+        // Only one thread at a time computes a node, so no other thread can race with this put.
+        computeStates.put(skyKey, state);
+      }
+      return state;
+    }
   }
 
   private class ValueVisitor extends AbstractQueueVisitor {
@@ -506,6 +562,20 @@ public final class ParallelEvaluator implements Evaluator {
           "skyframe-evaluator");
     }
 
+    private ValueVisitor(ThreadPoolExecutor prioritizedPool) {
+      super(prioritizedPool,
+          /*shutdownOnCompletion*/true,
+          /*failFastOnException*/true,
+          /*failFastOnInterrupt*/true);
+    }
+
+    private ValueVisitor(ForkJoinPool forkJoinPool) {
+      super(forkJoinPool,
+          /*shutdownOnCompletion*/true,
+          /*failFastOnException*/true,
+          /*failFastOnInterrupt*/true);
+    }
+
     @Override
     protected boolean isCriticalError(Throwable e) {
       return e instanceof RuntimeException;
@@ -533,7 +603,7 @@ public final class ParallelEvaluator implements Evaluator {
       if (newlyEnqueued && progressReceiver != null) {
         progressReceiver.enqueueing(key);
       }
-      enqueue(new Evaluate(this, key));
+      enqueue(new Evaluate(this, key), priority == null ? 0 : priority.getPriority(key));
     }
 
     /**
@@ -705,9 +775,10 @@ public final class ParallelEvaluator implements Evaluator {
       Preconditions.checkState(factory != null, "%s %s", functionName, state);
 
       SkyValue value = null;
+      long startWallTime = skyFunctionProgressReceiver == null ? 0 : System.nanoTime();
+      long startCpuTime = skyFunctionProgressReceiver == null ? 0 : currentThreadCpuTime();
       Profiler.instance().startTask(ProfilerTask.SKYFUNCTION, skyKey);
       try {
-        // TODO(bazel-team): count how many of these calls returns null vs. non-null
         value = factory.compute(skyKey, env);
       } catch (final SkyFunctionException builderException) {
         ReifiedSkyFunctionException reifiedBuilderException =
@@ -746,6 +817,11 @@ public final class ParallelEvaluator implements Evaluator {
         String msg = prepareCrashMessage(skyKey, state.getInProgressReverseDeps());
         throw new RuntimeException(msg, re);
       } finally {
+        if (skyFunctionProgressReceiver != null) {
+          skyFunctionProgressReceiver.computed(skyKey, System.nanoTime() - startWallTime,
+              currentThreadCpuTime() - startCpuTime, env.newlyRequestedDeps.size(),
+              value == null && env.valuesMissing());
+        }
         env.doneBuilding();
         Profiler.instance().completeTask(ProfilerTask.SKYFUNCTION);
       }
@@ -846,6 +922,16 @@ public final class ParallelEvaluator implements Evaluator {
     private static final int MAX_REVERSEDEP_DUMP_LENGTH = 1000;
   }
 
+  private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+
+  private static final boolean THREAD_CPU_TIME_SUPPORTED =
+      THREAD_MX_BEAN.isCurrentThreadCpuTimeSupported();
+
+  /** Returns the CPU time used by the current thread, or zero if the JVM cannot measure it. */
+  private static long currentThreadCpuTime() {
+    return THREAD_CPU_TIME_SUPPORTED ? THREAD_MX_BEAN.getCurrentThreadCpuTime() : 0;
+  }
+
   /**
    * Signals all parents that this node is finished. If visitor is not null, also enqueues any
    * parents that are ready. If visitor is null, indicating that we are building this node after
@@ -976,12 +1062,26 @@ public final class ParallelEvaluator implements Evaluator {
 
     Profiler.instance().startTask(ProfilerTask.SKYFRAME_EVAL, skyKeySet);
     try {
-      return eval(skyKeySet, new ValueVisitor(threadCount));
+      return eval(skyKeySet, createValueVisitor());
     } finally {
+      // Nodes that are not done when the evaluation ends, e.g. because it was interrupted, start
+      // from scratch in the next evaluation.
+      computeStates.clear();
       Profiler.instance().completeTask(ProfilerTask.SKYFRAME_EVAL);
     }
   }
 
+  private ValueVisitor createValueVisitor() {
+    if (priority != null) {
+      return new ValueVisitor(new ThreadPoolExecutor(threadCount, threadCount, 1, TimeUnit.SECONDS,
+          new PriorityBlockingQueue<Runnable>(),
+          new ThreadFactoryBuilder().setNameFormat("skyframe-evaluator %d").build()));
+    }
+    return useForkJoinPool
+        ? new ValueVisitor(NamedForkJoinPool.newNamedPool("skyframe-evaluator", threadCount))
+        : new ValueVisitor(threadCount);
+  }
+
   @ThreadCompatible
   private <T extends SkyValue> EvaluationResult<T> eval(ImmutableSet<SkyKey> skyKeys,
       ValueVisitor visitor) throws InterruptedException {
@@ -0,0 +1,84 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.skyframe;
+
+import com.google.common.base.Preconditions;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A fixed-capacity buffer that many threads can append reverse deps to without locking. Appending
+ * threads reserve a slot with a compare-and-swap on a single counter and then fill it.
+ *
+ * <p>{@link #close} stops further appends and returns everything appended so far, waiting for
+ * threads that have reserved a slot but not yet filled it. An append that fails, because the
+ * buffer is full or closed, must be retried by other means.
+ */
+@ThreadSafe
+final class ReverseDepsAppendBuffer {
+  private static final int CLOSED = -1;
+
+  private static final AtomicIntegerFieldUpdater<ReverseDepsAppendBuffer> RESERVED_UPDATER =
+      AtomicIntegerFieldUpdater.newUpdater(ReverseDepsAppendBuffer.class, "reserved");
+
+  private final AtomicReferenceArray<SkyKey> keys;
+
+  /** The number of slots reserved by appending threads, or {@link #CLOSED}. */
+  private volatile int reserved = 0;
+
+  ReverseDepsAppendBuffer(int capacity) {
+    Preconditions.checkArgument(capacity > 0, capacity);
+    this.keys = new AtomicReferenceArray<>(capacity);
+  }
+
+  /** Appends {@code key} and returns true, or returns false if the buffer is full or closed. */
+  boolean tryAppend(SkyKey key) {
+    Preconditions.checkNotNull(key);
+    for (;;) {
+      int slot = reserved;
+      if (slot == CLOSED || slot == keys.length()) {
+        return false;
+      }
+      if (RESERVED_UPDATER.compareAndSet(this, slot, slot + 1)) {
+        keys.set(slot, key);
+        return true;
+      }
+    }
+  }
+
+  /** Closes this buffer, and returns the keys appended to it in the order they were reserved. */
+  List<SkyKey> close() {
+    int count = RESERVED_UPDATER.getAndSet(this, CLOSED);
+    Preconditions.checkState(count != CLOSED, "Buffer already closed");
+    List<SkyKey> result = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      SkyKey key;
+      // The thread that reserved this slot is about to fill it.
+      while ((key = keys.get(i)) == null) {
+        Thread.yield();
+      }
+      result.add(key);
+    }
+    return result;
+  }
+
+  @Override
+  public String toString() {
+    return "ReverseDepsAppendBuffer{reserved=" + reserved + ", capacity=" + keys.length() + "}";
+  }
+}
@@ -51,6 +51,15 @@ abstract class ReverseDepsUtil<T> {
 
   abstract List<SkyKey> getReverseDepsToRemove(T container);
 
+  /**
+   * Returns a new, empty, mutable list used to store more than one reverse dep. Containers that
+   * store their reverse deps in a more compact form than an {@link java.util.ArrayList} may
+   * override this.
+   */
+  List<SkyKey> newReverseDepsList(T container, int expectedSize) {
+    return Lists.newArrayListWithExpectedSize(expectedSize);
+  }
+
   /**
    * We check that the reverse dependency is not already present. We only do that if reverseDeps is
    * small, so that it does not impact performance.
@@ -92,9 +101,11 @@ abstract class ReverseDepsUtil<T> {
     if (newSize == 1) {
       overwriteReverseDepsWithObject(container, Iterables.getOnlyElement(newReverseDeps));
     } else if (reverseDepsSize == 0) {
-      overwriteReverseDepsList(container, Lists.newArrayList(newReverseDeps));
+      List<SkyKey> newList = newReverseDepsList(container, newSize);
+      newList.addAll(newReverseDeps);
+      overwriteReverseDepsList(container, newList);
     } else if (reverseDepsSize == 1) {
-      List<SkyKey> newList = Lists.newArrayListWithExpectedSize(newSize);
+      List<SkyKey> newList = newReverseDepsList(container, newSize);
       newList.add((SkyKey) reverseDeps);
       newList.addAll(newReverseDeps);
       overwriteReverseDepsList(container, newList);
@@ -168,8 +179,8 @@ abstract class ReverseDepsUtil<T> {
 
     @SuppressWarnings("unchecked")
     List<SkyKey> reverseDepsAsList = (List<SkyKey>) reverseDeps;
-    List<SkyKey> newReverseDeps = Lists
-        .newArrayListWithExpectedSize(Math.max(0, reverseDepsAsList.size() - expectedRemovals));
+    List<SkyKey> newReverseDeps = newReverseDepsList(container,
+        Math.max(0, reverseDepsAsList.size() - expectedRemovals));
 
     for (SkyKey reverseDep : reverseDepsAsList) {
       if (!toRemove.contains(reverseDep)) {
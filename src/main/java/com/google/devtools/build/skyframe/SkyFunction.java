@@ -14,6 +14,7 @@
 package com.google.devtools.build.skyframe;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Supplier;
 import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
 import com.google.devtools.build.lib.events.EventHandler;
 
@@ -66,6 +67,13 @@ public interface SkyFunction {
   @Nullable
   String extractTag(SkyKey skyKey);
 
+  /**
+   * Intermediate results that a {@link SkyFunction} keeps across the calls of {@link #compute}
+   * for one node, so that it need not redo the work of an earlier call that returned {@code null}
+   * because of missing dependencies. See {@link Environment#getState}.
+   */
+  interface ComputeState {}
+
   /**
    * The services provided to the {@link SkyFunction} implementation by the graph implementation.
    */
@@ -218,5 +226,17 @@ public interface SkyFunction {
     /** Returns whether we are currently in error bubbling. */
     @VisibleForTesting
     boolean inErrorBubblingForTesting();
+
+    /**
+     * Returns the {@link ComputeState} that earlier calls of {@link SkyFunction#compute} for the
+     * same node stashed during this evaluation, or, if there is none, a new one from
+     * {@code stateSupplier}, which later calls for the node will get back.
+     *
+     * <p>The state is discarded once the node is done, and at the end of the evaluation even if
+     * the node is not done, so a function may get a new state at any time and must produce the
+     * same result from it. Dependencies requested by earlier calls remain dependencies of the
+     * node, so the state may hold results computed from their values.
+     */
+    <T extends ComputeState> T getState(Supplier<T> stateSupplier);
   }
 }
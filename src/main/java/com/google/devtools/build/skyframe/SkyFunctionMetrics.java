@@ -0,0 +1,190 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.skyframe;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Ordering;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.profiler.Profiler;
+import com.google.devtools.build.lib.profiler.ProfilerTask;
+
+import java.io.PrintStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Accumulates, per {@link SkyFunctionName}, the work reported to a
+ * {@link SkyFunctionProgressReceiver}.
+ */
+@ThreadSafe
+public final class SkyFunctionMetrics {
+  private final ConcurrentMap<SkyFunctionName, Counters> counters = new ConcurrentHashMap<>();
+
+  /** Records one call of the function of {@code skyKey}. */
+  public void record(SkyKey skyKey, long wallTimeNanos, long cpuTimeNanos, int depsRequested,
+      boolean restarted) {
+    Counters functionCounters = counters.get(skyKey.functionName());
+    if (functionCounters == null) {
+      Counters newCounters = new Counters();
+      functionCounters = counters.putIfAbsent(skyKey.functionName(), newCounters);
+      if (functionCounters == null) {
+        functionCounters = newCounters;
+      }
+    }
+    functionCounters.evaluations.increment();
+    if (restarted) {
+      functionCounters.restarts.increment();
+    }
+    functionCounters.wallTimeNanos.add(wallTimeNanos);
+    functionCounters.cpuTimeNanos.add(cpuTimeNanos);
+    functionCounters.depsRequested.add(depsRequested);
+  }
+
+  /**
+   * Returns the totals recorded so far, per function. Calls that are recorded concurrently may be
+   * only partly included.
+   */
+  public ImmutableMap<SkyFunctionName, Totals> snapshot() {
+    ImmutableMap.Builder<SkyFunctionName, Totals> builder = ImmutableMap.builder();
+    for (Map.Entry<SkyFunctionName, Counters> entry : counters.entrySet()) {
+      Counters functionCounters = entry.getValue();
+      builder.put(entry.getKey(), new Totals(functionCounters.evaluations.sum(),
+          functionCounters.restarts.sum(), functionCounters.wallTimeNanos.sum(),
+          functionCounters.cpuTimeNanos.sum(), functionCounters.depsRequested.sum()));
+    }
+    return builder.build();
+  }
+
+  /**
+   * Prints a table of the totals recorded so far, one line per function, the functions that took
+   * the most wall time first.
+   */
+  public void dump(PrintStream out) {
+    out.printf("%-30s %12s %12s %12s %12s %12s%n",
+        "SkyFunction", "evaluations", "restarts", "wall ms", "cpu ms", "deps");
+    for (Map.Entry<SkyFunctionName, Totals> entry : sortedByWallTime(snapshot())) {
+      out.printf("%-30s %s%n", entry.getKey(), entry.getValue().format());
+    }
+  }
+
+  /**
+   * Logs, as {@link ProfilerTask#SKYFUNCTION_SUMMARY} events, what was recorded since
+   * {@code baseline} was taken by {@link #snapshot}.
+   */
+  public void logToProfiler(Map<SkyFunctionName, Totals> baseline) {
+    Profiler profiler = Profiler.instance();
+    if (!profiler.isActive()) {
+      return;
+    }
+    ImmutableMap.Builder<SkyFunctionName, Totals> delta = ImmutableMap.builder();
+    for (Map.Entry<SkyFunctionName, Totals> entry : snapshot().entrySet()) {
+      Totals before = baseline.get(entry.getKey());
+      Totals after = before == null ? entry.getValue() : entry.getValue().minus(before);
+      if (after.getEvaluations() > 0) {
+        delta.put(entry.getKey(), after);
+      }
+    }
+    for (Map.Entry<SkyFunctionName, Totals> entry : sortedByWallTime(delta.build())) {
+      profiler.logEvent(ProfilerTask.SKYFUNCTION_SUMMARY, entry.getKey() + ": " + entry.getValue());
+    }
+  }
+
+  private static List<Map.Entry<SkyFunctionName, Totals>> sortedByWallTime(
+      Map<SkyFunctionName, Totals> totals) {
+    return BY_WALL_TIME.reverse().sortedCopy(totals.entrySet());
+  }
+
+  private static final Ordering<Map.Entry<SkyFunctionName, Totals>> BY_WALL_TIME =
+      new Ordering<Map.Entry<SkyFunctionName, Totals>>() {
+        @Override
+        public int compare(Map.Entry<SkyFunctionName, Totals> left,
+            Map.Entry<SkyFunctionName, Totals> right) {
+          return Long.compare(left.getValue().getWallTimeNanos(),
+              right.getValue().getWallTimeNanos());
+        }
+      };
+
+  /**
+   * The counters of one function. Every evaluator thread updates them after every call of the
+   * function, so they are {@link LongAdder}s, which spread concurrent updates over cells instead of
+   * making threads retry on one contended word.
+   */
+  private static final class Counters {
+    private final LongAdder evaluations = new LongAdder();
+    private final LongAdder restarts = new LongAdder();
+    private final LongAdder wallTimeNanos = new LongAdder();
+    private final LongAdder cpuTimeNanos = new LongAdder();
+    private final LongAdder depsRequested = new LongAdder();
+  }
+
+  /** The work done by one function, as of a {@link #snapshot}. */
+  public static final class Totals {
+    private final long evaluations;
+    private final long restarts;
+    private final long wallTimeNanos;
+    private final long cpuTimeNanos;
+    private final long depsRequested;
+
+    private Totals(long evaluations, long restarts, long wallTimeNanos, long cpuTimeNanos,
+        long depsRequested) {
+      this.evaluations = evaluations;
+      this.restarts = restarts;
+      this.wallTimeNanos = wallTimeNanos;
+      this.cpuTimeNanos = cpuTimeNanos;
+      this.depsRequested = depsRequested;
+    }
+
+    /** Returns how many times the function was called, including calls that were restarted. */
+    public long getEvaluations() {
+      return evaluations;
+    }
+
+    /** Returns how many calls returned null because some requested deps were not done yet. */
+    public long getRestarts() {
+      return restarts;
+    }
+
+    public long getWallTimeNanos() {
+      return wallTimeNanos;
+    }
+
+    public long getCpuTimeNanos() {
+      return cpuTimeNanos;
+    }
+
+    public long getDepsRequested() {
+      return depsRequested;
+    }
+
+    private Totals minus(Totals other) {
+      return new Totals(evaluations - other.evaluations, restarts - other.restarts,
+          wallTimeNanos - other.wallTimeNanos, cpuTimeNanos - other.cpuTimeNanos,
+          depsRequested - other.depsRequested);
+    }
+
+    private String format() {
+      return String.format("%12d %12d %12d %12d %12d", evaluations, restarts,
+          wallTimeNanos / 1000000, cpuTimeNanos / 1000000, depsRequested);
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%d evaluations, %d restarts, %d ms wall, %d ms cpu, %d deps",
+          evaluations, restarts, wallTimeNanos / 1000000, cpuTimeNanos / 1000000, depsRequested);
+    }
+  }
+}
@@ -0,0 +1,37 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.skyframe;
+
+import com.google.devtools.build.lib.concurrent.ThreadSafety;
+
+/**
+ * An {@link EvaluationProgressReceiver} that is also told how much work each call to a
+ * {@link SkyFunction} did.
+ */
+public interface SkyFunctionProgressReceiver extends EvaluationProgressReceiver {
+  /**
+   * Notifies that {@link SkyFunction#compute} was called for {@code skyKey}.
+   *
+   * <p>{@code wallTimeNanos} and {@code cpuTimeNanos} are the wall and CPU time spent in the call;
+   * the latter is zero if the JVM cannot measure thread CPU time. {@code depsRequested} is the
+   * number of deps the call requested that earlier calls for the same evaluation of
+   * {@code skyKey} had not. If {@code restarted}, the call returned null because some of those
+   * deps were not done yet, and the function will be called again once they are.
+   *
+   * <p>May be called concurrently from multiple threads.
+   */
+  @ThreadSafety.ThreadSafe
+  void computed(SkyKey skyKey, long wallTimeNanos, long cpuTimeNanos, int depsRequested,
+      boolean restarted);
+}
@@ -0,0 +1,251 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.skyframe;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.MapMaker;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Assigns dense, non-negative int ids to groups of direct deps, given as the {@link SkyKeyIdTable}
+ * ids of their elements, that many nodes share. All operations are thread-safe.
+ *
+ * <p>By default, a group only gets an id once {@link #intern} has been asked for it twice, so
+ * that groups that only a single node depends on are not kept alive by this table. The sightings
+ * of groups that have no id yet are tracked in a bounded cache, so a group that is rarely seen may
+ * never get an id.
+ *
+ * <p>Each id counts the references to it: {@link #intern} adds one, and {@link #release} removes
+ * one when a node stops storing the group, for example because the node was marked dirty or
+ * removed. {@link #pruneUnreferencedGroups} forgets groups that are no longer referenced and
+ * reuses their ids.
+ */
+@ThreadSafe
+final class SkyKeyGroupTable {
+  /** The smallest group for which referring to it by id saves space. */
+  static final int MIN_GROUP_SIZE = 3;
+
+  /** The largest id a group may have, so that the id fits in the encoding of direct deps. */
+  static final int MAX_GROUP_ID = (1 << 30) - 1;
+
+  private static final int MIN_SIGHTINGS = 2;
+  private static final int MAX_CANDIDATES = 1 << 16;
+  private static final int CHUNK_BITS = 12;
+  private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+  private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+  private final int minSightings;
+  private final ConcurrentMap<IdGroup, Integer> groupIds =
+      new MapMaker().concurrencyLevel(200).makeMap();
+  private final Cache<IdGroup, AtomicInteger> sightings = CacheBuilder.newBuilder()
+      .concurrencyLevel(200).maximumSize(MAX_CANDIDATES).build();
+  /**
+   * The groups and their reference counts, by id, split into fixed-size chunks. Chunks are only
+   * ever added, never replaced.
+   */
+  private volatile int[][][] chunks = new int[16][][];
+  private volatile AtomicIntegerArray[] referenceChunks = new AtomicIntegerArray[16];
+
+  // Guarded by this.
+  private int nextId = 0;
+  private int[] freeIds = new int[0];
+  private int freeIdCount = 0;
+
+  SkyKeyGroupTable() {
+    this(MIN_SIGHTINGS);
+  }
+
+  /**
+   * Creates a table that gives a group an id once it has been seen {@code minSightings} times, or
+   * never if that is {@code Integer.MAX_VALUE}.
+   */
+  @VisibleForTesting
+  SkyKeyGroupTable(int minSightings) {
+    Preconditions.checkArgument(minSightings > 1, minSightings);
+    this.minSightings = minSightings;
+  }
+
+  /**
+   * Returns the id of the group whose elements have the ids {@code keyIds[from, to)}, assigning it
+   * one if it has been seen often enough, or -1 if it does not have an id. If the group has an id,
+   * the caller holds a reference to it, which it must {@link #release} once it stops storing it.
+   */
+  int intern(int[] keyIds, int from, int to) {
+    if (to - from < MIN_GROUP_SIZE) {
+      return -1;
+    }
+    IdGroup group = new IdGroup(Arrays.copyOfRange(keyIds, from, to));
+    Integer id = groupIds.get(group);
+    if (id != null) {
+      retain(id);
+      return id;
+    }
+    AtomicInteger groupSightings = sightings.getIfPresent(group);
+    if (groupSightings == null) {
+      groupSightings = sightings.asMap().putIfAbsent(group, new AtomicInteger(1));
+      if (groupSightings == null) {
+        return -1;
+      }
+    }
+    if (groupSightings.incrementAndGet() < minSightings) {
+      return -1;
+    }
+    int newId = assignId();
+    if (newId < 0) {
+      return -1;
+    }
+    // As in SkyKeyIdTable, the group must be readable by id before the id is published.
+    chunkFor(newId)[newId & CHUNK_MASK] = group.keyIds;
+    referencesFor(newId).set(newId & CHUNK_MASK, 1);
+    Integer oldId = groupIds.putIfAbsent(group, newId);
+    if (oldId != null) {
+      // Another thread gave the group an id first.
+      referencesFor(newId).set(newId & CHUNK_MASK, 0);
+      chunkFor(newId)[newId & CHUNK_MASK] = null;
+      synchronized (this) {
+        freeIds = push(freeIds, freeIdCount++, newId);
+      }
+      retain(oldId);
+      return oldId;
+    }
+    sightings.invalidate(group);
+    return newId;
+  }
+
+  /** Returns an unused id, or -1 if all ids up to {@link #MAX_GROUP_ID} are in use. */
+  private synchronized int assignId() {
+    if (freeIdCount > 0) {
+      return freeIds[--freeIdCount];
+    }
+    if (nextId > MAX_GROUP_ID) {
+      return -1;
+    }
+    return nextId++;
+  }
+
+  /** Adds a reference to the group with the given id, which must be referenced already. */
+  void retain(int id) {
+    referencesFor(id).incrementAndGet(id & CHUNK_MASK);
+  }
+
+  /** Removes a reference to the group with the given id. */
+  void release(int id) {
+    int references = referencesFor(id).decrementAndGet(id & CHUNK_MASK);
+    Preconditions.checkState(references >= 0, "Released group %s too often", id);
+  }
+
+  /**
+   * Forgets the groups that are no longer referenced, so that their ids can be reused. Must not be
+   * called concurrently with {@link #intern}. Returns the number of groups forgotten.
+   */
+  synchronized int pruneUnreferencedGroups() {
+    int pruned = 0;
+    for (int id = 0; id < nextId; id++) {
+      int[] keyIds = chunks[id >>> CHUNK_BITS][id & CHUNK_MASK];
+      if (keyIds != null && referencesFor(id).get(id & CHUNK_MASK) == 0) {
+        groupIds.remove(new IdGroup(keyIds), id);
+        chunks[id >>> CHUNK_BITS][id & CHUNK_MASK] = null;
+        freeIds = push(freeIds, freeIdCount++, id);
+        pruned++;
+      }
+    }
+    return pruned;
+  }
+
+  private static int[] push(int[] stack, int size, int id) {
+    if (size == stack.length) {
+      stack = Arrays.copyOf(stack, Math.max(16, size * 2));
+    }
+    stack[size] = id;
+    return stack;
+  }
+
+  /**
+   * Returns the ids of the elements of the group with the given id, which must have been returned
+   * by {@link #intern}. The returned array must not be modified.
+   */
+  int[] getGroup(int id) {
+    return chunks[id >>> CHUNK_BITS][id & CHUNK_MASK];
+  }
+
+  /** Returns the number of groups that have an id. */
+  int size() {
+    return groupIds.size();
+  }
+
+  private int[][] chunkFor(int id) {
+    int chunkIndex = id >>> CHUNK_BITS;
+    int[][][] current = chunks;
+    if (chunkIndex < current.length && current[chunkIndex] != null) {
+      return current[chunkIndex];
+    }
+    addChunk(chunkIndex);
+    return chunks[chunkIndex];
+  }
+
+  /** Returns the reference counts of the chunk of {@code id}, which {@link #chunkFor} added. */
+  private AtomicIntegerArray referencesFor(int id) {
+    return referenceChunks[id >>> CHUNK_BITS];
+  }
+
+  private synchronized void addChunk(int chunkIndex) {
+    int[][][] current = chunks;
+    if (chunkIndex < current.length && current[chunkIndex] != null) {
+      return;
+    }
+    AtomicIntegerArray[] currentReferences = referenceChunks;
+    if (chunkIndex >= current.length) {
+      int length = Math.max(current.length * 2, chunkIndex + 1);
+      current = Arrays.copyOf(current, length);
+      currentReferences = Arrays.copyOf(currentReferences, length);
+    } else {
+      current = current.clone();
+      currentReferences = currentReferences.clone();
+    }
+    current[chunkIndex] = new int[CHUNK_SIZE][];
+    currentReferences[chunkIndex] = new AtomicIntegerArray(CHUNK_SIZE);
+    // A thread that finds the chunk of an id must also find its reference counts.
+    referenceChunks = currentReferences;
+    chunks = current;
+  }
+
+  /** The ids of the elements of a group, compared by value. */
+  private static final class IdGroup {
+    private final int[] keyIds;
+    private final int hashCode;
+
+    private IdGroup(int[] keyIds) {
+      this.keyIds = Preconditions.checkNotNull(keyIds);
+      this.hashCode = Arrays.hashCode(keyIds);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      return obj instanceof IdGroup && Arrays.equals(keyIds, ((IdGroup) obj).keyIds);
+    }
+  }
+}
@@ -0,0 +1,70 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.skyframe;
+
+import com.google.common.base.Preconditions;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * A growable list of {@link SkyKey}s that stores only the ids of its elements, as assigned by a
+ * {@link CompactInMemoryGraph}. Not thread-safe.
+ */
+final class SkyKeyIdList extends AbstractList<SkyKey> implements RandomAccess {
+  private static final int[] EMPTY = new int[0];
+
+  private final CompactInMemoryGraph graph;
+  private int[] ids;
+  private int size = 0;
+
+  SkyKeyIdList(CompactInMemoryGraph graph, int expectedSize) {
+    this.graph = Preconditions.checkNotNull(graph);
+    this.ids = expectedSize == 0 ? EMPTY : new int[expectedSize];
+  }
+
+  @Override
+  public SkyKey get(int index) {
+    Preconditions.checkElementIndex(index, size);
+    return graph.getKey(ids[index]);
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public void add(int index, SkyKey key) {
+    Preconditions.checkPositionIndex(index, size);
+    int id = graph.getId(key);
+    if (size == ids.length) {
+      ids = Arrays.copyOf(ids, Math.max(4, size + (size >> 1)));
+    }
+    System.arraycopy(ids, index, ids, index + 1, size - index);
+    ids[index] = id;
+    size++;
+    modCount++;
+  }
+
+  @Override
+  public SkyKey remove(int index) {
+    SkyKey key = get(index);
+    System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+    size--;
+    modCount++;
+    return key;
+  }
+}
@@ -0,0 +1,148 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.skyframe;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.MapMaker;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Nullable;
+
+/**
+ * Assigns dense, non-negative int ids to the {@link SkyKey}s of the nodes of a
+ * {@link CompactInMemoryGraph}, so that graph edges can be stored as primitive int arrays instead
+ * of arrays of references. All operations are thread-safe.
+ *
+ * <p>This table only maps ids back to keys. The id of a key is kept in its node entry, so looking
+ * it up costs no more than looking up the entry.
+ *
+ * <p>Ids of removed nodes are reused. Edges to a node are removed around the time the node is, so
+ * a removed key can still be looked up by {@link #getRemovedId} until {@link #reuseRemovedIds} is
+ * called, which must only happen once no edge to a removed node is left.
+ */
+@ThreadSafe
+final class SkyKeyIdTable {
+  private static final int CHUNK_BITS = 14;
+  private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+  private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+  /**
+   * The mapping from ids to keys, split into fixed-size chunks so that growing the table never
+   * copies the keys themselves. Chunks are only ever added, never replaced.
+   */
+  private volatile SkyKey[][] chunks = new SkyKey[16][];
+
+  // Guarded by this.
+  private int nextId = 0;
+  private int[] freeIds = new int[0];
+  private int freeIdCount = 0;
+  private int[] removedIds = new int[0];
+  private int removedIdCount = 0;
+
+  /** The keys removed since the last call to {@link #reuseRemovedIds}. */
+  private final ConcurrentMap<SkyKey, Integer> removedKeys =
+      new MapMaker().concurrencyLevel(200).makeMap();
+
+  /** Returns a new id for {@code key}, which can be looked up once the caller has published it. */
+  int assignId(SkyKey key) {
+    int id;
+    synchronized (this) {
+      if (freeIdCount > 0) {
+        id = freeIds[--freeIdCount];
+      } else {
+        id = nextId++;
+        Preconditions.checkState(id >= 0, "Ran out of ids at %s", key);
+      }
+    }
+    // The key must be readable by id before the id is published, for example through the graph.
+    chunkFor(id)[id & CHUNK_MASK] = key;
+    return id;
+  }
+
+  /** Makes {@code id}, which was never published, available again. */
+  synchronized void releaseId(int id) {
+    freeIds = push(freeIds, freeIdCount++, id);
+  }
+
+  /**
+   * Records that the node of {@code key} with the given id was removed. Its id stays assigned
+   * until the next call to {@link #reuseRemovedIds}.
+   */
+  void removed(SkyKey key, int id) {
+    synchronized (this) {
+      removedIds = push(removedIds, removedIdCount++, id);
+    }
+    removedKeys.put(key, id);
+  }
+
+  /** Returns the id of {@code key}, if its node was removed since ids were last reused. */
+  @Nullable
+  Integer getRemovedId(SkyKey key) {
+    return removedKeys.get(key);
+  }
+
+  /** Makes the ids of removed nodes available again. */
+  synchronized void reuseRemovedIds() {
+    removedKeys.clear();
+    for (int i = 0; i < removedIdCount; i++) {
+      freeIds = push(freeIds, freeIdCount++, removedIds[i]);
+    }
+    removedIds = new int[0];
+    removedIdCount = 0;
+  }
+
+  private static int[] push(int[] stack, int size, int id) {
+    if (size == stack.length) {
+      stack = Arrays.copyOf(stack, Math.max(16, size * 2));
+    }
+    stack[size] = id;
+    return stack;
+  }
+
+  /** Returns the key with the given id, which must have been returned by {@link #assignId}. */
+  SkyKey getKey(int id) {
+    return chunks[id >>> CHUNK_BITS][id & CHUNK_MASK];
+  }
+
+  /** Returns the number of ids in use, including those of nodes removed since ids were reused. */
+  synchronized int size() {
+    return nextId - freeIdCount;
+  }
+
+  private SkyKey[] chunkFor(int id) {
+    int chunkIndex = id >>> CHUNK_BITS;
+    SkyKey[][] current = chunks;
+    if (chunkIndex < current.length && current[chunkIndex] != null) {
+      return current[chunkIndex];
+    }
+    return addChunk(chunkIndex);
+  }
+
+  private synchronized SkyKey[] addChunk(int chunkIndex) {
+    SkyKey[][] current = chunks;
+    if (chunkIndex >= current.length) {
+      current = Arrays.copyOf(current, Math.max(current.length * 2, chunkIndex + 1));
+    } else if (current[chunkIndex] != null) {
+      return current[chunkIndex];
+    } else {
+      current = current.clone();
+    }
+    current[chunkIndex] = new SkyKey[CHUNK_SIZE];
+    chunks = current;
+    return current[chunkIndex];
+  }
+}
@@ -0,0 +1,434 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+// fork-server starts subprocesses on behalf of the Blaze server, which would
+// otherwise have to fork its own, much larger, process for every one of them.
+// It reads requests from stdin and writes a response to stdout whenever a
+// subprocess exits. Like process-wrapper, it runs each subprocess in a new
+// process group, kills the group when the subprocess exits, times out, or
+// the request is cancelled, and reports the resource usage of the subprocess.
+// When stdin is closed, all subprocesses are killed and fork-server exits.
+//
+// All integers are big-endian; a string is its length followed by its bytes.
+//
+// Spawn request:  int32 1, int32 id, int32 timeout_ms, int32 kill_delay_ms,
+//                 string cwd, string stdout_path, string stderr_path,
+//                 int32 argc, string argv[argc], int32 envc, string env[envc]
+// Kill request:   int32 2, int32 id
+// Response:       int32 id, int32 kind, int32 value, int32 timed_out,
+//                 int64 peak_memory_kb, int64 user_time_us,
+//                 int64 system_time_us
+//
+// A response of kind 0 carries the wait status of the subprocess; one of kind
+// 1 means that it could not be started and carries the errno. An empty cwd
+// means the working directory of fork-server; outputs are appended to.
+
+#ifndef _GNU_SOURCE
+#define _GNU_SOURCE
+#endif
+
+#include <errno.h>
+#include <fcntl.h>
+#include <poll.h>
+#include <signal.h>
+#include <stdint.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <sys/resource.h>
+#include <sys/stat.h>
+#include <sys/time.h>
+#include <sys/types.h>
+#include <sys/wait.h>
+#include <unistd.h>
+
+// Not in headers on OSX.
+extern char **environ;
+
+#define REQUEST_SPAWN 1
+#define REQUEST_KILL 2
+
+#define RESPONSE_EXITED 0
+#define RESPONSE_EXEC_FAILED 1
+
+#define DIE(args...) { \
+  fprintf(stderr, "fork-server: "); \
+  fprintf(stderr, args); \
+  fprintf(stderr, " --- "); \
+  perror(NULL); \
+  exit(EXIT_FAILURE); \
+}
+
+struct Child {
+  pid_t pid;
+  int32_t id;
+  int64_t deadline_ms;  // 0 if there is no timeout.
+  int64_t kill_at_ms;   // 0 unless SIGKILL follows a timeout.
+  int32_t kill_delay_ms;
+  int timed_out;
+};
+
+static struct Child *children = NULL;
+static int num_children = 0;
+static int max_children = 0;
+
+// Written to by the SIGCHLD handler to wake up the main loop.
+static int sigchld_pipe[2];
+
+static int64_t NowMillis() {
+  struct timeval now;
+  gettimeofday(&now, NULL);
+  return now.tv_sec * 1000LL + now.tv_usec / 1000;
+}
+
+static void OnSigchld(int sig) {
+  int saved_errno = errno;
+  char c = 0;
+  // If the pipe is full, the main loop is going to wake up anyway.
+  (void) write(sigchld_pipe[1], &c, 1);
+  errno = saved_errno;
+}
+
+// Called when the Blaze server is gone; so are its subprocesses.
+static void KillAllAndExit() {
+  for (int i = 0; i < num_children; i++) {
+    kill(-children[i].pid, SIGKILL);
+  }
+  exit(EXIT_SUCCESS);
+}
+
+// Reads exactly n bytes; exits if stdin was closed.
+static void ReadFully(void *buf, size_t n) {
+  char *p = buf;
+  while (n > 0) {
+    ssize_t r = read(STDIN_FILENO, p, n);
+    if (r == 0) {
+      KillAllAndExit();
+    }
+    if (r < 0) {
+      if (errno == EINTR) continue;
+      DIE("read failed");
+    }
+    p += r;
+    n -= r;
+  }
+}
+
+static int32_t ReadInt32() {
+  unsigned char b[4];
+  ReadFully(b, 4);
+  return (int32_t) (((uint32_t) b[0] << 24) | ((uint32_t) b[1] << 16)
+      | ((uint32_t) b[2] << 8) | b[3]);
+}
+
+static char *ReadString() {
+  int32_t length = ReadInt32();
+  if (length < 0) {
+    DIE("negative string length %d", length);
+  }
+  char *s = malloc(length + 1);
+  if (s == NULL) {
+    DIE("malloc failed");
+  }
+  ReadFully(s, length);
+  s[length] = '\0';
+  return s;
+}
+
+static char **ReadStrings() {
+  int32_t count = ReadInt32();
+  if (count < 0) {
+    DIE("negative string count %d", count);
+  }
+  char **strings = malloc((count + 1) * sizeof(char *));
+  if (strings == NULL) {
+    DIE("malloc failed");
+  }
+  for (int i = 0; i < count; i++) {
+    strings[i] = ReadString();
+  }
+  strings[count] = NULL;
+  return strings;
+}
+
+static void FreeStrings(char **strings) {
+  for (char **s = strings; *s != NULL; s++) {
+    free(*s);
+  }
+  free(strings);
+}
+
+static void PutInt32(unsigned char *p, int32_t value) {
+  p[0] = (unsigned char) ((uint32_t) value >> 24);
+  p[1] = (unsigned char) ((uint32_t) value >> 16);
+  p[2] = (unsigned char) ((uint32_t) value >> 8);
+  p[3] = (unsigned char) value;
+}
+
+static void PutInt64(unsigned char *p, int64_t value) {
+  PutInt32(p, (int32_t) ((uint64_t) value >> 32));
+  PutInt32(p + 4, (int32_t) value);
+}
+
+static void WriteResponse(int32_t id, int32_t kind, int32_t value,
+                          int timed_out, const struct rusage *usage) {
+  unsigned char b[40];
+  PutInt32(b, id);
+  PutInt32(b + 4, kind);
+  PutInt32(b + 8, value);
+  PutInt32(b + 12, timed_out);
+  int64_t peak_memory_kb = 0, user_time_us = 0, system_time_us = 0;
+  if (usage != NULL) {
+#ifdef __APPLE__
+    peak_memory_kb = usage->ru_maxrss / 1024;  // In bytes on OS X.
+#else
+    peak_memory_kb = usage->ru_maxrss;
+#endif
+    user_time_us =
+        usage->ru_utime.tv_sec * 1000000LL + usage->ru_utime.tv_usec;
+    system_time_us =
+        usage->ru_stime.tv_sec * 1000000LL + usage->ru_stime.tv_usec;
+  }
+  PutInt64(b + 16, peak_memory_kb);
+  PutInt64(b + 24, user_time_us);
+  PutInt64(b + 32, system_time_us);
+  size_t written = 0;
+  while (written < sizeof(b)) {
+    ssize_t r = write(STDOUT_FILENO, b + written, sizeof(b) - written);
+    if (r < 0) {
+      if (errno == EINTR) continue;
+      KillAllAndExit();
+    }
+    written += r;
+  }
+}
+
+static void ClearSignalMask() {
+  // Use an empty signal mask and default signal handlers in the
+  // subprocess.
+  sigset_t sset;
+  sigemptyset(&sset);
+  sigprocmask(SIG_SETMASK, &sset, NULL);
+  for (int i = 1; i < NSIG; ++i) {
+    if (i == SIGKILL || i == SIGSTOP) continue;
+
+    struct sigaction sa = {};
+    sa.sa_handler = SIG_DFL;
+    sigemptyset(&sa.sa_mask);
+    sigaction(i, &sa, NULL);
+  }
+}
+
+static int OpenAt(const char *path, int target_fd, int flags) {
+  int fd = open(path, flags, 0666);
+  if (fd == -1 || dup2(fd, target_fd) == -1) {
+    return -1;
+  }
+  if (fd != target_fd) {
+    close(fd);
+  }
+  return 0;
+}
+
+// Runs in the forked child; reports errno through error_fd if it fails.
+static void ExecChild(const char *cwd, const char *stdout_path,
+                      const char *stderr_path, char **argv, char **env,
+                      int error_fd) {
+  if (setsid() != -1
+      && (cwd[0] == '\0' || chdir(cwd) == 0)
+      && OpenAt("/dev/null", STDIN_FILENO, O_RDONLY) == 0
+      && OpenAt(stdout_path, STDOUT_FILENO,
+                O_WRONLY | O_CREAT | O_APPEND) == 0
+      && OpenAt(stderr_path, STDERR_FILENO,
+                O_WRONLY | O_CREAT | O_APPEND) == 0) {
+    ClearSignalMask();
+    // Force umask to include read and execute for everyone, to make
+    // output permissions predictable.
+    umask(022);
+    environ = env;
+    execvp(argv[0], argv);
+  }
+  int error = errno;
+  (void) write(error_fd, &error, sizeof(error));
+  _exit(127);
+}
+
+static void Spawn() {
+  int32_t id = ReadInt32();
+  int32_t timeout_ms = ReadInt32();
+  int32_t kill_delay_ms = ReadInt32();
+  char *cwd = ReadString();
+  char *stdout_path = ReadString();
+  char *stderr_path = ReadString();
+  char **argv = ReadStrings();
+  char **env = ReadStrings();
+
+  int error_pipe[2];
+  if (pipe(error_pipe) == -1
+      || fcntl(error_pipe[1], F_SETFD, FD_CLOEXEC) == -1) {
+    DIE("pipe failed");
+  }
+  pid_t pid = argv[0] == NULL ? -1 : fork();
+  if (pid == 0) {
+    close(error_pipe[0]);
+    ExecChild(cwd, stdout_path, stderr_path, argv, env, error_pipe[1]);
+  }
+  int fork_errno = argv[0] == NULL ? EINVAL : errno;
+  close(error_pipe[1]);
+
+  if (pid < 0) {
+    WriteResponse(id, RESPONSE_EXEC_FAILED, fork_errno, 0, NULL);
+  } else {
+    // The pipe is closed without data once the child execs.
+    int error = 0;
+    ssize_t r;
+    do {
+      r = read(error_pipe[0], &error, sizeof(error));
+    } while (r == -1 && errno == EINTR);
+    if (r == sizeof(error)) {
+      while (waitpid(pid, NULL, 0) == -1 && errno == EINTR) {}
+      WriteResponse(id, RESPONSE_EXEC_FAILED, error, 0, NULL);
+    } else {
+      if (num_children == max_children) {
+        max_children = max_children == 0 ? 64 : 2 * max_children;
+        children = realloc(children, max_children * sizeof(struct Child));
+        if (children == NULL) {
+          DIE("realloc failed");
+        }
+      }
+      struct Child *child = &children[num_children++];
+      child->pid = pid;
+      child->id = id;
+      child->deadline_ms = timeout_ms > 0 ? NowMillis() + timeout_ms : 0;
+      child->kill_at_ms = 0;
+      child->kill_delay_ms = kill_delay_ms;
+      child->timed_out = 0;
+    }
+  }
+  close(error_pipe[0]);
+
+  free(cwd);
+  free(stdout_path);
+  free(stderr_path);
+  FreeStrings(argv);
+  FreeStrings(env);
+}
+
+static void Kill() {
+  int32_t id = ReadInt32();
+  for (int i = 0; i < num_children; i++) {
+    if (children[i].id == id) {
+      // Like process-wrapper on a signal, kill the subprocesses quickly.
+      kill(-children[i].pid, SIGKILL);
+    }
+  }
+}
+
+static void ReapChildren() {
+  char buf[64];
+  while (read(sigchld_pipe[0], buf, sizeof(buf)) > 0) {}
+
+  pid_t pid;
+  int status;
+  struct rusage usage;
+  while ((pid = wait4(-1, &status, WNOHANG, &usage)) > 0) {
+    for (int i = 0; i < num_children; i++) {
+      if (children[i].pid == pid) {
+        // The child is done, but may have grandchildren.
+        kill(-pid, SIGKILL);
+        WriteResponse(children[i].id, RESPONSE_EXITED, status,
+                      children[i].timed_out, &usage);
+        children[i] = children[--num_children];
+        break;
+      }
+    }
+  }
+}
+
+// Sends the signals of expired timeouts and returns how long poll() may wait
+// for the next one, or -1.
+static int HandleTimeouts() {
+  int64_t now = NowMillis();
+  int64_t next = -1;
+  for (int i = 0; i < num_children; i++) {
+    struct Child *child = &children[i];
+    if (child->deadline_ms != 0 && child->deadline_ms <= now) {
+      // Give the process a bit of time to die gracefully if it needs it.
+      child->deadline_ms = 0;
+      child->timed_out = 1;
+      kill(-child->pid, SIGTERM);
+      if (child->kill_delay_ms > 0) {
+        child->kill_at_ms = now + child->kill_delay_ms;
+      } else {
+        kill(-child->pid, SIGKILL);
+      }
+    }
+    if (child->kill_at_ms != 0 && child->kill_at_ms <= now) {
+      child->kill_at_ms = 0;
+      kill(-child->pid, SIGKILL);
+    }
+    int64_t due = child->deadline_ms != 0 ? child->deadline_ms
+        : child->kill_at_ms;
+    if (due != 0 && (next == -1 || due < next)) {
+      next = due;
+    }
+  }
+  return next == -1 ? -1 : (int) (next - now);
+}
+
+// Usage: fork-server
+int main(int argc, char *argv[]) {
+  if (pipe(sigchld_pipe) == -1
+      || fcntl(sigchld_pipe[0], F_SETFL, O_NONBLOCK) == -1
+      || fcntl(sigchld_pipe[1], F_SETFL, O_NONBLOCK) == -1
+      || fcntl(sigchld_pipe[0], F_SETFD, FD_CLOEXEC) == -1
+      || fcntl(sigchld_pipe[1], F_SETFD, FD_CLOEXEC) == -1) {
+    DIE("pipe failed");
+  }
+  struct sigaction sa = {};
+  sa.sa_handler = OnSigchld;
+  sa.sa_flags = SA_RESTART | SA_NOCLDSTOP;
+  sigemptyset(&sa.sa_mask);
+  if (sigaction(SIGCHLD, &sa, NULL) != 0) {
+    DIE("sigaction failed");
+  }
+  // If the Blaze server goes away, writes fail instead, and we kill our
+  // subprocesses before we exit.
+  signal(SIGPIPE, SIG_IGN);
+
+  while (1) {
+    struct pollfd fds[2] = {
+      { STDIN_FILENO, POLLIN, 0 },
+      { sigchld_pipe[0], POLLIN, 0 },
+    };
+    int timeout = HandleTimeouts();
+    if (poll(fds, 2, timeout) == -1) {
+      if (errno == EINTR) continue;
+      DIE("poll failed");
+    }
+    if (fds[1].revents & POLLIN) {
+      ReapChildren();
+    }
+    if (fds[0].revents & (POLLIN | POLLHUP)) {
+      int32_t type = ReadInt32();
+      if (type == REQUEST_SPAWN) {
+        Spawn();
+      } else if (type == REQUEST_KILL) {
+        Kill();
+      } else {
+        DIE("unknown request type %d", type);
+      }
+    }
+  }
+}
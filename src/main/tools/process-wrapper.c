@@ -21,6 +21,10 @@
 // unless process-wrapper receives a signal. ie, on SIGTERM this program will
 // die with raise(SIGTERM) even if the child process handles SIGTERM with
 // exit(0).
+//
+// If the first argument is --stats=<file>, the resource usage of the
+// subprocess is written to that file after it exits, one "<name> <value>"
+// pair per line.
 
 #ifndef _GNU_SOURCE
 #define _GNU_SOURCE
@@ -33,6 +37,7 @@
 #include <stdio.h>
 #include <stdlib.h>
 #include <string.h>
+#include <sys/resource.h>
 #include <sys/time.h>
 #include <sys/types.h>
 #include <sys/stat.h>
@@ -54,6 +59,12 @@ static double global_kill_delay = 0.0;
   exit(EXIT_FAILURE); \
 }
 
+#define WARN(args...) { \
+  fprintf(stderr, args); \
+  fprintf(stderr, " --- "); \
+  perror(NULL); \
+}
+
 #define CHECK_CALL(x) if (x != 0) { perror(#x); exit(1); }
 
 // Make sure the process and all subprocesses are killed.
@@ -133,11 +144,11 @@ static void ClearSignalMask() {
   }
 }
 
-static int WaitChild(pid_t pid, const char *name) {
+static int WaitChild(pid_t pid, const char *name, struct rusage *usage) {
   int err = 0;
   int status = 0;
   do {
-    err = waitpid(pid, &status, 0);
+    err = wait4(pid, &status, 0, usage);
   } while (err == -1 && errno == EINTR);
 
   if (err == -1) {
@@ -146,10 +157,42 @@ static int WaitChild(pid_t pid, const char *name) {
   return status;
 }
 
-// Usage: process-wrapper
+// Writes the peak memory and CPU time of the child to the given file. The
+// peak memory of a process includes that of its waited-for descendants. The
+// stats are optional, so failures only print a warning and leave no file.
+static void WriteStats(const char *stats_path, const struct rusage *usage) {
+  FILE *stats = fopen(stats_path, "w");
+  if (stats == NULL) {
+    WARN("Could not open %s for stats", stats_path);
+    return;
+  }
+#ifdef __APPLE__
+  long peak_memory_kb = usage->ru_maxrss / 1024;  // In bytes on OS X.
+#else
+  long peak_memory_kb = usage->ru_maxrss;
+#endif
+  fprintf(stats, "peak_memory_kb %ld\n", peak_memory_kb);
+  fprintf(stats, "user_time_us %lld\n",
+          usage->ru_utime.tv_sec * 1000000LL + usage->ru_utime.tv_usec);
+  fprintf(stats, "system_time_us %lld\n",
+          usage->ru_stime.tv_sec * 1000000LL + usage->ru_stime.tv_usec);
+  int write_failed = ferror(stats);
+  if (fclose(stats) != 0 || write_failed) {
+    WARN("Could not write %s", stats_path);
+    unlink(stats_path);
+  }
+}
+
+// Usage: process-wrapper [--stats=<stats file>]
 //            <timeout_sec> <kill_delay_sec> <stdout file> <stderr file>
 //            [cmdline]
 int main(int argc, char *argv[]) {
+  const char *stats_path = NULL;
+  if (argc > 1 && strncmp(argv[1], "--stats=", 8) == 0) {
+    stats_path = argv[1] + 8;
+    argc--;
+    argv++;
+  }
   if (argc <= 5) {
     DIE("Not enough cmd line arguments to process-wrapper");
   }
@@ -232,7 +275,11 @@ int main(int argc, char *argv[]) {
     InstallSignalHandler(SIGINT);
     EnableAlarm(timeout);
 
-    int status = WaitChild(global_pid, argv[0]);
+    struct rusage usage;
+    int status = WaitChild(global_pid, argv[0], &usage);
+    if (stats_path != NULL) {
+      WriteStats(stats_path, &usage);
+    }
 
     // The child is done, but may have grandchildren.
     kill(-global_pid, SIGKILL);
@@ -15,15 +15,19 @@ package com.google.devtools.build.lib.actions;
 
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 
 import com.google.common.collect.ImmutableList;
 import com.google.devtools.build.lib.analysis.actions.CustomCommandLine;
 import com.google.devtools.build.lib.analysis.actions.CustomCommandLine.CustomArgv;
 import com.google.devtools.build.lib.analysis.actions.CustomCommandLine.CustomMultiArgv;
+import com.google.devtools.build.lib.collect.nestedset.NestedSet;
 import com.google.devtools.build.lib.collect.nestedset.NestedSetBuilder;
+import com.google.devtools.build.lib.collect.nestedset.Order;
 import com.google.devtools.build.lib.syntax.Label;
 import com.google.devtools.build.lib.syntax.Label.SyntaxException;
 import com.google.devtools.build.lib.testutil.Scratch;
+import com.google.devtools.build.lib.util.Fingerprint;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -158,4 +162,48 @@ public class CustomCommandLineTest {
         .build();
     assertEquals(ImmutableList.of(), cl.arguments());
   }
+
+  @Test
+  public void testFingerprintOfNestedSets() {
+    NestedSet<Artifact> inner = NestedSetBuilder.create(Order.STABLE_ORDER, artifact1);
+    NestedSet<Artifact> artifacts =
+        NestedSetBuilder.<Artifact>stableOrder().add(artifact2).addTransitive(inner).build();
+    NestedSet<String> strings = NestedSetBuilder.create(Order.STABLE_ORDER, "a", "b");
+
+    assertEquals(
+        fingerprint(CustomCommandLine.builder()
+            .addExecPaths("--path", artifacts)
+            .addJoinExecPaths("--joined", ":", artifacts)
+            .addBeforeEach("-f", strings)
+            .build()),
+        fingerprint(CustomCommandLine.builder()
+            .addExecPaths("--path", NestedSetBuilder.<Artifact>stableOrder()
+                .add(artifact2)
+                .addTransitive(NestedSetBuilder.create(Order.STABLE_ORDER, artifact1))
+                .build())
+            .addJoinExecPaths("--joined", ":", artifacts)
+            .addBeforeEach("-f", NestedSetBuilder.create(Order.STABLE_ORDER, "a", "b"))
+            .build()));
+    assertFalse(fingerprint(CustomCommandLine.builder().addExecPaths("--path", artifacts).build())
+        .equals(fingerprint(CustomCommandLine.builder().addExecPaths("--path", inner).build())));
+    assertFalse(fingerprint(CustomCommandLine.builder().addBeforeEach("-f", strings).build())
+        .equals(fingerprint(CustomCommandLine.builder().addFormatEach("-f", strings).build())));
+    assertFalse(fingerprint(CustomCommandLine.builder().addBeforeEach("-f", strings).build())
+        .equals(fingerprint(CustomCommandLine.builder()
+            .addBeforeEach("-f", ImmutableList.of("a", "b")).build())));
+  }
+
+  @Test
+  public void testNestedSetOfExecPathsArgs() {
+    CustomCommandLine cl = CustomCommandLine.builder()
+        .addExecPaths("--path", NestedSetBuilder.create(Order.STABLE_ORDER, artifact1, artifact2))
+        .build();
+    assertEquals(ImmutableList.of("--path", "dir/file1.txt", "dir/file2.txt"), cl.arguments());
+  }
+
+  private static String fingerprint(CustomCommandLine commandLine) {
+    Fingerprint fingerprint = new Fingerprint();
+    commandLine.addToFingerprint(fingerprint);
+    return fingerprint.hexDigestAndReset();
+  }
 }
@@ -0,0 +1,52 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.actions;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.fail;
+
+import com.google.devtools.build.lib.util.StringUtilities;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+
+/**
+ * Tests for {@link LocalHostLoad}.
+ */
+@RunWith(JUnit4.class)
+public class LocalHostLoadTest {
+  @Test
+  public void testParseCpuTicks() throws Exception {
+    String stat = StringUtilities.joinLines(
+        "cpu  100 5 20 300 40 1 2 3 7 0",
+        "cpu0 50 5 10 150 20 1 1 2 7 0",
+        "cpu1 50 0 10 150 20 0 1 1 0 0",
+        "intr 1590317 0 0",
+        "ctxt 2712388");
+    // Idle and iowait are idle; guest time is part of user time already.
+    assertArrayEquals(new long[] {340, 471, 2}, LocalHostLoad.parseCpuTicks(stat));
+  }
+
+  @Test
+  public void testParseCpuTicksWithoutCpus() throws Exception {
+    try {
+      LocalHostLoad.parseCpuTicks("intr 1590317 0 0\n");
+      fail();
+    } catch (IOException expected) {
+    }
+  }
+}
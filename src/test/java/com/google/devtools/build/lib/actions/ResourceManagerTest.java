@@ -323,6 +323,103 @@ public class ResourceManagerTest {
     assertFalse(rm.inUse());
   }
 
+  @Test
+  public void testHigherPriorityIsGrantedFirst() throws Exception {
+    acquire(1000, 1, 0, 0);
+    TestThread low = new TestThread() {
+      @Override public void runTest() throws Exception {
+        rm.acquireResources(resourceOwner, ResourceSet.create(1000, 1, 0, 0), /*priority=*/1);
+        validate(2);
+        release(1000, 1, 0, 0);
+      }
+    };
+    TestThread high = new TestThread() {
+      @Override public void runTest() throws Exception {
+        rm.acquireResources(resourceOwner, ResourceSet.create(1000, 1, 0, 0), /*priority=*/5);
+        validate(1);
+        release(1000, 1, 0, 0);
+      }
+    };
+    low.start();
+    while (rm.getWaitCount() < 1) {
+      Thread.yield();
+    }
+    high.start();
+    while (rm.getWaitCount() < 2) {
+      Thread.yield();
+    }
+    release(1000, 1, 0, 0);
+    low.joinAndAssertState(1000);
+    high.joinAndAssertState(1000);
+    assertFalse(rm.inUse());
+  }
+
+  @Test
+  public void testAdaptiveModeLimitsToSampledLoad() throws Exception {
+    ActionMetadata owner = new NamedResourceOwner("Genrule");
+    FakeHostLoad load = new FakeHostLoad(/*idleCpus=*/1.0, /*availableMemoryMb=*/300);
+    rm.setLocalHostLoad(load);
+    rm.acquireResources(owner, ResourceSet.create(200, 0.5, 0, 0));
+    // Only 300 MB were free on the host when the first request was granted.
+    assertFalse(rm.tryAcquire(owner, ResourceSet.create(200, 0.1, 0, 0)));
+
+    load.availableMemoryMb = 5000;
+    rm.setLocalHostLoad(load);
+    // The sampled capacity never exceeds the configured resources.
+    assertTrue(rm.tryAcquire(owner, ResourceSet.create(200, 0.1, 0, 0)));
+    assertFalse(rm.tryAcquire(owner, ResourceSet.create(700, 0.1, 0, 0)));
+  }
+
+  @Test
+  public void testAdaptiveModeUsesLearnedMemory() throws Exception {
+    ActionMetadata link = new NamedResourceOwner("Link");
+    ActionMetadata compile = new NamedResourceOwner("Compile");
+    rm.setLocalHostLoad(new FakeHostLoad(/*idleCpus=*/1.0, /*availableMemoryMb=*/5000));
+    rm.recordPeakMemory("Link", 100);
+
+    rm.acquireResources(link, ResourceSet.create(900, 0.1, 0, 0));
+    // The link was estimated at 900 MB, but only 125 MB are accounted for.
+    assertTrue(rm.tryAcquire(compile, ResourceSet.create(800, 0.1, 0, 0)));
+    rm.releaseResources(link, ResourceSet.create(900, 0.1, 0, 0));
+    rm.releaseResources(compile, ResourceSet.create(800, 0.1, 0, 0));
+    assertFalse(rm.inUse());
+  }
+
+  /** Returns the given load, and checks that the resource manager isn't locked meanwhile. */
+  private final class FakeHostLoad extends LocalHostLoad {
+    double idleCpus;
+    double availableMemoryMb;
+
+    FakeHostLoad(double idleCpus, double availableMemoryMb) {
+      this.idleCpus = idleCpus;
+      this.availableMemoryMb = availableMemoryMb;
+    }
+
+    @Override
+    public double getIdleCpus() {
+      assertFalse(Thread.holdsLock(rm));
+      return idleCpus;
+    }
+
+    @Override
+    public double getAvailableMemoryMb() {
+      return availableMemoryMb;
+    }
+  }
+
+  private static final class NamedResourceOwner extends ResourceOwnerStub {
+    private final String mnemonic;
+
+    NamedResourceOwner(String mnemonic) {
+      this.mnemonic = mnemonic;
+    }
+
+    @Override
+    public String getMnemonic() {
+      return mnemonic;
+    }
+  }
+
   private static class ResourceOwnerStub implements ActionMetadata {
 
     @Override
@@ -0,0 +1,183 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.actions.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.actions.Artifact;
+import com.google.devtools.build.lib.actions.Root;
+import com.google.devtools.build.lib.testutil.Scratch;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.List;
+
+/**
+ * Tests for {@link DiskCache}.
+ */
+@RunWith(JUnit4.class)
+public class DiskCacheTest {
+  private final Scratch scratch = new Scratch();
+  private final MetadataHandler metadataHandler = mock(MetadataHandler.class);
+  private Root root;
+  private List<Artifact> outputs;
+
+  @Before
+  public void setUp() throws Exception {
+    Path execRoot = scratch.dir("/exec");
+    root = Root.asDerivedRoot(execRoot, scratch.dir("/exec/out"));
+    outputs = ImmutableList.of(output("a", "alpha"), output("b", "beta"));
+  }
+
+  private Artifact output(String name, String content) throws Exception {
+    Artifact artifact = new Artifact(root.getPath().getRelative(name), root);
+    FileSystemUtils.writeContentAsLatin1(artifact.getPath(), content);
+    return artifact;
+  }
+
+  private static String content(Artifact artifact) throws Exception {
+    return new String(FileSystemUtils.readContentAsLatin1(artifact.getPath()));
+  }
+
+  private void deleteOutputs() throws Exception {
+    for (Artifact output : outputs) {
+      output.getPath().delete();
+    }
+  }
+
+  @Test
+  public void storedOutputsAreFetched() throws Exception {
+    DiskCache cache = new DiskCache(scratch.resolve("/cache"), 1024);
+    cache.store("key", outputs, metadataHandler);
+    deleteOutputs();
+
+    assertTrue(cache.fetch("key", outputs));
+    assertEquals("alpha", content(outputs.get(0)));
+    assertEquals("beta", content(outputs.get(1)));
+    assertEquals(1, cache.getHits());
+    assertEquals(0, cache.getMisses());
+  }
+
+  @Test
+  public void unknownKeyMisses() throws Exception {
+    DiskCache cache = new DiskCache(scratch.resolve("/cache"), 1024);
+    cache.store("key", outputs, metadataHandler);
+    deleteOutputs();
+
+    assertFalse(cache.fetch("other", outputs));
+    assertFalse(outputs.get(0).getPath().exists());
+    assertEquals(0, cache.getHits());
+    assertEquals(1, cache.getMisses());
+  }
+
+  @Test
+  public void outputsAreNotStoredUnlessAllAreFiles() throws Exception {
+    DiskCache cache = new DiskCache(scratch.resolve("/cache"), 1024);
+    outputs.get(1).getPath().delete();
+    cache.store("key", outputs, metadataHandler);
+    deleteOutputs();
+
+    assertFalse(cache.fetch("key", outputs));
+  }
+
+  @Test
+  public void evictedOutputsMiss() throws Exception {
+    DiskCache cache = new DiskCache(scratch.resolve("/cache"), 1);
+    cache.store("key", outputs, metadataHandler);
+    deleteOutputs();
+
+    assertTrue(cache.evict() > 0);
+    assertFalse(cache.fetch("key", outputs));
+    assertFalse(outputs.get(0).getPath().exists());
+  }
+
+  @Test
+  public void evictionKeepsCacheWithinLimit() throws Exception {
+    DiskCache cache = new DiskCache(scratch.resolve("/cache"), 1024);
+    cache.store("key", outputs, metadataHandler);
+
+    assertEquals(0, cache.evict());
+    deleteOutputs();
+    assertTrue(cache.fetch("key", outputs));
+  }
+
+  @Test
+  public void fetchedOutputsDoNotShareFilesWithTheCache() throws Exception {
+    DiskCache cache = new DiskCache(scratch.resolve("/cache"), 1024);
+    cache.store("key", outputs, metadataHandler);
+    FileSystemUtils.writeContentAsLatin1(outputs.get(0).getPath(), "changed");
+    deleteOutputs();
+
+    assertTrue(cache.fetch("key", outputs));
+    FileSystemUtils.writeContentAsLatin1(outputs.get(0).getPath(), "changed again");
+    deleteOutputs();
+    assertTrue(cache.fetch("key", outputs));
+    assertEquals("alpha", content(outputs.get(0)));
+  }
+
+  @Test
+  public void outputsThatChangedSinceTheyWereBuiltAreNotStored() throws Exception {
+    DiskCache cache = new DiskCache(scratch.resolve("/cache"), 1024);
+    Artifact output = outputs.get(0);
+    when(metadataHandler.getMetadataMaybe(output))
+        .thenReturn(new Metadata(output.getPath().getDigest()));
+    FileSystemUtils.writeContentAsLatin1(output.getPath(), "changed");
+    cache.store("key", outputs, metadataHandler);
+    deleteOutputs();
+
+    assertFalse(cache.fetch("key", outputs));
+  }
+
+  @Test
+  public void corruptFilesAreNotFetched() throws Exception {
+    Path cacheRoot = scratch.resolve("/cache");
+    DiskCache cache = new DiskCache(cacheRoot, 1024);
+    cache.store("key", outputs, metadataHandler);
+    deleteOutputs();
+    for (Path blob : cacheRoot.getRelative("cas").getDirectoryEntries()) {
+      FileSystemUtils.writeContentAsLatin1(blob, "corrupt");
+    }
+
+    assertFalse(cache.fetch("key", outputs));
+    assertFalse(outputs.get(0).getPath().exists());
+    assertFalse(outputs.get(1).getPath().exists());
+    assertEquals(1, cache.getMisses());
+  }
+
+  @Test
+  public void leastRecentlyUsedEntriesAreEvictedWithTheirFiles() throws Exception {
+    Path cacheRoot = scratch.resolve("/cache");
+    DiskCache cache = new DiskCache(cacheRoot, 1024);
+    cache.store("old", outputs.subList(0, 1), metadataHandler);
+    cache.store("new", outputs.subList(1, 2), metadataHandler);
+    cacheRoot.getRelative("ac/old").setLastModifiedTime(1000L);
+    cacheRoot.getRelative("ac/new").setLastModifiedTime(2000L);
+    cache = new DiskCache(cacheRoot, cacheRoot.getRelative("ac/new").getFileSize() + 4);
+    deleteOutputs();
+
+    assertTrue(cache.evict() > 0);
+    assertFalse(cache.fetch("old", outputs.subList(0, 1)));
+    assertTrue(cache.fetch("new", outputs.subList(1, 2)));
+  }
+}
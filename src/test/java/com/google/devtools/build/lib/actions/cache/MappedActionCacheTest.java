@@ -0,0 +1,242 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.actions.cache;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.devtools.build.lib.testutil.TestUtils;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.FileSystems;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+
+/**
+ * Tests for {@link MappedActionCache}.
+ */
+@RunWith(JUnit4.class)
+public class MappedActionCacheTest {
+  private static final int SEGMENT_SIZE = 4096;
+
+  private Path cacheRoot;
+  private MappedActionCache cache;
+
+  @Before
+  public void setUp() throws Exception {
+    cacheRoot = FileSystems.initDefaultAsJavaIo().getPath(TestUtils.makeTempDir().getPath())
+        .getChild("cache");
+    FileSystemUtils.deleteTree(cacheRoot);
+    cacheRoot.createDirectory();
+    cache = new MappedActionCache(cacheRoot, SEGMENT_SIZE);
+  }
+
+  @Test
+  public void testGetInvalidKey() {
+    assertNull(cache.get("key"));
+  }
+
+  @Test
+  public void testPutAndGet() {
+    ActionCache.Entry entry = putKey("key", "foo/bar", "foo/baz");
+    ActionCache.Entry read = cache.get("key");
+    assertNotNull(read);
+    assertEquals(entry.toString(), read.toString());
+    assertThat(read.getPaths()).containsExactly("foo/bar", "foo/baz");
+  }
+
+  @Test
+  public void testPutAndRemove() {
+    putKey("key", "foo");
+    cache.remove("key");
+    assertNull(cache.get("key"));
+    putKey("key", "bar");
+    assertThat(cache.get("key").getPaths()).containsExactly("bar");
+  }
+
+  @Test
+  public void testSaveAndReopen() throws IOException {
+    // Enough entries to span several segments and resize the index.
+    for (int i = 0; i < 2000; i++) {
+      putKey(Integer.toString(i), "common", "file" + i);
+    }
+    cache.remove("7");
+    cache.save();
+
+    MappedActionCache newCache = new MappedActionCache(cacheRoot, SEGMENT_SIZE);
+    for (int i = 0; i < 2000; i++) {
+      if (i != 7) {
+        assertKeyEquals(cache, newCache, Integer.toString(i));
+      }
+    }
+    assertNull(newCache.get("7"));
+    assertNull(newCache.get("not_a_key"));
+  }
+
+  @Test
+  public void testUnsavedChangesRebuildIndex() throws IOException {
+    putKey("saved", "foo");
+    cache.save();
+    putKey("unsaved", "bar");
+    putKey("saved", "baz");
+
+    // Without a save() the index is stale, so it has to be recovered from the log.
+    MappedActionCache newCache = new MappedActionCache(cacheRoot, SEGMENT_SIZE);
+    assertThat(newCache.get("saved").getPaths()).containsExactly("baz");
+    assertThat(newCache.get("unsaved").getPaths()).containsExactly("bar");
+  }
+
+  @Test
+  public void testDamagedLogTailIsDropped() throws IOException {
+    putKey("first", "foo");
+    cache.save();
+    putKey("second", "bar");
+    // Overwrite the last byte of the checksum of the second record.
+    byte[] log = FileSystemUtils.readContent(MappedActionCache.logFile(cacheRoot));
+    int end = 0;
+    for (int i = 0; i < log.length; i++) {
+      if (log[i] != 0) {
+        end = i;
+      }
+    }
+    log[end] = (byte) (log[end] + 1);
+    FileSystemUtils.writeContent(MappedActionCache.logFile(cacheRoot), log);
+
+    MappedActionCache newCache = new MappedActionCache(cacheRoot, SEGMENT_SIZE);
+    assertThat(newCache.get("first").getPaths()).containsExactly("foo");
+    assertNull(newCache.get("second"));
+  }
+
+  @Test
+  public void testCorruptedFilesAreRenamed() throws IOException {
+    putKey("key", "foo");
+    cache.save();
+    FileSystemUtils.writeContent(MappedActionCache.logFile(cacheRoot), new byte[SEGMENT_SIZE]);
+    try {
+      new MappedActionCache(cacheRoot, SEGMENT_SIZE);
+      fail();
+    } catch (IOException e) {
+      assertThat(e.getMessage()).contains("Failed to load action cache data");
+    }
+    assertFalse(MappedActionCache.logFile(cacheRoot).exists());
+    assertTrue(cacheRoot.getChild("action_log_v11.blaze.bad").exists());
+    assertTrue(cacheRoot.getChild("action_index_v11.blaze.bad").exists());
+
+    assertNull(new MappedActionCache(cacheRoot, SEGMENT_SIZE).get("key"));
+  }
+
+  @Test
+  public void testStaleFilesAreDeleted() throws IOException {
+    putKey("key", "foo");
+    cache.save();
+    String[] staleFiles = {"action_cache_v10.blaze", "action_journal_v10.blaze",
+        "filename_index_v10.blaze", "filename_index_v10.journal", "action_cache_v10.blaze.bad",
+        "action_log_v9.blaze"};
+    for (String staleFile : staleFiles) {
+      FileSystemUtils.writeContent(cacheRoot.getChild(staleFile), new byte[1]);
+    }
+    FileSystemUtils.writeContent(cacheRoot.getChild("action_log_v11.blaze.bad"), new byte[1]);
+
+    MappedActionCache newCache = new MappedActionCache(cacheRoot, SEGMENT_SIZE);
+    for (String staleFile : staleFiles) {
+      assertFalse(staleFile, cacheRoot.getChild(staleFile).exists());
+    }
+    assertTrue(cacheRoot.getChild("action_log_v11.blaze.bad").exists());
+    assertThat(newCache.get("key").getPaths()).containsExactly("foo");
+  }
+
+  @Test
+  public void testCompaction() throws IOException {
+    assertFalse(cache.needsCompaction());
+    for (int round = 0; round < 20; round++) {
+      for (int i = 0; i < 50; i++) {
+        putKey(Integer.toString(i), "file" + i, "round" + round);
+      }
+    }
+    cache.remove("0");
+    assertTrue(cache.needsCompaction());
+    long size = MappedActionCache.logFile(cacheRoot).getFileSize();
+
+    assertTrue(cache.compact());
+    assertFalse(cache.needsCompaction());
+    assertThat(MappedActionCache.logFile(cacheRoot).getFileSize()).isLessThan(size);
+    assertNull(cache.get("0"));
+    for (int i = 1; i < 50; i++) {
+      assertThat(cache.get(Integer.toString(i)).getPaths()).containsExactly("file" + i, "round19");
+    }
+
+    MappedActionCache newCache = new MappedActionCache(cacheRoot, SEGMENT_SIZE);
+    for (int i = 1; i < 50; i++) {
+      assertKeyEquals(cache, newCache, Integer.toString(i));
+    }
+    assertFalse(cacheRoot.getChild("action_log_v11.blaze.compacting").exists());
+  }
+
+  @Test
+  public void testInterruptedCompactionLeavesCacheUnchanged() throws IOException {
+    for (int round = 0; round < 3; round++) {
+      for (int i = 0; i < 2000; i++) {
+        putKey(Integer.toString(i), "round" + round);
+      }
+    }
+    Thread.currentThread().interrupt();
+    try {
+      assertFalse(cache.compact());
+      assertTrue(Thread.currentThread().isInterrupted());
+    } finally {
+      Thread.interrupted();
+    }
+    assertTrue(cache.needsCompaction());
+    assertThat(cache.get("1").getPaths()).containsExactly("round2");
+    assertFalse(cacheRoot.getChild("action_log_v11.blaze.compacting").exists());
+  }
+
+  @Test
+  public void testToStringIsntTooBig() throws Exception {
+    for (int i = 0; i < 3000; i++) {
+      putKey(Integer.toString(i));
+    }
+    String val = cache.toString();
+    assertThat(val).startsWith("Action cache (3000 records):\n");
+    assertThat(val.length()).isAtMost(2000);
+    assertThat(val).endsWith("...");
+  }
+
+  private static void assertKeyEquals(ActionCache cache1, ActionCache cache2, String key) {
+    Object entry = cache1.get(key);
+    assertNotNull(entry);
+    assertEquals(entry.toString(), cache2.get(key).toString());
+  }
+
+  private ActionCache.Entry putKey(String key, String... files) {
+    ActionCache.Entry entry = cache.createEntry(key);
+    for (String file : files) {
+      entry.addFile(new PathFragment(file), Metadata.CONSTANT_METADATA);
+    }
+    entry.getFileDigest();
+    cache.put(key, entry);
+    return entry;
+  }
+}
@@ -0,0 +1,199 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.actions.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import com.google.devtools.build.lib.testutil.ManualClock;
+import com.google.devtools.build.lib.testutil.Scratch;
+import com.google.devtools.build.lib.vfs.DigestHashFunction;
+import com.google.devtools.build.lib.vfs.FileStatus;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+
+/**
+ * Tests for {@link PersistentDigestCache}.
+ */
+@RunWith(JUnit4.class)
+public class PersistentDigestCacheTest {
+  private final ManualClock clock = new ManualClock();
+  private final Scratch scratch = new Scratch(new InMemoryFileSystem(clock));
+  private Path cacheRoot;
+
+  @Before
+  public void setUp() throws Exception {
+    clock.advanceMillis(1000000);
+    cacheRoot = scratch.dir("/cache");
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    DigestUtils.setPersistentDigestCache(null);
+  }
+
+  private PersistentDigestCache newCache() throws Exception {
+    return new PersistentDigestCache(cacheRoot, clock);
+  }
+
+  private static byte[] fakeDigest(int fill) {
+    byte[] digest = new byte[DigestHashFunction.getDefault().getDigestLength()];
+    Arrays.fill(digest, (byte) fill);
+    return digest;
+  }
+
+  @Test
+  public void testDigestSurvivesReload() throws Exception {
+    Path file = scratch.file("/a", "alpha");
+    clock.advanceMillis(PersistentDigestCache.RACY_INTERVAL_MILLIS);
+    PersistentDigestCache cache = newCache();
+    cache.put(file, file.stat(), clock.currentTimeMillis(), fakeDigest(1));
+    cache.save();
+
+    PersistentDigestCache reloaded = newCache();
+    assertEquals(1, reloaded.size());
+    assertArrayEquals(fakeDigest(1), reloaded.get(file, file.stat()));
+  }
+
+  @Test
+  public void testModifiedFileMisses() throws Exception {
+    Path file = scratch.file("/a", "alpha");
+    clock.advanceMillis(PersistentDigestCache.RACY_INTERVAL_MILLIS);
+    PersistentDigestCache cache = newCache();
+    cache.put(file, file.stat(), clock.currentTimeMillis(), fakeDigest(1));
+
+    clock.advanceMillis(1000);
+    scratch.overwriteFile("/a", "beta");
+    assertNull(cache.get(file, file.stat()));
+  }
+
+  @Test
+  public void testTouchedFileMisses() throws Exception {
+    Path file = scratch.file("/a", "alpha");
+    clock.advanceMillis(PersistentDigestCache.RACY_INTERVAL_MILLIS);
+    PersistentDigestCache cache = newCache();
+    cache.put(file, file.stat(), clock.currentTimeMillis(), fakeDigest(1));
+
+    // Restoring the modification time does not restore the change time.
+    long mtime = file.getLastModifiedTime();
+    clock.advanceMillis(1000);
+    file.setLastModifiedTime(mtime);
+    assertNull(cache.get(file, file.stat()));
+  }
+
+  @Test
+  public void testReplacedFileMisses() throws Exception {
+    Path file = scratch.file("/a", "alpha");
+    clock.advanceMillis(PersistentDigestCache.RACY_INTERVAL_MILLIS);
+    PersistentDigestCache cache = newCache();
+    cache.put(file, file.stat(), clock.currentTimeMillis(), fakeDigest(1));
+
+    file.delete();
+    scratch.file("/a", "alpha");
+    assertNull(cache.get(file, file.stat()));
+  }
+
+  @Test
+  public void testRecentlyModifiedFileIsNotRecorded() throws Exception {
+    Path file = scratch.file("/a", "alpha");
+    clock.advanceMillis(PersistentDigestCache.RACY_INTERVAL_MILLIS - 1);
+    PersistentDigestCache cache = newCache();
+    cache.put(file, file.stat(), clock.currentTimeMillis(), fakeDigest(1));
+    assertNull(cache.get(file, file.stat()));
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testFileModifiedDuringReadIsNotRecorded() throws Exception {
+    Path file = scratch.file("/a", "alpha");
+    clock.advanceMillis(PersistentDigestCache.RACY_INTERVAL_MILLIS - 1);
+    PersistentDigestCache cache = newCache();
+    long statTime = cache.currentTimeMillis();
+    FileStatus stat = file.stat();
+    // A slow read: by the time the digest is known, the file is old enough.
+    clock.advanceMillis(PersistentDigestCache.RACY_INTERVAL_MILLIS);
+    cache.put(file, stat, statTime, fakeDigest(1));
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testUnusedDigestsExpire() throws Exception {
+    Path used = scratch.file("/used", "alpha");
+    Path unused = scratch.file("/unused", "beta");
+    clock.advanceMillis(PersistentDigestCache.RACY_INTERVAL_MILLIS);
+    PersistentDigestCache cache = newCache();
+    cache.put(used, used.stat(), clock.currentTimeMillis(), fakeDigest(1));
+    cache.put(unused, unused.stat(), clock.currentTimeMillis(), fakeDigest(2));
+
+    clock.advanceMillis(PersistentDigestCache.MAX_AGE_MILLIS / 2);
+    assertArrayEquals(fakeDigest(1), cache.get(used, used.stat()));
+    clock.advanceMillis(PersistentDigestCache.MAX_AGE_MILLIS / 2 + 1);
+    cache.save();
+
+    PersistentDigestCache reloaded = newCache();
+    assertEquals(1, reloaded.size());
+    assertArrayEquals(fakeDigest(1), reloaded.get(used, used.stat()));
+    assertNull(reloaded.get(unused, unused.stat()));
+  }
+
+  @Test
+  public void testLeastRecentlyUsedDigestsAreDroppedBeyondMaxEntries() throws Exception {
+    Path first = scratch.file("/first", "alpha");
+    Path second = scratch.file("/second", "beta");
+    clock.advanceMillis(PersistentDigestCache.RACY_INTERVAL_MILLIS);
+    PersistentDigestCache cache = new PersistentDigestCache(cacheRoot, clock, 1);
+    cache.put(first, first.stat(), clock.currentTimeMillis(), fakeDigest(1));
+    clock.advanceMillis(1000);
+    cache.put(second, second.stat(), clock.currentTimeMillis(), fakeDigest(2));
+    cache.save();
+
+    assertEquals(1, cache.size());
+    assertArrayEquals(fakeDigest(2), cache.get(second, second.stat()));
+  }
+
+  @Test
+  public void testOldVersionsAreDeleted() throws Exception {
+    Path oldFile = scratch.file("/cache/digest_cache_md5_v1.blaze");
+    Path oldJournal = scratch.file("/cache/digest_cache_md5_v1_journal.blaze");
+    newCache();
+    assertFalse(oldFile.exists());
+    assertFalse(oldJournal.exists());
+  }
+
+  @Test
+  public void testDigestUtilsUsesCache() throws Exception {
+    Path file = scratch.file("/a", "alpha");
+    byte[] digest = file.getDigest();
+    clock.advanceMillis(PersistentDigestCache.RACY_INTERVAL_MILLIS);
+    PersistentDigestCache cache = newCache();
+    DigestUtils.setPersistentDigestCache(cache);
+
+    assertArrayEquals(digest, DigestUtils.getDigestOrFail(file, file.getFileSize()));
+    assertEquals(1, cache.size());
+
+    // A recorded digest is returned without reading the file.
+    cache.put(file, file.stat(), clock.currentTimeMillis(), fakeDigest(2));
+    assertArrayEquals(fakeDigest(2), DigestUtils.getDigestOrFail(file, file.getFileSize()));
+  }
+}
@@ -18,6 +18,7 @@ import static com.google.common.truth.Truth.assertThat;
 import com.google.common.base.Joiner;
 import com.google.common.base.Predicate;
 import com.google.common.base.Predicates;
+import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
@@ -159,6 +160,12 @@ public final class ActionsTestUtil {
     public boolean inErrorBubblingForTesting() {
       return false;
     }
+
+    @Override
+    public <T extends SkyFunction.ComputeState> T getState(Supplier<T> stateSupplier) {
+      // Values are never missing, so there are no restarts to keep the state across.
+      return stateSupplier.get();
+    }
   }
 
   /**
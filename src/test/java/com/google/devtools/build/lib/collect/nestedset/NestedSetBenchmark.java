@@ -0,0 +1,107 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.collect.nestedset;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures the heap taken by the nested sets of a synthetic dependency graph, shaped like the
+ * transitive compilation inputs of a large build, and how long it takes to expand them. Not a test;
+ * run it with {@code java ... NestedSetBenchmark [targets] [expansions]}, once on each
+ * implementation to compare.
+ *
+ * <p>Each target has up to three direct elements and up to four dependencies among the targets
+ * created before it, so all shapes of nested sets occur. The elements are created before the heap
+ * is measured, so only the nested sets themselves are counted.
+ */
+public final class NestedSetBenchmark {
+
+  private NestedSetBenchmark() {}
+
+  public static void main(String[] args) {
+    int targets = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+    int expansions = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+    Random random = new Random(42);
+    String[][] directs = new String[targets][];
+    int[][] deps = new int[targets][];
+    for (int i = 0; i < targets; i++) {
+      directs[i] = new String[random.nextInt(4)];
+      for (int j = 0; j < directs[i].length; j++) {
+        directs[i][j] = "target" + i + "/file" + j;
+      }
+      deps[i] = new int[i == 0 ? 0 : random.nextInt(5)];
+      for (int j = 0; j < deps[i].length; j++) {
+        // Mostly recent targets, as dependencies tend to be local.
+        deps[i][j] = Math.max(0, i - 1 - random.nextInt(Math.min(i, 1000)));
+      }
+    }
+
+    long before = usedHeap();
+    List<NestedSet<String>> sets = build(directs, deps);
+    long after = usedHeap();
+    System.out.printf("heap: %.1f bytes per nested set%n",
+        (double) (after - before) / targets);
+
+    // Expand the sets of the last targets, which have the largest transitive closures.
+    List<NestedSet<String>> top = sets.subList(targets - expansions, targets);
+    for (String round : new String[] {"first", "memoized"}) {
+      long[] millis = new long[5];
+      for (int i = 0; i < millis.length; i++) {
+        List<NestedSet<String>> fresh = round.equals("first")
+            ? build(directs, deps).subList(targets - expansions, targets)
+            : top;
+        long start = System.nanoTime();
+        long elements = 0;
+        for (NestedSet<String> set : fresh) {
+          elements += set.toList().size();
+        }
+        millis[i] = (System.nanoTime() - start) / 1000000;
+        if (i == 0) {
+          System.out.printf("%s expansion: %d elements%n", round, elements);
+        }
+      }
+      Arrays.sort(millis);
+      System.out.printf("%s expansion: median %d ms, min %d ms%n", round,
+          millis[millis.length / 2], millis[0]);
+    }
+    // Keep the sets reachable until here.
+    System.out.println(sets.size() + " sets");
+  }
+
+  private static List<NestedSet<String>> build(String[][] directs, int[][] deps) {
+    List<NestedSet<String>> sets = new ArrayList<>(directs.length);
+    for (int i = 0; i < directs.length; i++) {
+      NestedSetBuilder<String> builder = NestedSetBuilder.stableOrder();
+      for (String direct : directs[i]) {
+        builder.add(direct);
+      }
+      for (int dep : deps[i]) {
+        builder.addTransitive(sets.get(dep));
+      }
+      sets.add(builder.build());
+    }
+    return sets;
+  }
+
+  private static long usedHeap() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 5; i++) {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+}
@@ -16,8 +16,13 @@ package com.google.devtools.build.lib.collect.nestedset;
 import static com.google.common.truth.Truth.assertThat;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
+import com.google.common.hash.Funnel;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.PrimitiveSink;
 import com.google.common.testing.EqualsTester;
+import com.google.devtools.build.lib.testutil.TestUtils;
 
 import junit.framework.TestCase;
 
@@ -25,7 +30,11 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Tests for {@link com.google.devtools.build.lib.collect.nestedset.NestedSet}.
@@ -211,6 +220,192 @@ public class NestedSetImplTest extends TestCase {
     //  - ordering among transitive sets
   }
 
+  @Test
+  public void sizeAndDepth() {
+    NestedSet<String> empty = nestedSetBuilder().build();
+    NestedSet<String> a = nestedSetBuilder("a", "b").build();
+    NestedSet<String> b = nestedSetBuilder("b", "c").addTransitive(a).build();
+    NestedSet<String> c = nestedSetBuilder("d").addTransitive(b).addTransitive(a).build();
+
+    assertEquals(0, empty.getSize());
+    assertEquals(0, empty.getDepth());
+    assertEquals(2, a.getSize());
+    assertEquals(1, a.getDepth());
+    assertEquals(3, b.getSize());
+    assertEquals(2, b.getDepth());
+    assertEquals(4, c.getSize());
+    assertEquals(3, c.getDepth());
+    // Memoized values must not change the contents.
+    assertEquals(ImmutableList.of("a", "b", "c", "d"), c.toList());
+  }
+
+  private static final Funnel<String> STRING_FUNNEL = new Funnel<String>() {
+    @Override
+    public void funnel(String from, PrimitiveSink into) {
+      into.putInt(from.length()).putString(from, StandardCharsets.UTF_8);
+    }
+  };
+
+  @Test
+  public void fingerprint() {
+    NestedSet<String> a = nestedSetBuilder("a", "b").build();
+    NestedSet<String> b = nestedSetBuilder("c").addTransitive(a).build();
+
+    assertEquals(nestedSetBuilder("a", "b").build().getFingerprint(STRING_FUNNEL),
+        a.getFingerprint(STRING_FUNNEL));
+    assertEquals(b.getFingerprint(STRING_FUNNEL), b.getFingerprint(STRING_FUNNEL));
+    assertEquals(nestedSetBuilder("c").addTransitive(nestedSetBuilder("a", "b").build()).build()
+        .getFingerprint(STRING_FUNNEL), b.getFingerprint(STRING_FUNNEL));
+    new EqualsTester()
+        .addEqualityGroup(a.getFingerprint(STRING_FUNNEL))
+        .addEqualityGroup(nestedSetBuilder("b", "a").build().getFingerprint(STRING_FUNNEL))
+        .addEqualityGroup(nestedSetBuilder("ab").build().getFingerprint(STRING_FUNNEL))
+        .addEqualityGroup(NestedSetBuilder.<String>compileOrder().add("a").add("b").build()
+            .getFingerprint(STRING_FUNNEL))
+        .addEqualityGroup(b.getFingerprint(STRING_FUNNEL))
+        .addEqualityGroup(nestedSetBuilder("c", "a", "b").build().getFingerprint(STRING_FUNNEL))
+        .testEquals();
+  }
+
+  /** Adds each element like {@link #STRING_FUNNEL}, and counts the elements. */
+  private static final class CountingFunnel implements Funnel<String> {
+    int elements = 0;
+
+    @Override
+    public void funnel(String from, PrimitiveSink into) {
+      elements++;
+      STRING_FUNNEL.funnel(from, into);
+    }
+  }
+
+  @Test
+  public void fingerprintIsMemoizedPerFunnel() {
+    NestedSet<String> set = diamond(Order.STABLE_ORDER);
+    CountingFunnel first = new CountingFunnel();
+    CountingFunnel second = new CountingFunnel();
+    HashCode firstFingerprint = set.getFingerprint(first);
+    HashCode secondFingerprint = set.getFingerprint(second);
+    assertEquals(firstFingerprint, secondFingerprint);
+    int firstElements = first.elements;
+    int secondElements = second.elements;
+
+    // Switching between funnels does not fingerprint the transitive sets again.
+    for (int i = 0; i < 3; i++) {
+      assertEquals(firstFingerprint, set.getFingerprint(first));
+      assertEquals(secondFingerprint, set.getFingerprint(second));
+    }
+    assertEquals(firstElements, first.elements);
+    assertEquals(secondElements, second.elements);
+  }
+
+  @Test
+  public void serializationAfterMemoizing() throws Exception {
+    for (Order order : Order.values()) {
+      NestedSet<String> set = diamond(order);
+      HashCode fingerprint = set.getFingerprint(STRING_FUNNEL);
+      int size = set.getSize();
+      int depth = set.getDepth();
+
+      @SuppressWarnings("unchecked")
+      NestedSet<String> copy = (NestedSet<String>) TestUtils.deserializeObject(
+          TestUtils.serializeObject(set));
+      assertEquals(order, copy.getOrder());
+      assertEquals(set.toList(), copy.toList());
+      assertEquals(size, copy.getSize());
+      assertEquals(depth, copy.getDepth());
+      assertEquals(fingerprint, copy.getFingerprint(STRING_FUNNEL));
+      assertEquals(set.toString(), copy.toString());
+      // The copy memoizes again.
+      assertEquals(set.toList(), copy.toList());
+    }
+  }
+
+  @Test
+  public void emptySetsAreSingletons() throws Exception {
+    for (Order order : Order.values()) {
+      NestedSet<String> empty = NestedSetBuilder.emptySet(order);
+      assertSame(empty, new NestedSetBuilder<String>(order).build());
+      assertSame(empty, new NestedSetBuilder<String>(order).addTransitive(empty).build());
+      assertSame(empty, TestUtils.deserializeObject(TestUtils.serializeObject(empty)));
+      assertEquals(order, empty.getOrder());
+    }
+  }
+
+  /** Returns a set with duplicates, shared transitive sets and more than one level of nesting. */
+  private static NestedSet<String> diamond(Order order) {
+    NestedSet<String> bottom = new NestedSetBuilder<String>(order).add("d1").add("d2").build();
+    NestedSet<String> left = new NestedSetBuilder<String>(order)
+        .add("l").add("d2").addTransitive(bottom).build();
+    NestedSet<String> right = new NestedSetBuilder<String>(order)
+        .add("r").addTransitive(bottom).add("x").build();
+    return new NestedSetBuilder<String>(order)
+        .add("t").add("x").addTransitive(left).addTransitive(right).build();
+  }
+
+  private static List<String> forEachElement(NestedSet<String> set) {
+    final List<String> elements = new ArrayList<>();
+    set.forEachElement(new ElementReceiver<String, RuntimeException>() {
+      @Override
+      public void accept(String element) {
+        elements.add(element);
+      }
+    });
+    return elements;
+  }
+
+  @Test
+  public void forEachElementMatchesToList() {
+    for (Order order : Order.values()) {
+      NestedSet<String> set = diamond(order);
+      // Once while recording the memo, once replaying it.
+      assertEquals(order.toString(), forEachElement(set), set.toList());
+      assertEquals(order.toString(), set.toList(), forEachElement(set));
+      assertEquals(ImmutableList.of("a", "b"),
+          forEachElement(new NestedSetBuilder<String>(order).add("a").add("b").build()));
+      assertEquals(ImmutableList.of("a"),
+          forEachElement(new NestedSetBuilder<String>(order).add("a").build()));
+      assertEquals(ImmutableList.of(),
+          forEachElement(new NestedSetBuilder<String>(order).build()));
+    }
+  }
+
+  @Test
+  public void forEachElementInParallel() {
+    NestedSet<String> set = diamond(Order.STABLE_ORDER);
+    final List<String> elements = new ArrayList<>();
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      set.forEachElementInParallel(new ElementReceiver<String, RuntimeException>() {
+        @Override
+        public void accept(String element) {
+          synchronized (elements) {
+            elements.add(element);
+          }
+        }
+      }, pool);
+    } finally {
+      pool.shutdown();
+    }
+    assertEquals(set.toList().size(), elements.size());
+    assertEquals(set.toSet(), ImmutableSet.copyOf(elements));
+  }
+
+  @Test
+  public void forEachElementInParallelRequiresStableOrder() {
+    ForkJoinPool pool = new ForkJoinPool(1);
+    try {
+      diamond(Order.LINK_ORDER).forEachElementInParallel(
+          new ElementReceiver<String, RuntimeException>() {
+            @Override
+            public void accept(String element) {}
+          }, pool);
+      fail();
+    } catch (IllegalStateException expected) {
+    } finally {
+      pool.shutdown();
+    }
+  }
+
   /** Checks that the builder always return a nested set with the correct order. */
   @Test
   public void correctOrder() {
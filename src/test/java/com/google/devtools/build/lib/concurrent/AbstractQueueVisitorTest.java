@@ -34,7 +34,9 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -71,6 +73,72 @@ public class AbstractQueueVisitorTest {
     assertTrue(executor.awaitTermination(TestUtils.WAIT_TIMEOUT_SECONDS, TimeUnit.SECONDS));
   }
 
+  @Test
+  public void forkJoinPoolCounter() throws Exception {
+    ForkJoinPool pool = NamedForkJoinPool.newNamedPool("BlazeTest ForkJoinPool", 5);
+    CountingQueueVisitor counter = new CountingQueueVisitor(pool);
+    counter.enqueue();
+    counter.enqueue();
+    counter.work(false);
+    assertSame(10, counter.getCount());
+    assertTrue(pool.isShutdown());
+  }
+
+  @Test
+  public void exceptionFromForkJoinWorkerThread() throws Exception {
+    final RuntimeException myException = new IllegalStateException();
+    ForkJoinPool pool = NamedForkJoinPool.newNamedPool("BlazeTest ForkJoinPool", 5);
+    ConcreteQueueVisitor visitor = new ConcreteQueueVisitor(pool, /*failFast=*/true);
+    visitor.enqueue(new Runnable() {
+      @Override
+      public void run() {
+        throw myException;
+      }
+    });
+
+    try {
+      visitor.work(false);
+      fail();
+    } catch (Exception e) {
+      assertSame(myException, e);
+    }
+  }
+
+  @Test
+  public void prioritizedTasksRunInPriorityOrder() throws Exception {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS,
+        new PriorityBlockingQueue<Runnable>());
+    ConcreteQueueVisitor visitor = new ConcreteQueueVisitor(executor, /*failFast=*/true);
+    final CountDownLatch blockerStarted = new CountDownLatch(1);
+    final CountDownLatch releaseBlocker = new CountDownLatch(1);
+    visitor.enqueue(new Runnable() {
+      @Override
+      public void run() {
+        blockerStarted.countDown();
+        Uninterruptibles.awaitUninterruptibly(releaseBlocker);
+      }
+    });
+    // Make sure the blocker occupies the only thread, so that the other tasks get queued.
+    assertTrue(blockerStarted.await(TestUtils.WAIT_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+    final List<String> ran = Collections.synchronizedList(Lists.<String>newArrayList());
+    for (final String name : new String[] {"low", "high", "middle1", "middle2"}) {
+      int priority = name.equals("low") ? -1 : name.equals("high") ? 1 : 0;
+      visitor.enqueue(new Runnable() {
+        @Override
+        public void run() {
+          ran.add(name);
+        }
+      }, priority);
+    }
+    releaseBlocker.countDown();
+    visitor.work(false);
+    assertEquals(Arrays.asList("high", "middle1", "middle2", "low"), ran);
+
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(TestUtils.WAIT_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+  }
+
   @Test
   public void doubleCounter() throws Exception {
     CountingQueueVisitor counter = new CountingQueueVisitor();
@@ -434,6 +502,10 @@ public class AbstractQueueVisitorTest {
       super(executor, false, true, true);
     }
 
+    public CountingQueueVisitor(ForkJoinPool pool) {
+      super(pool, /*shutdownOnCompletion=*/true, true, true);
+    }
+
     public void enqueue() {
       super.enqueue(new Runnable() {
         @Override
@@ -477,6 +549,10 @@ public class AbstractQueueVisitorTest {
     public ConcreteQueueVisitor(ThreadPoolExecutor executor, boolean failFast) {
       super(executor, /*shutdownOnCompletion=*/false, failFast, true);
     }
+
+    public ConcreteQueueVisitor(ForkJoinPool pool, boolean failFast) {
+      super(pool, /*shutdownOnCompletion=*/true, failFast, true);
+    }
   }
 
   private static class QueueVisitorWithCriticalError extends AbstractQueueVisitor {
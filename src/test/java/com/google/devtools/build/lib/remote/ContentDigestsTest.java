@@ -0,0 +1,77 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.remote;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.devtools.build.lib.actions.ActionInput;
+import com.google.devtools.build.lib.actions.ActionInputHelper;
+import com.google.devtools.build.lib.exec.SingleBuildFileCache;
+import com.google.devtools.build.lib.testutil.TestUtils;
+import com.google.devtools.build.lib.vfs.DigestHashFunction;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.util.FileSystems;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Tests for {@link ContentDigests}.
+ */
+@RunWith(JUnit4.class)
+public class ContentDigestsTest {
+  private static final byte[] CONTENTS = "hello".getBytes(StandardCharsets.UTF_8);
+
+  private Path execRoot;
+  private ActionInput input;
+  private Path path;
+
+  @Before
+  public void setUp() throws Exception {
+    execRoot = FileSystems.initDefaultAsJavaIo().getPath(TestUtils.makeTempDir().getPath());
+    input = ActionInputHelper.fromPath("input.txt");
+    path = execRoot.getRelative(input.getExecPathString());
+    FileSystemUtils.writeContent(path, CONTENTS);
+  }
+
+  @After
+  public void tearDown() {
+    DigestHashFunction.setDefault(DigestHashFunction.MD5);
+  }
+
+  private SingleBuildFileCache newFileCache() {
+    return new SingleBuildFileCache(execRoot.getPathString(), execRoot.getFileSystem());
+  }
+
+  @Test
+  public void inputDigestReusesMd5DigestOfFileCache() throws Exception {
+    assertEquals(ContentDigests.computeDigest(CONTENTS),
+        ContentDigests.computeDigest(newFileCache(), input, path));
+  }
+
+  @Test
+  public void inputDigestIsMd5UnderOtherDigestFunctions() throws Exception {
+    for (DigestHashFunction function : DigestHashFunction.values()) {
+      DigestHashFunction.setDefault(function);
+      assertEquals(function.toString(), ContentDigests.computeDigest(CONTENTS),
+          ContentDigests.computeDigest(newFileCache(), input, path));
+    }
+  }
+}
@@ -0,0 +1,220 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.remote;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.net.HostAndPort;
+import com.google.devtools.build.lib.remote.RemoteProtocol.Action;
+import com.google.devtools.build.lib.remote.RemoteProtocol.ActionResult;
+import com.google.devtools.build.lib.remote.RemoteProtocol.ContentDigest;
+import com.google.devtools.build.lib.remote.RemoteProtocol.FileEntry;
+import com.google.devtools.build.lib.testutil.TestUtils;
+import com.google.devtools.build.lib.vfs.util.FileSystems;
+import com.google.protobuf.ByteString;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Tests for {@link LocalRemoteServer}, through a {@link RemoteClient}.
+ */
+@RunWith(JUnit4.class)
+public class LocalRemoteServerTest {
+  private LocalRemoteServer server;
+  private RemoteClient client;
+
+  @Before
+  public void setUp() throws Exception {
+    server = new LocalRemoteServer(
+        FileSystems.initDefaultAsJavaIo().getPath(TestUtils.makeTempDir().getPath()));
+    client = new RemoteClient(server);
+  }
+
+  private ContentDigest upload(String contents) throws IOException {
+    return upload(contents.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private ContentDigest upload(byte[] data) throws IOException {
+    ContentDigest digest = ContentDigests.computeDigest(data);
+    client.uploadBlob(digest, new ByteArrayInputStream(data));
+    return digest;
+  }
+
+  private static byte[] download(RemoteClient client, ContentDigest digest) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    client.downloadBlob(digest, out);
+    return out.toByteArray();
+  }
+
+  private String download(ContentDigest digest) throws IOException {
+    return new String(download(client, digest), StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void uploadedBlobsAreNotMissing() throws Exception {
+    ContentDigest hello = upload("hello");
+    ContentDigest world = ContentDigests.computeDigest("world".getBytes(StandardCharsets.UTF_8));
+
+    assertEquals(ImmutableSet.of(world), client.findMissingBlobs(ImmutableList.of(hello, world)));
+    assertEquals("hello", download(hello));
+  }
+
+  @Test
+  public void blobMustMatchDigest() throws Exception {
+    ContentDigest digest = ContentDigests.computeDigest("hello".getBytes(StandardCharsets.UTF_8));
+    try {
+      client.uploadBlob(digest, ByteString.copyFromUtf8("bye!!").newInput());
+      fail();
+    } catch (IOException expected) {
+    }
+    try {
+      download(digest);
+      fail();
+    } catch (IOException expected) {
+    }
+  }
+
+  @Test
+  public void blobsLargerThanAChunkAreTransferredInChunks() throws Exception {
+    byte[] data = new byte[RemoteClient.CHUNK_SIZE_BYTES * 5 / 2];
+    new Random(0).nextBytes(data);
+    ContentDigest digest = upload(data);
+
+    assertArrayEquals(data, download(client, digest));
+  }
+
+  @Test
+  public void emptyBlobsCanBeTransferred() throws Exception {
+    assertEquals("", download(upload("")));
+  }
+
+  @Test
+  public void successfulActionIsExecutedAndCached() throws Exception {
+    Action action = Action.newBuilder()
+        .addAllArguments(ImmutableList.of("/bin/sh", "-c", "cat in/a.txt > out/b.txt; echo done"))
+        .addInputFiles(FileEntry.newBuilder().setPath("in/a.txt").setDigest(upload("contents")))
+        .addOutputPaths("out/b.txt")
+        .build();
+    ContentDigest actionDigest = ContentDigests.computeDigest(action);
+    assertNull(client.getActionResult(actionDigest));
+
+    ActionResult result = client.execute(action);
+    assertEquals(0, result.getExitCode());
+    assertEquals("done\n", download(result.getStdoutDigest()));
+    assertEquals("", download(result.getStderrDigest()));
+    assertEquals(1, result.getOutputFilesCount());
+    assertEquals("out/b.txt", result.getOutputFiles(0).getPath());
+    assertEquals("contents", download(result.getOutputFiles(0).getDigest()));
+    assertEquals(result, client.getActionResult(actionDigest));
+  }
+
+  @Test
+  public void failedActionIsNotCached() throws Exception {
+    Action action = Action.newBuilder()
+        .addAllArguments(ImmutableList.of("/bin/sh", "-c", "echo failed >&2; exit 3"))
+        .build();
+
+    ActionResult result = client.execute(action);
+    assertEquals(3, result.getExitCode());
+    assertEquals("failed\n", download(result.getStderrDigest()));
+    assertNull(client.getActionResult(ContentDigests.computeDigest(action)));
+  }
+
+  @Test
+  public void actionWithMissingInputFails() throws Exception {
+    Action action = Action.newBuilder()
+        .addArguments("/bin/true")
+        .addInputFiles(FileEntry.newBuilder()
+            .setPath("in/a.txt")
+            .setDigest(ContentDigests.computeDigest(new byte[] {1, 2, 3})))
+        .build();
+    try {
+      client.execute(action);
+      fail();
+    } catch (IOException expected) {
+    }
+  }
+
+  @Test
+  public void inputsAndOutputsOutsideTheExecRootAreRejected() throws Exception {
+    ContentDigest digest = upload("contents");
+    for (String path : ImmutableList.of("/tmp/a.txt", "../a.txt", "in/../../a.txt", "./a.txt")) {
+      Action withInput = Action.newBuilder()
+          .addArguments("/bin/true")
+          .addInputFiles(FileEntry.newBuilder().setPath(path).setDigest(digest))
+          .build();
+      Action withOutput = Action.newBuilder()
+          .addArguments("/bin/true")
+          .addOutputPaths(path)
+          .build();
+      for (Action action : ImmutableList.of(withInput, withOutput)) {
+        try {
+          client.execute(action);
+          fail(path);
+        } catch (IOException expected) {
+        }
+      }
+    }
+  }
+
+  @Test
+  public void serverCanBeReachedOverSocket() throws Exception {
+    final ServerSocket serverSocket =
+        new ServerSocket(0, /*backlog=*/50, InetAddress.getLoopbackAddress());
+    Thread serverThread = new Thread() {
+      @Override
+      public void run() {
+        try {
+          server.serve(serverSocket);
+        } catch (IOException e) {
+          // The socket was closed.
+        }
+      }
+    };
+    serverThread.start();
+    try {
+      SocketTransport transport = new SocketTransport(
+          HostAndPort.fromParts("localhost", serverSocket.getLocalPort()));
+      RemoteClient socketClient = new RemoteClient(transport);
+      ContentDigest hello = upload("hello");
+      // Both calls use the same connection.
+      assertArrayEquals("hello".getBytes(StandardCharsets.UTF_8), download(socketClient, hello));
+      byte[] data = new byte[RemoteClient.CHUNK_SIZE_BYTES * 2];
+      new Random(0).nextBytes(data);
+      ContentDigest digest = ContentDigests.computeDigest(data);
+      socketClient.uploadBlob(digest, new ByteArrayInputStream(data));
+      assertArrayEquals(data, download(socketClient, digest));
+      transport.close();
+    } finally {
+      serverSocket.close();
+      serverThread.join();
+    }
+  }
+}
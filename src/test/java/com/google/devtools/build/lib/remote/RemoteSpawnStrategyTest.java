@@ -0,0 +1,160 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.remote;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.actions.ActionInput;
+import com.google.devtools.build.lib.actions.ActionInputHelper;
+import com.google.devtools.build.lib.remote.RemoteProtocol.ActionResult;
+import com.google.devtools.build.lib.remote.RemoteProtocol.ContentDigest;
+import com.google.devtools.build.lib.remote.RemoteProtocol.FileEntry;
+import com.google.devtools.build.lib.remote.RemoteProtocol.RemoteRequest;
+import com.google.devtools.build.lib.remote.RemoteProtocol.RemoteResponse;
+import com.google.devtools.build.lib.testutil.TestUtils;
+import com.google.devtools.build.lib.util.io.FileOutErr;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.util.FileSystems;
+import com.google.devtools.common.options.Options;
+import com.google.protobuf.ByteString;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Tests for how {@link RemoteSpawnStrategy} writes the results it gets from a remote server.
+ */
+@RunWith(JUnit4.class)
+public class RemoteSpawnStrategyTest {
+  private Path root;
+  private Path execRoot;
+  private LocalRemoteServer server;
+  private RemoteClient client;
+  private RemoteSpawnStrategy strategy;
+  private FileOutErr outErr;
+  // Whether the transport flips the first byte of every downloaded chunk.
+  private volatile boolean tamper;
+
+  @Before
+  public void setUp() throws Exception {
+    root = FileSystems.initDefaultAsJavaIo().getPath(TestUtils.makeTempDir().getPath());
+    execRoot = root.getChild("execroot");
+    execRoot.createDirectory();
+    Path serverRoot = root.getChild("server");
+    serverRoot.createDirectory();
+    server = new LocalRemoteServer(serverRoot);
+    client = new RemoteClient(new RemoteTransport() {
+      @Override
+      public RemoteResponse call(RemoteRequest request) throws IOException {
+        RemoteResponse response = server.call(request);
+        if (!tamper || response.getDownloadBlob().getData().isEmpty()) {
+          return response;
+        }
+        byte[] data = response.getDownloadBlob().getData().toByteArray();
+        data[0]++;
+        return response.toBuilder()
+            .setDownloadBlob(response.getDownloadBlob().toBuilder()
+                .setData(ByteString.copyFrom(data)))
+            .build();
+      }
+    });
+    strategy = new RemoteSpawnStrategy(execRoot, /*localStrategy=*/null, client,
+        Options.getDefaults(RemoteOptions.class), /*verboseFailures=*/false);
+    outErr = new FileOutErr(root.getChild("stdout"), root.getChild("stderr"));
+  }
+
+  private ContentDigest upload(String contents) throws IOException {
+    byte[] data = contents.getBytes(StandardCharsets.UTF_8);
+    ContentDigest digest = ContentDigests.computeDigest(data);
+    client.uploadBlob(digest, new ByteArrayInputStream(data));
+    return digest;
+  }
+
+  private ActionResult result(String outputPath) throws IOException {
+    return ActionResult.newBuilder()
+        .addOutputFiles(FileEntry.newBuilder().setPath(outputPath).setDigest(upload("hello")))
+        .setStdoutDigest(upload("out"))
+        .setStderrDigest(upload(""))
+        .build();
+  }
+
+  private static ImmutableList<ActionInput> outputs(String... paths) {
+    ImmutableList.Builder<ActionInput> outputs = ImmutableList.builder();
+    for (String path : paths) {
+      outputs.add(ActionInputHelper.fromPath(path));
+    }
+    return outputs.build();
+  }
+
+  private void assertRejected(ActionResult result, ImmutableList<ActionInput> declared,
+      String message) {
+    try {
+      strategy.downloadResult(result, declared, outErr);
+      fail();
+    } catch (IOException expected) {
+      assertThat(expected.getMessage()).contains(message);
+    }
+    assertEquals("", outErr.outAsLatin1());
+  }
+
+  @Test
+  public void declaredOutputsAreWritten() throws Exception {
+    strategy.downloadResult(result("out/a.txt"), outputs("out/a.txt"), outErr);
+
+    assertEquals("hello", new String(
+        FileSystemUtils.readContent(execRoot.getRelative("out/a.txt")), StandardCharsets.UTF_8));
+    assertEquals("out", outErr.outAsLatin1());
+    assertFalse(execRoot.getRelative("out/a.txt.remote").exists());
+  }
+
+  @Test
+  public void absoluteOutputPathIsRejected() throws Exception {
+    String escape = root.getChild("escape").getPathString();
+    assertRejected(result(escape), outputs(escape), "is not relative to the execution root");
+    assertFalse(root.getChild("escape").exists());
+  }
+
+  @Test
+  public void nonNormalizedOutputPathIsRejected() throws Exception {
+    assertRejected(result("out/../../escape"), outputs("out/../../escape"),
+        "is not relative to the execution root");
+    assertFalse(root.getChild("escape").exists());
+  }
+
+  @Test
+  public void undeclaredOutputIsRejected() throws Exception {
+    assertRejected(result("out/b.txt"), outputs("out/a.txt"), "is not an output of the action");
+    assertFalse(execRoot.getRelative("out/b.txt").exists());
+  }
+
+  @Test
+  public void blobNotMatchingDigestIsRejected() throws Exception {
+    ActionResult result = result("out/a.txt");
+    tamper = true;
+    assertRejected(result, outputs("out/a.txt"), "does not match its digest");
+    assertFalse(execRoot.getRelative("out/a.txt").exists());
+    assertFalse(execRoot.getRelative("out/a.txt.remote").exists());
+  }
+}
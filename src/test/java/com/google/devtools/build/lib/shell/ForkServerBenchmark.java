@@ -0,0 +1,95 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.shell;
+
+import com.google.common.collect.ImmutableMap;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Measures the latency of starting and waiting for {@code /bin/true} while many threads do the
+ * same, as the local strategies do with a high --jobs, once by forking this process and once
+ * through a {@link ForkServer}. Not a test; run it with {@code java ... ForkServerBenchmark
+ * <fork-server binary> [threads] [spawnsPerThread]}.
+ *
+ * <p>Forking copies the page tables of the JVM, so the larger its heap, the slower forking it is.
+ * Run the benchmark with a heap the size of a Blaze server's to see the difference.
+ */
+public final class ForkServerBenchmark {
+  private static final String[] ARGV = {"/bin/true"};
+  private static final Map<String, String> ENV = ImmutableMap.of("PATH", "/bin:/usr/bin");
+
+  private ForkServerBenchmark() {}
+
+  public static void main(String[] args) throws Exception {
+    File binary = new File(args[0]);
+    int threads = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+    int spawnsPerThread = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+    ForkServer forkServer = ForkServer.start(binary);
+    File devNull = new File("/dev/null");
+    try {
+      for (ForkServer server : new ForkServer[] {null, forkServer}) {
+        // Warm up the JIT before measuring.
+        run(server, devNull, threads, 1);
+        long[] micros = run(server, devNull, threads, spawnsPerThread);
+        Arrays.sort(micros);
+        System.out.printf("%s: median %d us, 99th percentile %d us, max %d us%n",
+            server == null ? "fork       " : "fork server", micros[micros.length / 2],
+            micros[micros.length * 99 / 100], micros[micros.length - 1]);
+      }
+    } finally {
+      forkServer.shutdown();
+    }
+  }
+
+  /** Returns the latencies in microseconds of all spawns. */
+  private static long[] run(final ForkServer forkServer, final File devNull, int threadCount,
+      final int spawnsPerThread) throws InterruptedException {
+    final long[] micros = new long[threadCount * spawnsPerThread];
+    final CountDownLatch start = new CountDownLatch(1);
+    Thread[] threads = new Thread[threadCount];
+    for (int t = 0; t < threadCount; t++) {
+      final int offset = t * spawnsPerThread;
+      threads[t] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+            for (int i = 0; i < spawnsPerThread; i++) {
+              long startNanos = System.nanoTime();
+              Command command = new Command(ARGV, ENV, null);
+              if (forkServer == null) {
+                command.execute();
+              } else {
+                command.executeWithForkServer(forkServer, devNull, devNull, true);
+              }
+              micros[offset + i] = (System.nanoTime() - startNanos) / 1000;
+            }
+          } catch (InterruptedException | CommandException e) {
+            throw new IllegalStateException(e);
+          }
+        }
+      };
+      threads[t].start();
+    }
+    start.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    return micros;
+  }
+}
@@ -0,0 +1,216 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.shell;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.Files;
+import com.google.devtools.build.lib.testutil.BlazeTestUtils;
+import com.google.devtools.build.lib.testutil.TestUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.util.Map;
+
+/**
+ * Tests for {@link ForkServer}, through {@link Command#executeWithForkServer}.
+ */
+@RunWith(JUnit4.class)
+public class ForkServerTest {
+
+  private static final Map<String, String> ENV = ImmutableMap.of("PATH", "/bin:/usr/bin");
+
+  private ForkServer forkServer;
+  private File stdout;
+  private File stderr;
+
+  @Before
+  public void setUp() throws Exception {
+    forkServer = ForkServer.start(
+        new File(BlazeTestUtils.runfilesDir(), "src/main/tools/fork-server"));
+    File tmpDir = TestUtils.tmpDirFile();
+    stdout = new File(tmpDir, "stdout");
+    stderr = new File(tmpDir, "stderr");
+    stdout.delete();
+    stderr.delete();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    forkServer.shutdown();
+  }
+
+  private Command command(String... args) {
+    return new Command(args, ENV, TestUtils.tmpDirFile());
+  }
+
+  @Test
+  public void testOutputIsAppendedToFiles() throws Exception {
+    Files.write("before\n", stdout, Charsets.UTF_8);
+    ForkServer.Result result = command("/bin/sh", "-c", "echo out; pwd; echo err >&2")
+        .executeWithForkServer(forkServer, stdout, stderr, true);
+    assertTrue(result.getTerminationStatus().success());
+    assertEquals("before\nout\n" + TestUtils.tmpDirFile().getCanonicalPath() + "\n",
+        Files.toString(stdout, Charsets.UTF_8));
+    assertEquals("err\n", Files.toString(stderr, Charsets.UTF_8));
+  }
+
+  @Test
+  public void testEnvironment() throws Exception {
+    command("/bin/sh", "-c", "echo $PATH")
+        .executeWithForkServer(forkServer, stdout, stderr, true);
+    assertEquals("/bin:/usr/bin\n", Files.toString(stdout, Charsets.UTF_8));
+  }
+
+  @Test
+  public void testBadExitStatus() throws Exception {
+    try {
+      command("/bin/sh", "-c", "exit 42").executeWithForkServer(forkServer, stdout, stderr, true);
+      fail();
+    } catch (BadExitStatusException e) {
+      assertEquals(42, e.getResult().getTerminationStatus().getExitCode());
+    }
+  }
+
+  @Test
+  public void testResultOfFailedProcess() throws Exception {
+    Command command = command("/bin/sh", "-c", "exit 42");
+    ForkServer.Result result = command.runWithForkServer(forkServer, stdout, stderr, true);
+    assertEquals(42, result.getTerminationStatus().getExitCode());
+    assertTrue(result.getPeakMemoryKb() > 0);
+    try {
+      command.checkForkServerResult(result);
+      fail();
+    } catch (BadExitStatusException e) {
+      assertEquals(42, e.getResult().getTerminationStatus().getExitCode());
+    }
+  }
+
+  @Test
+  public void testSignal() throws Exception {
+    try {
+      command("/bin/sh", "-c", "kill -9 $$").executeWithForkServer(forkServer, stdout, stderr,
+          true);
+      fail();
+    } catch (AbnormalTerminationException e) {
+      TerminationStatus status = e.getResult().getTerminationStatus();
+      assertFalse(status.exited());
+      assertEquals(9, status.getTerminatingSignal());
+    }
+  }
+
+  @Test
+  public void testExecFailure() throws Exception {
+    try {
+      command("/does/not/exist").executeWithForkServer(forkServer, stdout, stderr, true);
+      fail();
+    } catch (ExecFailedException e) {
+      assertThat(e.getMessage()).contains("/does/not/exist");
+    }
+    // The fork server is still usable.
+    assertTrue(command("/bin/true").executeWithForkServer(forkServer, stdout, stderr, true)
+        .getTerminationStatus().success());
+  }
+
+  @Test
+  public void testTimeoutKillsProcessGroup() throws Exception {
+    File marker = new File(TestUtils.tmpDirFile(), "marker");
+    marker.delete();
+    ForkServer.Result result = forkServer.run(
+        new String[] {"/bin/sh", "-c", "(sleep 1; touch " + marker + ") & sleep 60"},
+        ENV, null, stdout, stderr, 100, 100, true);
+    assertTrue(result.timedOut());
+    assertFalse(result.getTerminationStatus().exited());
+    Thread.sleep(2000);
+    assertFalse(marker.exists());
+  }
+
+  @Test
+  public void testInterruptKillsProcess() throws Exception {
+    final Thread mainThread = Thread.currentThread();
+    Thread interrupter = new Thread() {
+      @Override
+      public void run() {
+        try {
+          Thread.sleep(200);
+        } catch (InterruptedException e) {
+          throw new IllegalStateException(e);
+        }
+        mainThread.interrupt();
+      }
+    };
+    interrupter.start();
+    long start = System.currentTimeMillis();
+    try {
+      command("/bin/sleep", "60").executeWithForkServer(forkServer, stdout, stderr, true);
+      fail();
+    } catch (AbnormalTerminationException e) {
+      assertEquals(9, e.getResult().getTerminationStatus().getTerminatingSignal());
+    }
+    assertTrue(Thread.interrupted());
+    assertThat(System.currentTimeMillis() - start).isLessThan(30000L);
+    interrupter.join();
+  }
+
+  @Test
+  public void testConcurrentSpawns() throws Exception {
+    Thread[] threads = new Thread[20];
+    final File[] outputs = new File[threads.length];
+    final Exception[] failures = new Exception[threads.length];
+    for (int i = 0; i < threads.length; i++) {
+      final int index = i;
+      outputs[i] = new File(TestUtils.tmpDirFile(), "out" + i);
+      outputs[i].delete();
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            command("/bin/sh", "-c", "echo " + index)
+                .executeWithForkServer(forkServer, outputs[index], stderr, true);
+          } catch (Exception e) {
+            failures[index] = e;
+          }
+        }
+      };
+      threads[i].start();
+    }
+    for (int i = 0; i < threads.length; i++) {
+      threads[i].join();
+      assertEquals(null, failures[i]);
+      assertEquals(i + "\n", Files.toString(outputs[i], Charsets.UTF_8));
+    }
+  }
+
+  @Test
+  public void testDeadForkServerFailsSpawns() throws Exception {
+    forkServer.shutdown();
+    try {
+      command("/bin/true").executeWithForkServer(forkServer, stdout, stderr, true);
+      fail();
+    } catch (ExecFailedException e) {
+      // Expected.
+    }
+  }
+}
@@ -0,0 +1,185 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.standalone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.build.lib.testutil.ManualClock;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tests for {@link SandboxPool}.
+ */
+@RunWith(JUnit4.class)
+public class SandboxPoolTest {
+  private ManualClock clock;
+  private Path execRoot;
+  private SandboxPool pool;
+
+  @Before
+  public void setUp() throws Exception {
+    clock = new ManualClock();
+    execRoot = new InMemoryFileSystem(clock).getPath("/exec");
+    FileSystemUtils.createDirectoryAndParents(execRoot);
+    pool = new SandboxPool(execRoot.getRelative("sandboxes"), 2);
+    pool.setMaxIdle(2);
+  }
+
+  private Path source(String name, String content) throws Exception {
+    Path path = execRoot.getRelative(name);
+    FileSystemUtils.createDirectoryAndParents(path.getParentDirectory());
+    FileSystemUtils.writeContentAsLatin1(path, content);
+    return path;
+  }
+
+  private static Map<PathFragment, Path> files(Path... sources) {
+    Map<PathFragment, Path> files = new HashMap<>();
+    for (Path source : sources) {
+      files.put(source.relativeTo(source.getFileSystem().getPath("/exec")), source);
+    }
+    return files;
+  }
+
+  private static String content(Path path) throws Exception {
+    return new String(FileSystemUtils.readContentAsLatin1(path));
+  }
+
+  @Test
+  public void testReusedSandboxKeepsUnmodifiedCopiesOnly() throws Exception {
+    Path a = source("pkg/a.h", "a");
+    Path b = source("pkg/b.h", "b");
+    SandboxPool.Sandbox sandbox = pool.acquire(files(a, b));
+    Path sandboxPath = sandbox.getPath();
+    assertEquals("a", content(sandboxPath.getRelative("pkg/a.h")));
+
+    // The action overwrites an input and leaves behind a file and a directory.
+    clock.advanceMillis(1000);
+    FileSystemUtils.writeContentAsLatin1(sandboxPath.getRelative("pkg/b.h"), "modified");
+    FileSystemUtils.createDirectoryAndParents(sandboxPath.getRelative("tmp"));
+    FileSystemUtils.writeContentAsLatin1(sandboxPath.getRelative("tmp/scratch"), "x");
+    pool.release(sandbox);
+    assertEquals(1, pool.getIdleCount());
+    assertFalse(sandboxPath.getRelative("pkg/b.h").exists());
+    assertFalse(sandboxPath.getRelative("tmp").exists());
+    long copyChangeTime = sandboxPath.getRelative("pkg/a.h").stat().getLastChangeTime();
+
+    clock.advanceMillis(1000);
+    sandbox = pool.acquire(files(a, b));
+    assertEquals(sandboxPath, sandbox.getPath());
+    assertEquals(0, pool.getIdleCount());
+    assertEquals(copyChangeTime, sandboxPath.getRelative("pkg/a.h").stat().getLastChangeTime());
+    assertEquals("b", content(sandboxPath.getRelative("pkg/b.h")));
+  }
+
+  @Test
+  public void testChangedSourceIsCopiedAgain() throws Exception {
+    Path a = source("a.h", "old");
+    pool.release(pool.acquire(files(a)));
+    clock.advanceMillis(1000);
+    FileSystemUtils.writeContentAsLatin1(a, "new");
+    SandboxPool.Sandbox sandbox = pool.acquire(files(a));
+    assertEquals("new", content(sandbox.getPath().getRelative("a.h")));
+  }
+
+  @Test
+  public void testPathMappedToAnotherSourceIsCopiedAgain() throws Exception {
+    // Two sources whose states are equal, as on a file system with coarse timestamps.
+    Path first = source("first/a.h", "one");
+    Path second = source("second/a.h", "two");
+    long mtime = first.getLastModifiedTime();
+    second.setLastModifiedTime(mtime);
+    first.setLastModifiedTime(mtime);
+    PathFragment relative = new PathFragment("a.h");
+
+    pool.release(pool.acquire(ImmutableMap.of(relative, first)));
+    SandboxPool.Sandbox sandbox = pool.acquire(ImmutableMap.of(relative, second));
+    assertEquals("two", content(sandbox.getPath().getRelative(relative)));
+  }
+
+  @Test
+  public void testIdleSandboxWithMostFilesIsChosen() throws Exception {
+    Path a = source("a.h", "a");
+    Path b = source("b.h", "b");
+    Path c = source("c.h", "c");
+    SandboxPool.Sandbox ab = pool.acquire(files(a, b));
+    SandboxPool.Sandbox c1 = pool.acquire(files(c));
+    pool.release(ab);
+    pool.release(c1);
+
+    SandboxPool.Sandbox sandbox = pool.acquire(files(a, b, c));
+    assertEquals(ab.getPath(), sandbox.getPath());
+    assertEquals("c", content(sandbox.getPath().getRelative("c.h")));
+
+    // Without overlap, a new sandbox is created.
+    sandbox = pool.acquire(files(a));
+    assertNotEquals(c1.getPath(), sandbox.getPath());
+
+    // The remaining sandbox loses the files that the action does not need.
+    sandbox = pool.acquire(files(b, c));
+    assertEquals(c1.getPath(), sandbox.getPath());
+    sandbox = pool.acquire(files(a, c));
+    pool.release(sandbox);
+    sandbox = pool.acquire(files(a));
+    assertFalse(sandbox.getPath().getRelative("c.h").exists());
+    assertTrue(sandbox.getPath().getRelative("a.h").exists());
+  }
+
+  @Test
+  public void testManyFilesAreCopiedInParallel() throws Exception {
+    Path[] sources = new Path[500];
+    for (int i = 0; i < sources.length; i++) {
+      sources[i] = source("many/" + i, "content " + i);
+    }
+    SandboxPool.Sandbox sandbox = pool.acquire(files(sources));
+    for (int i = 0; i < sources.length; i++) {
+      assertEquals("content " + i, content(sandbox.getPath().getRelative("many/" + i)));
+    }
+  }
+
+  @Test
+  public void testSandboxesBeyondMaxIdleAreDeleted() throws Exception {
+    Path a = source("a.h", "a");
+    SandboxPool.Sandbox first = pool.acquire(files(a));
+    SandboxPool.Sandbox second = pool.acquire(files(a));
+    SandboxPool.Sandbox third = pool.acquire(files(a));
+    pool.release(first);
+    pool.release(second);
+    pool.release(third);
+    assertEquals(2, pool.getIdleCount());
+    assertFalse(first.getPath().exists());
+
+    pool.setMaxIdle(0);
+    SandboxPool.Sandbox sandbox = pool.acquire(ImmutableMap.<PathFragment, Path>of());
+    pool.release(sandbox);
+    assertEquals(0, pool.getIdleCount());
+    assertFalse(sandbox.getPath().exists());
+    assertFalse(second.getPath().exists());
+    assertFalse(third.getPath().exists());
+  }
+}
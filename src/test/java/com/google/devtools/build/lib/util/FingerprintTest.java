@@ -17,6 +17,10 @@ import static com.google.common.truth.Truth.assertThat;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
 import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.collect.nestedset.NestedSet;
+import com.google.devtools.build.lib.collect.nestedset.NestedSetBuilder;
+import com.google.devtools.build.lib.collect.nestedset.Order;
+import com.google.devtools.build.lib.vfs.DigestHashFunction;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
 import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
@@ -61,6 +65,31 @@ public class FingerprintTest {
     assertThat("ed076287532e86365e841e92bfc50d8c").isEqualTo(Fingerprint.md5Digest("Hello World!"));
   }
 
+  @Test
+  public void defaultHashFunction() {
+    DigestHashFunction.setDefault(DigestHashFunction.SHA256);
+    try {
+      // echo -n 'Hello World!' | sha256sum
+      assertThat(new Fingerprint().addBytes("Hello World!".getBytes(UTF_8)).hexDigestAndReset())
+          .isEqualTo("7f83b1657ff1fc53b92dc18148a1d65dfc2d4b1fa3d677284addd200126d9069");
+      assertThat(Fingerprint.md5Digest("Hello World!"))
+          .isEqualTo("ed076287532e86365e841e92bfc50d8c");
+    } finally {
+      DigestHashFunction.setDefault(DigestHashFunction.MD5);
+    }
+  }
+
+  @Test
+  public void murmur3Fingerprint() {
+    Fingerprint fingerprint = new Fingerprint(DigestHashFunction.MURMUR3);
+    fingerprint.addString("Hello ");
+    String first = fingerprint.hexDigestAndReset();
+    fingerprint.addString("Hello ");
+    assertThat(fingerprint.hexDigestAndReset()).isEqualTo(first);
+    assertThat(first).hasLength(32);
+    assertThat(first).isNotEqualTo(new Fingerprint().addString("Hello ").hexDigestAndReset());
+  }
+
   @Test
   public void otherStringFingerprint() {
     assertFingerprintsDiffer(ImmutableList.of("Hello World!"),
@@ -134,4 +163,21 @@ public class FingerprintTest {
     assertThat("01cc3eeea3a2f58e447e824f9f62d3d1").isEqualTo(
         new Fingerprint().addPath(p).hexDigestAndReset());
   }
+
+  @Test
+  public void addNestedSet() throws Exception {
+    NestedSet<PathFragment> inner =
+        NestedSetBuilder.create(Order.STABLE_ORDER, new PathFragment("a"), new PathFragment("b"));
+    NestedSet<PathFragment> outer = NestedSetBuilder.<PathFragment>stableOrder()
+        .add(new PathFragment("c")).addTransitive(inner).build();
+    String fp = new Fingerprint()
+        .addNestedSet(outer, PathFragment.PATH_STRING_FUNNEL).hexDigestAndReset();
+
+    // The digest only depends on the contents, so it is the same in every server.
+    assertThat(fp).isEqualTo("95f300f26925778e8a80ab61e9085e62");
+    assertThat(fp).isEqualTo(new Fingerprint()
+        .addNestedSet(outer, PathFragment.PATH_STRING_FUNNEL).hexDigestAndReset());
+    assertThat(fp).isNotEqualTo(new Fingerprint()
+        .addNestedSet(inner, PathFragment.PATH_STRING_FUNNEL).hexDigestAndReset());
+  }
 }
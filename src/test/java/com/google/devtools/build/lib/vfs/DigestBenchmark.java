@@ -0,0 +1,120 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.vfs;
+
+import com.google.common.base.Preconditions;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.devtools.build.lib.testutil.TestUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Measures how fast files are digested by each {@link DigestHashFunction}, when read through a
+ * memory mapping by {@link Path#getDigest} and when read through an input stream, by one thread
+ * as when large file reads were serialized and by several threads. Not a test; run it with
+ * {@code java ... DigestBenchmark [files] [fileSizeMb] [threads]}.
+ *
+ * <p>The files are read once before measuring, so they are in the page cache and the numbers
+ * measure hashing rather than disk throughput.
+ */
+public final class DigestBenchmark {
+  private DigestBenchmark() {}
+
+  public static void main(String[] args) throws Exception {
+    int fileCount = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+    int fileSizeMb = args.length > 1 ? Integer.parseInt(args[1]) : 32;
+    int threads = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+
+    FileSystem fs = new JavaIoFileSystem();
+    Path dir = fs.getPath(TestUtils.makeTempDir().getPath());
+    List<Path> files = new ArrayList<>();
+    Random random = new Random(0);
+    byte[] content = new byte[fileSizeMb << 20];
+    for (int i = 0; i < fileCount; i++) {
+      random.nextBytes(content);
+      Path file = dir.getChild("file" + i);
+      FileSystemUtils.writeContent(file, content);
+      files.add(file);
+    }
+    // Check the mapped digest against Guava while warming up the page cache.
+    Preconditions.checkState(Arrays.equals(Hashing.sha256().hashBytes(content).asBytes(),
+        files.get(fileCount - 1).getDigest(DigestHashFunction.SHA256)));
+
+    long totalBytes = (long) fileCount * content.length;
+    System.out.printf("%d files of %d MB, %d threads%n", fileCount, fileSizeMb, threads);
+    for (DigestHashFunction function : DigestHashFunction.values()) {
+      for (boolean mapped : new boolean[] {false, true}) {
+        StringBuilder line = new StringBuilder(
+            String.format("%-12s %-7s", function.getName(), mapped ? "mapped" : "stream"));
+        for (int threadCount : new int[] {1, threads}) {
+          // Warm up the JIT before measuring.
+          run(files, function, mapped, threadCount);
+          long best = Long.MAX_VALUE;
+          for (int i = 0; i < 3; i++) {
+            best = Math.min(best, run(files, function, mapped, threadCount));
+          }
+          line.append(String.format("  %d thread(s): %6d MB/s", threadCount,
+              totalBytes * 1000000000L / best >> 20));
+        }
+        System.out.println(line);
+      }
+    }
+    FileSystemUtils.deleteTree(dir);
+  }
+
+  /** Returns the wall time in nanoseconds of digesting all files on the given threads. */
+  private static long run(List<Path> files, final DigestHashFunction function,
+      final boolean mapped, int threadCount) throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+    List<Future<HashCode>> futures = new ArrayList<>();
+    long start = System.nanoTime();
+    for (final Path file : files) {
+      futures.add(executor.submit(new Callable<HashCode>() {
+        @Override
+        public HashCode call() throws IOException {
+          return HashCode.fromBytes(mapped ? file.getDigest(function) : streamDigest(file, function));
+        }
+      }));
+    }
+    for (Future<HashCode> future : futures) {
+      future.get();
+    }
+    long elapsed = System.nanoTime() - start;
+    executor.shutdown();
+    return elapsed;
+  }
+
+  private static byte[] streamDigest(Path file, DigestHashFunction function) throws IOException {
+    MessageDigest md = function.newMessageDigest();
+    byte[] buffer = new byte[8192];
+    try (InputStream in = file.getInputStream()) {
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        md.update(buffer, 0, read);
+      }
+    }
+    return md.digest();
+  }
+}
@@ -22,6 +22,8 @@ import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import com.google.common.base.Preconditions;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
 import com.google.common.io.BaseEncoding;
 import com.google.devtools.build.lib.testutil.MoreAsserts;
 import com.google.devtools.build.lib.testutil.TestUtils;
@@ -1313,6 +1315,40 @@ public abstract class FileSystemTest {
         fp.hexDigestAndReset());
   }
 
+  @Test
+  public void testGetDigest() throws Exception {
+    byte[] buffer = new byte[500000];
+    for (int i = 0; i < buffer.length; ++i) {
+      buffer[i] = (byte) i;
+    }
+    FileSystemUtils.writeContent(xFile, buffer);
+    assertEquals(Hashing.md5().hashBytes(buffer),
+        HashCode.fromBytes(xFile.getDigest(DigestHashFunction.MD5)));
+    assertEquals(Hashing.sha1().hashBytes(buffer),
+        HashCode.fromBytes(xFile.getDigest(DigestHashFunction.SHA1)));
+    assertEquals(Hashing.sha256().hashBytes(buffer),
+        HashCode.fromBytes(xFile.getDigest(DigestHashFunction.SHA256)));
+    assertEquals(Hashing.murmur3_128().hashBytes(buffer),
+        HashCode.fromBytes(xFile.getDigest(DigestHashFunction.MURMUR3)));
+  }
+
+  @Test
+  public void testGetDigestOfSmallFile() throws Exception {
+    FileSystemUtils.writeContent(xFile, new byte[] {1, 2, 3});
+    assertEquals(Hashing.sha256().hashBytes(new byte[] {1, 2, 3}),
+        HashCode.fromBytes(xFile.getDigest(DigestHashFunction.SHA256)));
+  }
+
+  @Test
+  public void testGetDigestOfMissingFile() throws Exception {
+    try {
+      xNothing.getDigest(DigestHashFunction.SHA1);
+      fail("Expected FileNotFoundException");
+    } catch (FileNotFoundException e) {
+      // Expected.
+    }
+  }
+
   @Test
   public void testStatFailsFastOnNonExistingFiles() throws Exception {
     try {
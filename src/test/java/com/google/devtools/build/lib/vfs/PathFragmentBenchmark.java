@@ -0,0 +1,244 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.vfs;
+
+import com.google.common.base.Preconditions;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures the hot {@link PathFragment} operations on output-tree-like paths, and how much heap
+ * the fragments retain. Not a test; run it with {@code java ... PathFragmentBenchmark [paths]
+ * [iterations]}.
+ *
+ * <p>Hash codes are computed on fresh copies of the fragments, because a fragment caches its hash
+ * code after the first call.
+ */
+public final class PathFragmentBenchmark {
+  private static final String[] DIRECTORIES = {
+      "java", "javatests", "src", "main", "test", "com", "google", "devtools", "build", "lib",
+      "util", "vfs", "skyframe", "actions", "rules", "cpp", "analysis", "internal", "..", "."};
+
+  private PathFragmentBenchmark() {}
+
+  public static void main(String[] args) {
+    int pathCount = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+    int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+    Random random = new Random(0);
+    String[] strings = new String[pathCount];
+    for (int i = 0; i < pathCount; i++) {
+      StringBuilder path = new StringBuilder("bazel-out/local_linux-fastbuild/bin");
+      for (int depth = 3 + random.nextInt(6); depth > 0; depth--) {
+        path.append('/').append(DIRECTORIES[random.nextInt(DIRECTORIES.length)]);
+      }
+      strings[i] = path.append("/File").append(i).append(".java").toString();
+    }
+    // Measure the footprint first, while no other fragment shares the unique base names.
+    System.out.printf("%d paths, %d bytes retained per fragment%n", pathCount,
+        retainedBytesPerFragment(strings));
+    final PathFragment execRoot = new PathFragment("/execroot/workspace");
+    final PathFragment outputDir = new PathFragment("bazel-out/local_linux-fastbuild/bin");
+    final PathFragment[] fragments = parse(strings);
+    final PathFragment[] absolute = new PathFragment[pathCount];
+    for (int i = 0; i < pathCount; i++) {
+      absolute[i] = execRoot.getRelative(fragments[i]);
+    }
+
+    for (Operation operation : new Operation[] {
+        new Operation("new PathFragment(String)") {
+          @Override
+          int run() {
+            return parse(strings).length;
+          }
+        },
+        new Operation("getRelative") {
+          @Override
+          int run() {
+            int result = 0;
+            for (PathFragment fragment : fragments) {
+              result += execRoot.getRelative(fragment).segmentCount();
+            }
+            return result;
+          }
+        },
+        new Operation("relativeTo") {
+          @Override
+          int run() {
+            int result = 0;
+            for (PathFragment fragment : absolute) {
+              result += fragment.relativeTo(execRoot).segmentCount();
+            }
+            return result;
+          }
+        },
+        new Operation("startsWith") {
+          @Override
+          int run() {
+            int result = 0;
+            for (PathFragment fragment : fragments) {
+              result += fragment.startsWith(outputDir) ? 1 : 0;
+            }
+            return result;
+          }
+        },
+        new Operation("normalize") {
+          @Override
+          int run() {
+            int result = 0;
+            for (PathFragment fragment : fragments) {
+              result += fragment.normalize().segmentCount();
+            }
+            return result;
+          }
+        },
+        new Operation("getParentDirectory") {
+          @Override
+          int run() {
+            int result = 0;
+            for (PathFragment fragment : fragments) {
+              result += fragment.getParentDirectory().segmentCount();
+            }
+            return result;
+          }
+        },
+        new Operation("getBaseName") {
+          @Override
+          int run() {
+            int result = 0;
+            for (PathFragment fragment : fragments) {
+              result += fragment.getBaseName().length();
+            }
+            return result;
+          }
+        },
+        new Operation("hashCode") {
+          private PathFragment[] copies;
+
+          @Override
+          void setUp() {
+            copies = parse(strings);
+          }
+
+          @Override
+          int run() {
+            int result = 0;
+            for (PathFragment fragment : copies) {
+              result += fragment.hashCode();
+            }
+            return result;
+          }
+        },
+        new Operation("equals") {
+          private PathFragment[] copies = parse(strings);
+
+          @Override
+          int run() {
+            int result = 0;
+            for (int i = 0; i < fragments.length; i++) {
+              result += fragments[i].equals(copies[i]) ? 1 : 0;
+            }
+            return result;
+          }
+        },
+        new Operation("compareTo") {
+          @Override
+          int run() {
+            int result = 0;
+            for (int i = 1; i < fragments.length; i++) {
+              result += Integer.signum(fragments[i - 1].compareTo(fragments[i]));
+            }
+            return result;
+          }
+        },
+        new Operation("getPathString") {
+          private PathFragment[] copies;
+
+          @Override
+          void setUp() {
+            copies = parse(strings);
+          }
+
+          @Override
+          int run() {
+            int result = 0;
+            for (PathFragment fragment : copies) {
+              result += fragment.getPathString().length();
+            }
+            return result;
+          }
+        }}) {
+      // Warm up the JIT before measuring.
+      operation.measure();
+      long[] nanos = new long[iterations];
+      for (int i = 0; i < iterations; i++) {
+        nanos[i] = operation.measure();
+      }
+      Arrays.sort(nanos);
+      System.out.printf("%-26s median %7.1f ns/op, min %7.1f ns/op%n", operation.name,
+          (double) nanos[iterations / 2] / pathCount, (double) nanos[0] / pathCount);
+    }
+  }
+
+  private static PathFragment[] parse(String[] strings) {
+    PathFragment[] fragments = new PathFragment[strings.length];
+    for (int i = 0; i < strings.length; i++) {
+      fragments[i] = new PathFragment(strings[i]);
+    }
+    return fragments;
+  }
+
+  /**
+   * Returns the heap retained by fragments of the given paths, along with the path segments they
+   * share, divided by the number of paths.
+   */
+  private static long retainedBytesPerFragment(String[] strings) {
+    long before = usedHeap();
+    List<PathFragment> fragments = new ArrayList<>(Arrays.asList(parse(strings)));
+    long after = usedHeap();
+    Preconditions.checkState(fragments.size() == strings.length);
+    return (after - before - 16 - 4L * strings.length) / strings.length;
+  }
+
+  private static long usedHeap() {
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+  }
+
+  private abstract static class Operation {
+    private final String name;
+    private int sink;
+
+    Operation(String name) {
+      this.name = name;
+    }
+
+    void setUp() {}
+
+    abstract int run();
+
+    /** Returns the wall time in nanoseconds of running the operation once on all paths. */
+    long measure() {
+      setUp();
+      long start = System.nanoTime();
+      sink += run();
+      return System.nanoTime() - start;
+    }
+  }
+}
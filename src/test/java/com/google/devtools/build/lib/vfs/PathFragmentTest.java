@@ -17,6 +17,7 @@ import static com.google.common.truth.Truth.assertThat;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -434,6 +435,73 @@ public class PathFragmentTest {
     assertEquals(expectedOrder, paths);
   }
 
+  @Test
+  public void testCompareToComparesSegments() {
+    // A segment sorts before any longer segment that it is a prefix of, even if the separator
+    // sorts after the next character of the longer segment.
+    List<PathFragment> paths = toPaths(ImmutableList.of("a-b", "a/b", "a.b/c", "a/b/c", "a"));
+    Collections.sort(paths);
+    assertEquals(toPaths(ImmutableList.of("a", "a/b", "a/b/c", "a-b", "a.b/c")), paths);
+  }
+
+  @Test
+  public void testNonLatin1Segments() {
+    PathFragment path = new PathFragment("/a/\u20ac/b\u00e9");
+    assertEquals("/a/\u20ac/b\u00e9", path.getPathString());
+    assertEquals("\u20ac", path.getSegment(1));
+    assertEquals("b\u00e9", path.getBaseName());
+    assertEquals(new PathFragment("/a/\u20ac").getChild("b\u00e9"), path);
+
+    PathFragment latin1 = path.relativeTo("/a/\u20ac");
+    new EqualsTester()
+        .addEqualityGroup(latin1, new PathFragment("b\u00e9"))
+        .addEqualityGroup(path.getParentDirectory(), new PathFragment("/a/\u20ac"))
+        .addEqualityGroup(path, new PathFragment("/a").getRelative("\u20ac/b\u00e9"))
+        .testEquals();
+    assertEquals(0, latin1.compareTo(new PathFragment("b\u00e9")));
+    assertTrue(new PathFragment("/x/b\u00e9").endsWith(latin1));
+    assertTrue(latin1.getRelative("c").startsWith(new PathFragment("b\u00e9")));
+  }
+
+  @Test
+  public void testSegmentsAreInterned() {
+    PathFragment path = new PathFragment("/foo/bar/baz");
+    String baseName = new String("baz");
+    assertSame(path.getBaseName(), new PathFragment("x/baz").getBaseName());
+    assertSame(path.getSegment(1), new PathFragment("bar").getSegment(0));
+    assertSame(path.getBaseName(), path.getParentDirectory().getChild(baseName).getBaseName());
+    assertSame(path.getSegment(0), path.relativeTo("/").getSegment(0));
+  }
+
+  @Test
+  public void testHashCodeCombinesSegmentHashCodes() {
+    PathFragment absolute = new PathFragment("/foo/b\u20acr");
+    PathFragment relative = new PathFragment("baz/qux");
+    relative.hashCode();
+    InMemoryFileSystem filesystem = new InMemoryFileSystem();
+    for (PathFragment path : ImmutableList.of(
+        absolute,
+        relative,
+        new PathFragment("/"),
+        absolute.getRelative(relative),
+        relative.getRelative(relative),
+        relative.getRelative("x"),
+        new PathFragment(relative, absolute, relative),
+        absolute.getChild("x"),
+        absolute.getRelative(relative).relativeTo(absolute),
+        absolute.getRelative(relative).getParentDirectory(),
+        absolute.toRelative(),
+        absolute.normalize(),
+        new PathFragment("/foo/../bar").normalize(),
+        filesystem.getPath("/foo/bar").asFragment())) {
+      int expected = path.isAbsolute() ? 1 : 0;
+      for (int i = 0; i < path.segmentCount(); i++) {
+        expected = expected * 31 + path.getSegment(i).hashCode();
+      }
+      assertEquals(path.getPathString(), expected, path.hashCode());
+    }
+  }
+
   @Test
   public void testGetSafePathString() {
     assertEquals("/", new PathFragment("/").getSafePathString());
@@ -0,0 +1,158 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.vfs;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import com.google.common.base.Predicate;
+import com.google.common.base.Strings;
+import com.google.common.testing.GcFinalization;
+import com.google.devtools.build.lib.testutil.TestThread;
+import com.google.devtools.build.lib.util.BlazeClock;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Tests for {@link PathTable}, through the {@link CompactPath}s that use it.
+ */
+@RunWith(JUnit4.class)
+public class PathTableTest {
+  private Path root;
+
+  @Before
+  public void setUp() throws Exception {
+    System.setProperty(FileSystem.COMPACT_PATHS_PROPERTY, "true");
+    try {
+      root = new InMemoryFileSystem(BlazeClock.instance()).getRootDirectory();
+    } finally {
+      System.clearProperty(FileSystem.COMPACT_PATHS_PROPERTY);
+    }
+  }
+
+  @Test
+  public void compactPaths() {
+    assertThat(root).isInstanceOf(CompactPath.class);
+    assertThat(root.getRelative("a/b")).isInstanceOf(CompactPath.class);
+  }
+
+  @Test
+  public void namesThatDoNotFitInOneByte() {
+    Path path = root.getRelative("café/日本/x");
+    assertEquals("/café/日本/x", path.getPathString());
+    assertEquals("日本", path.getParentDirectory().getBaseName());
+    assertSame(path, root.getRelative("café").getChild("日本").getChild("x"));
+  }
+
+  @Test
+  public void repeatedNamesAreShared() {
+    Path a = root.getRelative("a/BUILD");
+    Path b = root.getRelative("b/BUILD");
+    assertSame(a.getBaseName(), b.getBaseName());
+    assertSame(a.getBaseName(), a.getBaseName());
+  }
+
+  @Test
+  public void longNames() {
+    String longName = Strings.repeat("n", 100000);
+    Path path = root.getChild(longName).getChild("after");
+    assertEquals("/" + longName + "/after", path.getPathString());
+    assertEquals(longName, path.getParentDirectory().getBaseName());
+    assertSame(path, root.getRelative(longName + "/after"));
+  }
+
+  @Test
+  public void manyPaths() {
+    List<Path> paths = new ArrayList<>();
+    for (int i = 0; i < 5000; i++) {
+      paths.add(root.getRelative("dir" + (i % 50) + "/file" + i));
+    }
+    for (int i = 0; i < 5000; i++) {
+      Path path = paths.get(i);
+      assertEquals("/dir" + (i % 50) + "/file" + i, path.getPathString());
+      assertSame(path, root.getRelative(path.getPathString()));
+      // The same hash code as a plain path.
+      assertEquals(Objects.hash(path.getParentDirectory(), path.getBaseName()), path.hashCode());
+    }
+  }
+
+  @Test
+  public void collectedPathsAreCreatedAgain() {
+    Path parent = root.getChild("parent");
+    WeakReference<Path> childRef = new WeakReference<>(parent.getChild("child"));
+    GcFinalization.awaitClear(childRef);
+    // Adding paths reclaims the slot of the collected one.
+    for (int i = 0; i < 1000; i++) {
+      parent.getChild("sibling" + i);
+    }
+    Path child = parent.getChild("child");
+    assertEquals("/parent/child", child.getPathString());
+    assertSame(child, root.getRelative("parent/child"));
+  }
+
+  @Test
+  public void applyToChildrenVisitsPathsInUse() {
+    final Path a = root.getRelative("a/x");
+    final Path b = root.getRelative("b");
+    final List<Path> children = new ArrayList<>();
+    root.applyToChildren(new Predicate<Path>() {
+      @Override
+      public boolean apply(Path child) {
+        children.add(child);
+        return true;
+      }
+    });
+    assertThat(children).containsExactly(a.getParentDirectory(), b);
+  }
+
+  @Test
+  public void concurrentLookupsReturnTheSamePath() throws Exception {
+    final int pathCount = 2000;
+    final Path[][] results = new Path[8][pathCount];
+    List<TestThread> threads = new ArrayList<>();
+    for (int t = 0; t < results.length; t++) {
+      final Path[] threadResults = results[t];
+      threads.add(new TestThread() {
+        @Override
+        public void runTest() {
+          for (int i = 0; i < pathCount; i++) {
+            threadResults[i] = root.getRelative("d" + (i % 37) + "/f" + i);
+          }
+        }
+      });
+    }
+    for (TestThread thread : threads) {
+      thread.start();
+    }
+    for (TestThread thread : threads) {
+      thread.joinAndAssertState(60000);
+    }
+    for (int i = 0; i < pathCount; i++) {
+      for (Path[] threadResults : results) {
+        assertSame(results[0][i], threadResults[i]);
+      }
+      assertEquals("/d" + (i % 37) + "/f" + i, results[0][i].getPathString());
+    }
+  }
+}
@@ -0,0 +1,37 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.vfs.inmemoryfs;
+
+import com.google.devtools.build.lib.vfs.FileSystem;
+
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Runs the tests for {@link InMemoryFileSystem} with compact paths; see
+ * {@link FileSystem#COMPACT_PATHS_PROPERTY}.
+ */
+@RunWith(JUnit4.class)
+public class CompactPathInMemoryFileSystemTest extends InMemoryFileSystemTest {
+
+  @Override
+  public FileSystem getFreshFileSystem() {
+    System.setProperty(FileSystem.COMPACT_PATHS_PROPERTY, "true");
+    try {
+      return super.getFreshFileSystem();
+    } finally {
+      System.clearProperty(FileSystem.COMPACT_PATHS_PROPERTY);
+    }
+  }
+}
@@ -0,0 +1,72 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.worker;
+
+import com.google.common.base.Joiner;
+import com.google.devtools.build.lib.worker.WorkerProtocol.WorkRequest;
+import com.google.devtools.build.lib.worker.WorkerProtocol.WorkResponse;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * A worker process for tests, which echoes the arguments of each request. A request with the
+ * argument {@code rendezvous} is only answered once a second such request has arrived. Requests
+ * are processed concurrently, unless the worker is started with {@code --singleplex}, in which
+ * case it ignores request ids.
+ */
+public final class ExampleMultiplexWorker {
+  private static final CountDownLatch rendezvous = new CountDownLatch(2);
+
+  private ExampleMultiplexWorker() {}
+
+  public static void main(String[] args) throws IOException {
+    final boolean singleplex = args.length > 0 && args[0].equals("--singleplex");
+    final PrintStream out = System.out;
+    while (true) {
+      final WorkRequest request = WorkRequest.parseDelimitedFrom(System.in);
+      if (request == null) {
+        return;
+      }
+      Thread thread = new Thread() {
+        @Override
+        public void run() {
+          if (request.getArgumentsList().contains("rendezvous")) {
+            rendezvous.countDown();
+            try {
+              rendezvous.await();
+            } catch (InterruptedException e) {
+              throw new IllegalStateException(e);
+            }
+          }
+          WorkResponse.Builder response = WorkResponse.newBuilder()
+              .setOutput(Joiner.on(' ').join(request.getArgumentsList()));
+          if (!singleplex) {
+            response.setRequestId(request.getRequestId());
+          }
+          try {
+            synchronized (out) {
+              response.build().writeDelimitedTo(out);
+              out.flush();
+            }
+          } catch (IOException e) {
+            System.exit(1);
+          }
+        }
+      };
+      thread.start();
+    }
+  }
+}
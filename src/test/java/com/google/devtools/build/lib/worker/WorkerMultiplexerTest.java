@@ -0,0 +1,91 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.worker;
+
+import static com.google.devtools.build.lib.worker.WorkerTestUtils.workerKey;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.testutil.TestThread;
+import com.google.devtools.build.lib.worker.WorkerProtocol.WorkRequest;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for {@link WorkerMultiplexer}, against a real worker process.
+ */
+@RunWith(JUnit4.class)
+public class WorkerMultiplexerTest {
+  private final WorkerMultiplexers multiplexers = new WorkerMultiplexers();
+
+  @After
+  public void tearDown() {
+    multiplexers.destroyAll();
+  }
+
+  private static WorkRequest request(String... arguments) {
+    return WorkRequest.newBuilder().addAllArguments(ImmutableList.copyOf(arguments)).build();
+  }
+
+  @Test
+  public void testResponsesReachTheirRequests() throws Exception {
+    WorkerKey key = workerKey();
+    final WorkerMultiplexer multiplexer = multiplexers.get(key);
+    List<TestThread> threads = new ArrayList<>();
+    for (final String name : ImmutableList.of("first", "second")) {
+      threads.add(new TestThread() {
+        @Override
+        public void runTest() throws Exception {
+          assertEquals("rendezvous " + name,
+              multiplexer.execute(request("rendezvous", name)).getOutput());
+        }
+      });
+    }
+    for (TestThread thread : threads) {
+      thread.start();
+    }
+    // The worker answers neither request before it has received both, so this only finishes if
+    // both went to the one process without waiting for each other's response.
+    for (TestThread thread : threads) {
+      thread.joinAndAssertState(20000);
+    }
+    assertSame(multiplexer, multiplexers.get(key));
+  }
+
+  @Test
+  public void testWorkerWithoutRequestIdsFails() throws Exception {
+    WorkerKey key = workerKey("--singleplex");
+    WorkerMultiplexer multiplexer = multiplexers.get(key);
+    try {
+      multiplexer.execute(request("hello"));
+      fail();
+    } catch (IOException expected) {
+      assertEquals("Worker does not support multiplexing: response has no request id",
+          expected.getMessage());
+    }
+    assertFalse(multiplexer.isAlive());
+    assertNotSame(multiplexer, multiplexers.get(key));
+  }
+}
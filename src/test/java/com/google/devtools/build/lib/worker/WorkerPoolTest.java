@@ -0,0 +1,137 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.worker;
+
+import static com.google.devtools.build.lib.worker.WorkerTestUtils.workerKey;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.base.Function;
+import com.google.devtools.build.lib.buildtool.buildevent.WorkerStatisticsEvent.WorkerStatistics;
+
+import org.apache.commons.pool2.impl.GenericKeyedObjectPoolConfig;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for {@link WorkerPool}, against real worker processes.
+ */
+@RunWith(JUnit4.class)
+public class WorkerPoolTest {
+  private final WorkerPool pool = new WorkerPool(new WorkerFactory());
+
+  @After
+  public void tearDown() {
+    pool.close();
+  }
+
+  @Test
+  public void testEvictsLeastRecentlyUsedIdleWorkers() throws Exception {
+    WorkerKey key = workerKey("--singleplex");
+    Worker first = pool.borrowObject(key);
+    Worker second = pool.borrowObject(key);
+    Worker third = pool.borrowObject(key);
+    first.recordRequest(1);
+    second.recordRequest(1);
+    pool.returnObject(key, first);
+    pool.returnObject(key, second);
+
+    // Everything that is idle goes, oldest first, as long as the limit is exceeded.
+    assertEquals(2, pool.evictIdleWorkers(0));
+    assertEquals(0, pool.getNumIdle(key));
+    assertEquals(1, pool.getWorkers().size());
+    assertSame(third, pool.getWorkers().get(0));
+
+    pool.returnObject(key, third);
+    assertEquals(0, pool.evictIdleWorkers(Long.MAX_VALUE));
+    assertEquals(1, pool.getNumIdle(key));
+  }
+
+  @Test
+  public void testEvictsUntilMemoryIsWithinLimit() throws Exception {
+    // Every worker counts as 1000 kB, whether or not the JVM can tell its pid.
+    WorkerPool memoryPool = new WorkerPool(new WorkerFactory(), new GenericKeyedObjectPoolConfig(),
+        new Function<Worker, Long>() {
+          @Override
+          public Long apply(Worker worker) {
+            return 1000L;
+          }
+        });
+    try {
+      WorkerKey key = workerKey("--singleplex");
+      Worker first = memoryPool.borrowObject(key);
+      Worker second = memoryPool.borrowObject(key);
+      Worker third = memoryPool.borrowObject(key);
+      first.recordRequest(1);
+      second.recordRequest(1);
+      third.recordRequest(1);
+      memoryPool.returnObject(key, first);
+      memoryPool.returnObject(key, second);
+      memoryPool.returnObject(key, third);
+
+      assertEquals(0, memoryPool.evictIdleWorkers(3000));
+      assertEquals(2, memoryPool.evictIdleWorkers(1500));
+      assertEquals(1, memoryPool.getNumIdle(key));
+      assertSame(third, memoryPool.getWorkers().get(0));
+    } finally {
+      memoryPool.close();
+    }
+  }
+
+  @Test
+  public void testWarmUpStartsWorkersBorrowedAtOnceDuringLastBuild() throws Exception {
+    WorkerKey key = workerKey("--singleplex");
+    Worker first = pool.borrowObject(key);
+    Worker second = pool.borrowObject(key);
+    pool.returnObject(key, first);
+    pool.returnObject(key, second);
+    pool.finishBuild();
+    pool.evictIdleWorkers(0);
+    assertEquals(0, pool.getNumIdle(key));
+
+    pool.warmUp();
+    long deadline = System.currentTimeMillis() + 20000;
+    while (pool.getNumIdle(key) < 2 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(2, pool.getNumIdle(key));
+    assertNotSame(first, pool.getWorkers().get(0));
+
+    // A build that does not use the key keeps its history.
+    pool.finishBuild();
+    pool.warmUp();
+    Thread.sleep(100);
+    assertEquals(2, pool.getNumIdle(key));
+  }
+
+  @Test
+  public void testStatisticsAreResetWhenTaken() throws Exception {
+    WorkerKey key = workerKey("--singleplex");
+    Worker worker = pool.borrowObject(key);
+    worker.recordRequest(3000000);
+    worker.recordRequest(1000000);
+    WorkerStatistics statistics = worker.takeStatistics();
+    assertEquals("Example", statistics.getMnemonic());
+    assertEquals(2, statistics.getRequests());
+    assertEquals(4000000, statistics.getLatencyNanos());
+    assertTrue(statistics.toString(),
+        statistics.toString().contains("2 requests, 2 ms average latency"));
+    assertEquals(0, worker.takeStatistics().getRequests());
+    pool.returnObject(key, worker);
+  }
+}
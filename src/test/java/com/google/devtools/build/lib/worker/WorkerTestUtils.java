@@ -0,0 +1,54 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.worker;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.build.lib.vfs.JavaIoFileSystem;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Helpers for tests that start {@link ExampleMultiplexWorker} processes.
+ */
+final class WorkerTestUtils {
+  private WorkerTestUtils() {}
+
+  /** Returns the key of a worker process that runs {@link ExampleMultiplexWorker} with flags. */
+  static WorkerKey workerKey(String... flags) {
+    String java = System.getProperty("java.home") + File.separator + "bin" + File.separator
+        + "java";
+    return new WorkerKey(
+        ImmutableList.<String>builder()
+            .add(java, "-cp", absoluteClassPath(), ExampleMultiplexWorker.class.getName())
+            .add(flags)
+            .build(),
+        ImmutableMap.<String, String>of(),
+        new JavaIoFileSystem().getPath(System.getProperty("java.io.tmpdir")), "Example");
+  }
+
+  /** Returns the class path of the test, which still works in the worker's directory. */
+  private static String absoluteClassPath() {
+    List<String> entries = new ArrayList<>();
+    for (String entry : Splitter.on(File.pathSeparatorChar).omitEmptyStrings()
+        .split(System.getProperty("java.class.path"))) {
+      entries.add(new File(entry).getAbsolutePath());
+    }
+    return Joiner.on(File.pathSeparatorChar).join(entries);
+  }
+}
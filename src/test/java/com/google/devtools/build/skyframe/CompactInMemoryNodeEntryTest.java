@@ -0,0 +1,205 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.skyframe;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertEquals;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.devtools.build.lib.util.GroupedList.GroupedListHelper;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Set;
+
+/**
+ * Tests for {@link CompactInMemoryNodeEntry}.
+ */
+@RunWith(JUnit4.class)
+public class CompactInMemoryNodeEntryTest {
+  private static final SkyFunctionName NODE_TYPE = new SkyFunctionName("Type", false);
+
+  private final SkyKeyGroupTable groupIds = new SkyKeyGroupTable();
+  private final CompactInMemoryGraph graph = new CompactInMemoryGraph(true, groupIds);
+
+  private static SkyKey key(String name) {
+    return new SkyKey(NODE_TYPE, name);
+  }
+
+  private CompactInMemoryNodeEntry doneEntry(SkyKey key,
+      ImmutableList<ImmutableSet<SkyKey>> groupedDeps) {
+    CompactInMemoryNodeEntry entry = (CompactInMemoryNodeEntry) graph.createIfAbsent(key);
+    for (Set<SkyKey> depGroup : groupedDeps) {
+      for (SkyKey dep : depGroup) {
+        graph.createIfAbsent(dep);
+      }
+      entry.addTemporaryDirectDeps(GroupedListHelper.create(depGroup));
+      for (int i = 0; i < depGroup.size(); i++) {
+        entry.signalDep();
+      }
+    }
+    entry.setValue(new GraphTester.StringValue("value"), new IntVersion(42L));
+    return entry;
+  }
+
+  private static void assertGroupedDirectDeps(InMemoryNodeEntry entry,
+      ImmutableList<ImmutableSet<SkyKey>> groupedDeps) {
+    assertThat(Iterables.size(entry.getGroupedDirectDeps())).isEqualTo(groupedDeps.size());
+    int i = 0;
+    for (Iterable<SkyKey> depGroup : entry.getGroupedDirectDeps()) {
+      assertEquals(groupedDeps.get(i++).asList(), ImmutableList.copyOf(depGroup));
+    }
+  }
+
+  @Test
+  public void groupedDirectDeps() {
+    ImmutableList<ImmutableSet<SkyKey>> groupedDeps = ImmutableList.of(
+        ImmutableSet.of(key("1A")),
+        ImmutableSet.of(key("2A"), key("2B")),
+        ImmutableSet.of(key("3A"), key("3B"), key("3C")),
+        ImmutableSet.of(key("4A")));
+    assertGroupedDirectDeps(doneEntry(key("entry"), groupedDeps), groupedDeps);
+  }
+
+  @Test
+  public void sharedGroupsAreInterned() {
+    ImmutableSet<SkyKey> shared = ImmutableSet.of(key("config"), key("toolchain"), key("tools"));
+    ImmutableList<ImmutableSet<SkyKey>> first =
+        ImmutableList.of(ImmutableSet.of(key("first")), shared);
+    ImmutableList<ImmutableSet<SkyKey>> second =
+        ImmutableList.of(shared, ImmutableSet.of(key("second1"), key("second2")));
+    ImmutableList<ImmutableSet<SkyKey>> third =
+        ImmutableList.of(ImmutableSet.of(key("third")), shared, ImmutableSet.of(key("first")));
+
+    InMemoryNodeEntry firstEntry = doneEntry(key("firstEntry"), first);
+    assertEquals(0, groupIds.size());
+    InMemoryNodeEntry secondEntry = doneEntry(key("secondEntry"), second);
+    assertEquals(1, groupIds.size());
+    InMemoryNodeEntry thirdEntry = doneEntry(key("thirdEntry"), third);
+    assertEquals(1, groupIds.size());
+
+    assertGroupedDirectDeps(firstEntry, first);
+    assertGroupedDirectDeps(secondEntry, second);
+    assertGroupedDirectDeps(thirdEntry, third);
+  }
+
+  @Test
+  public void unreferencedGroupsArePrunedOnceTheNextEvaluationStarts() {
+    ImmutableSet<SkyKey> shared = ImmutableSet.of(key("config"), key("toolchain"), key("tools"));
+    ImmutableList<ImmutableSet<SkyKey>> groupedDeps =
+        ImmutableList.of(ImmutableSet.of(key("pkg")), shared);
+    InMemoryNodeEntry first = doneEntry(key("first"), groupedDeps);
+    doneEntry(key("second"), groupedDeps);
+    InMemoryNodeEntry third = doneEntry(key("third"), groupedDeps);
+    InMemoryNodeEntry clone = third.cloneNodeEntry();
+    assertEquals(1, groupIds.size());
+
+    // The first node forgot its deps, but the others still refer to the group.
+    first.markDirty(/*isChanged=*/true);
+    graph.startEvaluation();
+    assertEquals(1, groupIds.size());
+
+    graph.remove(key("second"));
+    graph.remove(key("third"));
+    graph.startEvaluation();
+    assertEquals(1, groupIds.size());
+    assertGroupedDirectDeps(clone, groupedDeps);
+
+    clone.markDirty(/*isChanged=*/true);
+    graph.startEvaluation();
+    assertEquals(0, groupIds.size());
+
+    // Other shared groups can take the freed id.
+    ImmutableList<ImmutableSet<SkyKey>> otherDeps =
+        ImmutableList.of(ImmutableSet.of(key("a"), key("b"), key("c")));
+    doneEntry(key("fourth"), otherDeps);
+    InMemoryNodeEntry fifth = doneEntry(key("fifth"), otherDeps);
+    assertEquals(1, groupIds.size());
+    assertGroupedDirectDeps(fifth, otherDeps);
+  }
+
+  @Test
+  public void smallGroupsAreNotInterned() {
+    ImmutableList<ImmutableSet<SkyKey>> groupedDeps =
+        ImmutableList.of(ImmutableSet.of(key("A"), key("B")));
+    for (int i = 0; i < 3; i++) {
+      assertGroupedDirectDeps(doneEntry(key("entry" + i), groupedDeps), groupedDeps);
+    }
+    assertEquals(0, groupIds.size());
+  }
+
+  @Test
+  public void reverseDeps() {
+    InMemoryNodeEntry entry = doneEntry(key("entry"), ImmutableList.<ImmutableSet<SkyKey>>of());
+    for (String parent : ImmutableList.of("parent1", "parent2", "parent3")) {
+      graph.createIfAbsent(key(parent));
+      entry.addReverseDepAndCheckIfDone(key(parent));
+    }
+    entry.removeReverseDep(key("parent2"));
+    assertThat(entry.getReverseDeps()).containsExactly(key("parent1"), key("parent3"));
+  }
+
+  @Test
+  public void cloneNodeEntry() {
+    ImmutableList<ImmutableSet<SkyKey>> groupedDeps = ImmutableList.of(
+        ImmutableSet.of(key("A")), ImmutableSet.of(key("B"), key("C")));
+    CompactInMemoryNodeEntry entry = doneEntry(key("entry"), groupedDeps);
+    graph.createIfAbsent(key("parent"));
+    entry.addReverseDepAndCheckIfDone(key("parent"));
+
+    CompactInMemoryNodeEntry clone = (CompactInMemoryNodeEntry) entry.cloneNodeEntry();
+    assertEquals(entry.getId(), clone.getId());
+    assertEquals(entry.getValue(), clone.getValue());
+    assertEquals(entry.getVersion(), clone.getVersion());
+    assertGroupedDirectDeps(clone, groupedDeps);
+    assertThat(clone.getReverseDeps()).containsExactly(key("parent"));
+  }
+
+  @Test
+  public void idsOfRemovedNodesAreReusedOnceTheNextEvaluationStarts() {
+    ImmutableList<ImmutableSet<SkyKey>> groupedDeps =
+        ImmutableList.of(ImmutableSet.of(key("dep")));
+    InMemoryNodeEntry entry = doneEntry(key("entry"), groupedDeps);
+    graph.createIfAbsent(key("parent1"));
+    graph.createIfAbsent(key("parent2"));
+    entry.addReverseDepAndCheckIfDone(key("parent1"));
+    entry.addReverseDepAndCheckIfDone(key("parent2"));
+    assertEquals(4, graph.getKeyIdCount());
+
+    // The removal of the reverse dep is deferred, so the id of the removed node must not be reused
+    // until it has been applied.
+    graph.remove(key("parent1"));
+    entry.removeReverseDep(key("parent1"));
+    assertEquals(4, graph.getKeyIdCount());
+
+    graph.startEvaluation();
+    assertEquals(3, graph.getKeyIdCount());
+    graph.createIfAbsent(key("parent3"));
+    entry.addReverseDepAndCheckIfDone(key("parent3"));
+    assertEquals(4, graph.getKeyIdCount());
+    assertThat(entry.getReverseDeps()).containsExactly(key("parent2"), key("parent3"));
+    assertGroupedDirectDeps(entry, groupedDeps);
+  }
+
+  @Test
+  public void lostPutIfAbsentRaceReleasesId() {
+    graph.createIfAbsent(key("entry"));
+    graph.createIfAbsent(key("entry"));
+    assertEquals(1, graph.getKeyIdCount());
+  }
+}
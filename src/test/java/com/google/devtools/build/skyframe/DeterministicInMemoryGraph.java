@@ -68,6 +68,7 @@ public class DeterministicInMemoryGraph extends NotifyingInMemoryGraph {
     @SuppressWarnings("unchecked")
     @Override
     public synchronized Iterable<SkyKey> getReverseDeps() {
+      flushAppendedReverseDeps();
       TreeSet<SkyKey> result = new TreeSet<>(ALPHABETICAL_SKYKEY_COMPARATOR);
       if (reverseDeps instanceof List) {
         result.addAll((Collection<? extends SkyKey>) reverseDeps);
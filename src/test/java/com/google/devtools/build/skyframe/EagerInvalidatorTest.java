@@ -564,6 +564,14 @@ public class EagerInvalidatorTest {
       deletingVisitor.run();
       assertThat(dirtyKeyTracker.getDirtyKeys()).containsExactly(skyKey("ab"));
     }
+
+    @Test
+    public void deletedNodesAreCounted() throws Exception {
+      setupInvalidatableGraph();
+      invalidateWithoutError(null, skyKey("a"));
+      assertEquals(2, visitor.get().getInvalidatedNodeCount(InvalidationType.DELETED));
+      assertEquals(0, visitor.get().getInvalidatedNodeCount(InvalidationType.DIRTIED));
+    }
   }
 
   /**
@@ -612,5 +620,17 @@ public class EagerInvalidatorTest {
       invalidate(graph, receiver, skyKey("a"));
       assertThat(dirtyKeyTracker.getDirtyKeys()).hasSize(2);
     }
+
+    @Test
+    public void dirtiedNodesAreCounted() throws Exception {
+      setupInvalidatableGraph();
+      invalidateWithoutError(null, skyKey("a"));
+      assertEquals(1, visitor.get().getInvalidatedNodeCount(InvalidationType.CHANGED));
+      assertEquals(1, visitor.get().getInvalidatedNodeCount(InvalidationType.DIRTIED));
+      // Nodes that are already dirty are not counted again.
+      invalidateWithoutError(null, skyKey("a"), skyKey("b"));
+      assertEquals(1, visitor.get().getInvalidatedNodeCount(InvalidationType.CHANGED));
+      assertEquals(0, visitor.get().getInvalidatedNodeCount(InvalidationType.DIRTIED));
+    }
   }
 }
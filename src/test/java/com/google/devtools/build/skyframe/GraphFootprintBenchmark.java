@@ -0,0 +1,133 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.skyframe;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.util.GroupedList.GroupedListHelper;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Compares the retained heap of the default and the compact in-memory graph, with every node done
+ * and all its direct and reverse deps recorded. Not a test; run it with
+ * {@code java ... GraphFootprintBenchmark [packages] [targetsPerPackage] [sparse]}.
+ *
+ * <p>The synthetic graph is shaped like the analysis phase of a large build: each target depends
+ * on its package, on a group of configuration and toolchain keys that all targets share, and on a
+ * group of a few other targets in its package. If {@code sparse} is true, each target only depends
+ * on its package and on at most one other target, which is the worst case for the compact graph.
+ */
+public final class GraphFootprintBenchmark {
+  private static final SkyFunctionName PACKAGE = SkyFunctionName.computed("PACKAGE");
+  private static final SkyFunctionName TARGET = SkyFunctionName.computed("TARGET");
+  private static final SkyFunctionName CONFIG = SkyFunctionName.computed("CONFIG");
+  private static final int SHARED_KEYS = 8;
+  private static final int MAX_TARGET_DEPS = 5;
+
+  private GraphFootprintBenchmark() {}
+
+  public static void main(String[] args) {
+    int packages = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+    int targetsPerPackage = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+    boolean sparse = args.length > 2 && Boolean.parseBoolean(args[2]);
+    Map<SkyKey, ImmutableList<ImmutableList<SkyKey>>> nodes =
+        createNodes(packages, targetsPerPackage, sparse);
+    int edges = 0;
+    for (ImmutableList<ImmutableList<SkyKey>> groupedDeps : nodes.values()) {
+      for (ImmutableList<SkyKey> group : groupedDeps) {
+        edges += group.size();
+      }
+    }
+    System.out.printf("%d nodes, %d edges%n", nodes.size(), edges);
+
+    measure("default", nodes, new InMemoryGraph(true));
+    measure("compact, groups not shared", nodes,
+        new CompactInMemoryGraph(true, new SkyKeyGroupTable(Integer.MAX_VALUE)));
+    measure("compact, groups shared", nodes, new CompactInMemoryGraph(true));
+  }
+
+  /** Returns the grouped direct deps of each node, with every node after its deps. */
+  private static Map<SkyKey, ImmutableList<ImmutableList<SkyKey>>> createNodes(int packages,
+      int targetsPerPackage, boolean sparse) {
+    Random random = new Random(0);
+    Map<SkyKey, ImmutableList<ImmutableList<SkyKey>>> nodes = new LinkedHashMap<>();
+    ImmutableList.Builder<SkyKey> sharedGroup = ImmutableList.builder();
+    for (int i = 0; i < SHARED_KEYS; i++) {
+      SkyKey config = new SkyKey(CONFIG, "config" + i);
+      nodes.put(config, ImmutableList.<ImmutableList<SkyKey>>of());
+      sharedGroup.add(config);
+    }
+    ImmutableList<SkyKey> shared = sharedGroup.build();
+    for (int p = 0; p < packages; p++) {
+      SkyKey pkg = new SkyKey(PACKAGE, "pkg" + p);
+      nodes.put(pkg, ImmutableList.<ImmutableList<SkyKey>>of());
+      SkyKey[] targets = new SkyKey[targetsPerPackage];
+      for (int t = 0; t < targetsPerPackage; t++) {
+        targets[t] = new SkyKey(TARGET, "//pkg" + p + ":target" + t);
+      }
+      for (int t = 0; t < targetsPerPackage; t++) {
+        ImmutableList.Builder<ImmutableList<SkyKey>> groupedDeps = ImmutableList.builder();
+        groupedDeps.add(ImmutableList.of(pkg));
+        if (!sparse) {
+          groupedDeps.add(shared);
+        }
+        // Depend on a few of the targets declared before this one, so that there are no cycles.
+        int targetDeps = Math.min(t, random.nextInt((sparse ? 1 : MAX_TARGET_DEPS) + 1));
+        if (targetDeps > 0) {
+          int first = random.nextInt(t - targetDeps + 1);
+          groupedDeps.add(ImmutableList.copyOf(targets).subList(first, first + targetDeps));
+        }
+        nodes.put(targets[t], groupedDeps.build());
+      }
+    }
+    return nodes;
+  }
+
+  private static void measure(String name, Map<SkyKey, ImmutableList<ImmutableList<SkyKey>>> nodes,
+      InMemoryGraph graph) {
+    long before = usedHeap();
+    for (Map.Entry<SkyKey, ImmutableList<ImmutableList<SkyKey>>> node : nodes.entrySet()) {
+      NodeEntry entry = graph.createIfAbsent(node.getKey());
+      for (ImmutableList<SkyKey> group : node.getValue()) {
+        // As in an evaluation, every node gets its own copy of each group.
+        entry.addTemporaryDirectDeps(GroupedListHelper.create(new ArrayList<>(group)));
+        for (int j = 0; j < group.size(); j++) {
+          entry.signalDep();
+        }
+      }
+      entry.setValue(new GraphTester.StringValue(""), new IntVersion(0));
+      for (SkyKey dep : entry.getDirectDeps()) {
+        graph.get(dep).addReverseDepAndCheckIfDone(node.getKey());
+      }
+    }
+    long after = usedHeap();
+    System.out.printf("%-28s %8.1f MB, %6.1f bytes per node%n", name + ":",
+        (after - before) / 1e6, (after - before) / (double) nodes.size());
+    // Keep the graph reachable until it has been measured.
+    if (graph.getAllValues().size() != nodes.size()) {
+      throw new IllegalStateException();
+    }
+  }
+
+  private static long usedHeap() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 5; i++) {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+}
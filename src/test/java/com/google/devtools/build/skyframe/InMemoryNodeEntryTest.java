@@ -38,6 +38,9 @@ import org.junit.runners.JUnit4;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.annotation.Nullable;
 
@@ -645,6 +648,133 @@ public class InMemoryNodeEntryTest {
     assertThat(clone2.getReverseDeps()).containsExactly(key("parent1"), key("parent2"));
   }
 
+  @Test
+  public void manyReverseDepsAfterDone() {
+    InMemoryNodeEntry entry = new InMemoryNodeEntry();
+    entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
+    setValue(entry, new SkyValue() {}, /*errorInfo=*/null, /*graphVersion=*/0L);
+    List<SkyKey> parents = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      SkyKey parent = key("parent" + i);
+      parents.add(parent);
+      assertEquals(DependencyState.DONE, entry.addReverseDepAndCheckIfDone(parent));
+    }
+    assertThat(entry.getReverseDeps()).containsExactlyElementsIn(parents);
+    entry.removeReverseDep(parents.remove(999));
+    entry.removeReverseDep(parents.remove(0));
+    for (int i = 1000; i < 1100; i++) {
+      SkyKey parent = key("parent" + i);
+      parents.add(parent);
+      entry.addReverseDepAndCheckIfDone(parent);
+    }
+    assertThat(entry.getReverseDeps()).containsExactlyElementsIn(parents);
+    assertThat(entry.markDirty(/*isChanged=*/true)).isNotNull();
+    SkyKey newParent = key("new parent");
+    entry.addReverseDepAndCheckIfDone(newParent);
+    assertThat(setValue(entry, new SkyValue() {}, /*errorInfo=*/null,
+        /*graphVersion=*/1L)).containsExactly(newParent);
+    assertThat(entry.getReverseDeps()).hasSize(1099);
+  }
+
+  @Test
+  public void crashOnAddReverseDepTwiceAfterDoneWithManyReverseDeps() {
+    NodeEntry entry = new InMemoryNodeEntry();
+    entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
+    setValue(entry, new SkyValue() {}, /*errorInfo=*/null, /*graphVersion=*/0L);
+    for (int i = 0; i < 100; i++) {
+      entry.addReverseDepAndCheckIfDone(key("parent" + i));
+    }
+    entry.addReverseDepAndCheckIfDone(key("parent99"));
+    try {
+      entry.getReverseDeps();
+      fail("Cannot add same dep twice");
+    } catch (IllegalStateException e) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void concurrentReverseDepsAfterDone() throws Exception {
+    final InMemoryNodeEntry entry = new InMemoryNodeEntry();
+    entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
+    final SkyValue value = new SkyValue() {};
+    setValue(entry, value, /*errorInfo=*/null, /*graphVersion=*/0L);
+    final int numThreads = 16;
+    final int parentsPerThread = 2000;
+    final CountDownLatch start = new CountDownLatch(1);
+    final AtomicReference<Throwable> failure = new AtomicReference<>();
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < numThreads; t++) {
+      final int thread = t;
+      threads.add(new Thread() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+            for (int i = 0; i < parentsPerThread; i++) {
+              assertEquals(DependencyState.DONE,
+                  entry.addReverseDepAndCheckIfDone(key("parent" + thread + "-" + i)));
+              assertThat(entry.getValue()).isSameAs(value);
+            }
+          } catch (Throwable e) {
+            failure.compareAndSet(null, e);
+          }
+        }
+      });
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    start.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertNull(failure.get());
+    assertThat(entry.getReverseDeps()).hasSize(numThreads * parentsPerThread);
+  }
+
+  @Test
+  public void concurrentSignalsMakeEntryReadyOnce() throws Exception {
+    final InMemoryNodeEntry entry = new InMemoryNodeEntry();
+    entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
+    final int numThreads = 16;
+    final int depsPerThread = 2000;
+    for (int i = 0; i < numThreads * depsPerThread; i++) {
+      addTemporaryDirectDep(entry, key("dep" + i));
+    }
+    final CountDownLatch start = new CountDownLatch(1);
+    final AtomicInteger readySignals = new AtomicInteger();
+    final AtomicReference<Throwable> failure = new AtomicReference<>();
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < numThreads; t++) {
+      threads.add(new Thread() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+            for (int i = 0; i < depsPerThread; i++) {
+              if (entry.signalDep()) {
+                readySignals.incrementAndGet();
+              }
+            }
+          } catch (Throwable e) {
+            failure.compareAndSet(null, e);
+          }
+        }
+      });
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    start.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertNull(failure.get());
+    assertEquals(1, readySignals.get());
+    assertTrue(entry.isReady());
+  }
+
   @Test
   public void getGroupedDirectDeps() {
     InMemoryNodeEntry entry = new InMemoryNodeEntry();
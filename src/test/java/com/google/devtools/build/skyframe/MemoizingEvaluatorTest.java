@@ -59,6 +59,8 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -110,6 +112,11 @@ public class MemoizingEvaluatorTest {
     tester.resetPlayedEvents();
   }
 
+  /** Subclasses may override this to run these tests against other graph implementations. */
+  protected MemoizingEvaluator.EvaluatorSupplier getEvaluatorSupplier() {
+    return InMemoryMemoizingEvaluator.SUPPLIER;
+  }
+
   protected static SkyKey toSkyKey(String name) {
     return new SkyKey(NODE_TYPE, name);
   }
@@ -2981,6 +2988,210 @@ public class MemoizingEvaluatorTest {
     memoizingEvaluator.setGraphForTesting(notifyingInMemoryGraph);
   }
 
+  @Test
+  public void snapshotRestoresValuesAndEdges() throws Exception {
+    tester.set("leaf", new StringValue("leaf"));
+    tester.getOrCreate("top").addDependency("leaf").setComputedValue(CONCATENATE);
+    assertEquals("leaf", ((StringValue) tester.evalAndGet("top")).getValue());
+    ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+    assertEquals(2, tester.graph.writeSnapshot(snapshot));
+
+    initializeTester();
+    tester.set("leaf", new StringValue("leaf"));
+    tester.getOrCreate("top").addDependency("leaf").setConstantValue(new StringValue("new"));
+    assertEquals(2, tester.graph.readSnapshot(new ByteArrayInputStream(snapshot.toByteArray())));
+    assertEquals(new StringValue("leaf"), tester.getExistingValue("top"));
+    // The restored value of top is still up to date, because its dep did not change.
+    tester.getOrCreate(GraphTester.skyKey("leaf"), /*markAsModified=*/true);
+    tester.invalidate();
+    assertEquals("leaf", ((StringValue) tester.evalAndGet("top")).getValue());
+    // Changing the dep, which was restored with its reverse deps, makes top rebuild.
+    tester.set("leaf", new StringValue("changed"));
+    tester.invalidate();
+    assertEquals("new", ((StringValue) tester.evalAndGet("top")).getValue());
+  }
+
+  @Test
+  public void snapshotSkipsUnserializableValuesAndTheirParents() throws Exception {
+    tester.set("leaf", new StringValue("leaf"));
+    tester.set("unserializable", new UnserializableValue());
+    tester.getOrCreate("top").addDependency("unserializable").setConstantValue(
+        new StringValue("top"));
+    tester.eval(/*keepGoing=*/false, "leaf", "top");
+    ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+    assertEquals(1, tester.graph.writeSnapshot(snapshot));
+
+    initializeTester();
+    tester.graph.readSnapshot(new ByteArrayInputStream(snapshot.toByteArray()));
+    assertEquals(new StringValue("leaf"), tester.getExistingValue("leaf"));
+    assertNull(tester.getExistingValue("unserializable"));
+    assertNull(tester.getExistingValue("top"));
+  }
+
+  @Test
+  public void snapshotKeepsNodesWrittenAfterUnserializableValues() throws Exception {
+    TestFunction top = tester.getOrCreate("top").setConstantValue(new StringValue("top"));
+    List<String> leaves = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      tester.set("leaf" + i, new StringValue("leaf" + i));
+      tester.set("unserializable" + i, new UnserializableValue());
+      top.addDependency("leaf" + i);
+      leaves.add("leaf" + i);
+      leaves.add("unserializable" + i);
+    }
+    tester.eval(/*keepGoing=*/false, "top");
+    tester.eval(/*keepGoing=*/false, leaves.toArray(new String[0]));
+    ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+    assertEquals(11, tester.graph.writeSnapshot(snapshot));
+
+    initializeTester();
+    assertEquals(11,
+        tester.graph.readSnapshot(new ByteArrayInputStream(snapshot.toByteArray())));
+    assertEquals(new StringValue("top"), tester.getExistingValue("top"));
+    for (int i = 0; i < 10; i++) {
+      assertEquals(new StringValue("leaf" + i), tester.getExistingValue("leaf" + i));
+      assertNull(tester.getExistingValue("unserializable" + i));
+    }
+  }
+
+  @Test
+  public void snapshotRestoresEdgesAcrossStreamResets() throws Exception {
+    // More leaves than are written between two resets of the snapshot stream.
+    int leafCount = 25000;
+    TestFunction top = tester.getOrCreate("top").setConstantValue(new StringValue("top"));
+    for (int i = 0; i < leafCount; i++) {
+      tester.set("leaf" + i, new StringValue("leaf" + i));
+      top.addDependency("leaf" + i);
+    }
+    tester.eval(/*keepGoing=*/false, "top");
+    ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+    assertEquals(leafCount + 1, tester.graph.writeSnapshot(snapshot));
+
+    initializeTester();
+    tester.set("leaf0", new StringValue("leaf0"));
+    tester.getOrCreate("top").setConstantValue(new StringValue("new"));
+    assertEquals(leafCount + 1,
+        tester.graph.readSnapshot(new ByteArrayInputStream(snapshot.toByteArray())));
+    assertEquals(new StringValue("top"), tester.getExistingValue("top"));
+    assertEquals(new StringValue("leaf0"), tester.getExistingValue("leaf0"));
+    // Top, which is written after the last reset, depends on leaves written before the first one.
+    tester.set("leaf0", new StringValue("changed"));
+    tester.invalidate();
+    assertEquals("new", ((StringValue) tester.evalAndGet("top")).getValue());
+  }
+
+  private static final class UnserializableValue implements SkyValue {
+    @SuppressWarnings("unused")
+    private final Object notSerializable = new Object();
+  }
+
+  /**
+   * Counts the evaluations of "mid", which copies "leaf", and "top", which copies "mid", and
+   * evaluates "top".
+   */
+  private void setUpEvictionGraph(final AtomicInteger midEvaluations,
+      final AtomicInteger topEvaluations) throws Exception {
+    tester.set("leaf", new StringValue("leaf"));
+    tester.getOrCreate("mid").addDependency("leaf").setComputedValue(new ValueComputer() {
+      @Override
+      public SkyValue compute(Map<SkyKey, SkyValue> deps, SkyFunction.Environment env) {
+        midEvaluations.incrementAndGet();
+        return new StringValue(((StringValue) deps.get(GraphTester.skyKey("leaf"))).getValue());
+      }
+    });
+    tester.getOrCreate("top").addDependency("mid").setComputedValue(new ValueComputer() {
+      @Override
+      public SkyValue compute(Map<SkyKey, SkyValue> deps, SkyFunction.Environment env)
+          throws InterruptedException {
+        topEvaluations.incrementAndGet();
+        return COPY.compute(deps, env);
+      }
+    });
+    tester.set("other", new StringValue("other"));
+    assertEquals(new StringValue("leaf"), tester.evalAndGet("top"));
+  }
+
+  @Test
+  public void evictedValueIsRecomputedAndPrunedByFingerprint() throws Exception {
+    AtomicInteger midEvaluations = new AtomicInteger();
+    AtomicInteger topEvaluations = new AtomicInteger();
+    setUpEvictionGraph(midEvaluations, topEvaluations);
+    tester.graph.setEvictionPolicy(new EvictValuesOf("mid", /*fingerprinted=*/true));
+    // "mid" is not evicted before the first evaluation that does not request it.
+    tester.evalAndGet("other");
+    assertEquals(new StringValue("leaf"), tester.getExistingValue("mid"));
+    tester.evalAndGet("other");
+    assertNull(tester.getExistingValue("mid"));
+    assertEquals(new StringValue("leaf"), tester.getExistingValue("leaf"));
+
+    assertEquals(new StringValue("leaf"), tester.evalAndGet("top"));
+    assertEquals(2, midEvaluations.get());
+    // The recomputed value of "mid" had the same fingerprint, so "top" was not re-evaluated.
+    assertEquals(1, topEvaluations.get());
+
+    // The evicted node still propagates changes.
+    tester.graph.setEvictionPolicy(null);
+    tester.set("leaf", new StringValue("changed"));
+    tester.invalidate();
+    assertEquals(new StringValue("changed"), tester.evalAndGet("top"));
+    assertEquals(2, topEvaluations.get());
+  }
+
+  @Test
+  public void evictedValueWithoutFingerprintIsAlwaysChanged() throws Exception {
+    AtomicInteger midEvaluations = new AtomicInteger();
+    AtomicInteger topEvaluations = new AtomicInteger();
+    setUpEvictionGraph(midEvaluations, topEvaluations);
+    tester.graph.setEvictionPolicy(new EvictValuesOf("mid", /*fingerprinted=*/false));
+    tester.evalAndGet("other");
+    tester.evalAndGet("other");
+    assertNull(tester.getExistingValue("mid"));
+
+    assertEquals(new StringValue("leaf"), tester.evalAndGet("top"));
+    assertEquals(2, midEvaluations.get());
+    assertEquals(2, topEvaluations.get());
+  }
+
+  @Test
+  public void dependencyOfRequestedValueIsNotEvicted() throws Exception {
+    AtomicInteger midEvaluations = new AtomicInteger();
+    AtomicInteger topEvaluations = new AtomicInteger();
+    setUpEvictionGraph(midEvaluations, topEvaluations);
+    tester.graph.setEvictionPolicy(new EvictValuesOf("mid", /*fingerprinted=*/true));
+    // Null builds of "top" do not visit "mid", but "mid" is still in use.
+    for (int i = 0; i < 5; i++) {
+      assertEquals(new StringValue("leaf"), tester.evalAndGet("top"));
+      assertEquals(new StringValue("leaf"), tester.getExistingValue("mid"));
+    }
+    assertEquals(1, midEvaluations.get());
+    assertEquals(1, topEvaluations.get());
+  }
+
+  private static final class EvictValuesOf implements EvictionPolicy {
+    private final SkyKey evictableKey;
+    private final boolean fingerprinted;
+
+    private EvictValuesOf(String evictableKey, boolean fingerprinted) {
+      this.evictableKey = GraphTester.skyKey(evictableKey);
+      this.fingerprinted = fingerprinted;
+    }
+
+    @Override
+    public boolean shouldEvict() {
+      return true;
+    }
+
+    @Override
+    public boolean isEvictable(SkyKey key) {
+      return key.equals(evictableKey);
+    }
+
+    @Override
+    public Object fingerprint(SkyValue value) {
+      return fingerprinted ? ((StringValue) value).getValue() : null;
+    }
+  }
+
   private static final class PassThroughSelected implements ValueComputer {
     private final SkyKey key;
 
@@ -3005,7 +3216,7 @@ public class MemoizingEvaluatorTest {
 
     public void initialize() {
       this.differencer = new RecordingDifferencer();
-      this.graph = new InMemoryMemoizingEvaluator(
+      this.graph = getEvaluatorSupplier().create(
           ImmutableMap.of(NODE_TYPE, createDelegatingFunction()), differencer,
           invalidationReceiver, emittedEventState, true);
       this.driver = new SequentialBuildDriver(graph);
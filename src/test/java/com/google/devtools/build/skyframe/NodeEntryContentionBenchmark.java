@@ -0,0 +1,176 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.skyframe;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Iterables;
+import com.google.devtools.build.lib.collect.nestedset.NestedSetBuilder;
+import com.google.devtools.build.lib.collect.nestedset.Order;
+import com.google.devtools.build.lib.util.GroupedList.GroupedListHelper;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures how long it takes many threads to add reverse deps to, and read the value of, a single
+ * done {@link InMemoryNodeEntry}, as parents of a popular node do during an evaluation, and to
+ * signal a single node with many deps, as its children do when they finish. Not a test; run it
+ * with {@code java ... NodeEntryContentionBenchmark [threads] [parentsPerThread] [iterations]}.
+ *
+ * <p>The baseline takes the entry's lock for every operation, as all operations did before done
+ * nodes could be read and have reverse deps appended without it, and before nodes could be
+ * signaled without it.
+ */
+public final class NodeEntryContentionBenchmark {
+  private static final SkyFunctionName PARENT = SkyFunctionName.computed("PARENT");
+
+  private NodeEntryContentionBenchmark() {}
+
+  public static void main(String[] args) throws InterruptedException {
+    int threads = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+    int parentsPerThread = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+    int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+    SkyKey[][] parents = new SkyKey[threads][parentsPerThread];
+    for (int t = 0; t < threads; t++) {
+      for (int i = 0; i < parentsPerThread; i++) {
+        parents[t][i] = new SkyKey(PARENT, t * parentsPerThread + i);
+      }
+    }
+    for (boolean signal : new boolean[] {false, true}) {
+      for (boolean synchronizedBaseline : new boolean[] {true, false}) {
+        // Warm up the JIT before measuring.
+        run(parents, synchronizedBaseline, signal);
+        long[] millis = new long[iterations];
+        for (int i = 0; i < iterations; i++) {
+          millis[i] = run(parents, synchronizedBaseline, signal);
+        }
+        Arrays.sort(millis);
+        System.out.printf("%s, %s: median %d ms, min %d ms%n",
+            signal ? "signal     " : "reverse dep",
+            synchronizedBaseline ? "synchronized" : "lock-free   ", millis[iterations / 2],
+            millis[0]);
+      }
+    }
+  }
+
+  private static long run(SkyKey[][] keys, boolean synchronizedBaseline, boolean signal)
+      throws InterruptedException {
+    return signal
+        ? runSignals(keys, synchronizedBaseline)
+        : runReverseDeps(keys, synchronizedBaseline);
+  }
+
+  /** Returns the wall time in milliseconds of all threads adding their parents. */
+  private static long runReverseDeps(final SkyKey[][] parents, boolean synchronizedBaseline)
+      throws InterruptedException {
+    final InMemoryNodeEntry entry =
+        synchronizedBaseline ? new SynchronizedNodeEntry() : new InMemoryNodeEntry();
+    entry.addReverseDepAndCheckIfDone(null);
+    entry.setValue(ValueWithMetadata.normal(new GraphTester.StringValue("value"),
+        /*errorInfo=*/null, NestedSetBuilder.<TaggedEvents>emptySet(Order.STABLE_ORDER)),
+        new IntVersion(0));
+    final CountDownLatch start = new CountDownLatch(1);
+    Thread[] threads = new Thread[parents.length];
+    for (int t = 0; t < parents.length; t++) {
+      final SkyKey[] threadParents = parents[t];
+      threads[t] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+          } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+          }
+          for (SkyKey parent : threadParents) {
+            entry.addReverseDepAndCheckIfDone(parent);
+            entry.getValue();
+          }
+        }
+      };
+      threads[t].start();
+    }
+    long startNanos = System.nanoTime();
+    start.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    long elapsed = (System.nanoTime() - startNanos) / 1000000;
+    Preconditions.checkState(Iterables.size(entry.getReverseDeps())
+        == parents.length * parents[0].length);
+    return elapsed;
+  }
+
+  /** Returns the wall time in milliseconds of all threads signaling a node that has all deps. */
+  private static long runSignals(SkyKey[][] deps, boolean synchronizedBaseline)
+      throws InterruptedException {
+    final InMemoryNodeEntry entry =
+        synchronizedBaseline ? new SynchronizedNodeEntry() : new InMemoryNodeEntry();
+    entry.addReverseDepAndCheckIfDone(null);
+    GroupedListHelper<SkyKey> helper = new GroupedListHelper<>();
+    for (SkyKey[] threadDeps : deps) {
+      for (SkyKey dep : threadDeps) {
+        helper.add(dep);
+      }
+    }
+    entry.addTemporaryDirectDeps(helper);
+    final CountDownLatch start = new CountDownLatch(1);
+    final AtomicInteger readySignals = new AtomicInteger();
+    Thread[] threads = new Thread[deps.length];
+    for (int t = 0; t < deps.length; t++) {
+      final int depsPerThread = deps[t].length;
+      threads[t] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+          } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+          }
+          for (int i = 0; i < depsPerThread; i++) {
+            if (entry.signalDep()) {
+              readySignals.incrementAndGet();
+            }
+          }
+        }
+      };
+      threads[t].start();
+    }
+    long startNanos = System.nanoTime();
+    start.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    long elapsed = (System.nanoTime() - startNanos) / 1000000;
+    Preconditions.checkState(readySignals.get() == 1 && entry.isReady());
+    return elapsed;
+  }
+
+  private static final class SynchronizedNodeEntry extends InMemoryNodeEntry {
+    @Override
+    public synchronized DependencyState addReverseDepAndCheckIfDone(SkyKey reverseDep) {
+      return super.addReverseDepAndCheckIfDone(reverseDep);
+    }
+
+    @Override
+    public synchronized SkyValue getValue() {
+      return super.getValue();
+    }
+
+    @Override
+    public synchronized boolean signalDep(Version childVersion) {
+      return super.signalDep(childVersion);
+    }
+  }
+}
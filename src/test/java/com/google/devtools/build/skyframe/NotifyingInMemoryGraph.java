@@ -32,9 +32,7 @@ public class NotifyingInMemoryGraph extends InMemoryGraph {
   @Override
   public NodeEntry createIfAbsent(SkyKey key) {
     graphListener.accept(key, EventType.CREATE_IF_ABSENT, Order.BEFORE, null);
-    NodeEntry newval = getEntry(key);
-    NodeEntry oldval = getNodeMap().putIfAbsent(key, newval);
-    return oldval == null ? newval : oldval;
+    return putIfAbsent(key, getEntry(key));
   }
 
   // Subclasses should override if they wish to subclass NotifyingNodeEntry.
@@ -0,0 +1,114 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.skyframe;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.build.lib.events.NullEventHandler;
+import com.google.devtools.build.skyframe.GraphTester.StringValue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares the wall time of {@link ParallelEvaluator} with and without a {@code ForkJoinPool} on
+ * synthetic graphs. Not a test; run it with
+ * {@code java ... ParallelEvaluatorSchedulerBenchmark [threads] [nodes] [iterations]}.
+ *
+ * <p>The graphs are complete trees in which node {@code i} depends on nodes
+ * {@code fanout * i + 1} through {@code fanout * i + fanout}. A large fanout gives a wide, shallow
+ * graph; a fanout of two gives a deep one.
+ */
+public final class ParallelEvaluatorSchedulerBenchmark {
+  private static final SkyFunctionName TREE_NODE = SkyFunctionName.computed("TREE_NODE");
+
+  private ParallelEvaluatorSchedulerBenchmark() {}
+
+  public static void main(String[] args) throws InterruptedException {
+    int threads = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+    int nodes = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+    int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+    for (int fanout : new int[] {1000, 10, 2}) {
+      for (boolean useForkJoinPool : new boolean[] {false, true}) {
+        // Warm up the JIT before measuring.
+        evaluate(fanout, nodes, threads, useForkJoinPool);
+        long[] millis = new long[iterations];
+        for (int i = 0; i < iterations; i++) {
+          millis[i] = evaluate(fanout, nodes, threads, useForkJoinPool);
+        }
+        Arrays.sort(millis);
+        System.out.printf("fanout %4d, %s: median %d ms, min %d ms%n", fanout,
+            useForkJoinPool ? "fork-join pool  " : "thread pool     ", millis[iterations / 2],
+            millis[0]);
+      }
+    }
+  }
+
+  /** Evaluates a fresh tree and returns the elapsed wall time in milliseconds. */
+  private static long evaluate(int fanout, int nodes, int threads, boolean useForkJoinPool)
+      throws InterruptedException {
+    ParallelEvaluator evaluator = new ParallelEvaluator(new InMemoryGraph(),
+        new IntVersion(0), ImmutableMap.of(TREE_NODE, new TreeFunction(fanout, nodes)),
+        NullEventHandler.INSTANCE, new MemoizingEvaluator.EmittedEventState(),
+        /*keepGoing=*/false, threads, /*progressReceiver=*/null, new DirtyKeyTrackerImpl(),
+        useForkJoinPool, /*priority=*/null);
+    long start = System.nanoTime();
+    EvaluationResult<SkyValue> result = evaluator.eval(ImmutableList.of(key(0)));
+    long elapsed = (System.nanoTime() - start) / 1000000;
+    Preconditions.checkState(!result.hasError(), result);
+    return elapsed;
+  }
+
+  private static SkyKey key(int node) {
+    return new SkyKey(TREE_NODE, node);
+  }
+
+  private static final class TreeFunction implements SkyFunction {
+    private final int fanout;
+    private final int nodes;
+
+    private TreeFunction(int fanout, int nodes) {
+      this.fanout = fanout;
+      this.nodes = nodes;
+    }
+
+    @Override
+    public SkyValue compute(SkyKey skyKey, Environment env) {
+      int node = (Integer) skyKey.argument();
+      List<SkyKey> children = new ArrayList<>(fanout);
+      for (long child = (long) fanout * node + 1;
+          child <= (long) fanout * node + fanout && child < nodes; child++) {
+        children.add(key((int) child));
+      }
+      Map<SkyKey, SkyValue> values = env.getValues(children);
+      if (env.valuesMissing()) {
+        return null;
+      }
+      // Do a little work per edge, so that scheduling is not the only cost.
+      int hash = node;
+      for (SkyValue value : values.values()) {
+        hash = 31 * hash + value.hashCode();
+      }
+      return new StringValue(Integer.toString(hash));
+    }
+
+    @Override
+    public String extractTag(SkyKey skyKey) {
+      return null;
+    }
+  }
+}
@@ -25,6 +25,7 @@ import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
@@ -94,7 +95,31 @@ public class ParallelEvaluatorTest {
     graphVersion = graphVersion.next();
     return new ParallelEvaluator(graph, oldGraphVersion,
         builders, reporter,  new MemoizingEvaluator.EmittedEventState(), keepGoing,
-        150, revalidationReceiver, new DirtyKeyTrackerImpl());
+        150, revalidationReceiver, new DirtyKeyTrackerImpl(), useForkJoinPool(),
+        getEvaluationPriority());
+  }
+
+  /** The priority with which the evaluators under test evaluate nodes, or null for FIFO. */
+  @Nullable
+  protected EvaluationPriority getEvaluationPriority() {
+    return null;
+  }
+
+  /**
+   * Returns a new graph for the evaluators under test. Tests that need to observe the graph still
+   * use a {@link NotifyingInMemoryGraph}.
+   */
+  protected InMemoryGraph newGraph(boolean keepEdges) {
+    return new InMemoryGraph(keepEdges);
+  }
+
+  private InMemoryGraph newGraph() {
+    return newGraph(/*keepEdges=*/true);
+  }
+
+  /** Whether the evaluators under test schedule their work in a {@code ForkJoinPool}. */
+  protected boolean useForkJoinPool() {
+    return false;
   }
 
   /** Convenience method for eval-ing a single value. */
@@ -125,7 +150,7 @@ public class ParallelEvaluatorTest {
 
   @Test
   public void smoke() throws Exception {
-    graph = new InMemoryGraph();
+    graph = newGraph();
     set("a", "a");
     set("b", "b");
     tester.getOrCreate("ab").addDependency("a").addDependency("b").setComputedValue(CONCATENATE);
@@ -210,7 +235,7 @@ public class ParallelEvaluatorTest {
   }
 
   private void runPartialResultOnInterruption(boolean buildFastFirst) throws Exception {
-    graph = new InMemoryGraph();
+    graph = newGraph();
     // Two runs for fastKey's builder and one for the start of waitKey's builder.
     final CountDownLatch allValuesReady = new CountDownLatch(3);
     final SkyKey waitKey = GraphTester.toSkyKey("wait");
@@ -313,7 +338,7 @@ public class ParallelEvaluatorTest {
     final Semaphore threadStarted = new Semaphore(0);
     final Semaphore threadInterrupted = new Semaphore(0);
     final String[] wasError = new String[] { null };
-    final ParallelEvaluator evaluator = makeEvaluator(new InMemoryGraph(),
+    final ParallelEvaluator evaluator = makeEvaluator(newGraph(),
         ImmutableMap.of(GraphTester.NODE_TYPE, valueBuilderFactory.create(threadStarted, wasError)),
         false);
 
@@ -375,7 +400,7 @@ public class ParallelEvaluatorTest {
       }
     };
 
-    final ParallelEvaluator evaluator = makeEvaluator(new InMemoryGraph(),
+    final ParallelEvaluator evaluator = makeEvaluator(newGraph(),
         ImmutableMap.of(GraphTester.NODE_TYPE, builder),
         false);
 
@@ -391,7 +416,7 @@ public class ParallelEvaluatorTest {
 
   @Test
   public void simpleWarning() throws Exception {
-    graph = new InMemoryGraph();
+    graph = newGraph();
     set("a", "a").setWarning("warning on 'a'");
     StringValue value = (StringValue) eval(false, GraphTester.toSkyKey("a"));
     assertEquals("a", value.getValue());
@@ -401,7 +426,7 @@ public class ParallelEvaluatorTest {
 
   @Test
   public void warningMatchesRegex() throws Exception {
-    graph = new InMemoryGraph();
+    graph = newGraph();
     ((Reporter) reporter).setOutputFilter(RegexOutputFilter.forRegex("a"));
     set("example", "a value").setWarning("warning message");
     SkyKey a = GraphTester.toSkyKey("example");
@@ -414,7 +439,7 @@ public class ParallelEvaluatorTest {
 
   @Test
   public void warningMatchesRegexOnlyTag() throws Exception {
-    graph = new InMemoryGraph();
+    graph = newGraph();
     ((Reporter) reporter).setOutputFilter(RegexOutputFilter.forRegex("a"));
     set("a", "a value").setWarning("warning on 'a'");
     SkyKey a = GraphTester.toSkyKey("a");
@@ -425,7 +450,7 @@ public class ParallelEvaluatorTest {
 
   @Test
   public void warningDoesNotMatchRegex() throws Exception {
-    graph = new InMemoryGraph();
+    graph = newGraph();
     ((Reporter) reporter).setOutputFilter(RegexOutputFilter.forRegex("b"));
     set("a", "a").setWarning("warning on 'a'");
     SkyKey a = GraphTester.toSkyKey("a");
@@ -438,7 +463,7 @@ public class ParallelEvaluatorTest {
   /** Regression test: events from already-done value not replayed. */
   @Test
   public void eventFromDoneChildRecorded() throws Exception {
-    graph = new InMemoryGraph();
+    graph = newGraph();
     set("a", "a").setWarning("warning on 'a'");
     SkyKey a = GraphTester.toSkyKey("a");
     SkyKey top = GraphTester.toSkyKey("top");
@@ -458,7 +483,7 @@ public class ParallelEvaluatorTest {
 
   @Test
   public void shouldCreateErrorValueWithRootCause() throws Exception {
-    graph = new InMemoryGraph();
+    graph = newGraph();
     set("a", "a");
     SkyKey parentErrorKey = GraphTester.toSkyKey("parent");
     SkyKey errorKey = GraphTester.toSkyKey("error");
@@ -471,7 +496,7 @@ public class ParallelEvaluatorTest {
 
   @Test
   public void shouldBuildOneTarget() throws Exception {
-    graph = new InMemoryGraph();
+    graph = newGraph();
     set("a", "a");
     set("b", "b");
     SkyKey parentErrorKey = GraphTester.toSkyKey("parent");
@@ -505,7 +530,7 @@ public class ParallelEvaluatorTest {
   }
 
   private void catastrophicBuild(boolean keepGoing, boolean keepEdges) throws Exception {
-    graph = new InMemoryGraph(keepEdges);
+    graph = newGraph(keepEdges);
 
     SkyKey catastropheKey = GraphTester.toSkyKey("catastrophe");
     SkyKey otherKey = GraphTester.toSkyKey("someKey");
@@ -559,7 +584,7 @@ public class ParallelEvaluatorTest {
 
   @Test
   public void parentFailureDoesntAffectChild() throws Exception {
-    graph = new InMemoryGraph();
+    graph = newGraph();
     SkyKey parentKey = GraphTester.toSkyKey("parent");
     tester.getOrCreate(parentKey).setHasError(true);
     SkyKey childKey = GraphTester.toSkyKey("child");
@@ -578,7 +603,7 @@ public class ParallelEvaluatorTest {
 
   @Test
   public void newParentOfErrorShouldHaveError() throws Exception {
-    graph = new InMemoryGraph();
+    graph = newGraph();
     SkyKey errorKey = GraphTester.toSkyKey("error");
     tester.getOrCreate(errorKey).setHasError(true);
     ErrorInfo error = evalValueInError(errorKey);
@@ -591,7 +616,7 @@ public class ParallelEvaluatorTest {
 
   @Test
   public void errorTwoLevelsDeep() throws Exception {
-    graph = new InMemoryGraph();
+    graph = newGraph();
     SkyKey parentKey = GraphTester.toSkyKey("parent");
     SkyKey errorKey = GraphTester.toSkyKey("error");
     tester.getOrCreate(errorKey).setHasError(true);
@@ -607,7 +632,7 @@ public class ParallelEvaluatorTest {
    */
   @Test
   public void errorPropagationToTopLevelValues() throws Exception {
-    graph = new InMemoryGraph();
+    graph = newGraph();
     SkyKey topKey = GraphTester.toSkyKey("top");
     SkyKey midKey = GraphTester.toSkyKey("mid");
     SkyKey badKey = GraphTester.toSkyKey("bad");
@@ -624,7 +649,7 @@ public class ParallelEvaluatorTest {
 
   @Test
   public void valueNotUsedInFailFastErrorRecovery() throws Exception {
-    graph = new InMemoryGraph();
+    graph = newGraph();
     SkyKey topKey = GraphTester.toSkyKey("top");
     SkyKey recoveryKey = GraphTester.toSkyKey("midRecovery");
     SkyKey badKey = GraphTester.toSkyKey("bad");
@@ -703,7 +728,7 @@ public class ParallelEvaluatorTest {
 
   @Test
   public void multipleRootCauses() throws Exception {
-    graph = new InMemoryGraph();
+    graph = newGraph();
     SkyKey parentKey = GraphTester.toSkyKey("parent");
     SkyKey errorKey = GraphTester.toSkyKey("error");
     SkyKey errorKey2 = GraphTester.toSkyKey("error2");
@@ -722,7 +747,7 @@ public class ParallelEvaluatorTest {
 
   @Test
   public void rootCauseWithNoKeepGoing() throws Exception {
-    graph = new InMemoryGraph();
+    graph = newGraph();
     SkyKey parentKey = GraphTester.toSkyKey("parent");
     SkyKey errorKey = GraphTester.toSkyKey("error");
     tester.getOrCreate(errorKey).setHasError(true);
@@ -736,7 +761,7 @@ public class ParallelEvaluatorTest {
 
   @Test
   public void errorBubblesToParentsOfTopLevelValue() throws Exception {
-    graph = new InMemoryGraph();
+    graph = newGraph();
     SkyKey parentKey = GraphTester.toSkyKey("parent");
     final SkyKey errorKey = GraphTester.toSkyKey("error");
     final CountDownLatch latch = new CountDownLatch(1);
@@ -751,7 +776,7 @@ public class ParallelEvaluatorTest {
 
   @Test
   public void noKeepGoingAfterKeepGoingFails() throws Exception {
-    graph = new InMemoryGraph();
+    graph = newGraph();
     SkyKey errorKey = GraphTester.toSkyKey("my_error_value");
     tester.getOrCreate(errorKey).setHasError(true);
     SkyKey parentKey = GraphTester.toSkyKey("parent");
@@ -767,7 +792,7 @@ public class ParallelEvaluatorTest {
 
   @Test
   public void twoErrors() throws Exception {
-    graph = new InMemoryGraph();
+    graph = newGraph();
     SkyKey firstError = GraphTester.toSkyKey("error1");
     SkyKey secondError = GraphTester.toSkyKey("error2");
     CountDownLatch firstStart = new CountDownLatch(1);
@@ -789,7 +814,7 @@ public class ParallelEvaluatorTest {
 
   @Test
   public void simpleCycle() throws Exception {
-    graph = new InMemoryGraph();
+    graph = newGraph();
     SkyKey aKey = GraphTester.toSkyKey("a");
     SkyKey bKey = GraphTester.toSkyKey("b");
     tester.getOrCreate(aKey).addDependency(bKey);
@@ -803,7 +828,7 @@ public class ParallelEvaluatorTest {
 
   @Test
   public void cycleWithHead() throws Exception {
-    graph = new InMemoryGraph();
+    graph = newGraph();
     SkyKey aKey = GraphTester.toSkyKey("a");
     SkyKey bKey = GraphTester.toSkyKey("b");
     SkyKey topKey = GraphTester.toSkyKey("top");
@@ -821,7 +846,7 @@ public class ParallelEvaluatorTest {
 
   @Test
   public void selfEdgeWithHead() throws Exception {
-    graph = new InMemoryGraph();
+    graph = newGraph();
     SkyKey aKey = GraphTester.toSkyKey("a");
     SkyKey topKey = GraphTester.toSkyKey("top");
     SkyKey midKey = GraphTester.toSkyKey("mid");
@@ -837,7 +862,7 @@ public class ParallelEvaluatorTest {
 
   @Test
   public void cycleWithKeepGoing() throws Exception {
-    graph = new InMemoryGraph();
+    graph = newGraph();
     SkyKey aKey = GraphTester.toSkyKey("a");
     SkyKey bKey = GraphTester.toSkyKey("b");
     SkyKey topKey = GraphTester.toSkyKey("top");
@@ -860,7 +885,7 @@ public class ParallelEvaluatorTest {
 
   @Test
   public void twoCycles() throws Exception {
-    graph = new InMemoryGraph();
+    graph = newGraph();
     SkyKey aKey = GraphTester.toSkyKey("a");
     SkyKey bKey = GraphTester.toSkyKey("b");
     SkyKey cKey = GraphTester.toSkyKey("c");
@@ -883,7 +908,7 @@ public class ParallelEvaluatorTest {
 
   @Test
   public void twoCyclesKeepGoing() throws Exception {
-    graph = new InMemoryGraph();
+    graph = newGraph();
     SkyKey aKey = GraphTester.toSkyKey("a");
     SkyKey bKey = GraphTester.toSkyKey("b");
     SkyKey cKey = GraphTester.toSkyKey("c");
@@ -904,7 +929,7 @@ public class ParallelEvaluatorTest {
 
   @Test
   public void triangleBelowHeadCycle() throws Exception {
-    graph = new InMemoryGraph();
+    graph = newGraph();
     SkyKey aKey = GraphTester.toSkyKey("a");
     SkyKey bKey = GraphTester.toSkyKey("b");
     SkyKey cKey = GraphTester.toSkyKey("c");
@@ -922,7 +947,7 @@ public class ParallelEvaluatorTest {
 
   @Test
   public void longCycle() throws Exception {
-    graph = new InMemoryGraph();
+    graph = newGraph();
     SkyKey aKey = GraphTester.toSkyKey("a");
     SkyKey bKey = GraphTester.toSkyKey("b");
     SkyKey cKey = GraphTester.toSkyKey("c");
@@ -940,7 +965,7 @@ public class ParallelEvaluatorTest {
 
   @Test
   public void cycleWithTail() throws Exception {
-    graph = new InMemoryGraph();
+    graph = newGraph();
     SkyKey aKey = GraphTester.toSkyKey("a");
     SkyKey bKey = GraphTester.toSkyKey("b");
     SkyKey cKey = GraphTester.toSkyKey("c");
@@ -961,7 +986,7 @@ public class ParallelEvaluatorTest {
   /** Regression test: "value cannot be ready in a cycle". */
   @Test
   public void selfEdgeWithExtraChildrenUnderCycle() throws Exception {
-    graph = new InMemoryGraph();
+    graph = newGraph();
     SkyKey aKey = GraphTester.toSkyKey("a");
     SkyKey bKey = GraphTester.toSkyKey("b");
     SkyKey cKey = GraphTester.toSkyKey("c");
@@ -979,7 +1004,7 @@ public class ParallelEvaluatorTest {
   /** Regression test: "value cannot be ready in a cycle". */
   @Test
   public void cycleWithExtraChildrenUnderCycle() throws Exception {
-    graph = new InMemoryGraph();
+    graph = newGraph();
     SkyKey aKey = GraphTester.toSkyKey("a");
     SkyKey bKey = GraphTester.toSkyKey("b");
     SkyKey cKey = GraphTester.toSkyKey("c");
@@ -999,7 +1024,7 @@ public class ParallelEvaluatorTest {
   /** Regression test: "value cannot be ready in a cycle". */
   @Test
   public void cycleAboveIndependentCycle() throws Exception {
-    graph = new InMemoryGraph();
+    graph = newGraph();
     SkyKey aKey = GraphTester.toSkyKey("a");
     SkyKey bKey = GraphTester.toSkyKey("b");
     SkyKey cKey = GraphTester.toSkyKey("c");
@@ -1014,7 +1039,7 @@ public class ParallelEvaluatorTest {
   }
 
   public void valueAboveCycleAndExceptionReportsException() throws Exception {
-    graph = new InMemoryGraph();
+    graph = newGraph();
     SkyKey aKey = GraphTester.toSkyKey("a");
     SkyKey errorKey = GraphTester.toSkyKey("error");
     SkyKey bKey = GraphTester.toSkyKey("b");
@@ -1031,7 +1056,7 @@ public class ParallelEvaluatorTest {
 
   @Test
   public void errorValueStored() throws Exception {
-    graph = new InMemoryGraph();
+    graph = newGraph();
     SkyKey errorKey = GraphTester.toSkyKey("my_error_value");
     tester.getOrCreate(errorKey).setHasError(true);
     EvaluationResult<StringValue> result = eval(false, ImmutableList.of(errorKey));
@@ -1055,7 +1080,7 @@ public class ParallelEvaluatorTest {
    */
   @Test
   public void manyCycles() throws Exception {
-    graph = new InMemoryGraph();
+    graph = newGraph();
     SkyKey topKey = GraphTester.toSkyKey("top");
     for (int i = 0; i < 100; i++) {
       SkyKey dep = GraphTester.toSkyKey(Integer.toString(i));
@@ -1073,7 +1098,7 @@ public class ParallelEvaluatorTest {
    */
   @Test
   public void manyPathsToCycle() throws Exception {
-    graph = new InMemoryGraph();
+    graph = newGraph();
     SkyKey topKey = GraphTester.toSkyKey("top");
     SkyKey midKey = GraphTester.toSkyKey("mid");
     SkyKey cycleKey = GraphTester.toSkyKey("cycle");
@@ -1114,7 +1139,7 @@ public class ParallelEvaluatorTest {
 
   @Test
   public void manyUnprocessedValuesInCycle() throws Exception {
-    graph = new InMemoryGraph();
+    graph = newGraph();
     SkyKey lastSelfKey = GraphTester.toSkyKey("lastSelf");
     SkyKey firstSelfKey = GraphTester.toSkyKey("firstSelf");
     SkyKey midSelfKey = GraphTester.toSkyKey("midSelf");
@@ -1160,7 +1185,7 @@ public class ParallelEvaluatorTest {
 
   @Test
   public void errorValueStoredWithKeepGoing() throws Exception {
-    graph = new InMemoryGraph();
+    graph = newGraph();
     SkyKey errorKey = GraphTester.toSkyKey("my_error_value");
     tester.getOrCreate(errorKey).setHasError(true);
     EvaluationResult<StringValue> result = eval(true, ImmutableList.of(errorKey));
@@ -1180,7 +1205,7 @@ public class ParallelEvaluatorTest {
 
   @Test
   public void continueWithErrorDep() throws Exception {
-    graph = new InMemoryGraph();
+    graph = newGraph();
     SkyKey errorKey = GraphTester.toSkyKey("my_error_value");
     tester.getOrCreate(errorKey).setHasError(true);
     tester.set("after", new StringValue("after"));
@@ -1199,7 +1224,7 @@ public class ParallelEvaluatorTest {
 
   @Test
   public void breakWithErrorDep() throws Exception {
-    graph = new InMemoryGraph();
+    graph = newGraph();
     SkyKey errorKey = GraphTester.toSkyKey("my_error_value");
     tester.getOrCreate(errorKey).setHasError(true);
     tester.set("after", new StringValue("after"));
@@ -1218,7 +1243,7 @@ public class ParallelEvaluatorTest {
 
   @Test
   public void breakWithInterruptibleErrorDep() throws Exception {
-    graph = new InMemoryGraph();
+    graph = newGraph();
     SkyKey errorKey = GraphTester.toSkyKey("my_error_value");
     tester.getOrCreate(errorKey).setHasError(true);
     SkyKey parentKey = GraphTester.toSkyKey("parent");
@@ -1238,7 +1263,7 @@ public class ParallelEvaluatorTest {
 
   @Test
   public void transformErrorDep() throws Exception {
-    graph = new InMemoryGraph();
+    graph = newGraph();
     SkyKey errorKey = GraphTester.toSkyKey("my_error_value");
     tester.getOrCreate(errorKey).setHasError(true);
     SkyKey parentErrorKey = GraphTester.toSkyKey("parent");
@@ -1254,7 +1279,7 @@ public class ParallelEvaluatorTest {
 
   @Test
   public void transformErrorDepKeepGoing() throws Exception {
-    graph = new InMemoryGraph();
+    graph = newGraph();
     SkyKey errorKey = GraphTester.toSkyKey("my_error_value");
     tester.getOrCreate(errorKey).setHasError(true);
     SkyKey parentErrorKey = GraphTester.toSkyKey("parent");
@@ -1270,7 +1295,7 @@ public class ParallelEvaluatorTest {
 
   @Test
   public void transformErrorDepOneLevelDownKeepGoing() throws Exception {
-    graph = new InMemoryGraph();
+    graph = newGraph();
     SkyKey errorKey = GraphTester.toSkyKey("my_error_value");
     tester.getOrCreate(errorKey).setHasError(true);
     tester.set("after", new StringValue("after"));
@@ -1288,7 +1313,7 @@ public class ParallelEvaluatorTest {
 
   @Test
   public void transformErrorDepOneLevelDownNoKeepGoing() throws Exception {
-    graph = new InMemoryGraph();
+    graph = newGraph();
     SkyKey errorKey = GraphTester.toSkyKey("my_error_value");
     tester.getOrCreate(errorKey).setHasError(true);
     tester.set("after", new StringValue("after"));
@@ -1310,7 +1335,7 @@ public class ParallelEvaluatorTest {
    */
   @Test
   public void cycleWithMultipleUnfinishedChildren() throws Exception {
-    graph = new InMemoryGraph();
+    graph = newGraph();
     tester = new GraphTester();
     SkyKey cycleKey = GraphTester.toSkyKey("cycle");
     SkyKey midKey = GraphTester.toSkyKey("mid");
@@ -1511,7 +1536,7 @@ public class ParallelEvaluatorTest {
     ImmutableMap<SkyFunctionName, SkyFunction> skyFunctions = ImmutableMap.of(
         childType, new ChildFunction(),
         parentType, new ParentFunction());
-    ParallelEvaluator evaluator = makeEvaluator(new InMemoryGraph(),
+    ParallelEvaluator evaluator = makeEvaluator(newGraph(),
         skyFunctions, false);
 
     try {
@@ -1531,7 +1556,7 @@ public class ParallelEvaluatorTest {
   }
 
   private void unexpectedErrorDep(boolean keepGoing) throws Exception {
-    graph = new InMemoryGraph();
+    graph = newGraph();
     SkyKey errorKey = GraphTester.toSkyKey("my_error_value");
     final SomeOtherErrorException exception = new SomeOtherErrorException("error exception");
     tester.getOrCreate(errorKey).setBuilder(new SkyFunction() {
@@ -1570,7 +1595,7 @@ public class ParallelEvaluatorTest {
   }
 
   private void unexpectedErrorDepOneLevelDown(final boolean keepGoing) throws Exception {
-    graph = new InMemoryGraph();
+    graph = newGraph();
     SkyKey errorKey = GraphTester.toSkyKey("my_error_value");
     final SomeErrorException exception = new SomeErrorException("error exception");
     final SomeErrorException topException = new SomeErrorException("top exception");
@@ -1646,7 +1671,7 @@ public class ParallelEvaluatorTest {
    */
   private void sameDepInTwoGroups(final boolean sameFirst, final boolean twoCalls,
       final boolean valuesOrThrow) throws Exception {
-    graph = new InMemoryGraph();
+    graph = newGraph();
     SkyKey topKey = GraphTester.toSkyKey("top");
     final List<SkyKey> leaves = new ArrayList<>();
     for (int i = 1; i <= 3; i++) {
@@ -1732,7 +1757,7 @@ public class ParallelEvaluatorTest {
   }
 
   private void getValuesOrThrowWithErrors(boolean keepGoing) throws Exception {
-    graph = new InMemoryGraph();
+    graph = newGraph();
     SkyKey parentKey = GraphTester.toSkyKey("parent");
     final SkyKey errorDep = GraphTester.toSkyKey("errorChild");
     final SomeErrorException childExn = new SomeErrorException("child error");
@@ -1794,7 +1819,7 @@ public class ParallelEvaluatorTest {
 
   @Test
   public void duplicateCycles() throws Exception {
-    graph = new InMemoryGraph();
+    graph = newGraph();
     SkyKey grandparentKey = GraphTester.toSkyKey("grandparent");
     SkyKey parentKey1 = GraphTester.toSkyKey("parent1");
     SkyKey parentKey2 = GraphTester.toSkyKey("parent2");
@@ -1890,9 +1915,89 @@ public class ParallelEvaluatorTest {
         .containsExactlyElementsIn(Arrays.asList(GraphTester.toSkyKeys("top1")));
   }
 
+  @Test
+  public void skyFunctionCallsAreReported() throws Exception {
+    graph = newGraph();
+    final SkyFunctionMetrics metrics = new SkyFunctionMetrics();
+    revalidationReceiver = new SkyFunctionProgressReceiver() {
+      @Override
+      public void invalidated(SkyValue value, InvalidationState state) {}
+
+      @Override
+      public void enqueueing(SkyKey skyKey) {}
+
+      @Override
+      public void evaluated(SkyKey skyKey, SkyValue value, EvaluationState state) {}
+
+      @Override
+      public void computed(SkyKey skyKey, long wallTimeNanos, long cpuTimeNanos,
+          int depsRequested, boolean restarted) {
+        assertThat(wallTimeNanos).isAtLeast(0L);
+        assertThat(cpuTimeNanos).isAtLeast(0L);
+        metrics.record(skyKey, wallTimeNanos, cpuTimeNanos, depsRequested, restarted);
+      }
+    };
+    tester.getOrCreate("top").setComputedValue(CONCATENATE)
+        .addDependency("d1").addDependency("d2");
+    tester.set("d1", new StringValue("1"));
+    tester.set("d2", new StringValue("2"));
+
+    assertEquals("12", ((StringValue) eval(/*keepGoing=*/false, GraphTester.toSkyKey("top")))
+        .getValue());
+    // The top node is called once before and once after its deps are done.
+    SkyFunctionMetrics.Totals totals = metrics.snapshot().get(GraphTester.NODE_TYPE);
+    assertEquals(4, totals.getEvaluations());
+    assertEquals(1, totals.getRestarts());
+    assertEquals(2, totals.getDepsRequested());
+
+    // Done nodes are not recomputed.
+    eval(/*keepGoing=*/false, GraphTester.toSkyKey("top"));
+    assertEquals(4, metrics.snapshot().get(GraphTester.NODE_TYPE).getEvaluations());
+  }
+
+  private static class CountingState implements SkyFunction.ComputeState {
+    private int calls;
+  }
+
+  @Test
+  public void computeStateIsKeptAcrossRestarts() throws Exception {
+    graph = newGraph();
+    SkyKey parentKey = GraphTester.toSkyKey("parent");
+    final SkyKey childKey = GraphTester.toSkyKey("child");
+    tester.set(childKey, new StringValue("child"));
+    final List<CountingState> states = new ArrayList<>();
+    tester.getOrCreate(parentKey).setBuilder(new SkyFunction() {
+      @Override
+      public SkyValue compute(SkyKey skyKey, Environment env) {
+        CountingState state = env.getState(new Supplier<CountingState>() {
+          @Override
+          public CountingState get() {
+            return new CountingState();
+          }
+        });
+        state.calls++;
+        states.add(state);
+        StringValue childValue = (StringValue) env.getValue(childKey);
+        if (childValue == null) {
+          return null;
+        }
+        return new StringValue(childValue.getValue() + state.calls);
+      }
+
+      @Override
+      public String extractTag(SkyKey skyKey) {
+        return null;
+      }
+    });
+
+    assertEquals("child2", ((StringValue) eval(/*keepGoing=*/false, parentKey)).getValue());
+    assertThat(states).hasSize(2);
+    assertSame(states.get(0), states.get(1));
+  }
+
   public void runDepOnErrorHaltsNoKeepGoingBuildEagerly(boolean childErrorCached,
       final boolean handleChildError) throws Exception {
-    graph = new InMemoryGraph();
+    graph = newGraph();
     SkyKey parentKey = GraphTester.toSkyKey("parent");
     final SkyKey childKey = GraphTester.toSkyKey("child");
     tester.getOrCreate(childKey).setHasError(/*hasError=*/true);
@@ -0,0 +1,58 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.skyframe;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.build.lib.events.EventCollector;
+import com.google.devtools.build.lib.events.EventKind;
+import com.google.devtools.build.lib.events.Reporter;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Runs {@link ParallelEvaluatorTest} with evaluators that order nodes by an arbitrary priority,
+ * which must not change the results of any evaluation.
+ */
+@RunWith(JUnit4.class)
+public class PrioritizedParallelEvaluatorTest extends ParallelEvaluatorTest {
+  @Override
+  protected EvaluationPriority getEvaluationPriority() {
+    return new EvaluationPriority() {
+      @Override
+      public int getPriority(SkyKey key) {
+        return key.hashCode();
+      }
+    };
+  }
+
+  @Test
+  public void prioritizedForkJoinEvaluatorIsRejected() {
+    try {
+      new ParallelEvaluator(newGraph(true), graphVersion,
+          ImmutableMap.<SkyFunctionName, SkyFunction>of(),
+          new Reporter(new EventCollector(EventKind.ALL_EVENTS)),
+          new MemoizingEvaluator.EmittedEventState(), /*keepGoing=*/false, 10,
+          /*progressReceiver=*/null, new DirtyKeyTrackerImpl(), /*useForkJoinPool=*/true,
+          getEvaluationPriority());
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertThat(e.getMessage()).contains("fork-join pool");
+    }
+  }
+}